@@ -19,11 +19,15 @@ package com.appdynamics.iotapps;
 import com.appdynamics.iot.AgentConfiguration;
 import com.appdynamics.iot.DeviceInfo;
 import com.appdynamics.iot.Instrumentation;
+import com.appdynamics.iot.UploadResult;
 import com.appdynamics.iot.VersionInfo;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 public class MyIoTSampleApp {
 
@@ -80,6 +84,12 @@ public class MyIoTSampleApp {
                 .withAppKey(APP_KEY)
                 .withCollectorUrl(COLLECTOR_URL)
                 .withAppKeyEnabledStatusChangeListener(listener)
+                // Also upload in the background, in case the app does not call sendAllEvents for a while
+                .withFlushInterval(5, TimeUnit.MINUTES)
+                .withFlushOnFatalError(true)
+                .withPersistentConnection(true)
+                .withPreconnect(true)
+                .withStreamingUpload(4096)
                 .build();
 
         DeviceInfo.Builder deviceInfoBuilder = DeviceInfo.builder("Smart Shelf", UUID.randomUUID().toString());
@@ -140,8 +150,18 @@ public class MyIoTSampleApp {
     }
 
     public static void sendEventNonBlocking() {
-        Thread t = new Thread(new NonBlockingSender());
-        t.start();
+        Futures.addCallback(Instrumentation.sendAllEventsAsync(), new FutureCallback<UploadResult>() {
+            @Override
+            public void onSuccess(UploadResult result) {
+                LOGGER.info("Events sent. {}", result);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                LOGGER.info("Events could not be sent. {}", t.toString());
+            }
+        });
+        LOGGER.info("Events send initiated. Non Blocking");
     }
 
     public static void sendEventBlocking() {
@@ -149,12 +169,4 @@ public class MyIoTSampleApp {
         Instrumentation.sendAllEvents();
         LOGGER.info("...done ");
     }
-
-    private static class NonBlockingSender implements Runnable {
-        @Override
-        public void run() {
-            Instrumentation.sendAllEvents();
-            LOGGER.info("Events send initiated. Non Blocking");
-        }
-    }
 }
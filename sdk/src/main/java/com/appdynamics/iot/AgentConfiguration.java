@@ -18,6 +18,10 @@ package com.appdynamics.iot;
 
 import com.appdynamics.iot.utils.Constants;
 
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
 /**
  * <p>The Agent Configuration for the instrumentation runtime to use.</p>
  * <p>The Agent must have the following configured as part of the initialization.</p>
@@ -40,18 +44,93 @@ public class AgentConfiguration {
     private final CollectorChannelFactory collectorChannelFactory;
     private final AppKeyEnabledStateChangeListener listener;
     private final String appkeyEnabledCheckUrl;
+    private final int ringBufferCapacity;
+    private final long flushIntervalMillis;
+    private final int flushEventCountThreshold;
+    private final long flushByteSizeThreshold;
+    private final boolean flushOnFatalError;
+    private final boolean persistentConnection;
+    private final boolean preconnect;
+    private final int streamingChunkLength;
+    private final boolean encodeOnIngest;
+    private final long bufferByteBudget;
+    private final int beaconTargetSize;
+    private final File spoolDirectory;
+    private final long spoolMaxBytes;
+    private final long retryBaseDelayMillis;
+    private final long retryMaxDelayMillis;
+    private final double retryJitter;
+    private final double uploadRequestsPerSecond;
+    private final long uploadBytesPerSecond;
+    private final Compression compression;
+    private final int compressionLevel;
+    private final boolean binaryEncoding;
+    private final boolean columnarEncoding;
+    private final boolean beaconMerging;
+    private final int eventPoolSize;
+    private final boolean eventPoolLeakDetection;
 
     AgentConfiguration(String key,
                        String collectorUrl,
                        CollectorChannelFactory collectorChannelFactory,
                        AppKeyEnabledStateChangeListener listener,
-                       int eventQueueSize) {
+                       int eventQueueSize,
+                       int ringBufferCapacity,
+                       long flushIntervalMillis,
+                       int flushEventCountThreshold,
+                       long flushByteSizeThreshold,
+                       boolean flushOnFatalError,
+                       boolean persistentConnection,
+                       boolean preconnect,
+                       int streamingChunkLength,
+                       boolean encodeOnIngest,
+                       long bufferByteBudget,
+                       int beaconTargetSize,
+                       File spoolDirectory,
+                       long spoolMaxBytes,
+                       long retryBaseDelayMillis,
+                       long retryMaxDelayMillis,
+                       double retryJitter,
+                       double uploadRequestsPerSecond,
+                       long uploadBytesPerSecond,
+                       Compression compression,
+                       int compressionLevel,
+                       boolean binaryEncoding,
+                       boolean columnarEncoding,
+                       boolean beaconMerging,
+                       int eventPoolSize,
+                       boolean eventPoolLeakDetection) {
         this.appKey = key;
         this.collectorUrl = collectorUrl;
         this.collectorChannelFactory = collectorChannelFactory;
         this.eventQueueSize = eventQueueSize;
         this.appkeyEnabledCheckUrl = collectorUrl + COLLECTOR_URL_PREFIX_APPKEY + appKey + COLLECTOR_URL_SUFFIX_ENABLED;
         this.listener = listener;
+        this.ringBufferCapacity = ringBufferCapacity;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.flushEventCountThreshold = flushEventCountThreshold;
+        this.flushByteSizeThreshold = flushByteSizeThreshold;
+        this.flushOnFatalError = flushOnFatalError;
+        this.persistentConnection = persistentConnection;
+        this.preconnect = preconnect;
+        this.streamingChunkLength = streamingChunkLength;
+        this.encodeOnIngest = encodeOnIngest;
+        this.bufferByteBudget = bufferByteBudget;
+        this.beaconTargetSize = beaconTargetSize;
+        this.spoolDirectory = spoolDirectory;
+        this.spoolMaxBytes = spoolMaxBytes;
+        this.retryBaseDelayMillis = retryBaseDelayMillis;
+        this.retryMaxDelayMillis = retryMaxDelayMillis;
+        this.retryJitter = retryJitter;
+        this.uploadRequestsPerSecond = uploadRequestsPerSecond;
+        this.uploadBytesPerSecond = uploadBytesPerSecond;
+        this.compression = compression;
+        this.compressionLevel = compressionLevel;
+        this.binaryEncoding = binaryEncoding;
+        this.columnarEncoding = columnarEncoding;
+        this.beaconMerging = beaconMerging;
+        this.eventPoolSize = eventPoolSize;
+        this.eventPoolLeakDetection = eventPoolLeakDetection;
     }
 
     /**
@@ -81,6 +160,185 @@ public class AgentConfiguration {
         return this.appkeyEnabledCheckUrl;
     }
 
+    /**
+     * @return capacity of the ingestion ring buffer, or 0 if events are dispatched synchronously
+     */
+    public int getRingBufferCapacity() {
+        return this.ringBufferCapacity;
+    }
+
+    /**
+     * @return interval between background flushes in milliseconds, or 0 if there is no periodic flush
+     */
+    public long getFlushIntervalMillis() {
+        return this.flushIntervalMillis;
+    }
+
+    /**
+     * @return number of buffered events that triggers a background flush, or 0 if disabled
+     */
+    public int getFlushEventCountThreshold() {
+        return this.flushEventCountThreshold;
+    }
+
+    /**
+     * @return estimated number of buffered bytes that triggers a background flush, or 0 if disabled
+     */
+    public long getFlushByteSizeThreshold() {
+        return this.flushByteSizeThreshold;
+    }
+
+    /**
+     * @return true if a FATAL error event triggers a background flush
+     */
+    public boolean isFlushOnFatalError() {
+        return this.flushOnFatalError;
+    }
+
+    /**
+     * @return true if the default collector channel reuses connections and TLS sessions across uploads
+     */
+    public boolean isPersistentConnection() {
+        return this.persistentConnection;
+    }
+
+    /**
+     * @return true if a connection to the collector is opened in the background when instrumentation starts
+     */
+    public boolean isPreconnect() {
+        return this.preconnect;
+    }
+
+    /**
+     * @return chunk length used to stream uploads to the collector, or 0 if uploads are buffered
+     */
+    public int getStreamingChunkLength() {
+        return this.streamingChunkLength;
+    }
+
+    /**
+     * @return true if events are encoded to JSON when they are added, instead of when they are sent
+     */
+    public boolean isEncodeOnIngest() {
+        return this.encodeOnIngest;
+    }
+
+    /**
+     * @return estimated number of bytes of events held in memory, or 0 if the buffer is bounded by
+     * the number of beacons
+     */
+    public long getBufferByteBudget() {
+        return this.bufferByteBudget;
+    }
+
+    /**
+     * @return estimated payload size at which a beacon is sealed, or 0 if beacons are only sealed
+     * when one of their event types is full
+     */
+    public int getBeaconTargetSize() {
+        return this.beaconTargetSize;
+    }
+
+    /**
+     * @return directory beacons are spooled to before they are uploaded, or null if they are only
+     * held in memory
+     */
+    public File getSpoolDirectory() {
+        return this.spoolDirectory;
+    }
+
+    /**
+     * @return maximum number of bytes the beacon spool takes on disk
+     */
+    public long getSpoolMaxBytes() {
+        return this.spoolMaxBytes;
+    }
+
+    /**
+     * @return delay before the first retry of a failed upload in milliseconds, or 0 if failed
+     * uploads are only retried with the next flush
+     */
+    public long getRetryBaseDelayMillis() {
+        return this.retryBaseDelayMillis;
+    }
+
+    /**
+     * @return maximum delay before a failed upload is retried in milliseconds
+     */
+    public long getRetryMaxDelayMillis() {
+        return this.retryMaxDelayMillis;
+    }
+
+    /**
+     * @return fraction of the retry delay that is randomized, between 0 and 1
+     */
+    public double getRetryJitter() {
+        return this.retryJitter;
+    }
+
+    /**
+     * @return maximum sustained number of upload requests per second, or 0 if uploads are not paced
+     */
+    public double getUploadRequestsPerSecond() {
+        return this.uploadRequestsPerSecond;
+    }
+
+    /**
+     * @return maximum sustained number of compressed bytes uploaded per second, or 0 if there is no limit
+     */
+    public long getUploadBytesPerSecond() {
+        return this.uploadBytesPerSecond;
+    }
+
+    /**
+     * @return compression of the request body
+     */
+    public Compression getCompression() {
+        return this.compression;
+    }
+
+    /**
+     * @return deflate level from 1 to 9, or -1 for the default level of the platform
+     */
+    public int getCompressionLevel() {
+        return this.compressionLevel;
+    }
+
+    /**
+     * @return true if beacons are uploaded in the binary beacon format instead of JSON
+     */
+    public boolean isBinaryEncoding() {
+        return this.binaryEncoding;
+    }
+
+    /**
+     * @return true if the events of each beacon are uploaded column by column
+     */
+    public boolean isColumnarEncoding() {
+        return this.columnarEncoding;
+    }
+
+    /**
+     * @return true if adjacent beacons of the same device are merged into one when they are uploaded
+     */
+    public boolean isBeaconMerging() {
+        return this.beaconMerging;
+    }
+
+    /**
+     * @return maximum number of idle events kept per event type, or 0 if events are not pooled
+     */
+    public int getEventPoolSize() {
+        return this.eventPoolSize;
+    }
+
+    /**
+     * @return true if pooled events that are never returned to their pool are logged
+     */
+    public boolean isEventPoolLeakDetection() {
+        return this.eventPoolLeakDetection;
+    }
+
     public static final class Builder {
 
         private String appKey;
@@ -88,7 +346,31 @@ public class AgentConfiguration {
         private CollectorChannelFactory collectorChannelFactory;
         private AppKeyEnabledStateChangeListener listener;
         private int eventQueueSize = Constants.CONFIG_MAX_EVENTS;
-
+        private int ringBufferCapacity = 0;
+        private long flushIntervalMillis = 0;
+        private int flushEventCountThreshold = 0;
+        private long flushByteSizeThreshold = 0;
+        private boolean flushOnFatalError = false;
+        private boolean persistentConnection = false;
+        private boolean preconnect = false;
+        private int streamingChunkLength = 0;
+        private boolean encodeOnIngest = false;
+        private long bufferByteBudget = 0;
+        private int beaconTargetSize = 0;
+        private File spoolDirectory;
+        private long spoolMaxBytes = Constants.SPOOL_MAX_BYTES_DEFAULT;
+        private long retryBaseDelayMillis = 0;
+        private long retryMaxDelayMillis = 0;
+        private double retryJitter = Constants.RETRY_JITTER_DEFAULT;
+        private double uploadRequestsPerSecond = 0;
+        private long uploadBytesPerSecond = 0;
+        private Compression compression = Compression.GZIP;
+        private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+        private boolean binaryEncoding = false;
+        private boolean columnarEncoding = false;
+        private boolean beaconMerging = false;
+        private int eventPoolSize = 0;
+        private boolean eventPoolLeakDetection = false;
 
         private Builder() {
 
@@ -144,13 +426,373 @@ public class AgentConfiguration {
             return this;
         }
 
+        /**
+         * Enables the high-throughput ingestion mode.
+         *
+         * Events added through {@link Instrumentation} are placed on a preallocated lock-free
+         * ring buffer and moved into the beacon buffer by a dedicated background thread, instead
+         * of being dispatched synchronously on the calling thread.
+         * If the ring is full, new events are dropped.
+         *
+         * @param capacity number of events the ring can hold. It is rounded up to a power of two.
+         *                 A value less than 1 disables the ring buffer, which is the default.
+         * @return the current agentConfiguration object
+         */
+        public Builder withRingBufferIngestion(int capacity) {
+            this.ringBufferCapacity = capacity > 0 ? capacity : 0;
+            return this;
+        }
+
+        /**
+         * Uploads all buffered events in the background at a fixed interval.
+         *
+         * By default the SDK only uploads when {@link Instrumentation#sendAllEvents()} is called.
+         * Background flushes are coalesced with the other flush triggers so that there is never
+         * more than one upload in flight. The first flush comes at a random point of the interval,
+         * so that a fleet of devices started together does not flush in lockstep.
+         *
+         * @param interval time between the end of one flush and the start of the next.
+         *                 A value less than 1 disables the periodic flush.
+         * @param unit     time unit of the interval
+         * @return the current agentConfiguration object
+         */
+        public Builder withFlushInterval(long interval, TimeUnit unit) {
+            this.flushIntervalMillis = interval > 0 ? unit.toMillis(interval) : 0;
+            return this;
+        }
+
+        /**
+         * Uploads all buffered events in the background once this many events have been added
+         * since the last upload.
+         *
+         * @param count number of events. A value less than 1 disables this trigger.
+         * @return the current agentConfiguration object
+         */
+        public Builder withFlushEventCountThreshold(int count) {
+            this.flushEventCountThreshold = count > 0 ? count : 0;
+            return this;
+        }
+
+        /**
+         * Uploads all buffered events in the background once the estimated serialized size of the
+         * events added since the last upload reaches this many bytes.
+         *
+         * @param bytes uncompressed payload size. A value less than 1 disables this trigger.
+         * @return the current agentConfiguration object
+         */
+        public Builder withFlushByteSizeThreshold(long bytes) {
+            this.flushByteSizeThreshold = bytes > 0 ? bytes : 0;
+            return this;
+        }
+
+        /**
+         * @param flushOnFatalError if true, adding an {@link com.appdynamics.iot.events.ErrorEvent}
+         *                          with severity {@link Instrumentation.Severity#FATAL} uploads all
+         *                          buffered events in the background right away
+         * @return the current agentConfiguration object
+         */
+        public Builder withFlushOnFatalError(boolean flushOnFatalError) {
+            this.flushOnFatalError = flushOnFatalError;
+            return this;
+        }
+
+        /**
+         * Keeps the connection to the collector alive between uploads.
+         *
+         * The default collector channel then uses a TLS socket factory owned by the SDK, so that
+         * pooled connections can be picked up again and TLS sessions are resumed instead of paying
+         * for a full handshake on every flush. Whether the TCP connection itself survives until the
+         * next flush depends on the keep-alive timeout of the collector.
+         * Has no effect when a custom {@link CollectorChannelFactory} is supplied.
+         *
+         * @param persistentConnection true to reuse connections across uploads
+         * @return the current agentConfiguration object
+         */
+        public Builder withPersistentConnection(boolean persistentConnection) {
+            this.persistentConnection = persistentConnection;
+            return this;
+        }
+
+        /**
+         * @param preconnect if true, {@link Instrumentation#start} connects to the collector in the
+         *                   background, so that the connection and TLS session are in place before
+         *                   the first upload
+         * @return the current agentConfiguration object
+         */
+        public Builder withPreconnect(boolean preconnect) {
+            this.preconnect = preconnect;
+            return this;
+        }
+
+        /**
+         * Streams uploads to the collector.
+         *
+         * Beacons are then serialized, compressed and written to the connection as they are
+         * encoded, in chunks of the given length, so the memory used by an upload no longer grows
+         * with the number of buffered beacons. By default the whole compressed payload is held in
+         * memory before it is sent.
+         *
+         * @param chunkLength number of bytes sent per chunk. A value less than 1 disables streaming.
+         * @return the current agentConfiguration object
+         * @see CollectorChannel#setChunkedStreamingMode(int)
+         */
+        public Builder withStreamingUpload(int chunkLength) {
+            this.streamingChunkLength = chunkLength > 0 ? chunkLength : 0;
+            return this;
+        }
+
+        /**
+         * Encodes each event to its JSON representation as soon as it is added.
+         *
+         * Only the encoded bytes are buffered until the next upload, and the event object can be
+         * garbage collected right away. This takes considerably less memory per buffered event and
+         * leaves less work for the upload itself. An event that cannot be encoded, for example one
+         * with a non-finite double property, is dropped on its own instead of failing the upload.
+         *
+         * Ignored with {@link #withBinaryEncoding(boolean)}, which would have to parse the buffered
+         * JSON again on every upload; events are then buffered as they are.
+         *
+         * @param encodeOnIngest true to encode events when they are added
+         * @return the current agentConfiguration object
+         */
+        public Builder withEncodeOnIngest(boolean encodeOnIngest) {
+            this.encodeOnIngest = encodeOnIngest;
+            return this;
+        }
+
+        /**
+         * Bounds the events held in memory by their size instead of their number.
+         *
+         * The serialized size of each event is estimated when it is added, or known exactly with
+         * {@link #withEncodeOnIngest(boolean)}. Beacons are sealed once they reach the target size
+         * set with {@link #withBeaconTargetSize(int)}, and when the budget is exceeded the oldest
+         * beacons are dropped until it fits again. By default at most
+         * {@link Constants#BEACONS_IN_MEMORY_MAX} beacons are held, whatever the size of their events.
+         *
+         * The compressed payloads of failed uploads, kept to be resent as they are, are bounded by
+         * the same budget on top of the buffered events, so up to twice the budget can be held.
+         * A payload that does not fit is not kept, and its beacons go back into the buffer instead.
+         *
+         * @param bytes uncompressed payload size of all buffered events. A value less than 1 disables the budget.
+         * @return the current agentConfiguration object
+         */
+        public Builder withBufferByteBudget(long bytes) {
+            this.bufferByteBudget = bytes > 0 ? bytes : 0;
+            return this;
+        }
+
+        /**
+         * @param bytes uncompressed payload size at which a beacon is sealed and a new one started.
+         *              Only used with {@link #withBufferByteBudget(long)}, and capped at the budget.
+         *              A value less than 1 selects {@link Constants#BEACON_TARGET_SIZE_DEFAULT}.
+         * @return the current agentConfiguration object
+         */
+        public Builder withBeaconTargetSize(int bytes) {
+            this.beaconTargetSize = bytes > 0 ? bytes : 0;
+            return this;
+        }
+
+        /**
+         * Spools beacons to disk, so that they survive the collector being unreachable for a long
+         * time as well as a restart of the process.
+         *
+         * Every upload first appends the buffered beacons to memory-mapped, checksummed segment
+         * files in this directory, and then sends the segments oldest first. A segment is deleted
+         * once the collector has accepted it. Beacons left behind by a previous process are
+         * recovered by {@link Instrumentation#start} and sent with the next upload.
+         * The directory should be used by this SDK only.
+         *
+         * @param directory spool directory, created if it does not exist. Null disables the spool.
+         * @return the current agentConfiguration object
+         */
+        public Builder withSpoolDirectory(File directory) {
+            this.spoolDirectory = directory;
+            return this;
+        }
+
+        /**
+         * @param bytes maximum size of the spool on disk. The oldest beacons are dropped to stay
+         *              within it. A value less than 1 selects {@link Constants#SPOOL_MAX_BYTES_DEFAULT}.
+         * @return the current agentConfiguration object
+         */
+        public Builder withSpoolMaxBytes(long bytes) {
+            this.spoolMaxBytes = bytes > 0 ? bytes : Constants.SPOOL_MAX_BYTES_DEFAULT;
+            return this;
+        }
+
+        /**
+         * Retries failed uploads in the background with exponential backoff.
+         *
+         * After an upload fails with an I/O error, a timeout, a 429 or a 5xx response, it is retried
+         * after the base delay, and the delay doubles with every further failure up to the maximum.
+         * A {@code Retry-After} sent by the collector is honored. After
+         * {@link Constants#CIRCUIT_BREAKER_FAILURE_THRESHOLD} consecutive failures, or on a
+         * {@code Retry-After}, uploads are paused until the delay has passed, and flushes requested
+         * in the meantime return without contacting the collector. Buffered events are kept.
+         * With backoff enabled, a 429 response no longer disables the SDK.
+         * By default failed uploads are retried with the next flush.
+         *
+         * @param baseDelay delay before the first retry. A value less than 1 disables the backoff.
+         * @param maxDelay  maximum delay between retries. A value less than the base delay selects the base delay.
+         * @param unit      time unit of the delays
+         * @return the current agentConfiguration object
+         */
+        public Builder withRetryBackoff(long baseDelay, long maxDelay, TimeUnit unit) {
+            this.retryBaseDelayMillis = baseDelay > 0 ? unit.toMillis(baseDelay) : 0;
+            this.retryMaxDelayMillis = Math.max(this.retryBaseDelayMillis, unit.toMillis(Math.max(maxDelay, 0)));
+            return this;
+        }
+
+        /**
+         * @param jitter fraction of each retry delay that is randomized, so that devices that failed
+         *               together do not retry together. Clamped between 0 and 1. Defaults to
+         *               {@value Constants#RETRY_JITTER_DEFAULT}.
+         * @return the current agentConfiguration object
+         */
+        public Builder withRetryJitter(double jitter) {
+            this.retryJitter = jitter > 0 ? Math.min(jitter, 1) : 0;
+            return this;
+        }
+
+        /**
+         * Paces uploads to the collector.
+         *
+         * Requests and compressed bytes are metered by a token bucket. A flush that comes too soon
+         * is put off until the bucket allows it, and the events stay buffered in the meantime.
+         * The rate is halved whenever the collector answers 429 or 503, and recovers gradually as
+         * it accepts uploads again; a 429 then no longer disables the SDK.
+         *
+         * @param requestsPerSecond maximum sustained request rate, e.g. {@code 1.0 / 60} for one
+         *                          upload a minute. A value that is not positive disables pacing.
+         * @param bytesPerSecond    maximum sustained number of compressed bytes sent per second.
+         *                          A value less than 1 only limits the requests.
+         * @return the current agentConfiguration object
+         */
+        public Builder withUploadRateLimit(double requestsPerSecond, long bytesPerSecond) {
+            this.uploadRequestsPerSecond = requestsPerSecond > 0 && !Double.isInfinite(requestsPerSecond) ? requestsPerSecond : 0;
+            this.uploadBytesPerSecond = bytesPerSecond > 0 ? bytesPerSecond : 0;
+            return this;
+        }
+
+        /**
+         * Selects how request bodies are compressed.
+         *
+         * By default they are gzipped at the default level of the platform. A low level such as
+         * {@link Deflater#BEST_SPEED} takes considerably less CPU time for a somewhat larger body,
+         * which suits slow devices on fast links; {@link Compression#IDENTITY} skips compression
+         * altogether, e.g. for a collector on the local network.
+         *
+         * @param compression compression of the request body. Null selects {@link Compression#GZIP}.
+         * @param level       deflate level, from {@link Deflater#BEST_SPEED} (1) to
+         *                    {@link Deflater#BEST_COMPRESSION} (9). Any other value selects
+         *                    the default level. Ignored for {@link Compression#IDENTITY}.
+         * @return the current agentConfiguration object
+         */
+        public Builder withCompression(Compression compression, int level) {
+            this.compression = compression != null ? compression : Compression.GZIP;
+            this.compressionLevel = level >= Deflater.BEST_SPEED && level <= Deflater.BEST_COMPRESSION
+                    ? level : Deflater.DEFAULT_COMPRESSION;
+            return this;
+        }
+
+        /**
+         * Uploads beacons in the compact binary beacon format instead of JSON, for narrowband links.
+         *
+         * The format holds exactly the same data: integers such as timestamps are written as
+         * varints, doubles as 8 bytes, and every string, including member names, is written once
+         * per upload and referenced by its index afterwards. Requests are sent with Content-Type
+         * {@value Constants#BINARY_CONTENT_TYPE}, and can be turned back into the JSON payload with
+         * {@link com.appdynamics.iot.utils.BinaryByteReader}. Only for a collector, or a proxy in
+         * front of it, that accepts the format. It can be combined with any {@link Compression}, and
+         * saves the most on large payloads or with {@link Compression#IDENTITY}. A payload of a few
+         * events is smaller as JSON with {@link Compression#DEFLATE_DICTIONARY}, whose dictionary is JSON.
+         *
+         * Events are not encoded on ingest in this format, see {@link #withEncodeOnIngest(boolean)}.
+         * Beacons spooled to disk are kept as JSON, and are parsed and written in the binary
+         * format when they are uploaded.
+         *
+         * @param binaryEncoding true to upload the binary format
+         * @return the current agentConfiguration object
+         */
+        public Builder withBinaryEncoding(boolean binaryEncoding) {
+            this.binaryEncoding = binaryEncoding;
+            return this;
+        }
+
+        /**
+         * Uploads the events of each beacon column by column instead of one object per event.
+         *
+         * Timestamps are sent as deltas, values that are the same for all events of a type are sent
+         * once, and the string values of each property as a dictionary. This pays off for batches of
+         * many similar events, such as periodic sensor readings. The payload is built in memory from
+         * the row payload before it is sent, and can be turned back into it with
+         * {@link com.appdynamics.iot.utils.ColumnarTranscoder}. Requests are sent with Content-Type
+         * {@value Constants#COLUMNAR_CONTENT_TYPE}, or {@value Constants#BINARY_COLUMNAR_CONTENT_TYPE}
+         * with the binary encoding. Only for a collector, or a proxy in front of it, that accepts the
+         * layout. It can be combined with any {@link Compression}.
+         *
+         * @param columnarEncoding true to upload events column by column
+         * @return the current agentConfiguration object
+         */
+        public Builder withColumnarEncoding(boolean columnarEncoding) {
+            this.columnarEncoding = columnarEncoding;
+            return this;
+        }
+
+        /**
+         * Merges adjacent beacons of the same device and version into one beacon when they are
+         * uploaded, so that an upload of many beacons carries the device and version information
+         * once instead of once per beacon.
+         *
+         * A merged beacon stays within the limits of the collector for the events of one beacon, so
+         * a run of full beacons is still uploaded as several beacons. Beacons that were spooled to
+         * disk are uploaded as they were spooled.
+         *
+         * @param beaconMerging true to merge beacons
+         * @return the current agentConfiguration object
+         */
+        public Builder withBeaconMerging(boolean beaconMerging) {
+            this.beaconMerging = beaconMerging;
+            return this;
+        }
+
+        /**
+         * Reuses {@link com.appdynamics.iot.events.CustomEvent} and
+         * {@link com.appdynamics.iot.events.NetworkRequestEvent} objects instead of leaving them to the
+         * garbage collector, for small heaps.
+         *
+         * The {@code build()} methods of their builders borrow an event from a pool per event type, and
+         * the event goes back to its pool once the beacon holding it has been encoded for upload. An
+         * event must therefore not be used after it was passed to
+         * {@link Instrumentation#addEvent(com.appdynamics.iot.events.Event)},
+         * and an event that is built but not added should be handed back with
+         * {@link com.appdynamics.iot.events.EventPool#recycle(com.appdynamics.iot.events.Event)}. Combined with
+         * {@link com.appdynamics.iot.events.CustomEvent.Builder#reset(String, String)}, emitting an event
+         * allocates nothing once the pool has warmed up.
+         *
+         * @param poolSize      maximum number of idle events kept per event type. Events beyond it are
+         *                      allocated when needed and left to the garbage collector when returned.
+         *                      A value less than 1 disables pooling, which is the default.
+         * @param leakDetection true to log every pooled event that is garbage collected without having
+         *                      been returned, with the stack trace of where it was borrowed. This captures
+         *                      a stack trace per event and is meant for debugging.
+         * @return the current agentConfiguration object
+         */
+        public Builder withEventPooling(int poolSize, boolean leakDetection) {
+            this.eventPoolSize = poolSize > 0 ? poolSize : 0;
+            this.eventPoolLeakDetection = poolSize > 0 && leakDetection;
+            return this;
+        }
+
         /**
          * @return an instance of the agentConfiguration to be used with the Instrumentation class
          * @see Instrumentation
          */
         public AgentConfiguration build() {
 
-            if (this.collectorChannelFactory == null) {
+            if (this.collectorChannelFactory == null && this.persistentConnection) {
+                this.collectorChannelFactory = new PersistentCollectorChannelFactory();
+            } else if (this.collectorChannelFactory == null) {
                 this.collectorChannelFactory = new CollectorChannelFactory() {
                     @Override
                     public CollectorChannel getCollectorChannel() {
@@ -163,11 +805,42 @@ public class AgentConfiguration {
                 this.collectorUrl = DEFAULT_COLLECTOR_URL;
             }
 
+            int targetSize = 0;
+            if (this.bufferByteBudget > 0) {
+                targetSize = this.beaconTargetSize > 0 ? this.beaconTargetSize : Constants.BEACON_TARGET_SIZE_DEFAULT;
+                targetSize = (int) Math.min(targetSize, this.bufferByteBudget);
+            }
+
             return new AgentConfiguration(appKey,
                     collectorUrl,
                     collectorChannelFactory,
                     listener,
-                    eventQueueSize);
+                    eventQueueSize,
+                    ringBufferCapacity,
+                    flushIntervalMillis,
+                    flushEventCountThreshold,
+                    flushByteSizeThreshold,
+                    flushOnFatalError,
+                    persistentConnection,
+                    preconnect,
+                    streamingChunkLength,
+                    encodeOnIngest,
+                    bufferByteBudget,
+                    targetSize,
+                    spoolDirectory,
+                    spoolMaxBytes,
+                    retryBaseDelayMillis,
+                    retryMaxDelayMillis,
+                    retryJitter,
+                    uploadRequestsPerSecond,
+                    uploadBytesPerSecond,
+                    compression,
+                    compressionLevel,
+                    binaryEncoding,
+                    columnarEncoding,
+                    beaconMerging,
+                    eventPoolSize,
+                    eventPoolLeakDetection);
         }
     }
 
@@ -179,6 +852,31 @@ public class AgentConfiguration {
                 ", Collection Channel Factory ='" + collectorChannelFactory + '\'' +
                 ", AppKey Enabled State Change Listener = " + listener + '\'' +
                 ", Event Queue Size ='" + eventQueueSize + '\'' +
+                ", Ring Buffer Capacity ='" + ringBufferCapacity + '\'' +
+                ", Flush Interval ='" + flushIntervalMillis + "ms'" +
+                ", Flush Event Count Threshold ='" + flushEventCountThreshold + '\'' +
+                ", Flush Byte Size Threshold ='" + flushByteSizeThreshold + '\'' +
+                ", Flush On Fatal Error ='" + flushOnFatalError + '\'' +
+                ", Persistent Connection ='" + persistentConnection + '\'' +
+                ", Preconnect ='" + preconnect + '\'' +
+                ", Streaming Chunk Length ='" + streamingChunkLength + '\'' +
+                ", Encode On Ingest ='" + encodeOnIngest + '\'' +
+                ", Buffer Byte Budget ='" + bufferByteBudget + '\'' +
+                ", Beacon Target Size ='" + beaconTargetSize + '\'' +
+                ", Spool Directory ='" + spoolDirectory + '\'' +
+                ", Spool Max Bytes ='" + spoolMaxBytes + '\'' +
+                ", Retry Base Delay ='" + retryBaseDelayMillis + "ms'" +
+                ", Retry Max Delay ='" + retryMaxDelayMillis + "ms'" +
+                ", Retry Jitter ='" + retryJitter + '\'' +
+                ", Upload Requests Per Second ='" + uploadRequestsPerSecond + '\'' +
+                ", Upload Bytes Per Second ='" + uploadBytesPerSecond + '\'' +
+                ", Compression ='" + compression + '\'' +
+                ", Compression Level ='" + compressionLevel + '\'' +
+                ", Binary Encoding ='" + binaryEncoding + '\'' +
+                ", Columnar Encoding ='" + columnarEncoding + '\'' +
+                ", Beacon Merging ='" + beaconMerging + '\'' +
+                ", Event Pool Size ='" + eventPoolSize + '\'' +
+                ", Event Pool Leak Detection ='" + eventPoolLeakDetection + '\'' +
                 '}';
     }
 }
@@ -19,10 +19,13 @@ package com.appdynamics.iot;
 import com.appdynamics.iot.events.CustomEvent;
 import com.appdynamics.iot.events.ErrorEvent;
 import com.appdynamics.iot.events.Event;
+import com.appdynamics.iot.events.EventPool;
 import com.appdynamics.iot.events.NetworkRequestEvent;
+import com.appdynamics.iot.utils.BinaryByteWriter;
+import com.appdynamics.iot.utils.ColumnarByteWriter;
 import com.appdynamics.iot.utils.Constants;
-import com.google.common.collect.EvictingQueue;
-import com.google.common.collect.Queues;
+import com.appdynamics.iot.utils.JsonByteWriter;
+import com.google.common.io.CountingOutputStream;
 import com.google.gson.stream.JsonWriter;
 
 import java.io.*;
@@ -30,121 +33,728 @@ import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.*;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.zip.GZIPOutputStream;
 
 import static com.appdynamics.iot.Instrumentation.LOGGER;
 
 class BeaconManager {
     static Beacon currentBeacon;
-    static Queue<Beacon> beaconBuffer;
+    // The active buffer. Detached as a whole when it is drained for an upload and replaced by a
+    // fresh one, so a drain takes constant time. Bounded by trimBuffer(), which never evicts the
+    // beacon that is still being filled.
+    static Deque<Beacon> beaconBuffer = new ArrayDeque<Beacon>();
 
-    static {
-        EvictingQueue<Beacon> buf = EvictingQueue.create(Constants.BEACONS_IN_MEMORY_MAX);
-        beaconBuffer = Queues.synchronizedQueue(buf);
-    }
+    // Guards currentBeacon and beaconBuffer. Only held for in-memory work so that
+    // application threads adding events never wait behind an upload.
+    private static final Object bufferLock = new Object();
+    // Serializes uploads. Network I/O happens while holding this lock only.
+    private static final Object sendLock = new Object();
+    // Encode the upload payload as JSON or in the binary format. Reused across uploads, only
+    // touched while holding sendLock.
+    private static final JsonByteWriter payloadWriter = new JsonByteWriter(Constants.PAYLOAD_BUFFER_SIZE);
+    private static final JsonByteWriter binaryPayloadWriter = new BinaryByteWriter(Constants.PAYLOAD_BUFFER_SIZE);
+    // Turns the row payload into the columnar one a beacon at a time, and is shrunk back after each
+    // upload. Only touched while holding sendLock.
+    private static final ColumnarByteWriter columnarPayloadWriter = new ColumnarByteWriter(Constants.PAYLOAD_BUFFER_SIZE);
+    // Compresses the upload payload. Reused across uploads, only touched while holding sendLock.
+    private static PayloadCompressor compressor;
+    // Encodes a single event on the thread that adds it, before the buffer lock is taken
+    private static final ThreadLocal<JsonByteWriter> eventWriter = new ThreadLocal<JsonByteWriter>() {
+        @Override
+        protected JsonByteWriter initialValue() {
+            return new JsonByteWriter(Constants.EVENT_ENCODE_BUFFER_SIZE);
+        }
+    };
+
+    // If set, events are encoded when they are added and only their JSON is buffered
+    static volatile boolean encodeOnIngest = false;
+    // If set, adjacent beacons of the same device are uploaded as one
+    static volatile boolean mergeBeacons = false;
+    // If set, the buffer is bounded by the estimated size of its events instead of the number of beacons
+    static volatile long bufferByteBudget = 0;
+    static volatile int beaconTargetSize = 0;
+    // Estimated payload size of all buffered beacons, kept with the budget. Guarded by bufferLock.
+    static long bufferedBytes = 0;
+    // Set if beacons are spooled to disk before they are uploaded. Only touched while holding sendLock.
+    static BeaconSpool spool;
+    // Failed uploads of the beacon buffer, oldest first. Only touched while holding sendLock.
+    static final Deque<RetryUpload> retryUploads = new ArrayDeque<RetryUpload>();
+    // Set if failed uploads are retried with backoff. Only touched while holding sendLock.
+    static UploadBackoff backoff;
+    // Set if uploads are paced. Only touched while holding sendLock.
+    static UploadPacer pacer;
 
     BeaconManager(DeviceInfo deviceInfo, VersionInfo versionInfo) {
-        currentBeacon = new Beacon(deviceInfo, versionInfo);
-        beaconBuffer.add(currentBeacon);
+        synchronized (bufferLock) {
+            currentBeacon = new Beacon(deviceInfo, versionInfo);
+            beaconBuffer.add(currentBeacon);
+            bufferedBytes = countBytes(beaconBuffer);
+        }
+    }
+
+    /**
+     * Applies the buffering options of the configuration. Called before the first event is added.
+     */
+    static void configure(AgentConfiguration config) {
+        EventPool.configure(config.getEventPoolSize(), config.isEventPoolLeakDetection());
+        // The binary writer would parse the buffered JSON again on every upload
+        encodeOnIngest = config.isEncodeOnIngest() && !config.isBinaryEncoding();
+        mergeBeacons = config.isBeaconMerging();
+        synchronized (sendLock) {
+            // Compressed with the previous encoding and compression
+            retryUploads.clear();
+            if (spool != null) {
+                spool.close();
+            }
+            spool = openSpool(config);
+            backoff = config.getRetryBaseDelayMillis() > 0
+                    ? new UploadBackoff(config.getRetryBaseDelayMillis(), config.getRetryMaxDelayMillis(), config.getRetryJitter())
+                    : null;
+            pacer = config.getUploadRequestsPerSecond() > 0
+                    ? new UploadPacer(config.getUploadRequestsPerSecond(), config.getUploadBytesPerSecond())
+                    : null;
+        }
+        synchronized (bufferLock) {
+            bufferByteBudget = config.getBufferByteBudget();
+            beaconTargetSize = config.getBeaconTargetSize();
+            bufferedBytes = countBytes(beaconBuffer);
+            trimBuffer();
+        }
     }
 
-    static synchronized void addEvent(Event event) {
-        addEvent(event, false);
+    private static BeaconSpool openSpool(AgentConfiguration config) {
+        File directory = config.getSpoolDirectory();
+        if (directory == null) {
+            return null;
+        }
+        try {
+            return BeaconSpool.open(directory, config.getSpoolMaxBytes());
+        } catch (IOException e) {
+            LOGGER.error("Unable to open the beacon spool. Beacons are only buffered in memory.", e);
+            return null;
+        }
+    }
+
+    static void addEvent(Event event) {
+        boolean budgeted = bufferByteBudget > 0;
+        FlushScheduler scheduler = Instrumentation.flushScheduler;
+        boolean flush = scheduler != null && scheduler.countEvent(event);
+        if (encodeOnIngest) {
+            Event.Type type = event.getType();
+            JsonByteWriter encoded = encode(event);
+            // Only the JSON is buffered, so the event is done with
+            EventPool.recycle(event);
+            if (encoded == null) {
+                return;
+            }
+            // The exact size, plus the comma separating it from the previous event
+            int size = budgeted ? encoded.size() + 1 : 0;
+            synchronized (bufferLock) {
+                if (budgeted) {
+                    sealIfFull(size);
+                }
+                addEncodedEvent(type, encoded, false);
+                addBytes(size);
+            }
+        } else {
+            int size = budgeted ? event.estimateSize() : 0;
+            synchronized (bufferLock) {
+                if (budgeted) {
+                    sealIfFull(size);
+                }
+                addEvent(event, false);
+                addBytes(size);
+            }
+        }
+        if (flush) {
+            scheduler.requestFlush();
+        }
     }
 
-    private static synchronized void addEvent(Event event, boolean isRetry) {
+    private static void addEvent(Event event, boolean isRetry) {
         if (!currentBeacon.offer(event)) {
             if (!isRetry) {
                 createNewBeacon(currentBeacon);
                 addEvent(event, true);
             } else {
                 LOGGER.error("Unable to add Event {}", event.toString());
+                EventPool.recycle(event);
             }
         }
     }
 
+    private static void addEncodedEvent(Event.Type type, JsonByteWriter encoded, boolean isRetry) {
+        if (!currentBeacon.offer(type, encoded)) {
+            if (!isRetry) {
+                createNewBeacon(currentBeacon);
+                addEncodedEvent(type, encoded, true);
+            } else {
+                LOGGER.error("Unable to add encoded Event of type {}", type);
+            }
+        }
+    }
+
+    /**
+     * @return the calling thread's writer holding the event's JSON, or null if it cannot be encoded
+     */
+    private static JsonByteWriter encode(Event event) {
+        JsonByteWriter writer = eventWriter.get();
+        writer.reset(null);
+        try {
+            event.toJson(writer);
+            return writer;
+        } catch (IOException e) {
+            LOGGER.error("Unable to encode Event {}", event.toString(), e);
+        } catch (IllegalArgumentException e) {
+            LOGGER.error("Unable to encode Event {}", event.toString(), e);
+        }
+        return null;
+    }
+
     private static void createNewBeacon(Beacon b) {
-        currentBeacon = new Beacon(b.deviceInfo, b.versionInfo);
+        currentBeacon = new Beacon(b.header);
         beaconBuffer.add(currentBeacon);
+        trimBuffer();
+    }
+
+    /**
+     * Starts a new beacon if an event of the given size would take the current one past the
+     * target payload size. A beacon always takes at least one event.
+     */
+    private static void sealIfFull(int size) {
+        int target = beaconTargetSize;
+        if (target > 0 && currentBeacon.bytes > 0 && currentBeacon.bytes + size > target) {
+            createNewBeacon(currentBeacon);
+        }
+    }
+
+    private static void addBytes(int size) {
+        if (size > 0) {
+            currentBeacon.bytes += size;
+            bufferedBytes += size;
+            trimBuffer();
+        }
+    }
+
+    /**
+     * Evicts the oldest beacons while the buffer holds more bytes than the budget or, without a
+     * budget, more than {@link Constants#BEACONS_IN_MEMORY_MAX} beacons. Callers hold the buffer lock.
+     */
+    private static void trimBuffer() {
+        long budget = bufferByteBudget;
+        Iterator<Beacon> iterator = beaconBuffer.iterator();
+        while ((budget > 0 ? bufferedBytes > budget : beaconBuffer.size() > Constants.BEACONS_IN_MEMORY_MAX)
+                && iterator.hasNext()) {
+            Beacon oldest = iterator.next();
+            if (oldest == currentBeacon) {
+                continue;
+            }
+            iterator.remove();
+            oldest.recycleEvents();
+            bufferedBytes -= oldest.bytes;
+            if (budget > 0) {
+                LOGGER.debug("Beacon buffer byte budget exceeded. Dropping a beacon of {} bytes", oldest.bytes);
+            }
+        }
+    }
+
+    private static long countBytes(Collection<Beacon> beacons) {
+        long bytes = 0;
+        for (Beacon b : beacons) {
+            bytes += b.bytes;
+        }
+        return bytes;
+    }
+
+    static UploadResult sendAllBeacons(AgentConfiguration agent) {
+        synchronized (sendLock) {
+            UploadBackoff b = backoff;
+            if (b != null) {
+                long pause = b.pauseMillis();
+                if (pause > 0) {
+                    LOGGER.debug("Uploads are paused for {}ms after failed uploads", pause);
+                    return new UploadResult(UploadResult.NO_RESPONSE, 0, 0);
+                }
+            }
+            UploadResult result = send(agent);
+            if (result == null) {
+                // Nothing to upload, or paced
+                return new UploadResult(UploadResult.NO_RESPONSE, 0, 0);
+            }
+            if (b != null) {
+                backOff(b, result);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Records the outcome of an upload, and schedules a retry if it failed.
+     */
+    private static void backOff(UploadBackoff b, UploadResult result) {
+        if (result.isSuccess()) {
+            b.onSuccess();
+        } else if (UploadBackoff.isRetryable(result.getResponseCode())) {
+            long delay = b.onFailure(result.retryAfterMillis);
+            LOGGER.info("Upload failed {} times in a row. Retrying in {}ms", b.getFailures(), delay);
+            FlushScheduler scheduler = Instrumentation.flushScheduler;
+            if (scheduler != null) {
+                scheduler.scheduleRetry(delay);
+            }
+        }
+    }
+
+    /**
+     * Checks the pacer before a request. If the request has to wait, a flush is scheduled for
+     * when it may be sent.
+     *
+     * @return true if the request may be sent now
+     */
+    private static boolean mayUpload() {
+        UploadPacer p = pacer;
+        if (p == null) {
+            return true;
+        }
+        long delay = p.delayMillis();
+        if (delay <= 0) {
+            return true;
+        }
+        LOGGER.debug("Upload rate limit reached. Flushing in {}ms", delay);
+        FlushScheduler scheduler = Instrumentation.flushScheduler;
+        if (scheduler != null) {
+            scheduler.scheduleRetry(delay);
+        }
+        return false;
+    }
+
+    /**
+     * Charges a request to the pacer, and adapts its rate to the response.
+     */
+    private static void pace(UploadPacer p, int responseCode, long bytesSent) {
+        p.onRequest(bytesSent);
+        if (responseCode == 429 || responseCode == HttpURLConnection.HTTP_UNAVAILABLE) {
+            p.onThrottled();
+            LOGGER.info("Collector is overloaded. Upload rate lowered to {}% of the limit", Math.round(p.getFactor() * 100));
+        } else if (isSuccess(responseCode)) {
+            p.onAccepted();
+        }
+    }
+
+    private static UploadResult send(AgentConfiguration agent) {
+        BeaconSpool s = spool;
+        if (s != null) {
+            return sendSpooled(agent, s);
+        }
+        return sendBuffered(agent);
     }
 
-    static synchronized void sendAllBeacons(AgentConfiguration agent) {
+    /**
+     * Resends the payloads of earlier failed uploads as they are, oldest first, then uploads the
+     * beacon buffer if all of them were accepted. Stops when the pacer holds back a request.
+     *
+     * @return the result, or null if the pacer held back the first request
+     */
+    private static UploadResult sendBuffered(AgentConfiguration agent) {
+        UploadResult result = null;
+        for (RetryUpload retry : new ArrayList<RetryUpload>(retryUploads)) {
+            if (!mayUpload()) {
+                return result;
+            }
+            result = combine(result, send(agent, retry));
+            if (!result.isSuccess()) {
+                return result;
+            }
+        }
+        if (!mayUpload()) {
+            return result;
+        }
+        return combine(result, send(agent, new BufferUpload()));
+    }
+
+    /**
+     * Moves the buffered beacons to the spool, then uploads the spooled beacons oldest first,
+     * one segment per request, until the collector fails to accept one or the pacer holds back
+     * a request.
+     *
+     * @return the result, or null if there was nothing to upload or the pacer held back the first request
+     */
+    private static UploadResult sendSpooled(AgentConfiguration agent, BeaconSpool spool) {
+        boolean spooled = spoolBeacons(spool);
+        UploadResult result = null;
+        for (BeaconSpool.Segment segment : spool.segments()) {
+            if (!mayUpload()) {
+                return result;
+            }
+            result = combine(result, send(agent, new SegmentUpload(spool, segment)));
+            if (!result.isSuccess()) {
+                return result;
+            }
+        }
+        if (!spooled || !retryUploads.isEmpty()) {
+            // Beacons that could not be spooled are sent straight from the buffer
+            return combine(result, sendBuffered(agent));
+        }
+        return result;
+    }
+
+    /**
+     * @return the result of a series of requests, with the response code of the last one
+     */
+    private static UploadResult combine(UploadResult previous, UploadResult next) {
+        if (next == null) {
+            return previous;
+        }
+        if (previous == null) {
+            return next;
+        }
+        return new UploadResult(next.getResponseCode(),
+                previous.getBytesSent() + next.getBytesSent(),
+                previous.getBeaconsAccepted() + next.getBeaconsAccepted(),
+                next.retryAfterMillis);
+    }
+
+    /**
+     * @return false if some beacons could not be spooled and were put back into the buffer
+     */
+    private static boolean spoolBeacons(BeaconSpool spool) {
+        List<Beacon> notSpooled = null;
+        for (Beacon beacon : drainBeacons()) {
+            if (notSpooled == null) {
+                try {
+                    spool.append(beacon);
+                    beacon.recycleEvents();
+                    continue;
+                } catch (IOException e) {
+                    LOGGER.error("Unable to spool beacons. Keeping them in memory.", e);
+                } catch (IllegalArgumentException e) {
+                    LOGGER.error("Unable to encode beacon. Dropping it.", e);
+                    beacon.recycleEvents();
+                    continue;
+                }
+                notSpooled = new ArrayList<Beacon>();
+            }
+            notSpooled.add(beacon);
+        }
+        spool.force();
+        putBeaconsBack(notSpooled);
+        return notSpooled == null;
+    }
+
+    /**
+     * One request to the collector. Knows how to write its payload and what to do with the
+     * beacons in it once the collector has responded.
+     */
+    private abstract static class Upload {
+        // The compressed request body, once it has been written in full
+        byte[] body;
+        int beacons;
+
+        /**
+         * @return number of beacons written
+         */
+        abstract int writePayload(JsonByteWriter writer) throws IOException;
+
+        /**
+         * Called once the payload has been written and compressed in full, and only
+         * {@link #body} is sent from now on.
+         */
+        void encoded() {
+        }
+
+        /**
+         * Called when the collector accepted the payload.
+         */
+        abstract void accepted();
+
+        /**
+         * Called when the collector refuses any more beacons and the payload is dropped.
+         */
+        void dropped() {
+        }
+
+        /**
+         * Called when the payload may not have been delivered and should be sent again later.
+         * If {@link #body} is set, the whole payload was compressed and kept, and can be resent as it is.
+         */
+        abstract void failed();
+    }
+
+    /**
+     * Uploads the beacon buffer. If the request body was written in full and is small enough to
+     * be kept, it becomes a {@link RetryUpload}; otherwise the beacons go back into the buffer.
+     */
+    private static class BufferUpload extends Upload {
+        private Collection<Beacon> drained;
+
+        @Override
+        int writePayload(JsonByteWriter writer) throws IOException {
+            drained = drainBeacons();
+            createEncodedPayload(drained, writer);
+            return drained.size();
+        }
+
+        @Override
+        void encoded() {
+            recycleEvents();
+        }
+
+        @Override
+        void accepted() {
+            // The events are still held if the payload was too big to be kept for a retry
+            recycleEvents();
+        }
+
+        @Override
+        void dropped() {
+            recycleEvents();
+        }
+
+        private void recycleEvents() {
+            for (Beacon beacon : drained) {
+                beacon.recycleEvents();
+            }
+        }
+
+        @Override
+        void failed() {
+            if (body == null) {
+                putBeaconsBack(drained);
+                return;
+            }
+            retryUploads.add(new RetryUpload(body, beacons));
+            long max = retryBytesMax();
+            long bytes = 0;
+            for (RetryUpload retry : retryUploads) {
+                bytes += retry.body.length;
+            }
+            while (retryUploads.size() > Constants.RETRY_UPLOADS_MAX || bytes > max) {
+                RetryUpload oldest = retryUploads.poll();
+                bytes -= oldest.body.length;
+                LOGGER.debug("Too many failed uploads. Dropping a payload of {} beacons", oldest.beacons);
+            }
+        }
+    }
+
+    /**
+     * @return compressed bytes of failed uploads kept for a retry. They are bounded by the byte
+     * budget on top of the buffered beacons, since they no longer count as beacons.
+     */
+    private static long retryBytesMax() {
+        long budget = bufferByteBudget;
+        return budget > 0 ? budget : Constants.RETRY_UPLOAD_BYTES_MAX;
+    }
+
+    /**
+     * Resends the compressed request body of a failed upload of the beacon buffer.
+     * The body is never changed, so it is compressed only once.
+     */
+    private static class RetryUpload extends Upload {
+        RetryUpload(byte[] body, int beacons) {
+            this.body = body;
+            this.beacons = beacons;
+        }
+
+        @Override
+        int writePayload(JsonByteWriter writer) {
+            throw new IllegalStateException("Payload is already compressed");
+        }
+
+        @Override
+        void accepted() {
+            retryUploads.remove(this);
+        }
+
+        @Override
+        void failed() {
+            // Stays in line for the next upload
+        }
+    }
+
+    /**
+     * Uploads one spool segment, which is deleted once it is accepted.
+     */
+    private static class SegmentUpload extends Upload {
+        private final BeaconSpool spool;
+        private final BeaconSpool.Segment segment;
+
+        SegmentUpload(BeaconSpool spool, BeaconSpool.Segment segment) {
+            this.spool = spool;
+            this.segment = segment;
+            this.body = segment.body;
+            this.beacons = segment.records;
+        }
+
+        @Override
+        int writePayload(JsonByteWriter writer) throws IOException {
+            writer.beginArray();
+            int beacons = spool.writeRecords(segment, writer);
+            writer.endArray();
+            return beacons;
+        }
+
+        @Override
+        void accepted() {
+            spool.delete(segment);
+        }
+
+        @Override
+        void failed() {
+            // Kept in memory, so a retry from this process does not compress the segment again
+            segment.body = body;
+        }
+    }
+
+    private static UploadResult send(AgentConfiguration agent, Upload upload) {
         CollectorChannel channel = null;
         try {
             channel = initializeTransport(agent);
         } catch (MalformedURLException e) {
             LOGGER.error("Cannot send events. Malformed URL Exception received.", e);
-            return;
+            return new UploadResult(UploadResult.NO_RESPONSE, 0, 0);
         }
 
-        GZIPOutputStream gzipOutputStream = null;
-        OutputStreamWriter writer = null;
-        List<Beacon> beaconsToSend = null;
-        InputStream responseStream = null;
+        CountingOutputStream countingOutputStream = null;
+        OutputStream compressedOutputStream = null;
+        int responseCode = UploadResult.NO_RESPONSE;
+        int beaconsAccepted = 0;
+        long retryAfterMillis = -1;
+        JsonByteWriter writer = agent.isBinaryEncoding() ? binaryPayloadWriter : payloadWriter;
 
         try {
-            gzipOutputStream = new GZIPOutputStream(channel.getOutputStream());
-            writer = new OutputStreamWriter(gzipOutputStream);
-            beaconsToSend = drainBeacons();
-            createEncodedPayload(beaconsToSend, writer);
-            writer.flush();
-            gzipOutputStream.close();
-            gzipOutputStream = null;
+            countingOutputStream = new CountingOutputStream(channel.getOutputStream());
+            if (upload.body == null) {
+                CopyingOutputStream body = new CopyingOutputStream(countingOutputStream, retryBytesMax());
+                compressedOutputStream = compressor(agent).open(body);
+                writer.reset(compressedOutputStream);
+                if (agent.isColumnarEncoding()) {
+                    columnarPayloadWriter.start(writer);
+                    upload.beacons = upload.writePayload(columnarPayloadWriter);
+                } else {
+                    upload.beacons = upload.writePayload(writer);
+                }
+                writer.flush();
+                compressedOutputStream.close();
+                compressedOutputStream = null;
+                if (body.copy != null) {
+                    upload.body = body.copy.toByteArray();
+                    upload.encoded();
+                }
+            } else {
+                countingOutputStream.write(upload.body);
+                countingOutputStream.close();
+            }
 
             //get Response Code & Response Message
-            int responseCode = channel.getResponseCode();
+            responseCode = channel.getResponseCode();
             String responseMessage = channel.getResponseMessage();
             LOGGER.debug("Received response code: {}", responseCode);
             LOGGER.debug("Received response message: {}", responseMessage);
 
+            // Read the response to the end, whatever the status, so the connection can be reused
+            String responseBody = drainResponse(channel, responseCode);
+            LOGGER.debug("Received response body: {}", responseBody);
+            if (backoff != null && !isSuccess(responseCode)) {
+                retryAfterMillis = UploadBackoff.parseRetryAfter(channel.getHeaderFields());
+            }
+
             if (responseCode == HttpURLConnection.HTTP_FORBIDDEN ||
                     responseCode == HttpURLConnection.HTTP_PAYMENT_REQUIRED ||
-                    responseCode == 429) { // Too many requests
+                    (responseCode == 429 && backoff == null && pacer == null)) { // Too many requests, unless retried or paced
                 Instrumentation.disable(true);
                 LOGGER.info("Collector is unable to accept beacons at this time");
                 LOGGER.info("SDK is disabled. No event information is being collected or sent");
-                beaconBuffer.clear();
-                return;
-            } else if (200 > responseCode || responseCode > 299) {
-                putBeaconsBack(beaconsToSend);
-            } else {
-                String responseBody = "None received";
-                if (200 <= responseCode && responseCode <= 299) {
-                    responseStream = channel.getInputStream();
-                    responseBody = readResponseBody(responseStream);
-                } else {
-                    responseStream = channel.getErrorStream();
-                    responseBody = readResponseBody(responseStream);
+                synchronized (bufferLock) {
+                    for (Beacon beacon : beaconBuffer) {
+                        beacon.recycleEvents();
+                    }
+                    beaconBuffer.clear();
+                    bufferedBytes = 0;
                 }
-                LOGGER.debug("Received response body: {}", responseBody);
+                upload.dropped();
+                retryUploads.clear();
+                if (spool != null) {
+                    spool.clear();
+                }
+            } else if (!isSuccess(responseCode)) {
+                upload.failed();
+            } else {
+                upload.accepted();
+                beaconsAccepted = upload.beacons;
             }
         } catch (IOException e) {
             LOGGER.error("Encountered IOException. Aborting Sending of events.", e);
-            putBeaconsBack(beaconsToSend);
+            upload.failed();
+            beaconsAccepted = 0;
         } finally {
-            if (responseStream != null) {
+            writer.reset(null);
+            columnarPayloadWriter.release(Constants.PAYLOAD_BUFFER_SIZE);
+            if (compressedOutputStream != null) {
                 try {
-                    responseStream.close();
+                    compressedOutputStream.close();
                 } catch (IOException e) {
-                    LOGGER.error("Error closing response Stream", e);
+                    LOGGER.error("Error closing compressed output stream", e);
                 }
             }
-            if (writer != null) {
-                try {
-                    writer.close();
-                } catch (IOException e) {
-                    LOGGER.error("Error closing JSON writer stream", e);
-                }
+        }
+        long bytesSent = countingOutputStream != null ? countingOutputStream.getCount() : 0;
+        if (pacer != null) {
+            pace(pacer, responseCode, bytesSent);
+        }
+        return new UploadResult(responseCode, bytesSent, beaconsAccepted, retryAfterMillis);
+    }
+
+    /**
+     * @return the compressor for the configured compression, kept from the previous upload if it
+     * has not changed
+     */
+    private static PayloadCompressor compressor(AgentConfiguration agent) {
+        Compression compression = agent.getCompression();
+        int level = agent.getCompressionLevel();
+        if (compressor == null || !compressor.matches(compression, level)) {
+            if (compressor != null) {
+                compressor.end();
             }
-            if (gzipOutputStream != null) {
-                try {
-                    gzipOutputStream.close();
-                } catch (IOException e) {
-                    LOGGER.error("Error closing Gzip output stream", e);
-                }
+            compressor = new PayloadCompressor(compression, level);
+        }
+        return compressor;
+    }
+
+    /**
+     * Passes everything written through to a stream and keeps a copy of it, unless it is too big
+     * to be kept for a retry. Streaming a payload bigger than that takes no more memory than
+     * the beacons it holds.
+     */
+    private static final class CopyingOutputStream extends FilterOutputStream {
+        private final long limit;
+        // Null once more than the limit has been written
+        ByteArrayOutputStream copy = new ByteArrayOutputStream();
+
+        CopyingOutputStream(OutputStream out, long limit) {
+            super(out);
+            this.limit = limit;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            if (keep(1)) {
+                copy.write(b);
             }
         }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            if (keep(len)) {
+                copy.write(b, off, len);
+            }
+        }
+
+        private boolean keep(int len) {
+            if (copy != null && copy.size() + len > limit) {
+                copy = null;
+            }
+            return copy != null;
+        }
     }
 
     static CollectorChannel initializeTransport(AgentConfiguration agent) throws MalformedURLException {
@@ -153,8 +763,12 @@ class BeaconManager {
         CollectorChannelFactory collectorChannelFactory = agent.getCollectorChannelFactory();
         CollectorChannel channel = collectorChannelFactory.getCollectorChannel();
         channel.setRequestMethod("POST");
-        channel.addRequestProperty("Content-Type", "application/json; charset=UTF-8");
-        channel.addRequestProperty("Content-Encoding", "gzip");
+        channel.addRequestProperty("Content-Type", contentType(agent));
+        String contentEncoding = agent.getCompression().getContentEncoding();
+        if (contentEncoding != null) {
+            channel.addRequestProperty("Content-Encoding", contentEncoding);
+        }
+        channel.setChunkedStreamingMode(agent.getStreamingChunkLength());
 
         URL url = new URL(collectorUrl + AgentConfiguration.COLLECTOR_URL_PREFIX_APPKEY + appkey + AgentConfiguration.COLLECTOR_URL_SUFFIX_BEACONS);
         channel.setURL(url);
@@ -162,58 +776,148 @@ class BeaconManager {
         return channel;
     }
 
-    private static String readResponseBody(InputStream ins) {
-        if (ins == null) {
-            LOGGER.error("Input Stream is null, cannot read response body");
-            return null;
+    /**
+     * @return the content type of the payload, which tells the collector both the encoding and
+     * the layout of the events
+     */
+    private static String contentType(AgentConfiguration agent) {
+        if (agent.isColumnarEncoding()) {
+            return agent.isBinaryEncoding() ? Constants.BINARY_COLUMNAR_CONTENT_TYPE : Constants.COLUMNAR_CONTENT_TYPE;
+        }
+        return agent.isBinaryEncoding() ? Constants.BINARY_CONTENT_TYPE : "application/json; charset=UTF-8";
+    }
+
+    /**
+     * Opens a connection to the collector ahead of the first upload, so that the TCP connection
+     * and TLS session can be picked up by it. Failures are only logged.
+     */
+    static void preconnect(AgentConfiguration agent) {
+        try {
+            CollectorChannel channel = agent.getCollectorChannelFactory().getCollectorChannel();
+            channel.setRequestMethod("GET");
+            channel.setURL(new URL(agent.getAppKeyEnabledCheckUrl()));
+            int responseCode = channel.getResponseCode();
+            drainResponse(channel, responseCode);
+            LOGGER.debug("Pre-connected to the collector. Received response code: {}", responseCode);
+        } catch (IOException e) {
+            LOGGER.debug("Unable to pre-connect to the collector", e);
         }
+    }
+
+    private static boolean isSuccess(int responseCode) {
+        return 200 <= responseCode && responseCode <= 299;
+    }
 
-        BufferedReader in = new BufferedReader(new InputStreamReader(ins));
-        String inputLine = null;
-        StringBuffer sbuf = new StringBuffer();
+    /**
+     * Reads the response or error stream to the end and closes it. The JDK only returns a
+     * connection to its keep-alive pool once this has happened.
+     *
+     * @return the start of the response body, for logging
+     */
+    private static String drainResponse(CollectorChannel channel, int responseCode) {
+        InputStream in = null;
         try {
-            while ((inputLine = in.readLine()) != null) {
-                sbuf.append(inputLine);
+            in = isSuccess(responseCode) ? channel.getInputStream() : channel.getErrorStream();
+            if (in == null) {
+                return null;
+            }
+            ByteArrayOutputStream head = new ByteArrayOutputStream();
+            byte[] buffer = new byte[Constants.RESPONSE_READ_BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                int keep = Math.min(read, Constants.RESPONSE_BODY_LOG_MAX - head.size());
+                if (keep > 0) {
+                    head.write(buffer, 0, keep);
+                }
+            }
+            return head.toString("UTF-8");
+        } catch (IOException e) {
+            LOGGER.error("Error reading response body", e);
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    LOGGER.error("Error closing response Stream", e);
+                }
             }
-            in.close();
-        } catch (Exception e) {
-            LOGGER.error("Error getting response Body", e);
         }
-        sbuf.trimToSize();
-        return sbuf.toString();
     }
 
-    private static void putBeaconsBack(List<Beacon> beaconsToPutBack) {
+    private static void putBeaconsBack(Collection<Beacon> beaconsToPutBack) {
         if (beaconsToPutBack != null && beaconsToPutBack.size() > 0) {
-            Iterator<Beacon> i = beaconsToPutBack.iterator();
-            while (i.hasNext()) {
-                beaconBuffer.add(i.next());
+            List<Beacon> beacons = new ArrayList<Beacon>(beaconsToPutBack);
+            synchronized (bufferLock) {
+                // Older than anything buffered since the drain, so they go first and are evicted first
+                for (int i = beacons.size() - 1; i >= 0; i--) {
+                    beaconBuffer.addFirst(beacons.get(i));
+                    bufferedBytes += beacons.get(i).bytes;
+                }
+                trimBuffer();
             }
         }
     }
 
-    static void createEncodedPayload(List<Beacon> beaconsToSend, Writer writer) throws IOException {
+    static void createEncodedPayload(Collection<Beacon> beaconsToSend, Writer writer) throws IOException {
         if (beaconsToSend != null && beaconsToSend.size() > 0) {
             JsonWriter jsonWriter = new JsonWriter(writer);
             toJson(beaconsToSend, jsonWriter);
         }
     }
 
-    static synchronized List<Beacon> drainBeacons() {
-        List<Beacon> beaconsToSend = Collections.synchronizedList(new ArrayList<Beacon>());
-        Iterator<Beacon> iterator = beaconBuffer.iterator();
-        if (beaconBuffer.size() > 0) {
-            while (iterator.hasNext()) {
-                Beacon b = iterator.next();
-                beaconsToSend.add(b);
-                beaconBuffer.remove(b);
+    static void createEncodedPayload(Collection<Beacon> beaconsToSend, JsonByteWriter writer) throws IOException {
+        if (beaconsToSend != null && beaconsToSend.size() > 0) {
+            writer.beginArray();
+            if (mergeBeacons) {
+                List<Beacon> merged = new ArrayList<Beacon>();
+                // Events of each type in the merged beacons, by type ordinal
+                int[] events = new int[Event.Type.values().length];
+                for (Beacon beacon : beaconsToSend) {
+                    if (!merged.isEmpty() && (!merged.get(0).isSameDevice(beacon) || !beacon.fitsInto(events))) {
+                        Beacon.toJson(merged, writer);
+                        merged.clear();
+                        Arrays.fill(events, 0);
+                    }
+                    merged.add(beacon);
+                    for (Event.Type type : Event.Type.values()) {
+                        events[type.ordinal()] += beacon.events(type);
+                    }
+                }
+                Beacon.toJson(merged, writer);
+            } else {
+                for (Beacon beacon : beaconsToSend) {
+                    beacon.toJson(writer);
+                }
             }
-            createNewBeacon(currentBeacon);
+            writer.endArray();
+        }
+    }
+
+    /**
+     * Detaches all buffered beacons for an upload. Events added from now on go to a new beacon in
+     * a fresh buffer, while the detached beacons are serialized without holding the buffer lock.
+     *
+     * @return the detached beacons, oldest first
+     */
+    static Collection<Beacon> drainBeacons() {
+        Collection<Beacon> beaconsToSend = Collections.emptyList();
+        synchronized (bufferLock) {
+            if (beaconBuffer.size() > 0) {
+                beaconsToSend = beaconBuffer;
+                beaconBuffer = new ArrayDeque<Beacon>();
+                bufferedBytes = 0;
+                createNewBeacon(currentBeacon);
+            }
+        }
+        FlushScheduler scheduler = Instrumentation.flushScheduler;
+        if (scheduler != null) {
+            scheduler.onDrained();
         }
         return beaconsToSend;
     }
 
-    private static void toJson(List<Beacon> beacons, JsonWriter writer) throws IOException {
+    private static void toJson(Collection<Beacon> beacons, JsonWriter writer) throws IOException {
         writer.beginArray();
         Iterator<Beacon> iterator = beacons.iterator();
         Beacon thisBeacon;
@@ -228,38 +932,164 @@ class BeaconManager {
 
         private static final String AGENT_VERSION_KEY = "agentVersion";
         public static final String AGENT_VERSION = "4.4.3.0";
+        private static final JsonByteWriter.Key AGENT_VERSION_NAME = JsonByteWriter.key(AGENT_VERSION_KEY);
+        private static final JsonByteWriter.Key CUSTOM_EVENTS_NAME = JsonByteWriter.key(CustomEvent.CUSTOM_EVENT_LABEL);
+        private static final JsonByteWriter.Key NETWORK_EVENTS_NAME = JsonByteWriter.key(NetworkRequestEvent.NETWORK_EVENT_TYPE_LABEL);
+        private static final JsonByteWriter.Key ERROR_EVENTS_NAME = JsonByteWriter.key(ErrorEvent.ERROR_EVENT_LABEL);
 
-        DeviceInfo deviceInfo;
-        VersionInfo versionInfo;
+        final DeviceInfo deviceInfo;
+        final VersionInfo versionInfo;
+        final Header header;
+        // Estimated payload size of the events, only kept when the buffer has a byte budget
+        int bytes;
 
-        private ArrayBlockingQueue<CustomEvent> customEvents = new ArrayBlockingQueue<CustomEvent>(Constants.CUSTOM_EVENTS_MAX);
-        private ArrayBlockingQueue<NetworkRequestEvent> networkEvents = new ArrayBlockingQueue<NetworkRequestEvent>(Constants.NETWORK_REQUEST_EVENTS_MAX);
-        private ArrayBlockingQueue<ErrorEvent> errorEvents = new ArrayBlockingQueue<ErrorEvent>(Constants.ERROR_EVENTS_MAX);
+        // Created on first use. Events of all types share the capacity of the beacon, within the
+        // collector's limit for each type.
+        private List<CustomEvent> customEvents;
+        private List<NetworkRequestEvent> networkEvents;
+        private List<ErrorEvent> errorEvents;
+
+        // Events added in encode-on-ingest mode. Created on first use.
+        private EncodedEvents encodedCustomEvents;
+        private EncodedEvents encodedNetworkEvents;
+        private EncodedEvents encodedErrorEvents;
+
+        private int eventCount;
 
         public Beacon(DeviceInfo deviceInfo, VersionInfo versionInfo) {
-            this.deviceInfo = deviceInfo;
-            this.versionInfo = versionInfo;
+            this(new Header(deviceInfo, versionInfo));
+        }
+
+        Beacon(Header header) {
+            this.deviceInfo = header.deviceInfo;
+            this.versionInfo = header.versionInfo;
+            this.header = header;
         }
 
         public boolean offer(Event e) {
             Event.Type type = e.getType();
+            if (isFull(type)) {
+                return false;
+            }
             if (type == Event.Type.CUSTOM_EVENT) {
-                return customEvents.offer((CustomEvent) e);
+                if (customEvents == null) {
+                    customEvents = new ArrayList<CustomEvent>();
+                }
+                customEvents.add((CustomEvent) e);
             } else if (type == Event.Type.NETWORK_EVENT) {
-                return networkEvents.offer((NetworkRequestEvent) e);
+                if (networkEvents == null) {
+                    networkEvents = new ArrayList<NetworkRequestEvent>();
+                }
+                networkEvents.add((NetworkRequestEvent) e);
             } else if (type == Event.Type.ERROR_EVENT) {
-                return errorEvents.offer((ErrorEvent) e);
+                if (errorEvents == null) {
+                    errorEvents = new ArrayList<ErrorEvent>();
+                }
+                errorEvents.add((ErrorEvent) e);
+            } else {
+                return false;
+            }
+            eventCount++;
+            return true;
+        }
+
+        /**
+         * Takes an event that has already been encoded. Callers hold the buffer lock.
+         *
+         * @param type    type of the encoded event
+         * @param encoded writer holding the event's JSON
+         * @return false if the beacon is full
+         */
+        boolean offer(Event.Type type, JsonByteWriter encoded) {
+            if (isFull(type)) {
+                return false;
+            }
+            if (type == Event.Type.CUSTOM_EVENT) {
+                if (encodedCustomEvents == null) {
+                    encodedCustomEvents = new EncodedEvents(Constants.EVENT_ENCODE_BUFFER_SIZE);
+                }
+                encodedCustomEvents.append(encoded);
+            } else if (type == Event.Type.NETWORK_EVENT) {
+                if (encodedNetworkEvents == null) {
+                    encodedNetworkEvents = new EncodedEvents(Constants.EVENT_ENCODE_BUFFER_SIZE);
+                }
+                encodedNetworkEvents.append(encoded);
+            } else if (type == Event.Type.ERROR_EVENT) {
+                if (encodedErrorEvents == null) {
+                    encodedErrorEvents = new EncodedEvents(Constants.EVENT_ENCODE_BUFFER_SIZE);
+                }
+                encodedErrorEvents.append(encoded);
+            } else {
+                return false;
+            }
+            eventCount++;
+            return true;
+        }
+
+        /**
+         * @return true if the beacon holds the collector's limit of events of the given type. A
+         * beacon at the limit of one type still takes events of the other types.
+         */
+        private boolean isFull(Event.Type type) {
+            return events(type) >= eventsMax(type);
+        }
+
+        static int eventsMax(Event.Type type) {
+            switch (type) {
+                case CUSTOM_EVENT:
+                    return Constants.CUSTOM_EVENTS_MAX;
+                case NETWORK_EVENT:
+                    return Constants.NETWORK_REQUEST_EVENTS_MAX;
+                default:
+                    return Constants.ERROR_EVENTS_MAX;
+            }
+        }
+
+        /**
+         * Returns pooled events to their pools once the beacon has been encoded for good, or dropped.
+         * The beacon no longer holds them afterwards.
+         */
+        void recycleEvents() {
+            recycle(customEvents);
+            recycle(networkEvents);
+            customEvents = null;
+            networkEvents = null;
+        }
+
+        private static void recycle(List<? extends Event> events) {
+            if (events != null) {
+                for (int i = 0; i < events.size(); i++) {
+                    EventPool.recycle(events.get(i));
+                }
             }
-            return false;
         }
 
+        /**
+         * @return number of events of all types held by this beacon
+         */
+        int size() {
+            return eventCount;
+        }
+
+        private static int events(List<? extends Event> events) {
+            return events == null ? 0 : events.size();
+        }
+
+        private static int events(EncodedEvents encoded) {
+            return encoded == null ? 0 : encoded.events();
+        }
+
+        /**
+         * Writes the events held as objects only; see {@link #toJson(JsonByteWriter)} for the
+         * upload payload, which also includes encoded events.
+         */
         void toJson(JsonWriter writer) throws IOException, IllegalStateException {
             writer.beginObject();
             deviceInfo.toJson(writer);
             versionInfo.toJson(writer);
             writer.name(AGENT_VERSION_KEY).value(AGENT_VERSION);
             //customEvents
-            if (customEvents.size() > 0) {
+            if (events(customEvents) > 0) {
                 writer.name(CustomEvent.CUSTOM_EVENT_LABEL);
                 writer.beginArray();
                 for (CustomEvent thisEvent : customEvents) {
@@ -269,7 +1099,7 @@ class BeaconManager {
             }
 
             //NetworkRequestEvents
-            if (networkEvents.size() > 0) {
+            if (events(networkEvents) > 0) {
                 writer.name(NetworkRequestEvent.NETWORK_EVENT_TYPE_LABEL);
                 writer.beginArray();
                 for (NetworkRequestEvent thisEvent : networkEvents) {
@@ -279,7 +1109,7 @@ class BeaconManager {
             }
 
             //ErrorEvents
-            if (errorEvents.size() > 0) {
+            if (events(errorEvents) > 0) {
                 writer.name(ErrorEvent.ERROR_EVENT_LABEL);
                 writer.beginArray();
                 for (ErrorEvent thisEvent : errorEvents) {
@@ -289,5 +1119,148 @@ class BeaconManager {
             }
             writer.endObject();
         }
+
+        void toJson(JsonByteWriter writer) throws IOException {
+            toJson(Collections.singletonList(this), writer);
+        }
+
+        /**
+         * @return true if this beacon has the same device and version as the other one, so that
+         * the two can be sent as one beacon
+         */
+        boolean isSameDevice(Beacon other) {
+            return header == other.header
+                    || (deviceInfo == other.deviceInfo && versionInfo == other.versionInfo);
+        }
+
+        /**
+         * @param events number of events of each type in the beacons merged so far, by type ordinal
+         * @return true if the events of this beacon can be added to them without exceeding the
+         * limits of the collector for one beacon
+         */
+        boolean fitsInto(int[] events) {
+            for (Event.Type type : Event.Type.values()) {
+                if (events[type.ordinal()] + events(type) > eventsMax(type)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Writes the beacons as one beacon, with the header of the first one and the events of all
+         * of them in order.
+         */
+        static void toJson(List<Beacon> beacons, JsonByteWriter writer) throws IOException {
+            writer.beginObject();
+            beacons.get(0).header.toJson(writer);
+            writeEvents(beacons, Event.Type.CUSTOM_EVENT, CUSTOM_EVENTS_NAME, writer);
+            writeEvents(beacons, Event.Type.NETWORK_EVENT, NETWORK_EVENTS_NAME, writer);
+            writeEvents(beacons, Event.Type.ERROR_EVENT, ERROR_EVENTS_NAME, writer);
+            writer.endObject();
+        }
+
+        private static void writeEvents(List<Beacon> beacons, Event.Type type, JsonByteWriter.Key name,
+                                        JsonByteWriter writer) throws IOException {
+            int events = 0;
+            for (Beacon beacon : beacons) {
+                events += beacon.events(type);
+            }
+            if (events == 0) {
+                return;
+            }
+            writer.name(name).beginArray();
+            for (Beacon beacon : beacons) {
+                beacon.writeEvents(type, writer);
+            }
+            writer.endArray();
+        }
+
+        private int events(Event.Type type) {
+            switch (type) {
+                case CUSTOM_EVENT:
+                    return events(customEvents) + events(encodedCustomEvents);
+                case NETWORK_EVENT:
+                    return events(networkEvents) + events(encodedNetworkEvents);
+                default:
+                    return events(errorEvents) + events(encodedErrorEvents);
+            }
+        }
+
+        private void writeEvents(Event.Type type, JsonByteWriter writer) throws IOException {
+            List<? extends Event> events;
+            EncodedEvents encoded;
+            switch (type) {
+                case CUSTOM_EVENT:
+                    events = customEvents;
+                    encoded = encodedCustomEvents;
+                    break;
+                case NETWORK_EVENT:
+                    events = networkEvents;
+                    encoded = encodedNetworkEvents;
+                    break;
+                default:
+                    events = errorEvents;
+                    encoded = encodedErrorEvents;
+            }
+            if (events != null) {
+                for (Event thisEvent : events) {
+                    thisEvent.toJson(writer);
+                }
+            }
+            if (encoded != null) {
+                encoded.writeElements(writer);
+            }
+        }
+    }
+
+    /**
+     * The device and version information and the agent version that start every beacon.
+     * Encoded on first use and shared by all beacons of the device, since it never changes.
+     * Writers that do not copy JSON as it is get the fields instead.
+     */
+    static final class Header {
+        final DeviceInfo deviceInfo;
+        final VersionInfo versionInfo;
+        // The members, without the braces of the beacon object. Encoding it twice in a race is harmless.
+        private volatile byte[] json;
+
+        Header(DeviceInfo deviceInfo, VersionInfo versionInfo) {
+            this.deviceInfo = deviceInfo;
+            this.versionInfo = versionInfo;
+        }
+
+        /**
+         * Writes the members of the header into the current object.
+         */
+        void toJson(JsonByteWriter writer) throws IOException {
+            if (writer.copiesRawJson()) {
+                writer.rawMembers(json());
+            } else {
+                writeMembers(writer);
+            }
+        }
+
+        byte[] json() throws IOException {
+            byte[] encoded = json;
+            if (encoded == null) {
+                JsonByteWriter writer = new JsonByteWriter(Constants.EVENT_ENCODE_BUFFER_SIZE);
+                writer.reset(null);
+                writer.beginObject();
+                writeMembers(writer);
+                writer.endObject();
+                ByteArrayOutputStream object = new ByteArrayOutputStream(writer.size());
+                writer.writeTo(object);
+                encoded = Arrays.copyOfRange(object.toByteArray(), 1, writer.size() - 1);
+                json = encoded;
+            }
+            return encoded;
+        }
+
+        private void writeMembers(JsonByteWriter writer) throws IOException {
+            deviceInfo.toJson(writer);
+            versionInfo.toJson(writer);
+            writer.name(Beacon.AGENT_VERSION_NAME).value(Beacon.AGENT_VERSION);
+        }
     }
 }
@@ -0,0 +1,455 @@
+/**
+ * Copyright (c) 2018 AppDynamics LLC and its affiliates
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appdynamics.iot;
+
+import com.appdynamics.iot.BeaconManager.Beacon;
+import com.appdynamics.iot.utils.Constants;
+import com.appdynamics.iot.utils.JsonByteWriter;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import static com.appdynamics.iot.Instrumentation.LOGGER;
+
+/**
+ * Store-and-forward spool of beacons on disk.
+ *
+ * <p>Beacons drained for an upload are appended as JSON records to memory-mapped segment files,
+ * and a segment is deleted once the collector has accepted it. Every record is framed by its
+ * length and a CRC32 of its bytes. The length is written last, so a record cut short by a crash
+ * is never picked up. When the spool is opened, the segments left behind by a previous process
+ * are checked and their valid records are kept for upload.</p>
+ * <p>Records are appended to the active segment until it is full, across uploads, so that a long
+ * outage fills segments instead of starting one per flush. A segment is mapped once and unmapped
+ * when it is deleted; a full segment is truncated to its records.</p>
+ * <p>Disk usage is bounded by the bytes of the records: the oldest segments are deleted to make
+ * room for new records. Only the unused tail of the active segment is not counted.
+ * Not thread safe; the {@link BeaconManager} only uses it while holding its send lock.</p>
+ */
+class BeaconSpool {
+    private static final String SEGMENT_SUFFIX = ".seg";
+    // Length and CRC32 of the record, the length being 0 past the last record
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    // Unmaps a buffer from Java 9 on. Null on earlier versions, which clean the buffer directly.
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            unsafe = theUnsafe.get(null);
+        } catch (Exception e) {
+            invokeCleaner = null;
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    static final class Segment {
+        final File file;
+        // Bytes of the records, headers included
+        long bytes;
+        int records;
+        // Compressed request body of a failed upload of this segment, dropped when a record is appended
+        byte[] body;
+        // Mapped on first use and kept until the segment is deleted. Writable while the segment is active.
+        MappedByteBuffer buffer;
+
+        Segment(File file, long bytes) {
+            this.file = file;
+            this.bytes = bytes;
+        }
+
+        @Override
+        public String toString() {
+            return file.getName();
+        }
+    }
+
+    private final File directory;
+    private final long maxBytes;
+    private final int segmentSize;
+    // Oldest first. The last one may be the active segment.
+    private final ArrayDeque<Segment> segments = new ArrayDeque<Segment>();
+    private final JsonByteWriter recordWriter = new JsonByteWriter(Constants.PAYLOAD_BUFFER_SIZE);
+    private final CRC32 crc = new CRC32();
+    private byte[] recordBytes = new byte[Constants.PAYLOAD_BUFFER_SIZE];
+    private Segment active;
+    private long nextSequence;
+    private long diskBytes;
+
+    private BeaconSpool(File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.segmentSize = (int) Math.min(Constants.SPOOL_SEGMENT_SIZE, maxBytes);
+    }
+
+    /**
+     * Opens the spool in the given directory, creating it if needed, and recovers the beacons
+     * spooled by a previous process.
+     *
+     * @param directory directory owned by the spool
+     * @param maxBytes  maximum size of the segment files in the directory
+     * @return the spool
+     * @throws IOException if the directory cannot be created or read
+     */
+    static BeaconSpool open(File directory, long maxBytes) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create spool directory " + directory);
+        }
+        BeaconSpool spool = new BeaconSpool(directory, maxBytes);
+        spool.recover();
+        return spool;
+    }
+
+    private void recover() throws IOException {
+        File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        if (files == null) {
+            throw new IOException("Unable to list spool directory " + directory);
+        }
+        // Names are zero padded sequence numbers, so they sort oldest first
+        Arrays.sort(files);
+        int beacons = 0;
+        for (File file : files) {
+            long sequence;
+            try {
+                sequence = Long.parseLong(file.getName().substring(0, file.getName().length() - SEGMENT_SUFFIX.length()));
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            nextSequence = Math.max(nextSequence, sequence + 1);
+            Segment segment = new Segment(file, file.length());
+            segment.records = scan(segment, null);
+            if (segment.records == 0) {
+                unmap(segment);
+                delete(file);
+                continue;
+            }
+            if (file.length() > segment.bytes) {
+                unmap(segment);
+                truncate(segment);
+            }
+            segments.add(segment);
+            diskBytes += segment.bytes;
+            beacons += segment.records;
+        }
+        makeRoom(0);
+        if (beacons > 0) {
+            LOGGER.info("Recovered {} spooled beacons", beacons);
+        }
+    }
+
+    /**
+     * Appends a beacon to the active segment, starting a new segment if it is full. The oldest
+     * segments are deleted if the record does not fit in the spool.
+     * The record is not forced to disk until {@link #force()} is called.
+     *
+     * @param beacon the beacon
+     * @throws IOException              if the beacon cannot be written, or is larger than the spool
+     * @throws IllegalArgumentException if the beacon cannot be encoded
+     */
+    void append(Beacon beacon) throws IOException {
+        recordWriter.reset(null);
+        beacon.toJson(recordWriter);
+        int length = recordWriter.size();
+        int needed = RECORD_HEADER_SIZE + length;
+        if (needed > maxBytes) {
+            throw new IOException("Beacon of " + length + " bytes does not fit in the spool");
+        }
+        if (active != null && active.buffer.remaining() < needed) {
+            roll();
+        }
+        makeRoom(needed);
+        if (active == null) {
+            active = create(Math.max(segmentSize, needed));
+        }
+        ByteBuffer buffer = active.buffer;
+        int position = buffer.position();
+        buffer.position(position + RECORD_HEADER_SIZE);
+        crc.reset();
+        recordWriter.writeTo(new CheckedOutputStream(new ByteBufferOutputStream(buffer), crc));
+        buffer.putInt(position + 4, (int) crc.getValue());
+        // Written last: the record only becomes visible once it is complete
+        buffer.putInt(position, length);
+        active.records++;
+        active.bytes += needed;
+        active.body = null;
+        diskBytes += needed;
+        recordWriter.reset(null);
+    }
+
+    /**
+     * Forces the records appended so far to the storage device.
+     */
+    void force() {
+        if (active != null) {
+            active.buffer.force();
+        }
+    }
+
+    /**
+     * The active segment is included and keeps taking records afterwards. Its upload sends the
+     * records appended so far, and deletes it once they are accepted.
+     *
+     * @return the segments holding beacons, oldest first
+     */
+    List<Segment> segments() {
+        return new ArrayList<Segment>(segments);
+    }
+
+    /**
+     * Writes the valid records of a segment as consecutive values of the current JSON array.
+     *
+     * @return number of beacons written
+     * @throws IOException if the segment cannot be read or the writer fails
+     */
+    int writeRecords(Segment segment, JsonByteWriter writer) throws IOException {
+        return scan(segment, writer);
+    }
+
+    /**
+     * Deletes a segment once its beacons have been accepted by the collector.
+     */
+    void delete(Segment segment) {
+        if (segment == active) {
+            active = null;
+        }
+        if (segments.remove(segment)) {
+            diskBytes -= segment.bytes;
+            unmap(segment);
+            delete(segment.file);
+        }
+    }
+
+    /**
+     * Deletes all spooled beacons.
+     */
+    void clear() {
+        while (!segments.isEmpty()) {
+            delete(segments.peekFirst());
+        }
+    }
+
+    /**
+     * Closes the active segment and unmaps all segments. The spool can still be used afterwards.
+     */
+    void close() {
+        if (active != null) {
+            roll();
+        }
+        for (Segment segment : segments) {
+            unmap(segment);
+        }
+    }
+
+    /**
+     * @return number of beacons held in the spool
+     */
+    int size() {
+        int beacons = 0;
+        for (Segment segment : segments) {
+            beacons += segment.records;
+        }
+        return beacons;
+    }
+
+    /**
+     * @return number of bytes of the records in the segment files
+     */
+    long diskBytes() {
+        return diskBytes;
+    }
+
+    /**
+     * Closes the active segment once it is full, and truncates it to its records.
+     */
+    private void roll() {
+        Segment segment = active;
+        active = null;
+        segment.buffer.force();
+        unmap(segment);
+        truncate(segment);
+    }
+
+    private void truncate(Segment segment) {
+        try {
+            RandomAccessFile file = new RandomAccessFile(segment.file, "rw");
+            try {
+                file.setLength(segment.bytes);
+            } finally {
+                file.close();
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Unable to truncate spool segment {}", segment, e);
+        }
+    }
+
+    private Segment create(int size) throws IOException {
+        Segment segment = new Segment(new File(directory, String.format("%019d%s", nextSequence++, SEGMENT_SUFFIX)), 0);
+        RandomAccessFile file = new RandomAccessFile(segment.file, "rw");
+        try {
+            // Zero filled, so the length after the last record reads as the end of the segment
+            file.setLength(size);
+            segment.buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } finally {
+            file.close();
+        }
+        segments.add(segment);
+        return segment;
+    }
+
+    /**
+     * Deletes the oldest segments until a record of the given size fits.
+     */
+    private void makeRoom(long size) {
+        while (!segments.isEmpty() && diskBytes + size > maxBytes) {
+            Segment oldest = segments.peekFirst();
+            LOGGER.warn("Beacon spool is full. Dropping {} beacons", oldest.records);
+            delete(oldest);
+        }
+    }
+
+    /**
+     * Reads the records of a segment in order. Stops at the end of the records, or at the first
+     * record that is cut short or fails its checksum.
+     *
+     * @param writer receives the records, or null to only count them and set the size of the
+     *               segment to the bytes of its valid records
+     * @return number of valid records
+     */
+    private int scan(Segment segment, JsonByteWriter writer) throws IOException {
+        if (segment.buffer == null) {
+            RandomAccessFile file = new RandomAccessFile(segment.file, "r");
+            try {
+                FileChannel channel = file.getChannel();
+                segment.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } finally {
+                file.close();
+            }
+        }
+        ByteBuffer buffer = segment.buffer.duplicate();
+        buffer.clear();
+        buffer.limit((int) Math.min(buffer.capacity(), segment.bytes));
+        int end = 0;
+        int records = 0;
+        while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (length == 0) {
+                break;
+            }
+            if (length < 0 || length > buffer.remaining()) {
+                LOGGER.warn("Spool segment {} is truncated after {} beacons", segment, records);
+                break;
+            }
+            if (recordBytes.length < length) {
+                recordBytes = new byte[Math.max(length, recordBytes.length * 2)];
+            }
+            buffer.get(recordBytes, 0, length);
+            crc.reset();
+            crc.update(recordBytes, 0, length);
+            if ((int) crc.getValue() != checksum) {
+                LOGGER.warn("Spool segment {} is corrupt after {} beacons", segment, records);
+                break;
+            }
+            if (writer != null) {
+                writer.rawValue(recordBytes, 0, length);
+            }
+            records++;
+            end = buffer.position();
+        }
+        if (writer == null) {
+            segment.bytes = end;
+        }
+        return records;
+    }
+
+    /**
+     * Releases the mapping of a segment right away rather than when it is garbage collected, so
+     * that its file can be truncated or deleted on every platform.
+     */
+    private static void unmap(Segment segment) {
+        MappedByteBuffer buffer = segment.buffer;
+        if (buffer == null) {
+            return;
+        }
+        segment.buffer = null;
+        try {
+            if (INVOKE_CLEANER != null) {
+                INVOKE_CLEANER.invoke(UNSAFE, buffer);
+            } else {
+                Method cleaner = buffer.getClass().getMethod("cleaner");
+                cleaner.setAccessible(true);
+                Object c = cleaner.invoke(buffer);
+                if (c != null) {
+                    c.getClass().getMethod("clean").invoke(c);
+                }
+            }
+        } catch (Exception e) {
+            LOGGER.debug("Unable to unmap spool segment {}. It is unmapped when garbage collected.", segment, e);
+        }
+    }
+
+    private static void delete(File file) {
+        if (!file.delete() && file.exists()) {
+            LOGGER.warn("Unable to delete spool segment {}", file);
+        }
+    }
+
+    private static final class ByteBufferOutputStream extends OutputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferOutputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public void write(int b) {
+            buffer.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            buffer.put(b, off, len);
+        }
+    }
+}
@@ -32,6 +32,7 @@ public abstract class CollectorChannel {
     private int readTimeout;
     private Map<String, List<String>> requestProperties = new HashMap<String, List<String>>();
     private String requestMethod;
+    private int chunkLength;
 
     /**
      * Sets the URL to which the request should be sent.
@@ -123,6 +124,26 @@ public abstract class CollectorChannel {
         return requestMethod;
     }
 
+    /**
+     * Streams the request body to the collector in chunks of the given length as it is written,
+     * instead of buffering the whole body before sending it.
+     *
+     * @param chunkLength The number of bytes in each chunk. Zero or less buffers the whole body,
+     *                    which is the default.
+     */
+    public void setChunkedStreamingMode(int chunkLength) {
+        this.chunkLength = chunkLength > 0 ? chunkLength : 0;
+    }
+
+    /**
+     * Gets the chunk length used to stream the request body
+     *
+     * @return the chunk length, or 0 if the request body is buffered
+     */
+    public int getChunkLength() {
+        return chunkLength;
+    }
+
     /**
      * Opens a stream for writing a request body.
      *
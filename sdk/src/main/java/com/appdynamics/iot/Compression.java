@@ -0,0 +1,56 @@
+/**
+ * Copyright (c) 2018 AppDynamics LLC and its affiliates
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appdynamics.iot;
+
+/**
+ * <p>Compression of the request body sent to the AppDynamics Collector.</p>
+ *
+ * @see AgentConfiguration.Builder#withCompression(Compression, int)
+ */
+public enum Compression {
+    /**
+     * gzip, which the collector has always accepted. The default.
+     */
+    GZIP("gzip"),
+    /**
+     * zlib wrapped deflate. Saves the few bytes of the gzip header and trailer on every request.
+     */
+    DEFLATE("deflate"),
+    /**
+     * zlib wrapped deflate with a preset dictionary of the beacon JSON, which shrinks small payloads
+     * considerably, e.g. frequent flushes over a metered cellular link. Only for a collector, or a
+     * proxy in front of it, that inflates {@code x-appd-deflate-dict} bodies with the same dictionary.
+     */
+    DEFLATE_DICTIONARY("x-appd-deflate-dict"),
+    /**
+     * No compression, which saves CPU time on a fast local link to an on-premise collector.
+     */
+    IDENTITY(null);
+
+    private final String contentEncoding;
+
+    Compression(String contentEncoding) {
+        this.contentEncoding = contentEncoding;
+    }
+
+    /**
+     * @return value of the Content-Encoding request header, or null if the body is sent as is
+     */
+    String getContentEncoding() {
+        return contentEncoding;
+    }
+}
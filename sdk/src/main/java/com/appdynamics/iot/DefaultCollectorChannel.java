@@ -22,18 +22,39 @@ import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.util.List;
 import java.util.Map;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
 
 public class DefaultCollectorChannel extends CollectorChannel {
+    private final SSLSocketFactory sslSocketFactory;
     private HttpURLConnection connection;
 
+    public DefaultCollectorChannel() {
+        this(null);
+    }
+
+    /**
+     * @param sslSocketFactory socket factory for https connections, or null for the JVM default.
+     *                         Channels sharing a factory can reuse pooled connections and TLS sessions.
+     */
+    DefaultCollectorChannel(SSLSocketFactory sslSocketFactory) {
+        this.sslSocketFactory = sslSocketFactory;
+    }
+
     private synchronized HttpURLConnection getConnection() throws IOException {
         if (connection == null) {
             connection = (HttpURLConnection) getURL().openConnection();
+            if (sslSocketFactory != null && connection instanceof HttpsURLConnection) {
+                ((HttpsURLConnection) connection).setSSLSocketFactory(sslSocketFactory);
+            }
             connection.setDoInput(true);
             connection.setDoOutput(true);
             connection.setReadTimeout(getReadTimeout());
             connection.setConnectTimeout(getConnectTimeout());
             connection.setRequestMethod(getRequestMethod());
+            if (getChunkLength() > 0) {
+                connection.setChunkedStreamingMode(getChunkLength());
+            }
             Map<String, List<String>> requestProperties = getRequestProperties();
             for (Map.Entry<String, List<String>> entry : requestProperties.entrySet()) {
                 for (String value : entry.getValue()) {
@@ -17,6 +17,7 @@
 package com.appdynamics.iot;
 
 import com.appdynamics.iot.utils.Constants;
+import com.appdynamics.iot.utils.JsonByteWriter;
 import com.appdynamics.iot.utils.StringUtils;
 import com.google.gson.stream.JsonWriter;
 
@@ -38,6 +39,10 @@ public class DeviceInfo {
     private static final String DEVICE_NAME = "deviceName";
     private static final String DEVICE_TYPE = "deviceType";
     private static final String DEVICE_ID = "deviceId";
+    private static final JsonByteWriter.Key DEVICE_INFO_KEY = JsonByteWriter.key(DEVICE_INFO);
+    private static final JsonByteWriter.Key DEVICE_NAME_KEY = JsonByteWriter.key(DEVICE_NAME);
+    private static final JsonByteWriter.Key DEVICE_TYPE_KEY = JsonByteWriter.key(DEVICE_TYPE);
+    private static final JsonByteWriter.Key DEVICE_ID_KEY = JsonByteWriter.key(DEVICE_ID);
 
     final String deviceName;
     final String deviceType;
@@ -62,6 +67,14 @@ public class DeviceInfo {
         }
     }
 
+    void toJson(JsonByteWriter writer) throws IOException {
+        writer.name(DEVICE_INFO_KEY).beginObject();
+        writer.name(DEVICE_NAME_KEY).value(this.deviceName);
+        writer.name(DEVICE_TYPE_KEY).value(this.deviceType);
+        writer.name(DEVICE_ID_KEY).value(this.deviceId);
+        writer.endObject();
+    }
+
     public static Builder builder(String deviceType, String deviceid) {
         return new Builder(deviceType, deviceid);
     }
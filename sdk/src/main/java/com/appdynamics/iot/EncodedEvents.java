@@ -0,0 +1,63 @@
+/**
+ * Copyright (c) 2018 AppDynamics LLC and its affiliates
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appdynamics.iot;
+
+import com.appdynamics.iot.utils.JsonByteWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Growable arena of events of one type that have already been encoded to JSON, stored back to back
+ * as the comma separated elements of a JSON array.
+ */
+class EncodedEvents extends ByteArrayOutputStream {
+    private int events;
+
+    EncodedEvents(int initialSize) {
+        super(initialSize);
+    }
+
+    /**
+     * @param encoded writer holding exactly one encoded event
+     */
+    void append(JsonByteWriter encoded) {
+        if (events > 0) {
+            write(',');
+        }
+        try {
+            encoded.writeTo(this);
+        } catch (IOException e) {
+            // ByteArrayOutputStream does not throw
+            throw new IllegalStateException(e);
+        }
+        events++;
+    }
+
+    int events() {
+        return events;
+    }
+
+    /**
+     * Writes the events as the elements of the array that is currently open in the writer.
+     */
+    void writeElements(JsonByteWriter writer) throws IOException {
+        if (events > 0) {
+            writer.rawValue(buf, 0, count);
+        }
+    }
+}
@@ -17,13 +17,20 @@
 package com.appdynamics.iot;
 
 import com.appdynamics.iot.events.Event;
+import com.google.common.eventbus.AllowConcurrentEvents;
 import com.google.common.eventbus.Subscribe;
 
 import static com.appdynamics.iot.Instrumentation.LOGGER;
 
+/**
+ * Both handlers are safe to call concurrently; {@link BeaconManager} does its own locking.
+ * Without {@link AllowConcurrentEvents} the EventBus would serialize every poster on a
+ * per-handler monitor.
+ */
 class EventListener {
 
     @Subscribe
+    @AllowConcurrentEvents
     public void handleEvent(Event c) {
         try {
             LOGGER.debug("EventListener : received \"handle Event\" ");
@@ -34,6 +41,7 @@ class EventListener {
     }
 
     @Subscribe
+    @AllowConcurrentEvents
     public void handleSendAllEvents(AgentConfiguration config) {
         try {
             LOGGER.debug("EventListener : received \"Send All Events\" Command");
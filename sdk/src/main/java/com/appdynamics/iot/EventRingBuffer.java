@@ -0,0 +1,172 @@
+/**
+ * Copyright (c) 2018 AppDynamics LLC and its affiliates
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appdynamics.iot;
+
+import com.appdynamics.iot.events.Event;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.appdynamics.iot.Instrumentation.LOGGER;
+
+/**
+ * Bounded multi-producer / single-consumer queue of events.
+ *
+ * <p>Slots and their sequence numbers are allocated once. A producer claims a slot with a
+ * single CAS on the tail counter and publishes it with a volatile write of the slot's sequence,
+ * then wakes the consumer if it has parked.
+ * One daemon thread drains published slots into the {@link BeaconManager}.
+ * When the ring is full the event is dropped rather than blocking the caller.</p>
+ */
+class EventRingBuffer implements Runnable {
+    private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final int mask;
+    private final AtomicReferenceArray<Event> slots;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    // Only touched by the consumer thread
+    private long head;
+
+    private volatile boolean running;
+    private volatile boolean consumerParked;
+    private Thread consumer;
+
+    EventRingBuffer(int capacity) {
+        int size = capacity < 2 ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+        this.mask = size - 1;
+        this.slots = new AtomicReferenceArray<Event>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    synchronized void start() {
+        if (consumer == null) {
+            running = true;
+            consumer = new Thread(this, "AppDynamics-IoT-Ingest");
+            consumer.setDaemon(true);
+            consumer.start();
+        }
+    }
+
+    synchronized void stop() {
+        running = false;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+            consumer = null;
+        }
+    }
+
+    /**
+     * @param event event to enqueue
+     * @return false if the ring is full and the event was dropped. The caller still owns the
+     * event then, and returns it to its pool if it is not offered again.
+     */
+    boolean offer(Event event) {
+        long pos = tail.get();
+        int index;
+        for (; ; ) {
+            index = (int) pos & mask;
+            long diff = sequences.get(index) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    break;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                dropped.incrementAndGet();
+                LOGGER.debug("Ingestion ring buffer is full. Dropping {}", event);
+                return false;
+            } else {
+                pos = tail.get();
+            }
+        }
+        slots.lazySet(index, event);
+        // A volatile write, so that the read of consumerParked cannot move before it. Otherwise the
+        // consumer could miss the event and this producer miss that it parked.
+        sequences.set(index, pos + 1);
+        if (consumerParked) {
+            LockSupport.unpark(consumer);
+        }
+        return true;
+    }
+
+    /**
+     * Consumer side only.
+     *
+     * @return the oldest published event, or null if the ring is empty
+     */
+    Event poll() {
+        int index = (int) head & mask;
+        if (sequences.get(index) != head + 1) {
+            return null;
+        }
+        Event event = slots.get(index);
+        slots.lazySet(index, null);
+        sequences.lazySet(index, head + mask + 1);
+        head++;
+        return event;
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+
+    long getDroppedCount() {
+        return dropped.get();
+    }
+
+    void deliver(Event event) {
+        BeaconManager.addEvent(event);
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            Event event = poll();
+            if (event != null) {
+                deliverQuietly(event);
+                continue;
+            }
+            consumerParked = true;
+            if (sequences.get((int) head & mask) != head + 1) {
+                consumerParked = false;
+                continue;
+            }
+            LockSupport.parkNanos(this, PARK_NANOS);
+            consumerParked = false;
+        }
+        Event event;
+        while ((event = poll()) != null) {
+            deliverQuietly(event);
+        }
+    }
+
+    private void deliverQuietly(Event event) {
+        try {
+            deliver(event);
+        } catch (Exception ex) {
+            LOGGER.error("Unable to handle event.", ex);
+        }
+    }
+}
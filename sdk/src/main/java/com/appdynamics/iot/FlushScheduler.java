@@ -0,0 +1,179 @@
+/**
+ * Copyright (c) 2018 AppDynamics LLC and its affiliates
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appdynamics.iot;
+
+import com.appdynamics.iot.events.ErrorEvent;
+import com.appdynamics.iot.events.Event;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.appdynamics.iot.Instrumentation.LOGGER;
+
+/**
+ * Uploads the beacon buffer on an SDK owned background thread.
+ *
+ * <p>A flush is requested explicitly through {@link Instrumentation#sendAllEventsAsync()}, when the
+ * configured interval elapses, when the events or estimated bytes buffered since the last drain pass
+ * a threshold, when a FATAL {@link ErrorEvent} is added, or when a failed upload is due for a retry.
+ * Requests are coalesced: while one flush is queued, further requests share its future, and flushes
+ * run on a single thread, so there is never more than one upload in flight.</p>
+ */
+class FlushScheduler {
+    private final AgentConfiguration config;
+    private final ScheduledExecutorService executor;
+    private final AtomicReference<ListenableFutureTask<UploadResult>> pendingFlush =
+            new AtomicReference<ListenableFutureTask<UploadResult>>();
+    private final AtomicInteger pendingEvents = new AtomicInteger();
+    private final AtomicLong pendingBytes = new AtomicLong();
+
+    private final Callable<UploadResult> flushTask = new Callable<UploadResult>() {
+        @Override
+        public UploadResult call() throws Exception {
+            // The queued flush is starting; later requests need a flush of their own
+            pendingFlush.set(null);
+            if (Instrumentation.isDisabled()) {
+                throw new IllegalStateException("Instrumentation is disabled. No Events will be sent.");
+            }
+            return BeaconManager.sendAllBeacons(config);
+        }
+    };
+
+    private final Runnable timerTask = new Runnable() {
+        @Override
+        public void run() {
+            requestFlush();
+        }
+    };
+
+    FlushScheduler(AgentConfiguration config) {
+        this.config = config;
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("AppDynamics-IoT-Flush")
+                .setDaemon(true)
+                .build());
+    }
+
+    void start() {
+        long interval = config.getFlushIntervalMillis();
+        if (interval > 0) {
+            // Random phase, so that devices started together do not flush together
+            long initialDelay = 1 + (long) (new Random().nextDouble() * (interval - 1));
+            executor.scheduleWithFixedDelay(timerTask, initialDelay, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Connects to the collector on the flush thread, ahead of the first upload.
+     */
+    void preconnect() {
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    BeaconManager.preconnect(config);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            LOGGER.debug("Flush scheduler is shut down. Pre-connect request ignored.");
+        }
+    }
+
+    /**
+     * Requests a flush once the delay has passed, to retry a failed upload.
+     */
+    void scheduleRetry(long delayMillis) {
+        try {
+            executor.schedule(timerTask, delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            LOGGER.debug("Flush scheduler is shut down. Retry ignored.");
+        }
+    }
+
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Called by the {@link BeaconManager} before an event is buffered, since a pooled event may
+     * be uploaded and recycled as soon as it is.
+     *
+     * @return true if a flush is to be requested once the event has been buffered
+     */
+    boolean countEvent(Event event) {
+        boolean flush = false;
+        int countThreshold = config.getFlushEventCountThreshold();
+        if (countThreshold > 0 && pendingEvents.incrementAndGet() >= countThreshold) {
+            flush = true;
+        }
+        long byteThreshold = config.getFlushByteSizeThreshold();
+        if (byteThreshold > 0 && pendingBytes.addAndGet(event.estimateSize()) >= byteThreshold) {
+            flush = true;
+        }
+        if (config.isFlushOnFatalError() && isFatal(event)) {
+            flush = true;
+        }
+        return flush;
+    }
+
+    /**
+     * Called by the {@link BeaconManager} when the buffer has been drained for an upload.
+     */
+    void onDrained() {
+        pendingEvents.set(0);
+        pendingBytes.set(0);
+    }
+
+    /**
+     * @return the future of the flush that will pick up everything buffered so far
+     */
+    ListenableFuture<UploadResult> requestFlush() {
+        for (; ; ) {
+            ListenableFutureTask<UploadResult> pending = pendingFlush.get();
+            if (pending != null) {
+                return pending;
+            }
+            ListenableFutureTask<UploadResult> task = ListenableFutureTask.create(flushTask);
+            if (pendingFlush.compareAndSet(null, task)) {
+                try {
+                    executor.execute(task);
+                } catch (RejectedExecutionException e) {
+                    pendingFlush.compareAndSet(task, null);
+                    LOGGER.debug("Flush scheduler is shut down. Flush request ignored.");
+                    return Futures.immediateFailedFuture(e);
+                }
+                return task;
+            }
+        }
+    }
+
+    private static boolean isFatal(Event event) {
+        return event.getType() == Event.Type.ERROR_EVENT &&
+                ((ErrorEvent) event).getSeverity() == Instrumentation.Severity.FATAL;
+    }
+}
@@ -16,6 +16,7 @@
 
 package com.appdynamics.iot;
 
+import com.appdynamics.iot.events.EventPool;
 import com.appdynamics.iot.events.NetworkRequestEvent;
 import com.google.common.eventbus.EventBus;
 
@@ -27,13 +28,23 @@ import static com.appdynamics.iot.Instrumentation.LOGGER;
 
 public class HttpRequestTrackerImpl extends AbstractHttpRequestTracker implements HttpRequestTracker {
     private final EventBus eventBus;
+    private final EventRingBuffer ringBuffer;
     private final URL url;
     private final long startTime;
 
     private boolean alreadyReported;
 
     public HttpRequestTrackerImpl(EventBus eventBus, URL url) {
+        this(eventBus, null, url);
+    }
+
+    HttpRequestTrackerImpl(EventRingBuffer ringBuffer, URL url) {
+        this(null, ringBuffer, url);
+    }
+
+    private HttpRequestTrackerImpl(EventBus eventBus, EventRingBuffer ringBuffer, URL url) {
         this.eventBus = eventBus;
+        this.ringBuffer = ringBuffer;
         this.url = url;
         this.startTime = System.currentTimeMillis();
         this.alreadyReported = false;
@@ -87,7 +98,13 @@ public class HttpRequestTrackerImpl extends AbstractHttpRequestTracker implement
                     .withResponseContentLength(getContentLength(responseHeaderFields));
         }
         event = builder.build();
-        eventBus.post(event);
+        if (ringBuffer != null) {
+            if (!ringBuffer.offer(event)) {
+                EventPool.recycle(event);
+            }
+        } else {
+            eventBus.post(event);
+        }
         alreadyReported = true;
     }
 
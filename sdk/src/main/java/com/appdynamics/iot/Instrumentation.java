@@ -17,10 +17,11 @@
 package com.appdynamics.iot;
 
 import com.appdynamics.iot.events.ErrorEvent;
-import com.appdynamics.iot.events.ErrorEvent.StackTrace;
 import com.appdynamics.iot.events.Event;
-import com.appdynamics.iot.utils.Constants;
+import com.appdynamics.iot.events.EventPool;
 import com.google.common.eventbus.EventBus;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -28,7 +29,6 @@ import java.io.IOException;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.ArrayList;
 
 /**
  * <p>This class provides the following functionality</p>
@@ -54,6 +54,8 @@ public class Instrumentation {
     static boolean isDisabled = false;
     static boolean isInitialized = false;
     static EventBus eventBus;
+    static EventRingBuffer ringBuffer;
+    static FlushScheduler flushScheduler;
     static BeaconManager beaconManager;
 
     static {
@@ -71,12 +73,55 @@ public class Instrumentation {
      */
     public static void start(AgentConfiguration configuration, DeviceInfo deviceInfo, VersionInfo versionInfo) {
         Instrumentation.config = configuration;
+        BeaconManager.configure(configuration);
         beaconManager = BeaconManagerFactory.createBeaconManager(deviceInfo, versionInfo);
+        startRingBuffer(configuration.getRingBufferCapacity());
+        startFlushScheduler(configuration);
         isInitialized = true;
 
         LOGGER.info("AppDynamics Instrumentation Started");
     }
 
+    private static synchronized void startRingBuffer(int capacity) {
+        if (ringBuffer != null) {
+            ringBuffer.stop();
+            ringBuffer = null;
+        }
+        if (capacity > 0) {
+            EventRingBuffer rb = new EventRingBuffer(capacity);
+            rb.start();
+            ringBuffer = rb;
+            LOGGER.debug("Ingestion ring buffer started with capacity {}", rb.capacity());
+        }
+    }
+
+    private static synchronized void startFlushScheduler(AgentConfiguration configuration) {
+        if (flushScheduler != null) {
+            flushScheduler.shutdown();
+            flushScheduler = null;
+        }
+        FlushScheduler scheduler = new FlushScheduler(configuration);
+        scheduler.start();
+        if (configuration.isPreconnect()) {
+            scheduler.preconnect();
+        }
+        flushScheduler = scheduler;
+    }
+
+    /**
+     * Hands the event to the ingestion ring buffer if one is configured, otherwise to the EventBus.
+     */
+    private static void dispatch(Event event) {
+        EventRingBuffer rb = ringBuffer;
+        if (rb != null) {
+            if (!rb.offer(event)) {
+                EventPool.recycle(event);
+            }
+        } else {
+            eventBus.post(event);
+        }
+    }
+
     /**
      * If the controller sends a responseCode of 402, 403 or 429 to the app when it calls
      * {@link Instrumentation#sendAllEvents()}, the
@@ -103,6 +148,10 @@ public class Instrumentation {
             if (isInitialized && url != null) {
                 LOGGER.debug("beginHttpRequest called for: {}", url);
                 try {
+                    EventRingBuffer rb = ringBuffer;
+                    if (rb != null) {
+                        return new HttpRequestTrackerImpl(rb, url);
+                    }
                     return new HttpRequestTrackerImpl(eventBus, url);
                 } catch (Throwable e) {
                     LOGGER.error("Exception while starting to track HTTP request", e);
@@ -127,7 +176,7 @@ public class Instrumentation {
         if (!isDisabled()) {
             if (isInitialized && throwable != null) {
                 ErrorEvent event = getErrorEvent(throwable, level);
-                eventBus.post(event);
+                dispatch(event);
             }
         } else {
             LOGGER.debug("Instrumentation is disabled. No Error Events will be collected.");
@@ -138,17 +187,7 @@ public class Instrumentation {
         ErrorEvent.Builder builder = ErrorEvent.builder(throwable.getClass().getSimpleName());
         builder.withMessage(throwable.getMessage());
         builder.withSeverity(level);
-        ArrayList<StackTrace> stackTraces = new ArrayList<StackTrace>();
-        StackTrace s = new StackTrace((throwable.getStackTrace()));
-        stackTraces.add(s);
-
-        Throwable cause = throwable.getCause();
-        while (cause != null && stackTraces.size() < Constants.ERROR_EVENT_STACK_TRACE_ELEMENTS_MAX) {
-            stackTraces.add(new StackTrace(cause.getStackTrace()));
-            cause = cause.getCause();
-        }
-
-        builder.withStackTraces(stackTraces);
+        builder.withThrowable(throwable);
         return builder.build();
     }
 
@@ -159,10 +198,16 @@ public class Instrumentation {
     public static void addEvent(Event event) {
         if (!isDisabled()) {
             if (isInitialized && event != null) {
-                eventBus.post(event);
+                dispatch(event);
+            } else if (event != null) {
+                // Not started, so the event is dropped
+                EventPool.recycle(event);
             }
         } else {
             LOGGER.debug("Instrumentation is disabled. No Events will be collected.");
+            if (event != null) {
+                EventPool.recycle(event);
+            }
         }
     }
 
@@ -175,6 +220,8 @@ public class Instrumentation {
      * the instrumentation runtime automatically gets disabled.
      * A status check to see if the current AppKey is enabled or not can be called at any time using
      * the call {@link Instrumentation#isAppKeyEnabledOnCloud()}
+     * Events can also be sent in the background without calling this method. See
+     * {@link AgentConfiguration.Builder#withFlushInterval(long, java.util.concurrent.TimeUnit)}.
      *
      * @see CollectorChannelFactory
      * @see Instrumentation#isDisabled()
@@ -189,6 +236,31 @@ public class Instrumentation {
         }
     }
 
+    /**
+     * Non-blocking variant of {@link Instrumentation#sendAllEvents()}.
+     * The upload runs on a background thread owned by the SDK. If an upload has been requested but
+     * has not started yet, the returned future is shared with that request, since it will pick up
+     * all the events collected so far. There is never more than one upload in flight.
+     *
+     * @return a future that completes with the outcome of the upload. It fails with an
+     * {@link IllegalStateException} if the instrumentation is not started or is disabled.
+     * @see UploadResult
+     */
+    public static ListenableFuture<UploadResult> sendAllEventsAsync() {
+        if (!isDisabled()) {
+            FlushScheduler scheduler = flushScheduler;
+            if (isInitialized && scheduler != null) {
+                return scheduler.requestFlush();
+            }
+            return Futures.immediateFailedFuture(
+                    new IllegalStateException("Instrumentation not initialized. Please call Instrumentation.start method first"));
+        } else {
+            LOGGER.debug("Instrumentation is disabled. No Events will be sent.");
+            return Futures.immediateFailedFuture(
+                    new IllegalStateException("Instrumentation is disabled. No Events will be sent."));
+        }
+    }
+
     static synchronized void disable(boolean disableFlag) {
         isDisabled = disableFlag;
         if (config.getListener() != null && isDisabled) {
@@ -0,0 +1,209 @@
+/**
+ * Copyright (c) 2018 AppDynamics LLC and its affiliates
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appdynamics.iot;
+
+import com.appdynamics.iot.utils.Constants;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses request bodies with a {@link Compression}, reusing one native {@link Deflater} and its
+ * buffers for every upload instead of allocating them per request like {@link java.util.zip.GZIPOutputStream}.
+ * Only one body can be compressed at a time. Not thread safe; the {@link BeaconManager} only uses
+ * it while holding its send lock.
+ */
+class PayloadCompressor {
+    // Magic number, deflate method, no flags, no modification time, no extra flags, unknown OS,
+    // the same header the JDK writes
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+
+    private final Compression compression;
+    private final int level;
+    private final Deflater deflater;
+    private final CRC32 crc = new CRC32();
+    private final byte[] buffer = new byte[Constants.DEFLATE_BUFFER_SIZE];
+
+    /**
+     * @param level deflate level, from {@link Deflater#BEST_SPEED} to {@link Deflater#BEST_COMPRESSION},
+     *              or {@link Deflater#DEFAULT_COMPRESSION}. Ignored for {@link Compression#IDENTITY}.
+     */
+    PayloadCompressor(Compression compression, int level) {
+        this.compression = compression;
+        this.level = level;
+        // gzip frames the raw deflate stream itself, the others are sent with the zlib wrapper
+        this.deflater = compression == Compression.IDENTITY ? null
+                : new Deflater(level, compression == Compression.GZIP);
+    }
+
+    /**
+     * @return true if this compressor was created with these settings
+     */
+    boolean matches(Compression compression, int level) {
+        return this.compression == compression && (compression == Compression.IDENTITY || this.level == level);
+    }
+
+    /**
+     * Starts compressing a new body.
+     *
+     * @param out stream the compressed body is written to
+     * @return stream taking the uncompressed body. Closing it writes the rest of the compressed
+     * body and closes {@code out}.
+     * @throws IOException if the header cannot be written
+     */
+    OutputStream open(OutputStream out) throws IOException {
+        if (deflater == null) {
+            return out;
+        }
+        deflater.reset();
+        crc.reset();
+        if (compression == Compression.GZIP) {
+            out.write(GZIP_HEADER);
+        } else if (compression == Compression.DEFLATE_DICTIONARY) {
+            deflater.setDictionary(PayloadDictionary.BYTES);
+        }
+        return new DeflatingOutputStream(out);
+    }
+
+    /**
+     * Decompresses a request body, the way the collector does.
+     *
+     * @param compression compression of the body
+     * @param body        compressed body
+     * @return the uncompressed body
+     * @throws IOException if the body is corrupt, or compressed with another dictionary
+     */
+    static byte[] decompress(Compression compression, byte[] body) throws IOException {
+        if (compression == Compression.IDENTITY) {
+            return body;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(body.length * 4);
+        byte[] buffer = new byte[Constants.DEFLATE_BUFFER_SIZE];
+        if (compression == Compression.GZIP) {
+            InputStream in = new GZIPInputStream(new ByteArrayInputStream(body));
+            for (int n = in.read(buffer); n != -1; n = in.read(buffer)) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        }
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(body);
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0) {
+                    if (inflater.needsDictionary()) {
+                        if (compression != Compression.DEFLATE_DICTIONARY || inflater.getAdler() != PayloadDictionary.ID) {
+                            throw new IOException("Body is compressed with an unknown dictionary");
+                        }
+                        inflater.setDictionary(PayloadDictionary.BYTES);
+                    } else if (inflater.needsInput()) {
+                        throw new IOException("Body is truncated");
+                    }
+                }
+                out.write(buffer, 0, n);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Body is corrupt", e);
+        } finally {
+            inflater.end();
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Releases the native resources of the deflater. The compressor cannot be used afterwards.
+     */
+    void end() {
+        if (deflater != null) {
+            deflater.end();
+        }
+    }
+
+    private final class DeflatingOutputStream extends FilterOutputStream {
+        private boolean closed;
+
+        DeflatingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (compression == Compression.GZIP) {
+                crc.update(b, off, len);
+            }
+            deflater.setInput(b, off, len);
+            while (!deflater.needsInput()) {
+                deflate();
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    deflate();
+                }
+                if (compression == Compression.GZIP) {
+                    writeIntLE((int) crc.getValue());
+                    writeIntLE((int) deflater.getBytesRead());
+                }
+            } finally {
+                out.close();
+            }
+        }
+
+        private void deflate() throws IOException {
+            int length = deflater.deflate(buffer, 0, buffer.length);
+            if (length > 0) {
+                out.write(buffer, 0, length);
+            }
+        }
+
+        private void writeIntLE(int value) throws IOException {
+            buffer[0] = (byte) value;
+            buffer[1] = (byte) (value >> 8);
+            buffer[2] = (byte) (value >> 16);
+            buffer[3] = (byte) (value >> 24);
+            out.write(buffer, 0, 4);
+        }
+    }
+}
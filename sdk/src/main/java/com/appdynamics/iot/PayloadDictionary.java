@@ -0,0 +1,63 @@
+/**
+ * Copyright (c) 2018 AppDynamics LLC and its affiliates
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appdynamics.iot;
+
+import java.nio.charset.Charset;
+import java.util.zip.Adler32;
+
+/**
+ * Preset dictionary for {@link Compression#DEFLATE_DICTIONARY}.
+ *
+ * <p>A skeleton of the beacon JSON written by {@code Beacon.toJson} and the events' {@code toJson},
+ * holding every member name with its punctuation. Deflate finds its matches in the dictionary from
+ * the first byte of a payload on, so the names repeated by every event no longer have to be spelled
+ * out in each small payload. Deflate encodes nearer matches in fewer bits, so the parts written for
+ * every event come last.</p>
+ * <p>The dictionary is part of the wire format: the collector has to inflate with exactly the same
+ * bytes, which it can tell apart by the Adler-32 checksum that zlib puts in the stream header.
+ * Any change here has to be shipped to the collector first.</p>
+ */
+final class PayloadDictionary {
+    private static final String SKELETON = ""
+            + "[{\"deviceInfo\":{\"deviceName\":\"\",\"deviceType\":\"\",\"deviceId\":\"\"},"
+            + "\"versionInfo\":{\"hardwareVersion\":\"\",\"firmwareVersion\":\"\",\"softwareVersion\":\"\","
+            + "\"operatingSystemVersion\":\"\"},\"agentVersion\":\"\","
+            + "\"errorEvents\":[{\"name\":\"\",\"message\":\"\",\"stackTraces\":[{\"thread\":\"main\",\"runtime\":\"java\","
+            + "\"stackFrames\":[{\"symbolName\":\"\",\"packageName\":\"\",\"filePath\":\".java\",\"lineNumber\":}]}],"
+            + "\"errorStackTraceIndex\":0,\"severity\":\"alert\"\"critical\"\"fatal\"}],"
+            + "\"networkRequestEvents\":[{\"url\":\"https://\",\"statusCode\":200,\"networkError\":\"\","
+            + "\"requestContentLength\":,\"responseContentLength\":,\"responseHeaders\":{\"Content-Type\":[\"\"]}},"
+            + "\"customEvents\":[{\"eventType\":\"\",\"eventSummary\":\"\"}]}]"
+            + "{\"timestamp\":,\"duration\":0,\"stringProperties\":{},\"longProperties\":{},"
+            + "\"datetimeProperties\":{},\"doubleProperties\":{},\"booleanProperties\":{},";
+
+    static final byte[] BYTES = SKELETON.getBytes(Charset.forName("UTF-8"));
+
+    /**
+     * Adler-32 checksum of the dictionary, as found in the header of a stream compressed with it.
+     */
+    static final int ID = adler32(BYTES);
+
+    private PayloadDictionary() {
+    }
+
+    private static int adler32(byte[] bytes) {
+        Adler32 adler32 = new Adler32();
+        adler32.update(bytes, 0, bytes.length);
+        return (int) adler32.getValue();
+    }
+}
@@ -0,0 +1,64 @@
+/**
+ * Copyright (c) 2018 AppDynamics LLC and its affiliates
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appdynamics.iot;
+
+import com.appdynamics.iot.utils.Constants;
+
+import java.security.GeneralSecurityException;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+
+import static com.appdynamics.iot.Instrumentation.LOGGER;
+
+/**
+ * Hands out {@link DefaultCollectorChannel}s that share one TLS socket factory.
+ *
+ * <p>The JDK only picks a pooled https connection up again for a request using the same socket
+ * factory, and only resumes TLS sessions cached by that factory's context. Sharing a single
+ * factory owned by the SDK keeps both working across uploads regardless of what the application
+ * does with the JVM-wide default. The {@link BeaconManager} reads every response to the end so
+ * that the connection is returned to the pool.</p>
+ */
+class PersistentCollectorChannelFactory implements CollectorChannelFactory {
+    private final SSLSocketFactory sslSocketFactory;
+
+    PersistentCollectorChannelFactory() {
+        this.sslSocketFactory = createSocketFactory();
+    }
+
+    @Override
+    public CollectorChannel getCollectorChannel() {
+        return new DefaultCollectorChannel(sslSocketFactory);
+    }
+
+    SSLSocketFactory getSSLSocketFactory() {
+        return sslSocketFactory;
+    }
+
+    private static SSLSocketFactory createSocketFactory() {
+        try {
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(null, null, null);
+            context.getClientSessionContext().setSessionTimeout(Constants.TLS_SESSION_TIMEOUT_SECONDS);
+            return context.getSocketFactory();
+        } catch (GeneralSecurityException e) {
+            LOGGER.error("Unable to create a TLS context. Falling back to the default socket factory.", e);
+            return HttpsURLConnection.getDefaultSSLSocketFactory();
+        }
+    }
+}
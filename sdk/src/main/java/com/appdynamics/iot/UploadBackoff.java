@@ -0,0 +1,161 @@
+/**
+ * Copyright (c) 2018 AppDynamics LLC and its affiliates
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appdynamics.iot;
+
+import com.appdynamics.iot.utils.Constants;
+import com.google.common.base.Ticker;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when a failed upload is retried, and pauses uploads while the collector is unavailable.
+ *
+ * <p>The delay before a retry doubles with every consecutive failure, from the base delay up to
+ * the cap, and is then shortened by a random fraction of at most the jitter, so that a fleet of
+ * devices that failed together does not retry together. A {@code Retry-After} sent by the
+ * collector is honored as the minimum delay.</p>
+ * <p>After {@link Constants#CIRCUIT_BREAKER_FAILURE_THRESHOLD} consecutive failures, or whenever the
+ * collector sends {@code Retry-After}, the circuit opens: no upload is attempted until the delay
+ * has passed. The next upload is then a trial that either closes the circuit or opens it again
+ * for a longer delay. Buffered events are kept throughout.</p>
+ */
+class UploadBackoff {
+    private static final String RETRY_AFTER = "Retry-After";
+
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final double jitter;
+    private final Random random;
+    private final Ticker ticker;
+
+    private int failures;
+    private boolean open;
+    private long openUntilNanos;
+
+    UploadBackoff(long baseDelayMillis, long maxDelayMillis, double jitter) {
+        this(baseDelayMillis, maxDelayMillis, jitter, new Random(), Ticker.systemTicker());
+    }
+
+    UploadBackoff(long baseDelayMillis, long maxDelayMillis, double jitter, Random random, Ticker ticker) {
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.jitter = jitter;
+        this.random = random;
+        this.ticker = ticker;
+    }
+
+    /**
+     * @return milliseconds until uploads may be attempted again, or 0 if the circuit is closed
+     * or ready for a trial upload
+     */
+    synchronized long pauseMillis() {
+        if (!open) {
+            return 0;
+        }
+        long remaining = openUntilNanos - ticker.read();
+        // Rounded up, so that a pause is never reported as over early
+        return remaining > 0 ? TimeUnit.NANOSECONDS.toMillis(remaining + TimeUnit.MILLISECONDS.toNanos(1) - 1) : 0;
+    }
+
+    synchronized void onSuccess() {
+        failures = 0;
+        open = false;
+    }
+
+    /**
+     * @param retryAfterMillis delay requested by the collector, or a negative value if it sent none
+     * @return milliseconds to wait before the upload is retried
+     */
+    synchronized long onFailure(long retryAfterMillis) {
+        failures++;
+        long delay = baseDelayMillis;
+        for (int i = 1; i < failures && delay < maxDelayMillis; i++) {
+            delay *= 2;
+        }
+        delay = Math.min(delay, maxDelayMillis);
+        delay -= (long) (delay * jitter * random.nextDouble());
+        if (retryAfterMillis >= 0) {
+            delay = Math.max(delay, retryAfterMillis);
+        }
+        if (retryAfterMillis >= 0 || failures >= Constants.CIRCUIT_BREAKER_FAILURE_THRESHOLD) {
+            open = true;
+            openUntilNanos = ticker.read() + TimeUnit.MILLISECONDS.toNanos(delay);
+        }
+        return delay;
+    }
+
+    /**
+     * @return number of consecutive failed uploads
+     */
+    synchronized int getFailures() {
+        return failures;
+    }
+
+    /**
+     * @return true if a response with this status code is worth retrying. Other client errors
+     * would fail the same way again.
+     */
+    static boolean isRetryable(int responseCode) {
+        return responseCode == UploadResult.NO_RESPONSE
+                || responseCode == 408 // Request timeout
+                || responseCode == 429 // Too many requests
+                || responseCode >= 500;
+    }
+
+    /**
+     * @param headers response headers
+     * @return the delay requested with {@code Retry-After}, either as seconds or as an HTTP date,
+     * or -1 if there is none
+     */
+    static long parseRetryAfter(Map<String, List<String>> headers) {
+        if (headers == null) {
+            return -1;
+        }
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            if (RETRY_AFTER.equalsIgnoreCase(header.getKey()) && header.getValue() != null
+                    && !header.getValue().isEmpty()) {
+                return parseRetryAfter(header.getValue().get(0));
+            }
+        }
+        return -1;
+    }
+
+    static long parseRetryAfter(String value) {
+        if (value == null) {
+            return -1;
+        }
+        value = value.trim();
+        try {
+            long seconds = Long.parseLong(value);
+            return seconds >= 0 ? TimeUnit.SECONDS.toMillis(seconds) : -1;
+        } catch (NumberFormatException e) {
+            // Not delta-seconds, so it should be an HTTP date
+        }
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        try {
+            return Math.max(0, format.parse(value).getTime() - System.currentTimeMillis());
+        } catch (ParseException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/**
+ * Copyright (c) 2018 AppDynamics LLC and its affiliates
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appdynamics.iot;
+
+import com.appdynamics.iot.utils.Constants;
+import com.google.common.base.Ticker;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Paces uploads with a token bucket on requests and on bytes sent, whose rate adapts to the
+ * collector.
+ *
+ * <p>Each request takes one request token and as many byte tokens as it sent. A request may
+ * overdraw the byte bucket; the next one then waits until the debt has been refilled. Both buckets
+ * refill at the configured rate times a factor that is halved whenever the collector is
+ * overloaded (429 or 503), down to {@link Constants#UPLOAD_RATE_MIN_FACTOR}, and grows back by
+ * {@link Constants#UPLOAD_RATE_RECOVERY_STEP} with every accepted request. Each bucket holds at most
+ * one second worth of the configured rate, and at least one request.</p>
+ */
+class UploadPacer {
+    private final double requestsPerSecond;
+    private final double bytesPerSecond;
+    private final double requestBurst;
+    private final double byteBurst;
+    private final Ticker ticker;
+
+    private double factor = 1;
+    private double requestTokens;
+    private double byteTokens;
+    private long lastRefillNanos;
+
+    UploadPacer(double requestsPerSecond, long bytesPerSecond) {
+        this(requestsPerSecond, bytesPerSecond, Ticker.systemTicker());
+    }
+
+    /**
+     * @param requestsPerSecond sustained request rate
+     * @param bytesPerSecond    sustained rate of compressed bytes sent, or 0 for no limit
+     */
+    UploadPacer(double requestsPerSecond, long bytesPerSecond, Ticker ticker) {
+        this.requestsPerSecond = requestsPerSecond;
+        this.bytesPerSecond = bytesPerSecond;
+        this.requestBurst = Math.max(1, requestsPerSecond);
+        this.byteBurst = bytesPerSecond;
+        this.ticker = ticker;
+        this.requestTokens = requestBurst;
+        this.byteTokens = byteBurst;
+        this.lastRefillNanos = ticker.read();
+    }
+
+    /**
+     * @return milliseconds until the next request may be sent, or 0 if it may be sent now
+     */
+    synchronized long delayMillis() {
+        refill();
+        double seconds = 0;
+        if (requestTokens < 1) {
+            seconds = (1 - requestTokens) / (requestsPerSecond * factor);
+        }
+        if (bytesPerSecond > 0 && byteTokens < 0) {
+            seconds = Math.max(seconds, -byteTokens / (bytesPerSecond * factor));
+        }
+        return (long) Math.ceil(seconds * 1000);
+    }
+
+    /**
+     * Takes the tokens of a request that has been sent.
+     *
+     * @param bytes number of bytes sent
+     */
+    synchronized void onRequest(long bytes) {
+        refill();
+        requestTokens -= 1;
+        byteTokens -= bytes;
+    }
+
+    /**
+     * Slows down after the collector reported that it is overloaded.
+     */
+    synchronized void onThrottled() {
+        refill();
+        factor = Math.max(Constants.UPLOAD_RATE_MIN_FACTOR, factor / 2);
+    }
+
+    /**
+     * Speeds up again after the collector accepted a request.
+     */
+    synchronized void onAccepted() {
+        refill();
+        factor = Math.min(1, factor + Constants.UPLOAD_RATE_RECOVERY_STEP);
+    }
+
+    /**
+     * @return fraction of the configured rate currently allowed
+     */
+    synchronized double getFactor() {
+        return factor;
+    }
+
+    private void refill() {
+        long now = ticker.read();
+        double seconds = (now - lastRefillNanos) / (double) TimeUnit.SECONDS.toNanos(1);
+        lastRefillNanos = now;
+        requestTokens = Math.min(requestBurst, requestTokens + seconds * requestsPerSecond * factor);
+        byteTokens = Math.min(byteBurst, byteTokens + seconds * bytesPerSecond * factor);
+    }
+}
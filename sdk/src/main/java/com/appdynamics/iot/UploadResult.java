@@ -0,0 +1,84 @@
+/**
+ * Copyright (c) 2018 AppDynamics LLC and its affiliates
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appdynamics.iot;
+
+/**
+ * <p>Outcome of one upload of the beacon buffer to the AppDynamics Collector.</p>
+ *
+ * @see Instrumentation#sendAllEventsAsync()
+ */
+public class UploadResult {
+    /**
+     * Response code reported when no HTTP response was received, e.g. because of an I/O error.
+     */
+    public static final int NO_RESPONSE = -1;
+
+    private final int responseCode;
+    private final long bytesSent;
+    private final int beaconsAccepted;
+    // Delay requested by the collector with Retry-After, or -1 if there was none
+    final long retryAfterMillis;
+
+    UploadResult(int responseCode, long bytesSent, int beaconsAccepted) {
+        this(responseCode, bytesSent, beaconsAccepted, -1);
+    }
+
+    UploadResult(int responseCode, long bytesSent, int beaconsAccepted, long retryAfterMillis) {
+        this.responseCode = responseCode;
+        this.bytesSent = bytesSent;
+        this.beaconsAccepted = beaconsAccepted;
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    /**
+     * @return the HTTP status code returned by the collector, or {@value #NO_RESPONSE} if there was none
+     */
+    public int getResponseCode() {
+        return this.responseCode;
+    }
+
+    /**
+     * @return number of bytes of the compressed request body written to the collector channel
+     */
+    public long getBytesSent() {
+        return this.bytesSent;
+    }
+
+    /**
+     * @return number of beacons the collector accepted. Beacons that were not accepted stay
+     * buffered for the next upload, unless the SDK got disabled.
+     */
+    public int getBeaconsAccepted() {
+        return this.beaconsAccepted;
+    }
+
+    /**
+     * @return true if the collector responded with a 2xx status code
+     */
+    public boolean isSuccess() {
+        return 200 <= responseCode && responseCode <= 299;
+    }
+
+    @Override
+    public String toString() {
+        return "UploadResult{" +
+                "Response Code ='" + responseCode + '\'' +
+                ", Bytes Sent ='" + bytesSent + '\'' +
+                ", Beacons Accepted ='" + beaconsAccepted + '\'' +
+                '}';
+    }
+}
@@ -17,6 +17,7 @@
 package com.appdynamics.iot;
 
 import com.appdynamics.iot.utils.Constants;
+import com.appdynamics.iot.utils.JsonByteWriter;
 import com.appdynamics.iot.utils.StringUtils;
 import com.google.gson.stream.JsonWriter;
 
@@ -40,6 +41,11 @@ public class VersionInfo {
     private static final String VERSION_FIRMWARE = "firmwareVersion";
     private static final String VERSION_SOFTWARE = "softwareVersion";
     private static final String VERSION_OS = "operatingSystemVersion";
+    private static final JsonByteWriter.Key VERSION_INFO_KEY = JsonByteWriter.key(VERSION_INFO);
+    private static final JsonByteWriter.Key VERSION_HARDWARE_KEY = JsonByteWriter.key(VERSION_HARDWARE);
+    private static final JsonByteWriter.Key VERSION_FIRMWARE_KEY = JsonByteWriter.key(VERSION_FIRMWARE);
+    private static final JsonByteWriter.Key VERSION_SOFTWARE_KEY = JsonByteWriter.key(VERSION_SOFTWARE);
+    private static final JsonByteWriter.Key VERSION_OS_KEY = JsonByteWriter.key(VERSION_OS);
 
     final String hwVersion;
     final String osVersion;
@@ -68,6 +74,15 @@ public class VersionInfo {
         }
     }
 
+    void toJson(JsonByteWriter writer) throws IOException {
+        writer.name(VERSION_INFO_KEY).beginObject();
+        writer.name(VERSION_HARDWARE_KEY).value(this.hwVersion);
+        writer.name(VERSION_FIRMWARE_KEY).value(this.fwVersion);
+        writer.name(VERSION_SOFTWARE_KEY).value(this.swVersion);
+        writer.name(VERSION_OS_KEY).value(this.osVersion);
+        writer.endObject();
+    }
+
     /**
      * Builder class for Version Information
      *
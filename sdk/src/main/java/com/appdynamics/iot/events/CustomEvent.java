@@ -17,21 +17,22 @@
 package com.appdynamics.iot.events;
 
 import com.appdynamics.iot.utils.Constants;
+import com.appdynamics.iot.utils.JsonByteWriter;
 import com.appdynamics.iot.utils.StringUtils;
 import com.google.gson.stream.JsonWriter;
 
 import java.io.IOException;
-import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.Map;
 
 public class CustomEvent extends Event {
     public static final String CUSTOM_EVENT_LABEL = "customEvents";
     private static final String EVENT_TYPE = "eventType";
     private static final String EVENT_SUMMARY = "eventSummary";
-    private final String eventType;
-    private final String eventSummary;
+    private static final JsonByteWriter.Key EVENT_TYPE_KEY = JsonByteWriter.key(EVENT_TYPE);
+    private static final JsonByteWriter.Key EVENT_SUMMARY_KEY = JsonByteWriter.key(EVENT_SUMMARY);
+    private String eventType;
+    private String eventSummary;
 
     public CustomEvent(String type, String eventSummary,
                        long timestamp,
@@ -41,19 +42,37 @@ public class CustomEvent extends Event {
                        Map<String, Double> doubleProperties,
                        Map<String, Boolean> booleanProperties,
                        Map<String, Date> dateProperties) {
+        this(type, eventSummary, timestamp, duration,
+                EventProperties.of(stringProperties, longProperties, doubleProperties, booleanProperties,
+                        dateProperties));
+    }
+
+    CustomEvent(String type, String eventSummary,
+                long timestamp,
+                long duration,
+                EventProperties properties) {
         super(Type.CUSTOM_EVENT,
                 timestamp,
                 duration,
-                stringProperties,
-                longProperties,
-                doubleProperties,
-                booleanProperties,
-                dateProperties);
+                properties);
         this.eventType = StringUtils.abbreviate(type, Constants.CUSTOM_EVENT_TYPE_MAX);
         this.eventSummary = StringUtils.abbreviate(eventSummary, Constants.CUSTOM_EVENT_SUMMARY_MAX);
 
     }
 
+    /**
+     * Creates an event for the pool of custom events.
+     */
+    CustomEvent() {
+        super(Type.CUSTOM_EVENT);
+    }
+
+    void fill(String type, String summary, long timestamp, long duration, EventProperties properties) {
+        fill(timestamp, duration, properties);
+        this.eventType = StringUtils.abbreviate(type, Constants.CUSTOM_EVENT_TYPE_MAX);
+        this.eventSummary = StringUtils.abbreviate(summary, Constants.CUSTOM_EVENT_SUMMARY_MAX);
+    }
+
     @Override
     public String toString() {
         return "Custom Event";
@@ -65,6 +84,19 @@ public class CustomEvent extends Event {
         writer.name(EVENT_SUMMARY).value(this.eventSummary);
     }
 
+    @Override
+    public void eventSpecificFields(JsonByteWriter writer) throws IOException {
+        writer.name(EVENT_TYPE_KEY).value(this.eventType);
+        writer.name(EVENT_SUMMARY_KEY).value(this.eventSummary);
+    }
+
+    @Override
+    int estimateEventSpecificSize() {
+        return EVENT_TYPE.length() + estimateSize(eventType)
+                + EVENT_SUMMARY.length() + estimateSize(eventSummary)
+                + 2 * ENTRY_OVERHEAD_ESTIMATE;
+    }
+
     @Override
     public Type getType() {
         return Type.CUSTOM_EVENT;
@@ -83,8 +115,8 @@ public class CustomEvent extends Event {
     }
 
     public static final class Builder extends BaseBuilder<Builder> {
-        private final String summary;
-        private final String type;
+        private String summary;
+        private String type;
 
         private Builder(String type, String summary) {
             this.thisObj = this;
@@ -93,16 +125,52 @@ public class CustomEvent extends Event {
             this.summary = summary;
         }
 
+        /**
+         * Makes this builder ready for the next event, as if it had just been created with
+         * {@link CustomEvent#builder(String, String)}. Events already built are not affected. A built
+         * event takes the storage of the builder's properties rather than a copy, so a loop reusing one
+         * builder allocates the event and the storage of its properties per event. With
+         * {@link com.appdynamics.iot.AgentConfiguration.Builder#withEventPooling(int, boolean) pooling}
+         * the properties are copied into a pooled event instead, and the builder keeps their storage, so
+         * such a loop allocates nothing once the pool has warmed up:
+         * <pre>
+         * CustomEvent.Builder builder = CustomEvent.builder(type, summary);
+         * while (running) {
+         *     Instrumentation.addEvent(builder.reset(type, summary)
+         *             .addDoubleProperty("temperature", sensor.read())
+         *             .build());
+         * }
+         * </pre>
+         * <p>A builder is not thread safe, so each thread needs its own.</p>
+         *
+         * @param type    type of the next event
+         * @param summary summary of the next event
+         * @return current Builder Object
+         */
+        public Builder reset(String type, String summary) {
+            resetBase();
+            this.type = type;
+            this.summary = summary;
+            return this;
+        }
+
+        /**
+         * @return a new event, or an event borrowed from the pool of custom events if
+         * {@link com.appdynamics.iot.AgentConfiguration.Builder#withEventPooling(int, boolean) pooling}
+         * is enabled
+         */
         public CustomEvent build() {
+            EventPool<CustomEvent> pool = EventPool.customEvents();
+            if (pool != null) {
+                CustomEvent event = pool.borrow();
+                event.fill(type, summary, timestamp, duration, properties);
+                return event;
+            }
             return new CustomEvent(type,
                     summary,
                     timestamp,
                     duration,
-                    Collections.unmodifiableMap(new HashMap<String, String>(stringProperties)),
-                    Collections.unmodifiableMap(new HashMap<String, Long>(longProperties)),
-                    Collections.unmodifiableMap(new HashMap<String, Double>(doubleProperties)),
-                    Collections.unmodifiableMap(new HashMap<String, Boolean>(booleanProperties)),
-                    Collections.unmodifiableMap(new HashMap<String, Date>(dateProperties)));
+                    takeProperties());
         }
     }
 }
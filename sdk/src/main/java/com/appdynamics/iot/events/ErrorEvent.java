@@ -17,6 +17,7 @@
 package com.appdynamics.iot.events;
 
 import com.appdynamics.iot.utils.Constants;
+import com.appdynamics.iot.utils.JsonByteWriter;
 import com.appdynamics.iot.utils.StringUtils;
 import com.appdynamics.iot.utils.Utils;
 import com.google.gson.stream.JsonWriter;
@@ -41,6 +42,19 @@ public class ErrorEvent extends Event {
     private static final String FILE_PATH = "filePath";
     private static final String LINE_NUMBER = "lineNumber";
 
+    private static final JsonByteWriter.Key ERROR_NAME_KEY = JsonByteWriter.key(ERROR_NAME);
+    private static final JsonByteWriter.Key ERROR_MESSAGE_KEY = JsonByteWriter.key(ERROR_MESSAGE);
+    private static final JsonByteWriter.Key STACK_TRACES_KEY = JsonByteWriter.key(STACK_TRACES);
+    private static final JsonByteWriter.Key ERROR_STACK_TRACE_INDEX_KEY = JsonByteWriter.key(ERROR_STACK_TRACE_INDEX);
+    private static final JsonByteWriter.Key SEVERITY_KEY = JsonByteWriter.key(SEVERITY);
+    private static final JsonByteWriter.Key THREAD_KEY = JsonByteWriter.key(StackTrace.THREAD);
+    private static final JsonByteWriter.Key RUNTIME_KEY = JsonByteWriter.key(StackTrace.RUNTIME);
+    private static final JsonByteWriter.Key STACK_FRAMES_KEY = JsonByteWriter.key(StackTrace.STACK_FRAMES);
+    private static final JsonByteWriter.Key SYMBOL_NAME_KEY = JsonByteWriter.key(SYMBOL_NAME);
+    private static final JsonByteWriter.Key PACKAGE_NAME_KEY = JsonByteWriter.key(PACKAGE_NAME);
+    private static final JsonByteWriter.Key FILE_PATH_KEY = JsonByteWriter.key(FILE_PATH);
+    private static final JsonByteWriter.Key LINE_NUMBER_KEY = JsonByteWriter.key(LINE_NUMBER);
+
     private final String errorName;
     private final String errorMessage;
     private final ArrayList<StackTrace> stackTraces;
@@ -59,14 +73,23 @@ public class ErrorEvent extends Event {
                       Map<String, Double> doubleProperties,
                       Map<String, Boolean> booleanProperties,
                       Map<String, Date> dateProperties) {
+        this(name, message, stackTraces, errorStackTraceIndex, severity, timestamp, duration,
+                EventProperties.of(stringProperties, longProperties, doubleProperties, booleanProperties,
+                        dateProperties));
+    }
+
+    ErrorEvent(String name,
+               String message,
+               ArrayList<StackTrace> stackTraces,
+               int errorStackTraceIndex,
+               Severity severity,
+               long timestamp,
+               long duration,
+               EventProperties properties) {
         super(Type.ERROR_EVENT,
                 timestamp,
                 duration,
-                stringProperties,
-                longProperties,
-                doubleProperties,
-                booleanProperties,
-                dateProperties);
+                properties);
         this.errorName = StringUtils.abbreviate(name, Constants.ERROR_EVENT_NAME_MAX_WIDTH);
         this.errorMessage = StringUtils.abbreviate(message, Constants.ERROR_EVENT_MESSAGE_MAX_WIDTH);
         this.stackTraces = Utils.truncateArrayList(stackTraces, Constants.ERROR_EVENT_STACK_TRACE_ELEMENTS_MAX);
@@ -89,7 +112,11 @@ public class ErrorEvent extends Event {
         writer.name(ERROR_NAME).value(this.errorName);
         writer.name(ERROR_MESSAGE).value(this.errorMessage);
         if (this.stackTraces != null && this.stackTraces.size() > 0) {
-            writeStackTraces(writer, this.stackTraces);
+            // Encoded by the same code as the upload payload
+            JsonByteWriter encoded = new JsonByteWriter(estimateEventSpecificSize());
+            writeStackTraces(encoded, this.stackTraces);
+            writer.name(STACK_TRACES);
+            jsonValue(writer, encoded);
         }
         if (errorStackTraceIndex >= 0) {
             writer.name(ERROR_STACK_TRACE_INDEX).value(this.errorStackTraceIndex);
@@ -97,6 +124,20 @@ public class ErrorEvent extends Event {
         writer.name(SEVERITY).value(this.severity.toString());
     }
 
+    @Override
+    public void eventSpecificFields(JsonByteWriter writer) throws IOException {
+        writer.name(ERROR_NAME_KEY).value(this.errorName);
+        writer.name(ERROR_MESSAGE_KEY).value(this.errorMessage);
+        if (this.stackTraces != null && this.stackTraces.size() > 0) {
+            writer.name(STACK_TRACES_KEY);
+            writeStackTraces(writer, this.stackTraces);
+        }
+        if (errorStackTraceIndex >= 0) {
+            writer.name(ERROR_STACK_TRACE_INDEX_KEY).value(this.errorStackTraceIndex);
+        }
+        writer.name(SEVERITY_KEY).value(this.severity.toString());
+    }
+
     /**
      * @return error Name associated with this event
      */
@@ -132,22 +173,19 @@ public class ErrorEvent extends Event {
         return this.severity;
     }
 
-    private void writeStackTraces(JsonWriter writer, ArrayList<StackTrace> traces) throws IOException {
-        writer.name(STACK_TRACES);
+    private void writeStackTraces(JsonByteWriter writer, ArrayList<StackTrace> traces) throws IOException {
         writer.beginArray();
         for (StackTrace t : traces) {
             writer.beginObject();
             if (t.thread != null) {
-                writer.name(StackTrace.THREAD).value(t.thread);
+                writer.name(THREAD_KEY).value(t.thread);
             }
-            writer.name(StackTrace.RUNTIME).value(t.runtime);
-            if (t.stackTraceElements != null && t.stackTraceElements.size() > 0) {
-                writer.name(StackTrace.STACK_FRAMES);
-                writer.beginArray();
-                StackTraceElement e;
-                for (int i = 0; i < t.stackTraceElements.size() && i < Constants.ERROR_EVENT_STACK_FRAMES_MAX; i++) {
-                    e = t.stackTraceElements.get(i);
-                    writeStackTraceElement(writer, e);
+            writer.name(RUNTIME_KEY).value(t.runtime);
+            Frame[] frames = t.frames();
+            if (frames.length > 0) {
+                writer.name(STACK_FRAMES_KEY).beginArray();
+                for (Frame frame : frames) {
+                    writeFrame(writer, frame);
                 }
                 writer.endArray();
             }
@@ -156,22 +194,41 @@ public class ErrorEvent extends Event {
         writer.endArray();
     }
 
-    private void writeStackTraceElement(JsonWriter writer, StackTraceElement e) throws IOException {
+    private void writeFrame(JsonByteWriter writer, Frame frame) throws IOException {
         writer.beginObject();
-        writer.name(SYMBOL_NAME).value(StringUtils.abbreviate(e.getClass().getSimpleName() + "." + e.getMethodName(), Constants.ERROR_EVENT_STACK_FRAME_SYMBOL_NAME_MAX));
-        Package p = e.getClass().getPackage();
-        if (p != null) {
-            writer.name(PACKAGE_NAME).value(StringUtils.abbreviate(p.toString(), Constants.ERROR_EVENT_STACK_FRAME_PACKAGE_NAME_MAX));
+        writer.name(SYMBOL_NAME_KEY).value(frame.symbolName);
+        if (frame.packageName != null) {
+            writer.name(PACKAGE_NAME_KEY).value(frame.packageName);
         }
-        if (e.getFileName() != null) {
-            writer.name(FILE_PATH).value(StringUtils.abbreviate(e.getFileName(), Constants.ERROR_EVENT_STACK_FRAME_FILE_PATH_MAX));
+        if (frame.filePath != null) {
+            writer.name(FILE_PATH_KEY).value(frame.filePath);
         }
-        if (e.getLineNumber() > 0) {
-            writer.name(LINE_NUMBER).value(e.getLineNumber());
+        if (frame.lineNumber > 0) {
+            writer.name(LINE_NUMBER_KEY).value(frame.lineNumber);
         }
         writer.endObject();
     }
 
+    @Override
+    int estimateEventSpecificSize() {
+        int size = ERROR_NAME.length() + estimateSize(errorName)
+                + ERROR_MESSAGE.length() + estimateSize(errorMessage)
+                + ERROR_STACK_TRACE_INDEX.length() + NUMBER_SIZE_ESTIMATE
+                + SEVERITY.length() + 8
+                + 4 * ENTRY_OVERHEAD_ESTIMATE;
+        if (stackTraces != null) {
+            for (StackTrace t : stackTraces) {
+                size += StackTrace.RUNTIME.length() + StackTrace.THREAD.length() + estimateSize(t.thread) + 20;
+                for (Frame frame : t.frames()) {
+                    size += SYMBOL_NAME.length() + PACKAGE_NAME.length() + FILE_PATH.length() + LINE_NUMBER.length()
+                            + estimateSize(frame.symbolName) + estimateSize(frame.packageName)
+                            + estimateSize(frame.filePath) + NUMBER_SIZE_ESTIMATE + 4 * ENTRY_OVERHEAD_ESTIMATE;
+                }
+            }
+        }
+        return size;
+    }
+
     @Override
     public Type getType() {
         return Type.ERROR_EVENT;
@@ -192,7 +249,7 @@ public class ErrorEvent extends Event {
     }
 
     public static final class Builder extends BaseBuilder<ErrorEvent.Builder> {
-        private final String name;
+        private String name;
         private String errorMessage;
         private ArrayList<StackTrace> traces = new ArrayList<StackTrace>();
         private int errorStackTraceIndex;
@@ -226,6 +283,38 @@ public class ErrorEvent extends Event {
             return this;
         }
 
+        /**
+         * Sets the stack traces of a throwable and of its causes, up to
+         * {@value Constants#ERROR_EVENT_STACK_TRACE_ELEMENTS_MAX} of them. Only the frames that are uploaded
+         * are kept, and a cause that already appeared in the chain ends it.
+         *
+         * @param throwable the error. If null, the stack traces are removed.
+         * @return current Builder Object
+         */
+        public Builder withThrowable(Throwable throwable) {
+            ArrayList<StackTrace> stackTraces = new ArrayList<StackTrace>(Constants.ERROR_EVENT_STACK_TRACE_ELEMENTS_MAX);
+            Throwable[] chain = new Throwable[Constants.ERROR_EVENT_STACK_TRACE_ELEMENTS_MAX];
+            Throwable t = throwable;
+            while (t != null && stackTraces.size() < chain.length && !contains(chain, stackTraces.size(), t)) {
+                chain[stackTraces.size()] = t;
+                stackTraces.add(StackTrace.capture(t));
+                if (stackTraces.size() < chain.length) {
+                    t = t.getCause();
+                }
+            }
+            this.traces = stackTraces;
+            return this;
+        }
+
+        private static boolean contains(Throwable[] chain, int length, Throwable t) {
+            for (int i = 0; i < length; i++) {
+                if (chain[i] == t) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
 
         /**
          * The index into the stackTracesElements array that caused the error.
@@ -254,6 +343,24 @@ public class ErrorEvent extends Event {
             return this;
         }
 
+        /**
+         * Makes this builder ready for the next event, as if it had just been created with
+         * {@link ErrorEvent#builder(String)}. Events already built are not affected.
+         *
+         * @param name name of the next error
+         * @return current Builder Object
+         * @see CustomEvent.Builder#reset(String, String)
+         */
+        public Builder reset(String name) {
+            resetBase();
+            this.name = name;
+            this.errorMessage = null;
+            this.traces = new ArrayList<StackTrace>();
+            this.errorStackTraceIndex = 0;
+            this.severity = null;
+            return this;
+        }
+
         public ErrorEvent build() {
             return new ErrorEvent(name,
                     errorMessage,
@@ -262,11 +369,7 @@ public class ErrorEvent extends Event {
                     severity,
                     timestamp,
                     duration,
-                    Collections.unmodifiableMap(new HashMap<String, String>(stringProperties)),
-                    Collections.unmodifiableMap(new HashMap<String, Long>(longProperties)),
-                    Collections.unmodifiableMap(new HashMap<String, Double>(doubleProperties)),
-                    Collections.unmodifiableMap(new HashMap<String, Boolean>(booleanProperties)),
-                    Collections.unmodifiableMap(new HashMap<String, Date>(dateProperties)));
+                    takeProperties());
         }
     }
 
@@ -275,9 +378,13 @@ public class ErrorEvent extends Event {
         static final String RUNTIME = "runtime";
         static final String STACK_FRAMES = "stackFrames";
 
+        private static final Frame[] NO_FRAMES = new Frame[0];
+
         final String thread;
         final String runtime = "java";
         final ArrayList<StackTraceElement> stackTraceElements;
+        // The frames that are uploaded. Computed from stackTraceElements on first use if not captured.
+        private Frame[] frames;
 
         public StackTrace(StackTraceElement[] stackTraceElements) {
             this(null, stackTraceElements);
@@ -291,5 +398,115 @@ public class ErrorEvent extends Event {
                 this.stackTraceElements = null;
             }
         }
+
+        private StackTrace(Frame[] frames) {
+            this.thread = null;
+            this.stackTraceElements = null;
+            this.frames = frames;
+        }
+
+        /**
+         * @return the stack trace of the throwable, holding only the frames that are uploaded
+         */
+        static StackTrace capture(Throwable throwable) {
+            StackTraceElement[] elements = throwable.getStackTrace();
+            if (elements == null) {
+                return new StackTrace(NO_FRAMES);
+            }
+            Frame[] frames = new Frame[Math.min(elements.length, Constants.ERROR_EVENT_STACK_FRAMES_MAX)];
+            for (int i = 0; i < frames.length; i++) {
+                frames[i] = Frame.of(elements[i]);
+            }
+            return new StackTrace(frames);
+        }
+
+        Frame[] frames() {
+            Frame[] f = frames;
+            if (f == null) {
+                int count = stackTraceElements == null ? 0 : Math.min(stackTraceElements.size(), Constants.ERROR_EVENT_STACK_FRAMES_MAX);
+                f = count == 0 ? NO_FRAMES : new Frame[count];
+                for (int i = 0; i < count; i++) {
+                    f[i] = Frame.of(stackTraceElements.get(i));
+                }
+                frames = f;
+            }
+            return f;
+        }
+    }
+
+    /**
+     * A stack frame as it is uploaded, with its strings abbreviated. The frames of the most recently
+     * seen {@link StackTraceElement}s are cached, so that errors thrown again from the same code sites
+     * share their frames instead of building the strings again.
+     */
+    static final class Frame {
+        private static final Map<StackTraceElement, Frame> CACHE = new Cache();
+
+        /**
+         * Keeps the most recently used frames, up to {@link Constants#ERROR_EVENT_STACK_FRAME_CACHE_SIZE}.
+         */
+        private static final class Cache extends LinkedHashMap<StackTraceElement, Frame> {
+            private static final long serialVersionUID = 1L;
+
+            Cache() {
+                super(16, 0.75f, true);
+            }
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<StackTraceElement, Frame> eldest) {
+                return size() > Constants.ERROR_EVENT_STACK_FRAME_CACHE_SIZE;
+            }
+        }
+
+        final String symbolName;
+        final String packageName;
+        final String filePath;
+        final int lineNumber;
+
+        private Frame(String symbolName, String packageName, String filePath, int lineNumber) {
+            this.symbolName = symbolName;
+            this.packageName = packageName;
+            this.filePath = filePath;
+            this.lineNumber = lineNumber;
+        }
+
+        static Frame of(StackTraceElement e) {
+            Frame frame;
+            synchronized (CACHE) {
+                frame = CACHE.get(e);
+            }
+            if (frame == null) {
+                frame = create(e);
+                synchronized (CACHE) {
+                    CACHE.put(e, frame);
+                }
+            }
+            return frame;
+        }
+
+        /**
+         * The symbol is the simple name of the class, nested classes included, and the method. The
+         * package is that of the class, or null for the default package.
+         */
+        private static Frame create(StackTraceElement e) {
+            String className = e.getClassName();
+            int dot = className.lastIndexOf('.');
+            String simpleName = dot < 0 ? className : className.substring(dot + 1);
+            String packageName = dot < 0 ? null : className.substring(0, dot);
+            return new Frame(
+                    StringUtils.abbreviate(simpleName + "." + e.getMethodName(), Constants.ERROR_EVENT_STACK_FRAME_SYMBOL_NAME_MAX),
+                    StringUtils.abbreviate(packageName, Constants.ERROR_EVENT_STACK_FRAME_PACKAGE_NAME_MAX),
+                    StringUtils.abbreviate(e.getFileName(), Constants.ERROR_EVENT_STACK_FRAME_FILE_PATH_MAX),
+                    e.getLineNumber());
+        }
+
+        /**
+         * @return number of cached frames
+         */
+        static int cached() {
+            synchronized (CACHE) {
+                return CACHE.size();
+            }
+        }
     }
 }
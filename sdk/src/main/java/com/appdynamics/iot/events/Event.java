@@ -17,20 +17,21 @@
 package com.appdynamics.iot.events;
 
 import com.appdynamics.iot.utils.Constants;
+import com.appdynamics.iot.utils.JsonByteWriter;
 import com.appdynamics.iot.utils.StringUtils;
 import com.google.gson.stream.JsonWriter;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
 import java.util.Date;
-import java.util.Iterator;
 import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * <p>Base class of the Event</p>
  * <p>Each event has a timestamp and a duration</p>
- * <p>And maps of name-value pairs</p>
+ * <p>And name-value pairs of strings, longs, doubles, booleans and dates</p>
  * <p>Known Direct Classes</p>
  * <ul>
  * <li>{@link CustomEvent}</li>
@@ -47,15 +48,28 @@ public abstract class Event {
     static final String DOUBLE_PROPERTIES = "doubleProperties";
     static final String DATE_PROPERTIES = "datetimeProperties";
 
+    private static final JsonByteWriter.Key TIMESTAMP_KEY = JsonByteWriter.key(TIMESTAMP);
+    private static final JsonByteWriter.Key DURATION_KEY = JsonByteWriter.key(DURATION);
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // Serialized size of an event with no properties and no event specific fields:
+    // {"timestamp":1234567890123,"duration":0,"stringProperties":{},"longProperties":{},
+    //  "datetimeProperties":{},"doubleProperties":{},"booleanProperties":{}}
+    static final int BASE_SIZE_ESTIMATE = 150;
+    // Quotes, colon and comma around a name-value pair
+    static final int ENTRY_OVERHEAD_ESTIMATE = 6;
+    static final int NUMBER_SIZE_ESTIMATE = 20;
+
     protected long timestamp;
     protected long duration;
     protected Type identifier;
 
-    final Map<String, String> stringProperties;
-    final Map<String, Long> longProperties;
-    final Map<String, Double> doubleProperties;
-    final Map<String, Boolean> booleanProperties;
-    final Map<String, Date> dateProperties;
+    final EventProperties properties;
+
+    // Set if the event was borrowed from a pool. The other two are guarded by the pool.
+    EventPool<?> pool;
+    boolean idle;
+    EventPool.Borrowed borrowed;
 
     public enum Type {
         CUSTOM_EVENT,
@@ -71,13 +85,27 @@ public abstract class Event {
                  Map<String, Double> doubleProperties,
                  Map<String, Boolean> booleanProperties,
                  Map<String, Date> dateProperties) {
+        this(type, timestamp, duration, EventProperties.of(stringProperties, longProperties, doubleProperties,
+                booleanProperties, dateProperties));
+    }
+
+    /**
+     * Creates an event for a pool, with properties of its own that are replaced whenever it is filled.
+     */
+    Event(Type type) {
+        this(type, 0L, 0L, new EventProperties(8));
+    }
+
+    void fill(long timestamp, long duration, EventProperties properties) {
         this.timestamp = timestamp;
         this.duration = duration;
-        this.stringProperties = stringProperties;
-        this.longProperties = longProperties;
-        this.doubleProperties = doubleProperties;
-        this.booleanProperties = booleanProperties;
-        this.dateProperties = dateProperties;
+        this.properties.copyFrom(properties);
+    }
+
+    Event(Type type, long timestamp, long duration, EventProperties properties) {
+        this.timestamp = timestamp;
+        this.duration = duration;
+        this.properties = properties;
         this.identifier = type;
     }
 
@@ -85,91 +113,107 @@ public abstract class Event {
         writer.beginObject();
         writer.name(TIMESTAMP).value(this.timestamp);
         writer.name(DURATION).value(this.duration);
-        writeProperties(writer);
+        properties.toJson(writer);
         eventSpecificFields(writer);
         writer.endObject();
     }
 
-    private void writeProperties(JsonWriter writer) throws IOException {
-        writer.name(STRING_PROPERTIES);
-        writer.beginObject();
-        if (stringProperties.size() > 0) {
-            Set<Map.Entry<String, String>> set = stringProperties.entrySet();
-            Iterator<Map.Entry<String, String>> i = set.iterator();
-            Map.Entry<String, String> entry;
-            while (i.hasNext()) {
-                entry = i.next();
-                writer.name(entry.getKey()).value(entry.getValue());
-            }
-        }
-        writer.endObject();
+    public abstract void eventSpecificFields(JsonWriter writer) throws IOException;
 
-        writer.name(LONG_PROPERTIES);
+    /**
+     * Writes the same JSON as {@link #toJson(JsonWriter)}, as UTF-8 bytes.
+     *
+     * @param writer byte writer of the upload payload
+     * @throws IOException if the underlying stream fails
+     */
+    public void toJson(JsonByteWriter writer) throws IOException {
         writer.beginObject();
-        if (longProperties.size() > 0) {
-            Set<Map.Entry<String, Long>> set = longProperties.entrySet();
-            Iterator<Map.Entry<String, Long>> i = set.iterator();
-            Map.Entry<String, Long> entry;
-            while (i.hasNext()) {
-                entry = i.next();
-                writer.name(entry.getKey()).value(entry.getValue());
-            }
-        }
+        writer.name(TIMESTAMP_KEY).value(this.timestamp);
+        writer.name(DURATION_KEY).value(this.duration);
+        properties.toJson(writer);
+        eventSpecificFields(writer);
         writer.endObject();
+    }
 
-        writer.name(DATE_PROPERTIES);
-        writer.beginObject();
-        if (dateProperties.size() > 0) {
-            Set<Map.Entry<String, Date>> set = dateProperties.entrySet();
-            Iterator<Map.Entry<String, Date>> i = set.iterator();
-            Map.Entry<String, Date> entry;
-            while (i.hasNext()) {
-                entry = i.next();
-                writer.name(entry.getKey()).value(entry.getValue().getTime());
-            }
+    /**
+     * Writes the same members as {@link #eventSpecificFields(JsonWriter)}, as UTF-8 bytes. The
+     * built-in events override this; other subclasses get their members encoded through
+     * {@link #eventSpecificFields(JsonWriter)} and copied.
+     *
+     * @param writer byte writer of the upload payload
+     * @throws IOException if the underlying stream fails
+     */
+    public void eventSpecificFields(JsonByteWriter writer) throws IOException {
+        StringWriter json = new StringWriter();
+        JsonWriter jsonWriter = new JsonWriter(json);
+        jsonWriter.beginObject();
+        eventSpecificFields(jsonWriter);
+        jsonWriter.endObject();
+        jsonWriter.flush();
+        // Without the braces of the object
+        String members = json.toString();
+        members = members.substring(1, members.length() - 1);
+        if (members.length() > 0) {
+            writer.rawMembers(members.getBytes(UTF_8));
         }
-        writer.endObject();
+    }
 
-        writer.name(DOUBLE_PROPERTIES);
-        writer.beginObject();
-        if (doubleProperties.size() > 0) {
-            Set<Map.Entry<String, Double>> set = doubleProperties.entrySet();
-            Iterator<Map.Entry<String, Double>> i = set.iterator();
-            Map.Entry<String, Double> entry;
-            while (i.hasNext()) {
-                entry = i.next();
-                writer.name(entry.getKey()).value(entry.getValue());
-            }
-        }
-        writer.endObject();
+    /**
+     * Writes JSON encoded with a {@link JsonByteWriter} as the next value of a Gson writer, so that
+     * the Gson output comes from the same code as the upload payload.
+     *
+     * @param writer  Gson writer, positioned after a member name or in an array
+     * @param encoded byte writer holding one complete JSON value and no output stream
+     */
+    static void jsonValue(JsonWriter writer, JsonByteWriter encoded) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(encoded.size());
+        encoded.writeTo(bytes);
+        writer.jsonValue(new String(bytes.toByteArray(), UTF_8));
+    }
 
-        writer.name(BOOLEAN_PROPERTIES);
-        writer.beginObject();
-        if (booleanProperties.size() > 0) {
-            Set<Map.Entry<String, Boolean>> set = booleanProperties.entrySet();
-            Iterator<Map.Entry<String, Boolean>> i = set.iterator();
-            Map.Entry<String, Boolean> entry;
-            while (i.hasNext()) {
-                entry = i.next();
-                writer.name(entry.getKey()).value(entry.getValue());
-            }
-        }
-        writer.endObject();
+    /**
+     * @return approximate number of bytes this event occupies in the JSON payload sent to the collector
+     */
+    public int estimateSize() {
+        int size = BASE_SIZE_ESTIMATE + properties.estimateSize();
+        return size + estimateEventSpecificSize();
     }
 
-    public abstract void eventSpecificFields(JsonWriter writer) throws IOException;
+    /**
+     * @return approximate number of bytes written by {@link #eventSpecificFields(JsonWriter)}
+     */
+    int estimateEventSpecificSize() {
+        return 0;
+    }
+
+    static int estimateSize(String value) {
+        return value == null ? 4 : value.length();
+    }
 
     public abstract Type getType();
 
+    /**
+     * <p>Fields and properties common to the builders of all event types.</p>
+     * <p>The properties are kept in compact arrays rather than in the {@code protected} maps
+     * {@code stringProperties}, {@code longProperties}, {@code doubleProperties},
+     * {@code booleanProperties} and {@code dateProperties} of earlier versions. Those fields are
+     * gone, which breaks subclasses that used them; they can read the properties with the
+     * deprecated accessors of the same names, which return copies.</p>
+     * <p>A builder is not thread safe. The maps used to be concurrent, but a builder must now be
+     * used by one thread at a time.</p>
+     *
+     * @param <T> type of the builder
+     */
     public static class BaseBuilder<T> {
         protected T thisObj;
         protected long timestamp;
         protected long duration = 0L;
-        protected final Map<String, String> stringProperties = new ConcurrentHashMap<String, String>();
-        protected final Map<String, Long> longProperties = new ConcurrentHashMap<String, Long>();
-        protected final Map<String, Double> doubleProperties = new ConcurrentHashMap<String, Double>();
-        protected final Map<String, Boolean> booleanProperties = new ConcurrentHashMap<String, Boolean>();
-        protected final Map<String, Date> dateProperties = new ConcurrentHashMap<String, Date>();
+        // Shared until the first property is added, so that builders without properties allocate nothing
+        EventProperties properties = EventProperties.EMPTY;
+        // Set once the properties have been handed to a built event. The next change copies them first.
+        private boolean propertiesTaken;
+        // Number of properties of the event that took them, to size the storage of the next one
+        private int capacity;
 
         /**
          * @param timestamp Timestamp when the event occurred or started
@@ -198,7 +242,7 @@ public abstract class Event {
          * @return current Builder Object
          */
         public T addStringProperty(String key, String value) {
-            stringProperties.put(getValidKey(key), StringUtils.abbreviate(value, Constants.EVENT_STRING_PROPERTIES_VALUE_MAX));
+            writableProperties().putString(getValidKey(key), StringUtils.abbreviate(value, Constants.EVENT_STRING_PROPERTIES_VALUE_MAX));
             return this.thisObj;
         }
 
@@ -208,7 +252,7 @@ public abstract class Event {
          * @return current Builder Object
          */
         public T removeStringProperty(String key) {
-            stringProperties.remove(getValidKey(key));
+            ownProperties().remove(EventProperties.STRING, getValidKey(key));
             return this.thisObj;
         }
 
@@ -218,7 +262,7 @@ public abstract class Event {
          * @return current Builder Object
          */
         public T clearStringProperties() {
-            stringProperties.clear();
+            ownProperties().clear(EventProperties.STRING);
             return this.thisObj;
         }
 
@@ -229,7 +273,7 @@ public abstract class Event {
          * @return current Builder Object
          */
         public T addLongProperty(String key, long value) {
-            longProperties.put(getValidKey(key), value);
+            writableProperties().putLong(EventProperties.LONG, getValidKey(key), value);
             return this.thisObj;
         }
 
@@ -238,7 +282,7 @@ public abstract class Event {
          * @return current Builder Object
          */
         public T removeLongProperty(String key) {
-            longProperties.remove(getValidKey(key));
+            ownProperties().remove(EventProperties.LONG, getValidKey(key));
             return this.thisObj;
         }
 
@@ -248,7 +292,7 @@ public abstract class Event {
          * @return current Builder Object
          */
         public T clearLongProperties() {
-            longProperties.clear();
+            ownProperties().clear(EventProperties.LONG);
             return this.thisObj;
         }
 
@@ -259,7 +303,7 @@ public abstract class Event {
          * @return current Builder Object
          */
         public T addDoubleProperty(String key, double value) {
-            doubleProperties.put(getValidKey(key), value);
+            writableProperties().putDouble(getValidKey(key), value);
             return this.thisObj;
         }
 
@@ -268,7 +312,7 @@ public abstract class Event {
          * @return current Builder Object
          */
         public T removeDoubleProperty(String key) {
-            doubleProperties.remove(getValidKey(key));
+            ownProperties().remove(EventProperties.DOUBLE, getValidKey(key));
             return this.thisObj;
         }
 
@@ -278,7 +322,7 @@ public abstract class Event {
          * @return current Builder Object
          */
         public T clearDoubleProperties() {
-            doubleProperties.clear();
+            ownProperties().clear(EventProperties.DOUBLE);
             return this.thisObj;
         }
 
@@ -289,7 +333,7 @@ public abstract class Event {
          * @return current Builder Object
          */
         public T addDateProperty(String key, Date value) {
-            dateProperties.put(getValidKey(key), value);
+            writableProperties().putLong(EventProperties.DATE, getValidKey(key), value.getTime());
             return this.thisObj;
         }
 
@@ -298,7 +342,7 @@ public abstract class Event {
          * @return current Builder Object
          */
         public T removeDateProperty(String key) {
-            dateProperties.remove(getValidKey(key));
+            ownProperties().remove(EventProperties.DATE, getValidKey(key));
             return this.thisObj;
         }
 
@@ -308,7 +352,7 @@ public abstract class Event {
          * @return current Builder Object
          */
         public T clearDateProperties() {
-            dateProperties.clear();
+            ownProperties().clear(EventProperties.DATE);
             return this.thisObj;
         }
 
@@ -319,7 +363,7 @@ public abstract class Event {
          * @return current Builder Object
          */
         public T addBooleanProperty(String key, boolean value) {
-            booleanProperties.put(getValidKey(key), value);
+            writableProperties().putLong(EventProperties.BOOLEAN, getValidKey(key), value ? 1 : 0);
             return this.thisObj;
         }
 
@@ -328,7 +372,7 @@ public abstract class Event {
          * @return current Builder Object
          */
         public T removeBooleanProperty(String key) {
-            booleanProperties.remove(getValidKey(key));
+            ownProperties().remove(EventProperties.BOOLEAN, getValidKey(key));
             return this.thisObj;
         }
 
@@ -338,10 +382,111 @@ public abstract class Event {
          * @return current Builder Object
          */
         public T clearBooleanProperties() {
-            booleanProperties.clear();
+            ownProperties().clear(EventProperties.BOOLEAN);
             return this.thisObj;
         }
 
+        /**
+         * Returns the fields of this class to those of a new builder: the timestamp is now, the duration is 0 and there
+         * are no properties. The arrays holding the properties are kept for the next event, unless a built event took
+         * them; new ones of the same size are then allocated on the first property added.
+         */
+        void resetBase() {
+            timestamp = System.currentTimeMillis();
+            duration = 0L;
+            if (propertiesTaken) {
+                propertiesTaken = false;
+                capacity = properties.size();
+                properties = EventProperties.EMPTY;
+            } else {
+                properties.clear();
+            }
+        }
+
+        /**
+         * @return a copy of the string properties added so far
+         * @deprecated the builder no longer keeps its properties in maps, and changes to the copy are
+         * not seen by the builder
+         */
+        @Deprecated
+        protected Map<String, String> getStringProperties() {
+            return propertyMap(EventProperties.STRING);
+        }
+
+        /**
+         * @return a copy of the long properties added so far
+         * @deprecated the builder no longer keeps its properties in maps, and changes to the copy are
+         * not seen by the builder
+         */
+        @Deprecated
+        protected Map<String, Long> getLongProperties() {
+            return propertyMap(EventProperties.LONG);
+        }
+
+        /**
+         * @return a copy of the double properties added so far
+         * @deprecated the builder no longer keeps its properties in maps, and changes to the copy are
+         * not seen by the builder
+         */
+        @Deprecated
+        protected Map<String, Double> getDoubleProperties() {
+            return propertyMap(EventProperties.DOUBLE);
+        }
+
+        /**
+         * @return a copy of the boolean properties added so far
+         * @deprecated the builder no longer keeps its properties in maps, and changes to the copy are
+         * not seen by the builder
+         */
+        @Deprecated
+        protected Map<String, Boolean> getBooleanProperties() {
+            return propertyMap(EventProperties.BOOLEAN);
+        }
+
+        /**
+         * @return a copy of the date properties added so far
+         * @deprecated the builder no longer keeps its properties in maps, and changes to the copy are
+         * not seen by the builder
+         */
+        @Deprecated
+        protected Map<String, Date> getDateProperties() {
+            return propertyMap(EventProperties.DATE);
+        }
+
+        @SuppressWarnings("unchecked")
+        private <V> Map<String, V> propertyMap(int kind) {
+            return (Map<String, V>) (Map<String, ?>) properties.toMap(kind);
+        }
+
+        /**
+         * Hands the properties to a new event instead of copying them. The builder copies them before it
+         * changes them again.
+         *
+         * @return the properties for the event being built
+         */
+        EventProperties takeProperties() {
+            if (properties != EventProperties.EMPTY) {
+                propertiesTaken = true;
+            }
+            return properties;
+        }
+
+        private EventProperties ownProperties() {
+            if (propertiesTaken) {
+                propertiesTaken = false;
+                properties = properties.copy();
+            }
+            return properties;
+        }
+
+        private EventProperties writableProperties() {
+            ownProperties();
+            if (properties == EventProperties.EMPTY) {
+                properties = new EventProperties(capacity > 0 ? capacity : 8);
+            }
+            return properties;
+        }
+
         private String getValidKey(String key) {
             String validKey = StringUtils.remove(key, Constants.PIPE_CHARACTER);
             return StringUtils.abbreviate(validKey, Constants.EVENT_PROPERTIES_KEY_MAX);
@@ -0,0 +1,201 @@
+/**
+ * Copyright (c) 2018 AppDynamics LLC and its affiliates
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.appdynamics.iot.events;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashSet;
+import java.util.Set;
+
+import static com.appdynamics.iot.Instrumentation.LOGGER;
+
+/**
+ * <p>Bounded pool of reusable events of one type, enabled with
+ * {@link com.appdynamics.iot.AgentConfiguration.Builder#withEventPooling(int, boolean)}.</p>
+ * <p>While pooling is enabled, {@link CustomEvent.Builder#build()} and
+ * {@link NetworkRequestEvent.Builder#build()} borrow an event from the pool of its type and fill it,
+ * and the agent returns the event with {@link #recycle(Event)} once it has been encoded for upload.
+ * The pool keeps at most its size of idle events: it allocates a new one when it is empty, and
+ * leaves a returned event to the garbage collector when it is full.</p>
+ * <p>With leak detection, each borrowed event is tracked with a weak reference that remembers
+ * where it was borrowed, and events that were garbage collected without having been returned are
+ * logged the next time an event is borrowed.</p>
+ */
+public abstract class EventPool<T extends Event> {
+    private static volatile EventPool<CustomEvent> customEvents;
+    private static volatile EventPool<NetworkRequestEvent> networkEvents;
+
+    private final Event[] idle;
+    private int count;
+
+    // Only set with leak detection
+    private final ReferenceQueue<Event> collected;
+    private final Set<Borrowed> borrowed;
+    private int leaks;
+
+    EventPool(int size, boolean leakDetection) {
+        this.idle = new Event[size];
+        this.collected = leakDetection ? new ReferenceQueue<Event>() : null;
+        this.borrowed = leakDetection ? new HashSet<Borrowed>() : null;
+    }
+
+    /**
+     * Replaces the pools of all event types. Events of the previous pools can still be returned
+     * to them, but are not borrowed again.
+     *
+     * @param size          maximum number of idle events kept per event type, or 0 to disable pooling
+     * @param leakDetection true to log events that are garbage collected without having been returned
+     */
+    public static void configure(int size, boolean leakDetection) {
+        if (size <= 0) {
+            customEvents = null;
+            networkEvents = null;
+            return;
+        }
+        customEvents = new EventPool<CustomEvent>(size, leakDetection) {
+            @Override
+            CustomEvent create() {
+                return new CustomEvent();
+            }
+        };
+        networkEvents = new EventPool<NetworkRequestEvent>(size, leakDetection) {
+            @Override
+            NetworkRequestEvent create() {
+                return new NetworkRequestEvent();
+            }
+        };
+    }
+
+    /**
+     * Returns a pooled event to its pool. It must not be used afterwards. Events that were not
+     * borrowed from a pool, and events that were already returned, are ignored.
+     *
+     * @param event an event that is no longer used
+     */
+    public static void recycle(Event event) {
+        EventPool<?> pool = event.pool;
+        if (pool != null) {
+            pool.release(event);
+        }
+    }
+
+    /**
+     * @return the pool of custom events, or null if events are not pooled
+     */
+    static EventPool<CustomEvent> customEvents() {
+        return customEvents;
+    }
+
+    /**
+     * @return the pool of network request events, or null if events are not pooled
+     */
+    static EventPool<NetworkRequestEvent> networkEvents() {
+        return networkEvents;
+    }
+
+    abstract T create();
+
+    /**
+     * @return an idle event, or a new one if there is none. The caller fills it.
+     */
+    @SuppressWarnings("unchecked")
+    T borrow() {
+        T event = null;
+        synchronized (this) {
+            if (count > 0) {
+                event = (T) idle[--count];
+                idle[count] = null;
+                event.idle = false;
+            }
+            if (borrowed != null) {
+                detectLeaks();
+            }
+        }
+        if (event == null) {
+            event = create();
+            event.pool = this;
+        }
+        if (borrowed != null) {
+            Borrowed tracker = new Borrowed(event, collected, new Throwable("Borrowed here"));
+            synchronized (this) {
+                borrowed.add(tracker);
+                event.borrowed = tracker;
+            }
+        }
+        return event;
+    }
+
+    private synchronized void release(Event event) {
+        if (event.idle) {
+            if (borrowed != null) {
+                LOGGER.warn("{} was returned to its pool twice", event.getType(), new Throwable("Returned again here"));
+            }
+            return;
+        }
+        if (event.borrowed != null) {
+            borrowed.remove(event.borrowed);
+            event.borrowed.clear();
+            event.borrowed = null;
+        }
+        event.idle = true;
+        if (count < idle.length) {
+            idle[count++] = event;
+        }
+    }
+
+    /**
+     * Logs the events that were garbage collected since the last call without having been returned.
+     *
+     * @return number of such events since the pool was created
+     */
+    synchronized int detectLeaks() {
+        if (collected == null) {
+            return 0;
+        }
+        Borrowed tracker;
+        while ((tracker = (Borrowed) collected.poll()) != null) {
+            if (borrowed.remove(tracker)) {
+                leaks++;
+                LOGGER.warn("A pooled {} was garbage collected without being returned to its pool. "
+                        + "Events must be added with Instrumentation.addEvent or recycled.", tracker.type, tracker.where);
+            }
+        }
+        return leaks;
+    }
+
+    /**
+     * @return number of idle events in the pool
+     */
+    synchronized int size() {
+        return count;
+    }
+
+    /**
+     * Tracks a borrowed event for leak detection. Held by the pool until the event is returned.
+     */
+    static final class Borrowed extends WeakReference<Event> {
+        final Event.Type type;
+        final Throwable where;
+
+        Borrowed(Event event, ReferenceQueue<Event> queue, Throwable where) {
+            super(event, queue);
+            this.type = event.getType();
+            this.where = where;
+        }
+    }
+}
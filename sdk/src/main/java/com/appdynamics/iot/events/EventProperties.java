@@ -0,0 +1,436 @@
+/**
+ * Copyright (c) 2018 AppDynamics LLC and its affiliates
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.appdynamics.iot.events;
+
+import com.appdynamics.iot.utils.JsonByteWriter;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>The properties of an event, in flat parallel arrays: one slot per property holds its key,
+ * its kind and its value. Longs, dates as epoch milliseconds and booleans as 0 or 1 share a
+ * {@code long[]}, doubles have a {@code double[]} and strings a {@code String[]}, each of the
+ * latter two only allocated once a property of its kind is added. Nothing is boxed.</p>
+ * <p>A key is unique within its kind, and properties are written in the order they were added.
+ * Builders modify their own instance, and events hold an immutable copy, or {@link #EMPTY}.
+ * Not thread safe.</p>
+ */
+final class EventProperties {
+    // In the order the kinds are written
+    static final int STRING = 0;
+    static final int LONG = 1;
+    static final int DATE = 2;
+    static final int DOUBLE = 3;
+    static final int BOOLEAN = 4;
+    private static final int KINDS = 5;
+
+    private static final String[] NAMES = {
+            Event.STRING_PROPERTIES, Event.LONG_PROPERTIES, Event.DATE_PROPERTIES,
+            Event.DOUBLE_PROPERTIES, Event.BOOLEAN_PROPERTIES
+    };
+    private static final JsonByteWriter.Key[] KEYS = new JsonByteWriter.Key[KINDS];
+
+    static {
+        for (int kind = 0; kind < KINDS; kind++) {
+            KEYS[kind] = JsonByteWriter.key(NAMES[kind]);
+        }
+    }
+
+    private static final String[] NO_STRINGS = new String[0];
+    private static final byte[] NO_KINDS = new byte[0];
+    private static final long[] NO_LONGS = new long[0];
+
+    /**
+     * Shared by all events without properties. Never modified.
+     */
+    static final EventProperties EMPTY = new EventProperties(0);
+
+    private String[] keys;
+    private byte[] kinds;
+    private long[] longs;
+    private double[] doubles;
+    private String[] strings;
+    private int size;
+
+    EventProperties(int capacity) {
+        if (capacity == 0) {
+            keys = NO_STRINGS;
+            kinds = NO_KINDS;
+            longs = NO_LONGS;
+        } else {
+            keys = new String[capacity];
+            kinds = new byte[capacity];
+            longs = new long[capacity];
+        }
+    }
+
+    /**
+     * @return the properties held by the maps, in the order of their iterators. Null maps are empty.
+     */
+    static EventProperties of(Map<String, String> stringProperties,
+                              Map<String, Long> longProperties,
+                              Map<String, Double> doubleProperties,
+                              Map<String, Boolean> booleanProperties,
+                              Map<String, Date> dateProperties) {
+        EventProperties properties = new EventProperties(4);
+        if (stringProperties != null) {
+            for (Map.Entry<String, String> entry : stringProperties.entrySet()) {
+                properties.putString(entry.getKey(), entry.getValue());
+            }
+        }
+        if (longProperties != null) {
+            for (Map.Entry<String, Long> entry : longProperties.entrySet()) {
+                properties.putLong(LONG, entry.getKey(), entry.getValue());
+            }
+        }
+        if (doubleProperties != null) {
+            for (Map.Entry<String, Double> entry : doubleProperties.entrySet()) {
+                properties.putDouble(entry.getKey(), entry.getValue());
+            }
+        }
+        if (booleanProperties != null) {
+            for (Map.Entry<String, Boolean> entry : booleanProperties.entrySet()) {
+                properties.putLong(BOOLEAN, entry.getKey(), entry.getValue() ? 1 : 0);
+            }
+        }
+        if (dateProperties != null) {
+            for (Map.Entry<String, Date> entry : dateProperties.entrySet()) {
+                properties.putLong(DATE, entry.getKey(), entry.getValue().getTime());
+            }
+        }
+        return properties.copy();
+    }
+
+    int size() {
+        return size;
+    }
+
+    void putString(String key, String value) {
+        if (value == null) {
+            throw new NullPointerException("value == null");
+        }
+        int i = slot(STRING, key);
+        if (strings == null) {
+            strings = new String[keys.length];
+        }
+        strings[i] = value;
+    }
+
+    /**
+     * @param kind  {@link #LONG}, {@link #DATE} or {@link #BOOLEAN}
+     * @param value the long, the epoch milliseconds of the date, or 1 for true and 0 for false
+     */
+    void putLong(int kind, String key, long value) {
+        int i = slot(kind, key);
+        longs[i] = value;
+    }
+
+    void putDouble(String key, double value) {
+        int i = slot(DOUBLE, key);
+        if (doubles == null) {
+            doubles = new double[keys.length];
+        }
+        doubles[i] = value;
+    }
+
+    void remove(int kind, String key) {
+        int i = indexOf(kind, key);
+        if (i < 0) {
+            return;
+        }
+        int moved = size - i - 1;
+        System.arraycopy(keys, i + 1, keys, i, moved);
+        System.arraycopy(kinds, i + 1, kinds, i, moved);
+        System.arraycopy(longs, i + 1, longs, i, moved);
+        if (doubles != null) {
+            System.arraycopy(doubles, i + 1, doubles, i, moved);
+        }
+        if (strings != null) {
+            System.arraycopy(strings, i + 1, strings, i, moved);
+            strings[size - 1] = null;
+        }
+        keys[--size] = null;
+    }
+
+    void clear(int kind) {
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            if (kinds[i] != kind) {
+                keys[kept] = keys[i];
+                kinds[kept] = kinds[i];
+                longs[kept] = longs[i];
+                if (doubles != null) {
+                    doubles[kept] = doubles[i];
+                }
+                if (strings != null) {
+                    strings[kept] = strings[i];
+                }
+                kept++;
+            }
+        }
+        for (int i = kept; i < size; i++) {
+            keys[i] = null;
+            if (strings != null) {
+                strings[i] = null;
+            }
+        }
+        size = kept;
+    }
+
+    /**
+     * Removes all properties, keeping the arrays for the next ones.
+     */
+    void clear() {
+        if (size == 0) {
+            return;
+        }
+        Arrays.fill(keys, 0, size, null);
+        if (strings != null) {
+            Arrays.fill(strings, 0, size, null);
+        }
+        size = 0;
+    }
+
+    boolean contains(int kind, String key) {
+        return indexOf(kind, key) >= 0;
+    }
+
+    String getString(String key) {
+        int i = indexOf(STRING, key);
+        return i < 0 ? null : strings[i];
+    }
+
+    Long getLong(String key) {
+        int i = indexOf(LONG, key);
+        return i < 0 ? null : longs[i];
+    }
+
+    Date getDate(String key) {
+        int i = indexOf(DATE, key);
+        return i < 0 ? null : new Date(longs[i]);
+    }
+
+    Double getDouble(String key) {
+        int i = indexOf(DOUBLE, key);
+        return i < 0 ? null : doubles[i];
+    }
+
+    Boolean getBoolean(String key) {
+        int i = indexOf(BOOLEAN, key);
+        return i < 0 ? null : longs[i] != 0;
+    }
+
+    /**
+     * @return an immutable copy trimmed to size, or {@link #EMPTY} if there are no properties. The
+     * double and string arrays are only copied if properties of their kind are present.
+     */
+    EventProperties copy() {
+        if (size == 0) {
+            return EMPTY;
+        }
+        EventProperties copy = new EventProperties(0);
+        copy.keys = Arrays.copyOf(keys, size);
+        copy.kinds = Arrays.copyOf(kinds, size);
+        copy.longs = Arrays.copyOf(longs, size);
+        for (int i = 0; i < size; i++) {
+            if (kinds[i] == DOUBLE && copy.doubles == null) {
+                copy.doubles = Arrays.copyOf(doubles, size);
+            } else if (kinds[i] == STRING && copy.strings == null) {
+                copy.strings = Arrays.copyOf(strings, size);
+            }
+        }
+        copy.size = size;
+        return copy;
+    }
+
+    /**
+     * Replaces the properties with those of the source, reusing the arrays when they are large enough.
+     */
+    void copyFrom(EventProperties source) {
+        clear();
+        int n = source.size;
+        if (keys.length < n) {
+            keys = new String[n];
+            kinds = new byte[n];
+            longs = new long[n];
+            doubles = null;
+            strings = null;
+        }
+        System.arraycopy(source.keys, 0, keys, 0, n);
+        System.arraycopy(source.kinds, 0, kinds, 0, n);
+        System.arraycopy(source.longs, 0, longs, 0, n);
+        if (source.doubles != null) {
+            if (doubles == null) {
+                doubles = new double[keys.length];
+            }
+            System.arraycopy(source.doubles, 0, doubles, 0, n);
+        }
+        if (source.strings != null) {
+            if (strings == null) {
+                strings = new String[keys.length];
+            }
+            System.arraycopy(source.strings, 0, strings, 0, n);
+        }
+        size = n;
+    }
+
+    /**
+     * @return the properties of the kind in a new map, in the order they were added. Dates are
+     * {@link Date} and booleans {@link Boolean} values.
+     */
+    Map<String, Object> toMap(int kind) {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        for (int i = 0; i < size; i++) {
+            if (kinds[i] != kind) {
+                continue;
+            }
+            switch (kind) {
+                case STRING:
+                    map.put(keys[i], strings[i]);
+                    break;
+                case DOUBLE:
+                    map.put(keys[i], doubles[i]);
+                    break;
+                case BOOLEAN:
+                    map.put(keys[i], longs[i] != 0);
+                    break;
+                case DATE:
+                    map.put(keys[i], new Date(longs[i]));
+                    break;
+                default:
+                    map.put(keys[i], longs[i]);
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Writes the five property objects, each holding the properties of its kind. They are encoded
+     * by {@link #toJson(JsonByteWriter)}.
+     */
+    void toJson(JsonWriter writer) throws IOException {
+        JsonByteWriter encoded = new JsonByteWriter(estimateSize() + 2);
+        for (int kind = 0; kind < KINDS; kind++) {
+            encoded.reset(null);
+            writeKind(encoded, kind);
+            writer.name(NAMES[kind]);
+            Event.jsonValue(writer, encoded);
+        }
+    }
+
+    void toJson(JsonByteWriter writer) throws IOException {
+        for (int kind = 0; kind < KINDS; kind++) {
+            writer.name(KEYS[kind]);
+            writeKind(writer, kind);
+        }
+    }
+
+    /**
+     * Writes the object holding the properties of one kind.
+     */
+    private void writeKind(JsonByteWriter writer, int kind) throws IOException {
+        writer.beginObject();
+        for (int i = 0; i < size; i++) {
+            if (kinds[i] != kind) {
+                continue;
+            }
+            writer.name(keys[i]);
+            switch (kind) {
+                case STRING:
+                    writer.value(strings[i]);
+                    break;
+                case DOUBLE:
+                    writer.value(doubles[i]);
+                    break;
+                case BOOLEAN:
+                    writer.value(longs[i] != 0);
+                    break;
+                default:
+                    writer.value(longs[i]);
+            }
+        }
+        writer.endObject();
+    }
+
+    /**
+     * @return approximate number of bytes of the properties in the JSON payload, not counting
+     * the property objects themselves
+     */
+    int estimateSize() {
+        int estimate = 0;
+        for (int i = 0; i < size; i++) {
+            estimate += keys[i].length() + Event.ENTRY_OVERHEAD_ESTIMATE;
+            switch (kinds[i]) {
+                case STRING:
+                    estimate += Event.estimateSize(strings[i]);
+                    break;
+                case BOOLEAN:
+                    estimate += 5;
+                    break;
+                default:
+                    estimate += Event.NUMBER_SIZE_ESTIMATE;
+            }
+        }
+        return estimate;
+    }
+
+    private int indexOf(int kind, String key) {
+        for (int i = 0; i < size; i++) {
+            if (kinds[i] == kind && keys[i].equals(key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the slot of the key, added at the end if the key is new
+     */
+    private int slot(int kind, String key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        if (this == EMPTY) {
+            throw new UnsupportedOperationException("EMPTY is immutable");
+        }
+        int i = indexOf(kind, key);
+        if (i >= 0) {
+            return i;
+        }
+        if (size == keys.length) {
+            int capacity = Math.max(4, size * 2);
+            keys = Arrays.copyOf(keys, capacity);
+            kinds = Arrays.copyOf(kinds, capacity);
+            longs = Arrays.copyOf(longs, capacity);
+            if (doubles != null) {
+                doubles = Arrays.copyOf(doubles, capacity);
+            }
+            if (strings != null) {
+                strings = Arrays.copyOf(strings, capacity);
+            }
+        }
+        keys[size] = key;
+        kinds[size] = (byte) kind;
+        return size++;
+    }
+}
@@ -17,6 +17,7 @@
 package com.appdynamics.iot.events;
 
 import com.appdynamics.iot.utils.Constants;
+import com.appdynamics.iot.utils.JsonByteWriter;
 import com.appdynamics.iot.utils.StringUtils;
 import com.google.gson.stream.JsonWriter;
 
@@ -40,13 +41,19 @@ public class NetworkRequestEvent extends Event {
     private static final String REQUEST_CONTENT_LENGTH = "requestContentLength";
     private static final String RESPONSE_CONTENT_LENGTH = "responseContentLength";
     private static final String SERVER_RESPONSE_HEADERS = "responseHeaders";
+    private static final JsonByteWriter.Key URL_KEY = JsonByteWriter.key(URL);
+    private static final JsonByteWriter.Key STATUS_CODE_KEY = JsonByteWriter.key(STATUS_CODE);
+    private static final JsonByteWriter.Key NETWORK_ERROR_KEY = JsonByteWriter.key(NETWORK_ERROR);
+    private static final JsonByteWriter.Key REQUEST_CONTENT_LENGTH_KEY = JsonByteWriter.key(REQUEST_CONTENT_LENGTH);
+    private static final JsonByteWriter.Key RESPONSE_CONTENT_LENGTH_KEY = JsonByteWriter.key(RESPONSE_CONTENT_LENGTH);
+    private static final JsonByteWriter.Key SERVER_RESPONSE_HEADERS_KEY = JsonByteWriter.key(SERVER_RESPONSE_HEADERS);
 
-    final String url;
-    final Integer statusCode;
-    final String networkError;
-    final Integer requestContentLength;
-    final Integer responseContentLength;
-    final Map<String, List<String>> responseHeaders;
+    String url;
+    Integer statusCode;
+    String networkError;
+    Integer requestContentLength;
+    Integer responseContentLength;
+    Map<String, List<String>> responseHeaders;
 
     public NetworkRequestEvent(URL url,
                                Integer statusCode,
@@ -61,15 +68,53 @@ public class NetworkRequestEvent extends Event {
                                Map<String, Double> doubleProperties,
                                Map<String, Boolean> booleanProperties,
                                Map<String, Date> dateProperties) {
+        this(url, statusCode, networkError, requestContentLength, responseContentLength, responseHeaders, timestamp, duration,
+                EventProperties.of(stringProperties, longProperties, doubleProperties, booleanProperties,
+                        dateProperties));
+    }
+
+    NetworkRequestEvent(URL url,
+                        Integer statusCode,
+                        String networkError,
+                        Integer requestContentLength,
+                        Integer responseContentLength,
+                        Map<String, List<String>> responseHeaders,
+                        long timestamp,
+                        long duration,
+                        EventProperties properties) {
         super(Type.NETWORK_EVENT,
                 timestamp,
                 duration,
-                stringProperties,
-                longProperties,
-                doubleProperties,
-                booleanProperties,
-                dateProperties);
+                properties);
+        setFields(url, statusCode, networkError, requestContentLength, responseContentLength, responseHeaders);
+    }
+
+    /**
+     * Creates an event for the pool of network request events.
+     */
+    NetworkRequestEvent() {
+        super(Type.NETWORK_EVENT);
+    }
 
+    void fill(URL url,
+              Integer statusCode,
+              String networkError,
+              Integer requestContentLength,
+              Integer responseContentLength,
+              Map<String, List<String>> responseHeaders,
+              long timestamp,
+              long duration,
+              EventProperties properties) {
+        fill(timestamp, duration, properties);
+        setFields(url, statusCode, networkError, requestContentLength, responseContentLength, responseHeaders);
+    }
+
+    private void setFields(URL url,
+                           Integer statusCode,
+                           String networkError,
+                           Integer requestContentLength,
+                           Integer responseContentLength,
+                           Map<String, List<String>> responseHeaders) {
         if (url != null) {
             this.url = StringUtils.abbreviate(url.toString(), Constants.NETWORK_REQUEST_EVENT_URL_MAX);
         } else {
@@ -130,6 +175,58 @@ public class NetworkRequestEvent extends Event {
         }
     }
 
+    @Override
+    public void eventSpecificFields(JsonByteWriter writer) throws IOException {
+        if (this.url != null) {
+            writer.name(URL_KEY).value(url);
+        }
+        if (this.statusCode != null) {
+            writer.name(STATUS_CODE_KEY).value(this.statusCode);
+        }
+        if (this.networkError != null) {
+            writer.name(NETWORK_ERROR_KEY).value(this.networkError);
+        }
+        if (this.requestContentLength != null) {
+            writer.name(REQUEST_CONTENT_LENGTH_KEY).value(this.requestContentLength);
+        }
+        if (this.responseContentLength != null) {
+            writer.name(RESPONSE_CONTENT_LENGTH_KEY).value(this.responseContentLength);
+        }
+        if (this.responseHeaders != null) {
+            writer.name(SERVER_RESPONSE_HEADERS_KEY).beginObject();
+            for (Map.Entry<String, List<String>> entry : responseHeaders.entrySet()) {
+                writer.name(entry.getKey()).beginArray();
+                for (String s : entry.getValue()) {
+                    writer.value(s);
+                }
+                writer.endArray();
+            }
+            writer.endObject();
+        }
+    }
+
+    @Override
+    int estimateEventSpecificSize() {
+        int size = URL.length() + estimateSize(url) + ENTRY_OVERHEAD_ESTIMATE;
+        if (networkError != null) {
+            size += NETWORK_ERROR.length() + networkError.length() + ENTRY_OVERHEAD_ESTIMATE;
+        }
+        // statusCode, requestContentLength and responseContentLength
+        size += 3 * (RESPONSE_CONTENT_LENGTH.length() + NUMBER_SIZE_ESTIMATE);
+        if (responseHeaders != null) {
+            size += SERVER_RESPONSE_HEADERS.length() + ENTRY_OVERHEAD_ESTIMATE;
+            for (Map.Entry<String, List<String>> entry : responseHeaders.entrySet()) {
+                size += estimateSize(entry.getKey()) + ENTRY_OVERHEAD_ESTIMATE;
+                if (entry.getValue() != null) {
+                    for (String value : entry.getValue()) {
+                        size += estimateSize(value) + 3;
+                    }
+                }
+            }
+        }
+        return size;
+    }
+
     @Override
     public Type getType() {
         return Type.NETWORK_EVENT;
@@ -161,7 +258,7 @@ public class NetworkRequestEvent extends Event {
 
     public static final class Builder extends BaseBuilder<Builder> {
 
-        private final URL url;
+        private URL url;
         private Integer statusCode;
         private String networkError;
         private Integer requestContentLength;
@@ -205,8 +302,46 @@ public class NetworkRequestEvent extends Event {
             return this;
         }
 
+        /**
+         * Makes this builder ready for the next event, as if it had just been created with
+         * {@link NetworkRequestEvent#builder(URL)}. Events already built are not affected.
+         *
+         * @param url url of the next request
+         * @return current Builder Object
+         * @see CustomEvent.Builder#reset(String, String)
+         */
+        public synchronized Builder reset(URL url) {
+            resetBase();
+            this.url = url;
+            this.statusCode = null;
+            this.networkError = null;
+            this.requestContentLength = null;
+            this.responseContentLength = null;
+            this.responseHeaders = null;
+            return this;
+        }
+
+        /**
+         * @return a new event, or an event borrowed from the pool of network request events if
+         * {@link com.appdynamics.iot.AgentConfiguration.Builder#withEventPooling(int, boolean) pooling}
+         * is enabled
+         */
         public NetworkRequestEvent build() {
             Map<String, List<String>> adrumHeaders = createAdrumHeaderMap();
+            EventPool<NetworkRequestEvent> pool = EventPool.networkEvents();
+            if (pool != null) {
+                NetworkRequestEvent event = pool.borrow();
+                event.fill(url,
+                        statusCode,
+                        networkError,
+                        requestContentLength,
+                        responseContentLength,
+                        adrumHeaders,
+                        timestamp,
+                        duration,
+                        properties);
+                return event;
+            }
             return new NetworkRequestEvent(url,
                     statusCode,
                     networkError,
@@ -215,11 +350,7 @@ public class NetworkRequestEvent extends Event {
                     adrumHeaders,
                     timestamp,
                     duration,
-                    Collections.unmodifiableMap(new HashMap<String, String>(stringProperties)),
-                    Collections.unmodifiableMap(new HashMap<String, Long>(longProperties)),
-                    Collections.unmodifiableMap(new HashMap<String, Double>(doubleProperties)),
-                    Collections.unmodifiableMap(new HashMap<String, Boolean>(booleanProperties)),
-                    Collections.unmodifiableMap(new HashMap<String, Date>(dateProperties)));
+                    takeProperties());
         }
 
         private synchronized Map<String, List<String>> createAdrumHeaderMap() {
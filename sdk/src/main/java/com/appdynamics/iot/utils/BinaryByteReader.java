@@ -0,0 +1,191 @@
+/**
+ * Copyright (c) 2018 AppDynamics LLC and its affiliates
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appdynamics.iot.utils;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.appdynamics.iot.utils.BinaryByteWriter.BEGIN_ARRAY;
+import static com.appdynamics.iot.utils.BinaryByteWriter.BEGIN_OBJECT;
+import static com.appdynamics.iot.utils.BinaryByteWriter.DOUBLE;
+import static com.appdynamics.iot.utils.BinaryByteWriter.END_ARRAY;
+import static com.appdynamics.iot.utils.BinaryByteWriter.END_OBJECT;
+import static com.appdynamics.iot.utils.BinaryByteWriter.FALSE;
+import static com.appdynamics.iot.utils.BinaryByteWriter.INTEGER;
+import static com.appdynamics.iot.utils.BinaryByteWriter.NULL;
+import static com.appdynamics.iot.utils.BinaryByteWriter.NUMBER_TEXT;
+import static com.appdynamics.iot.utils.BinaryByteWriter.STRING_LITERAL;
+import static com.appdynamics.iot.utils.BinaryByteWriter.STRING_NEW;
+import static com.appdynamics.iot.utils.BinaryByteWriter.STRING_REF;
+import static com.appdynamics.iot.utils.BinaryByteWriter.TRUE;
+
+/**
+ * <p>Reads a document in the binary beacon format written by {@link BinaryByteWriter}, and writes
+ * it to a {@link JsonByteWriter}. The JSON is byte for byte what {@link JsonByteWriter} writes when
+ * it is given the calls that produced the document.</p>
+ * <p>This is the reference decoder for the collector, and is used to verify the format in tests.</p>
+ */
+public final class BinaryByteReader {
+    private final DataInputStream in;
+    private final List<String> strings = new ArrayList<String>();
+
+    private BinaryByteReader(InputStream in) {
+        this.in = new DataInputStream(in);
+    }
+
+    /**
+     * Transcodes one document to JSON.
+     *
+     * @param in  the binary document
+     * @param out writer the JSON is written to. It is not flushed.
+     * @throws IOException if the document is malformed, or of another version of the format
+     */
+    public static void transcode(InputStream in, JsonByteWriter out) throws IOException {
+        BinaryByteReader reader = new BinaryByteReader(in);
+        int version = reader.in.readUnsignedByte();
+        if (version != BinaryByteWriter.FORMAT_VERSION) {
+            throw new IOException("Unsupported binary format version " + version);
+        }
+        reader.value(reader.in.readUnsignedByte(), out);
+        if (reader.in.read() != -1) {
+            throw new IOException("Unexpected data after the end of the document");
+        }
+    }
+
+    private void value(int token, JsonByteWriter out) throws IOException {
+        switch (token) {
+            case BEGIN_OBJECT:
+                out.beginObject();
+                for (int t = in.readUnsignedByte(); t != END_OBJECT; t = in.readUnsignedByte()) {
+                    out.name(string(t));
+                    value(in.readUnsignedByte(), out);
+                }
+                out.endObject();
+                break;
+            case BEGIN_ARRAY:
+                out.beginArray();
+                for (int t = in.readUnsignedByte(); t != END_ARRAY; t = in.readUnsignedByte()) {
+                    value(t, out);
+                }
+                out.endArray();
+                break;
+            case NULL:
+                out.nullValue();
+                break;
+            case FALSE:
+                out.value(false);
+                break;
+            case TRUE:
+                out.value(true);
+                break;
+            case INTEGER:
+                long zigzag = readVarint();
+                out.value((zigzag >>> 1) ^ -(zigzag & 1));
+                break;
+            case DOUBLE:
+                out.value(Double.valueOf(in.readDouble()));
+                break;
+            case NUMBER_TEXT:
+                out.value(new TextNumber(readString()));
+                break;
+            default:
+                out.value(string(token));
+        }
+    }
+
+    private String string(int token) throws IOException {
+        switch (token) {
+            case STRING_NEW:
+                String s = readString();
+                strings.add(s);
+                return s;
+            case STRING_REF:
+                long index = readVarint();
+                if (index >= strings.size()) {
+                    throw new IOException("Unknown string reference " + index);
+                }
+                return strings.get((int) index);
+            case STRING_LITERAL:
+                return readString();
+            default:
+                throw new IOException("Unexpected token " + token);
+        }
+    }
+
+    private String readString() throws IOException {
+        long length = readVarint();
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("String of " + length + " bytes");
+        }
+        byte[] bytes = new byte[(int) length];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private long readVarint() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    /**
+     * A number that is written as the text it was read from.
+     */
+    private static final class TextNumber extends Number {
+        private static final long serialVersionUID = 1L;
+
+        private final String text;
+
+        TextNumber(String text) {
+            this.text = text;
+        }
+
+        @Override
+        public int intValue() {
+            return (int) doubleValue();
+        }
+
+        @Override
+        public long longValue() {
+            return (long) doubleValue();
+        }
+
+        @Override
+        public float floatValue() {
+            return (float) doubleValue();
+        }
+
+        @Override
+        public double doubleValue() {
+            return Double.parseDouble(text);
+        }
+
+        @Override
+        public String toString() {
+            return text;
+        }
+    }
+}
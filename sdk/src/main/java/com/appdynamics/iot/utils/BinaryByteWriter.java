@@ -0,0 +1,345 @@
+/**
+ * Copyright (c) 2018 AppDynamics LLC and its affiliates
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appdynamics.iot.utils;
+
+import com.google.gson.stream.JsonReader;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>Writes the binary beacon format: the same documents as {@link JsonByteWriter}, as a stream of
+ * one byte tokens.</p>
+ * <ul>
+ * <li>Objects and arrays are delimited by begin and end tokens, so no sizes or separators are written.</li>
+ * <li>Integers are zig-zag varints, e.g. 6 bytes for a timestamp instead of 13 characters.</li>
+ * <li>Doubles are 8 bytes. A number whose text is not how Java prints the double, such as a float,
+ * is kept as text.</li>
+ * <li>Strings, including member names, are interned: a string that was written before is written
+ * as its index in a table instead. The table is reset with every document, holds at most
+ * {@link Constants#BINARY_STRING_TABLE_MAX} strings, and only takes strings of at most
+ * {@link Constants#BINARY_INTERN_LENGTH_MAX} characters; other strings are written as literals.</li>
+ * </ul>
+ * <p>A document starts with the format version. {@link BinaryByteReader} turns it back into
+ * exactly the JSON that {@link JsonByteWriter} writes for the same calls. JSON passed to
+ * {@link #rawValue(byte[], int, int)} or {@link #rawMembers(byte[])} is parsed and written as
+ * tokens, so callers write the fields themselves when {@link #copiesRawJson()} is false instead of
+ * caching their JSON. Not thread safe.</p>
+ */
+public class BinaryByteWriter extends JsonByteWriter {
+    public static final int FORMAT_VERSION = 1;
+
+    static final int BEGIN_OBJECT = 0x01;
+    static final int END_OBJECT = 0x02;
+    static final int BEGIN_ARRAY = 0x03;
+    static final int END_ARRAY = 0x04;
+    static final int NULL = 0x05;
+    static final int FALSE = 0x06;
+    static final int TRUE = 0x07;
+    static final int INTEGER = 0x08;
+    static final int DOUBLE = 0x09;
+    static final int NUMBER_TEXT = 0x0a;
+    static final int STRING_NEW = 0x0b;
+    static final int STRING_REF = 0x0c;
+    static final int STRING_LITERAL = 0x0d;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final byte[] OPEN_ARRAY = {'['};
+    private static final byte[] CLOSE_ARRAY = {']'};
+    private static final byte[] OPEN_OBJECT = {'{'};
+    private static final byte[] CLOSE_OBJECT = {'}'};
+
+    private final Map<String, Integer> strings = new HashMap<String, Integer>();
+    private boolean started;
+
+    /**
+     * @param bufferSize number of bytes buffered before they are written to the output stream
+     */
+    public BinaryByteWriter(int bufferSize) {
+        super(bufferSize);
+    }
+
+    @Override
+    public void reset(OutputStream out) {
+        super.reset(out);
+        strings.clear();
+        started = false;
+    }
+
+    @Override
+    public JsonByteWriter beginObject() throws IOException {
+        token(BEGIN_OBJECT);
+        return this;
+    }
+
+    @Override
+    public JsonByteWriter endObject() throws IOException {
+        token(END_OBJECT);
+        return this;
+    }
+
+    @Override
+    public JsonByteWriter beginArray() throws IOException {
+        token(BEGIN_ARRAY);
+        return this;
+    }
+
+    @Override
+    public JsonByteWriter endArray() throws IOException {
+        token(END_ARRAY);
+        return this;
+    }
+
+    @Override
+    public JsonByteWriter name(Key key) throws IOException {
+        string(key.name);
+        return this;
+    }
+
+    @Override
+    public JsonByteWriter name(String name) throws IOException {
+        if (name == null) {
+            throw new NullPointerException("name == null");
+        }
+        string(name);
+        return this;
+    }
+
+    @Override
+    public JsonByteWriter value(String value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        }
+        string(value);
+        return this;
+    }
+
+    @Override
+    public JsonByteWriter value(long value) throws IOException {
+        token(INTEGER);
+        writeVarint((value << 1) ^ (value >> 63));
+        return this;
+    }
+
+    @Override
+    public JsonByteWriter value(boolean value) throws IOException {
+        token(value ? TRUE : FALSE);
+        return this;
+    }
+
+    @Override
+    public JsonByteWriter value(Boolean value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        }
+        return value(value.booleanValue());
+    }
+
+    @Override
+    public JsonByteWriter value(double value) throws IOException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            throw new IllegalArgumentException("Numeric values must be finite, but was " + value);
+        }
+        return writeDouble(value);
+    }
+
+    @Override
+    public JsonByteWriter value(Number value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        }
+        if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return value(value.longValue());
+        }
+        String string = value.toString();
+        if (string.equals("-Infinity") || string.equals("Infinity") || string.equals("NaN")) {
+            throw new IllegalArgumentException("Numeric values must be finite, but was " + value);
+        }
+        return number(string);
+    }
+
+    @Override
+    public JsonByteWriter nullValue() throws IOException {
+        token(NULL);
+        return this;
+    }
+
+    @Override
+    public boolean copiesRawJson() {
+        return false;
+    }
+
+    /**
+     * Parses JSON that has already been encoded, and writes it as tokens.
+     *
+     * @throws IOException if the output stream fails or the bytes are not valid JSON
+     */
+    @Override
+    public JsonByteWriter rawValue(byte[] bytes, int offset, int length) throws IOException {
+        // The bytes may hold several comma separated values, so they are read as the elements of an array
+        JsonReader reader = reader(OPEN_ARRAY, bytes, offset, length, CLOSE_ARRAY);
+        reader.beginArray();
+        while (reader.hasNext()) {
+            transcode(reader);
+        }
+        reader.endArray();
+        return this;
+    }
+
+    /**
+     * Parses object members that have already been encoded, and writes them as tokens.
+     *
+     * @throws IOException if the output stream fails or the bytes are not valid JSON
+     */
+    @Override
+    public JsonByteWriter rawMembers(byte[] bytes) throws IOException {
+        JsonReader reader = reader(OPEN_OBJECT, bytes, 0, bytes.length, CLOSE_OBJECT);
+        reader.beginObject();
+        while (reader.hasNext()) {
+            name(reader.nextName());
+            transcode(reader);
+        }
+        reader.endObject();
+        return this;
+    }
+
+    private static JsonReader reader(byte[] open, byte[] bytes, int offset, int length, byte[] close) {
+        InputStream in = new SequenceInputStream(new ByteArrayInputStream(open),
+                new SequenceInputStream(new ByteArrayInputStream(bytes, offset, length), new ByteArrayInputStream(close)));
+        return new JsonReader(new InputStreamReader(in, UTF_8));
+    }
+
+    private void transcode(JsonReader reader) throws IOException {
+        switch (reader.peek()) {
+            case BEGIN_OBJECT:
+                reader.beginObject();
+                beginObject();
+                while (reader.hasNext()) {
+                    name(reader.nextName());
+                    transcode(reader);
+                }
+                reader.endObject();
+                endObject();
+                break;
+            case BEGIN_ARRAY:
+                reader.beginArray();
+                beginArray();
+                while (reader.hasNext()) {
+                    transcode(reader);
+                }
+                reader.endArray();
+                endArray();
+                break;
+            case STRING:
+                value(reader.nextString());
+                break;
+            case NUMBER:
+                number(reader.nextString());
+                break;
+            case BOOLEAN:
+                value(reader.nextBoolean());
+                break;
+            case NULL:
+                reader.nextNull();
+                nullValue();
+                break;
+            default:
+                throw new IOException("Unexpected JSON token " + reader.peek());
+        }
+    }
+
+    /**
+     * Writes a number from its JSON text, in the shortest form it can be read back from as the same text.
+     */
+    private JsonByteWriter number(String text) throws IOException {
+        try {
+            long l = Long.parseLong(text);
+            if (Long.toString(l).equals(text)) {
+                return value(l);
+            }
+        } catch (NumberFormatException e) {
+            // Not an integer
+        }
+        try {
+            double d = Double.parseDouble(text);
+            if (Double.toString(d).equals(text)) {
+                return writeDouble(d);
+            }
+        } catch (NumberFormatException e) {
+            // Kept as text
+        }
+        token(NUMBER_TEXT);
+        writeString(text.getBytes(UTF_8));
+        return this;
+    }
+
+    private JsonByteWriter writeDouble(double value) throws IOException {
+        token(DOUBLE);
+        long bits = Double.doubleToRawLongBits(value);
+        require(8);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            buffer[count++] = (byte) (bits >> shift);
+        }
+        return this;
+    }
+
+    private void string(String value) throws IOException {
+        Integer index = strings.get(value);
+        if (index != null) {
+            token(STRING_REF);
+            writeVarint(index);
+        } else if (value.length() <= Constants.BINARY_INTERN_LENGTH_MAX && strings.size() < Constants.BINARY_STRING_TABLE_MAX) {
+            strings.put(value, strings.size());
+            token(STRING_NEW);
+            writeString(value.getBytes(UTF_8));
+        } else {
+            token(STRING_LITERAL);
+            writeString(value.getBytes(UTF_8));
+        }
+    }
+
+    private void token(int token) throws IOException {
+        if (!started) {
+            started = true;
+            writeByte(FORMAT_VERSION);
+        }
+        writeByte(token);
+    }
+
+    private void writeString(byte[] bytes) throws IOException {
+        writeVarint(bytes.length);
+        require(bytes.length);
+        System.arraycopy(bytes, 0, buffer, count, bytes.length);
+        count += bytes.length;
+    }
+
+    private void writeVarint(long value) throws IOException {
+        require(10);
+        while ((value & ~0x7fL) != 0) {
+            buffer[count++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        buffer[count++] = (byte) value;
+    }
+}
@@ -0,0 +1,223 @@
+/**
+ * Copyright (c) 2018 AppDynamics LLC and its affiliates
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appdynamics.iot.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * <p>Takes the calls that write a row payload, an array of beacons, and writes the payload in the
+ * columnar layout of {@link ColumnarTranscoder} to another writer.</p>
+ * <p>Each beacon is held as JSON until it is complete, and is then converted on its own. Only one
+ * beacon is held at a time, rather than the whole payload. Not thread safe.</p>
+ */
+public class ColumnarByteWriter extends JsonByteWriter {
+    // Holds the beacon being written, as the only element of an array
+    private final JsonByteWriter rows;
+    private JsonByteWriter out;
+    private int depth;
+
+    /**
+     * @param bufferSize initial size of the buffer holding one beacon
+     */
+    public ColumnarByteWriter(int bufferSize) {
+        super(16);
+        this.rows = new JsonByteWriter(bufferSize);
+    }
+
+    /**
+     * Starts a new payload.
+     *
+     * @param out writer the columnar payload is written to. It is not flushed.
+     */
+    public void start(JsonByteWriter out) {
+        this.out = out;
+        this.depth = 0;
+        rows.reset(null);
+    }
+
+    /**
+     * Stops writing to the writer given to {@link #start(JsonByteWriter)}, discarding any beacon
+     * that is not complete.
+     */
+    @Override
+    public void reset(OutputStream out) {
+        this.out = null;
+        this.depth = 0;
+        rows.reset(null);
+    }
+
+    /**
+     * Like {@link #reset(OutputStream)}, and gives up the buffer holding a beacon if it has grown
+     * past the given size.
+     */
+    @Override
+    public void release(int bufferSize) {
+        reset(null);
+        rows.release(bufferSize);
+    }
+
+    /**
+     * Does nothing, since only complete beacons are written, and the target writer is flushed by
+     * its owner.
+     */
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public int size() {
+        return rows.size();
+    }
+
+    @Override
+    public void writeTo(OutputStream target) {
+        throw new UnsupportedOperationException("The columnar payload is written to another writer");
+    }
+
+    @Override
+    public JsonByteWriter beginObject() throws IOException {
+        beginElement();
+        rows.beginObject();
+        depth++;
+        return this;
+    }
+
+    @Override
+    public JsonByteWriter endObject() throws IOException {
+        rows.endObject();
+        endElement();
+        return this;
+    }
+
+    @Override
+    public JsonByteWriter beginArray() throws IOException {
+        if (depth == 0) {
+            out.beginArray();
+        } else {
+            beginElement();
+            rows.beginArray();
+        }
+        depth++;
+        return this;
+    }
+
+    @Override
+    public JsonByteWriter endArray() throws IOException {
+        if (depth == 1) {
+            depth--;
+            out.endArray();
+        } else {
+            rows.endArray();
+            endElement();
+        }
+        return this;
+    }
+
+    @Override
+    public JsonByteWriter name(Key key) throws IOException {
+        rows.name(key);
+        return this;
+    }
+
+    @Override
+    public JsonByteWriter name(String name) throws IOException {
+        rows.name(name);
+        return this;
+    }
+
+    @Override
+    public JsonByteWriter value(String value) throws IOException {
+        rows.value(value);
+        return this;
+    }
+
+    @Override
+    public JsonByteWriter value(long value) throws IOException {
+        rows.value(value);
+        return this;
+    }
+
+    @Override
+    public JsonByteWriter value(boolean value) throws IOException {
+        rows.value(value);
+        return this;
+    }
+
+    @Override
+    public JsonByteWriter value(Boolean value) throws IOException {
+        rows.value(value);
+        return this;
+    }
+
+    @Override
+    public JsonByteWriter value(double value) throws IOException {
+        rows.value(value);
+        return this;
+    }
+
+    @Override
+    public JsonByteWriter value(Number value) throws IOException {
+        rows.value(value);
+        return this;
+    }
+
+    /**
+     * Takes encoded JSON. Directly in the payload array, the bytes are one or more complete beacons,
+     * which are converted right away.
+     */
+    @Override
+    public JsonByteWriter rawValue(byte[] bytes, int offset, int length) throws IOException {
+        if (depth == 1) {
+            rows.reset(null);
+            rows.beginArray();
+            rows.rawValue(bytes, offset, length);
+            rows.endArray();
+            ColumnarTranscoder.writeColumns(rows, out);
+        } else {
+            rows.rawValue(bytes, offset, length);
+        }
+        return this;
+    }
+
+    @Override
+    public JsonByteWriter rawMembers(byte[] bytes) throws IOException {
+        rows.rawMembers(bytes);
+        return this;
+    }
+
+    @Override
+    public JsonByteWriter nullValue() throws IOException {
+        rows.nullValue();
+        return this;
+    }
+
+    private void beginElement() throws IOException {
+        if (depth == 1) {
+            rows.reset(null);
+            rows.beginArray();
+        }
+    }
+
+    private void endElement() throws IOException {
+        depth--;
+        if (depth == 1) {
+            rows.endArray();
+            ColumnarTranscoder.writeColumns(rows, out);
+        }
+    }
+}
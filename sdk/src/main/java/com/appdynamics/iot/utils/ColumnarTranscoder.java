@@ -0,0 +1,445 @@
+/**
+ * Copyright (c) 2018 AppDynamics LLC and its affiliates
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.appdynamics.iot.utils;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>Converts an upload payload between the row layout, where every event is an object, and the
+ * columnar layout, where the events of each type in a beacon are stored column by column.</p>
+ * <p>In the columnar layout, every array of event objects in a beacon is replaced by an object
+ * {@code {"count":n,"columns":[...]}}. An event is split into columns by the path of each of its
+ * values, e.g. {@code ["stringProperties","color"]}; nested objects are followed, while arrays and
+ * empty objects are values. Columns are listed in the order their members appear in the events.
+ * A column has the {@code "path"}, the {@code "rows"} holding a value if not all of them do, and
+ * the values in one of these forms:</p>
+ * <ul>
+ * <li>{@code "const"}: the one value of all rows</li>
+ * <li>{@code "delta"}: integers as the first value followed by the difference to the previous
+ * value, e.g. timestamps</li>
+ * <li>{@code "dict"} and {@code "refs"}: the distinct strings, and the index of each value in them</li>
+ * <li>{@code "values"}: the values as they are</li>
+ * </ul>
+ * <p>Repeated member names, repeated values and slowly growing numbers are then written once or as
+ * small numbers, and values of the same kind are next to each other for the compressor.
+ * Converting back yields the same JSON, except that the members of an event are in column order.</p>
+ */
+public final class ColumnarTranscoder {
+    static final String COUNT = "count";
+    static final String COLUMNS = "columns";
+    static final String PATH = "path";
+    static final String ROWS = "rows";
+    static final String CONST = "const";
+    static final String DELTA = "delta";
+    static final String DICT = "dict";
+    static final String REFS = "refs";
+    static final String VALUES = "values";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private ColumnarTranscoder() {
+    }
+
+    /**
+     * Writes the row payload held by a writer in the columnar layout.
+     *
+     * @param rows writer holding the JSON of the row payload, nothing of which has been flushed
+     * @param out  writer the columnar payload is written to. It is not flushed.
+     * @throws IOException if the payload is not valid JSON, or the output stream fails
+     */
+    public static void toColumns(JsonByteWriter rows, JsonByteWriter out) throws IOException {
+        if (rows.count == 0) {
+            return;
+        }
+        out.beginArray();
+        writeColumns(rows, out);
+        out.endArray();
+    }
+
+    /**
+     * Writes the beacons of an array held by a writer in the columnar layout, as the next elements
+     * of the array being written to out. Only one beacon is parsed at a time.
+     *
+     * @param rows writer holding the JSON of an array of beacons, nothing of which has been flushed
+     * @param out  writer the beacons are written to. It is not flushed.
+     * @throws IOException if the beacons are not valid JSON, or the output stream fails
+     */
+    static void writeColumns(JsonByteWriter rows, JsonByteWriter out) throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(
+                new ByteArrayInputStream(rows.buffer, 0, rows.count), UTF_8));
+        JsonParser parser = new JsonParser();
+        try {
+            reader.beginArray();
+            while (reader.hasNext()) {
+                JsonElement beacon = parser.parse(reader);
+                if (beacon.isJsonObject()) {
+                    beaconToColumns(beacon.getAsJsonObject());
+                }
+                write(beacon, out);
+            }
+            reader.endArray();
+        } catch (JsonParseException e) {
+            throw new IOException("Payload is not valid JSON", e);
+        } catch (IllegalStateException e) {
+            throw new IOException("Expected a JSON array of beacons", e);
+        }
+    }
+
+    /**
+     * Writes a payload in the columnar layout in the row layout.
+     *
+     * @param in  the columnar payload
+     * @param out writer the row payload is written to. It is not flushed.
+     * @throws IOException if the payload is not valid, or the output stream fails
+     */
+    public static void toRows(InputStream in, JsonByteWriter out) throws IOException {
+        write(toRows(parse(in)), out);
+    }
+
+    private static void beaconToColumns(JsonObject beacon) {
+        for (Map.Entry<String, JsonElement> member : beacon.entrySet()) {
+            if (isEventArray(member.getValue())) {
+                member.setValue(columns(member.getValue().getAsJsonArray()));
+            }
+        }
+    }
+
+    static JsonElement toRows(JsonElement payload) throws IOException {
+        JsonArray beacons = asArray(payload);
+        for (JsonElement beacon : beacons) {
+            if (!beacon.isJsonObject()) {
+                continue;
+            }
+            for (Map.Entry<String, JsonElement> member : beacon.getAsJsonObject().entrySet()) {
+                if (isColumnar(member.getValue())) {
+                    member.setValue(rows(member.getValue().getAsJsonObject()));
+                }
+            }
+        }
+        return beacons;
+    }
+
+    private static final class Column {
+        final List<String> path;
+        final List<Integer> rows = new ArrayList<Integer>();
+        final List<JsonElement> values = new ArrayList<JsonElement>();
+
+        Column(List<String> path) {
+            this.path = path;
+        }
+    }
+
+    private static JsonObject columns(JsonArray events) {
+        List<Column> columns = new ArrayList<Column>();
+        Map<List<String>, Column> byPath = new HashMap<List<String>, Column>();
+        for (int row = 0; row < events.size(); row++) {
+            split(events.get(row).getAsJsonObject(), Collections.<String>emptyList(), row, columns, byPath, null);
+        }
+        JsonArray encoded = new JsonArray();
+        for (Column column : columns) {
+            encoded.add(encode(column, events.size()));
+        }
+        JsonObject object = new JsonObject();
+        object.addProperty(COUNT, events.size());
+        object.add(COLUMNS, encoded);
+        return object;
+    }
+
+    /**
+     * Adds the values of an object to their columns. A new column goes right after the column of
+     * the value before it, so columns keep the order of the members.
+     *
+     * @return the column of the last value added
+     */
+    private static Column split(JsonObject object, List<String> prefix, int row, List<Column> columns,
+                                Map<List<String>, Column> byPath, Column previous) {
+        for (Map.Entry<String, JsonElement> member : object.entrySet()) {
+            List<String> path = new ArrayList<String>(prefix.size() + 1);
+            path.addAll(prefix);
+            path.add(member.getKey());
+            JsonElement value = member.getValue();
+            if (value.isJsonObject() && value.getAsJsonObject().size() > 0) {
+                previous = split(value.getAsJsonObject(), path, row, columns, byPath, previous);
+                continue;
+            }
+            Column column = byPath.get(path);
+            if (column == null) {
+                column = new Column(path);
+                byPath.put(path, column);
+                columns.add(previous == null ? 0 : columns.indexOf(previous) + 1, column);
+            }
+            column.rows.add(row);
+            column.values.add(value);
+            previous = column;
+        }
+        return previous;
+    }
+
+    private static JsonObject encode(Column column, int count) {
+        JsonObject encoded = new JsonObject();
+        JsonArray path = new JsonArray();
+        for (String name : column.path) {
+            path.add(name);
+        }
+        encoded.add(PATH, path);
+        if (column.rows.size() < count) {
+            JsonArray rows = new JsonArray();
+            for (Integer row : column.rows) {
+                rows.add(row);
+            }
+            encoded.add(ROWS, rows);
+        }
+
+        List<JsonElement> values = column.values;
+        boolean constant = true;
+        boolean integers = true;
+        boolean strings = true;
+        for (JsonElement value : values) {
+            constant &= same(value, values.get(0));
+            integers &= isInteger(value);
+            strings &= value.isJsonPrimitive() && value.getAsJsonPrimitive().isString();
+        }
+        if (constant) {
+            encoded.add(CONST, values.get(0));
+        } else if (integers) {
+            JsonArray deltas = new JsonArray();
+            long previous = 0;
+            for (JsonElement value : values) {
+                long l = value.getAsLong();
+                // Wraps around on overflow, and is added back the same way
+                deltas.add(l - previous);
+                previous = l;
+            }
+            encoded.add(DELTA, deltas);
+        } else if (strings) {
+            Map<String, Integer> indexes = new LinkedHashMap<String, Integer>();
+            JsonArray refs = new JsonArray();
+            for (JsonElement value : values) {
+                String s = value.getAsString();
+                Integer index = indexes.get(s);
+                if (index == null) {
+                    index = indexes.size();
+                    indexes.put(s, index);
+                }
+                refs.add(index);
+            }
+            if (indexes.size() < values.size()) {
+                JsonArray dict = new JsonArray();
+                for (String s : indexes.keySet()) {
+                    dict.add(s);
+                }
+                encoded.add(DICT, dict);
+                encoded.add(REFS, refs);
+            } else {
+                encoded.add(VALUES, array(values));
+            }
+        } else {
+            encoded.add(VALUES, array(values));
+        }
+        return encoded;
+    }
+
+    private static JsonArray rows(JsonObject columnar) throws IOException {
+        int count = columnar.get(COUNT).getAsInt();
+        List<JsonObject> events = new ArrayList<JsonObject>(count);
+        for (int i = 0; i < count; i++) {
+            events.add(new JsonObject());
+        }
+        for (JsonElement element : asArray(columnar.get(COLUMNS))) {
+            JsonObject column = element.getAsJsonObject();
+            JsonArray path = asArray(column.get(PATH));
+            List<Integer> rows = new ArrayList<Integer>();
+            if (column.has(ROWS)) {
+                for (JsonElement row : asArray(column.get(ROWS))) {
+                    rows.add(row.getAsInt());
+                }
+            } else {
+                for (int i = 0; i < count; i++) {
+                    rows.add(i);
+                }
+            }
+            List<JsonElement> values = values(column, rows.size());
+            for (int i = 0; i < rows.size(); i++) {
+                if (rows.get(i) < 0 || rows.get(i) >= count) {
+                    throw new IOException("Row " + rows.get(i) + " of column " + path + " is out of range");
+                }
+                set(events.get(rows.get(i)), path, values.get(i));
+            }
+        }
+        JsonArray array = new JsonArray();
+        for (JsonObject event : events) {
+            array.add(event);
+        }
+        return array;
+    }
+
+    private static List<JsonElement> values(JsonObject column, int size) throws IOException {
+        List<JsonElement> values = new ArrayList<JsonElement>(size);
+        if (column.has(CONST)) {
+            for (int i = 0; i < size; i++) {
+                values.add(column.get(CONST));
+            }
+        } else if (column.has(DELTA)) {
+            long value = 0;
+            for (JsonElement delta : asArray(column.get(DELTA))) {
+                value += delta.getAsLong();
+                values.add(new JsonPrimitive(value));
+            }
+        } else if (column.has(DICT)) {
+            JsonArray dict = asArray(column.get(DICT));
+            for (JsonElement ref : asArray(column.get(REFS))) {
+                values.add(dict.get(ref.getAsInt()));
+            }
+        } else if (column.has(VALUES)) {
+            for (JsonElement value : asArray(column.get(VALUES))) {
+                values.add(value);
+            }
+        }
+        if (values.size() != size) {
+            throw new IOException("Column " + column.get(PATH) + " has " + values.size() + " values for " + size + " rows");
+        }
+        return values;
+    }
+
+    private static void set(JsonObject event, JsonArray path, JsonElement value) {
+        JsonObject object = event;
+        for (int i = 0; i < path.size() - 1; i++) {
+            String name = path.get(i).getAsString();
+            JsonElement child = object.get(name);
+            if (child == null || !child.isJsonObject()) {
+                child = new JsonObject();
+                object.add(name, child);
+            }
+            object = child.getAsJsonObject();
+        }
+        object.add(path.get(path.size() - 1).getAsString(), value);
+    }
+
+    private static boolean isEventArray(JsonElement value) {
+        if (!value.isJsonArray() || value.getAsJsonArray().size() == 0) {
+            return false;
+        }
+        for (JsonElement element : value.getAsJsonArray()) {
+            if (!element.isJsonObject()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isColumnar(JsonElement value) {
+        return value.isJsonObject() && value.getAsJsonObject().size() == 2
+                && value.getAsJsonObject().has(COUNT) && value.getAsJsonObject().has(COLUMNS);
+    }
+
+    /**
+     * @return true if both values are written the same. Unlike {@link JsonElement#equals(Object)},
+     * numbers are compared by their text, so that 1.5 and 1.50 stay apart.
+     */
+    private static boolean same(JsonElement a, JsonElement b) {
+        if (a.isJsonPrimitive() && b.isJsonPrimitive()) {
+            JsonPrimitive p = a.getAsJsonPrimitive();
+            JsonPrimitive q = b.getAsJsonPrimitive();
+            return p.isNumber() == q.isNumber() && p.isString() == q.isString()
+                    && p.getAsString().equals(q.getAsString());
+        }
+        return a.equals(b);
+    }
+
+    private static boolean isInteger(JsonElement value) {
+        if (!value.isJsonPrimitive() || !value.getAsJsonPrimitive().isNumber()) {
+            return false;
+        }
+        String text = value.getAsString();
+        try {
+            return Long.toString(Long.parseLong(text)).equals(text);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static JsonArray array(List<JsonElement> values) {
+        JsonArray array = new JsonArray();
+        for (JsonElement value : values) {
+            array.add(value);
+        }
+        return array;
+    }
+
+    private static JsonArray asArray(JsonElement element) throws IOException {
+        if (element == null || !element.isJsonArray()) {
+            throw new IOException("Expected a JSON array");
+        }
+        return element.getAsJsonArray();
+    }
+
+    private static JsonElement parse(InputStream in) throws IOException {
+        try {
+            return new JsonParser().parse(new InputStreamReader(in, UTF_8));
+        } catch (JsonSyntaxException e) {
+            throw new IOException("Payload is not valid JSON", e);
+        }
+    }
+
+    private static void write(JsonElement element, JsonByteWriter out) throws IOException {
+        if (element.isJsonObject()) {
+            out.beginObject();
+            for (Map.Entry<String, JsonElement> member : element.getAsJsonObject().entrySet()) {
+                out.name(member.getKey());
+                write(member.getValue(), out);
+            }
+            out.endObject();
+        } else if (element.isJsonArray()) {
+            out.beginArray();
+            for (JsonElement value : element.getAsJsonArray()) {
+                write(value, out);
+            }
+            out.endArray();
+        } else if (element.isJsonNull()) {
+            out.nullValue();
+        } else {
+            JsonPrimitive primitive = element.getAsJsonPrimitive();
+            if (primitive.isBoolean()) {
+                out.value(primitive.getAsBoolean());
+            } else if (primitive.isNumber()) {
+                out.value(primitive.getAsNumber());
+            } else {
+                out.value(primitive.getAsString());
+            }
+        }
+    }
+}
@@ -39,10 +39,14 @@ public class Constants {
     public static final int ERROR_EVENT_STACK_FRAME_SYMBOL_NAME_MAX = 128;
     public static final int ERROR_EVENT_STACK_FRAME_PACKAGE_NAME_MAX = 256;
     public static final int ERROR_EVENT_STACK_FRAME_FILE_PATH_MAX = 4096;
+    // Stack frames whose uploaded form is kept, so that repeated errors reuse their strings
+    public static final int ERROR_EVENT_STACK_FRAME_CACHE_SIZE = 256;
 
     public static final int CUSTOM_EVENTS_MAX = 200;
     public static final int NETWORK_REQUEST_EVENTS_MAX = CUSTOM_EVENTS_MAX;
     public static final int ERROR_EVENTS_MAX = CUSTOM_EVENTS_MAX;
+    // Limits of the collector for the events of one beacon, per type, and the most a beacon holds in all
+    public static final int BEACON_EVENTS_MAX = CUSTOM_EVENTS_MAX + NETWORK_REQUEST_EVENTS_MAX + ERROR_EVENTS_MAX;
 
     public static final int VERSION_INFO_HWVERSION_MAX = 80;
     public static final int VERSION_INFO_FWVERSION_MAX = 80;
@@ -55,4 +59,27 @@ public class Constants {
 
     public static final char PIPE_CHARACTER = '|';
     public static final int BEACONS_IN_MEMORY_MAX = 10;
+
+    public static final int BEACON_TARGET_SIZE_DEFAULT = 64 * 1024;
+    public static final int PAYLOAD_BUFFER_SIZE = 8192;
+    public static final int DEFLATE_BUFFER_SIZE = 8192;
+    public static final int RETRY_UPLOADS_MAX = 10;
+    // Compressed bytes of failed uploads kept for a retry when the buffer has no byte budget
+    public static final long RETRY_UPLOAD_BYTES_MAX = 1024 * 1024;
+    public static final double RETRY_JITTER_DEFAULT = 0.5;
+    public static final int CIRCUIT_BREAKER_FAILURE_THRESHOLD = 5;
+    public static final double UPLOAD_RATE_MIN_FACTOR = 1.0 / 64;
+    public static final double UPLOAD_RATE_RECOVERY_STEP = 0.05;
+    public static final int SPOOL_SEGMENT_SIZE = 1024 * 1024;
+    public static final long SPOOL_MAX_BYTES_DEFAULT = 16 * 1024 * 1024;
+    public static final int EVENT_ENCODE_BUFFER_SIZE = 1024;
+    public static final String BINARY_CONTENT_TYPE = "application/x-appd-beacon; version=1";
+    // The columnar layout, as JSON and in the binary format
+    public static final String COLUMNAR_CONTENT_TYPE = "application/x-appd-beacon-columns+json; charset=UTF-8";
+    public static final String BINARY_COLUMNAR_CONTENT_TYPE = BINARY_CONTENT_TYPE + "; layout=columns";
+    public static final int BINARY_STRING_TABLE_MAX = 4096;
+    public static final int BINARY_INTERN_LENGTH_MAX = 256;
+    public static final int RESPONSE_READ_BUFFER_SIZE = 1024;
+    public static final int RESPONSE_BODY_LOG_MAX = 1024;
+    public static final int TLS_SESSION_TIMEOUT_SECONDS = 24 * 60 * 60;
 }
@@ -0,0 +1,428 @@
+/**
+ * Copyright (c) 2018 AppDynamics LLC and its affiliates
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appdynamics.iot.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * <p>Writes JSON as UTF-8 bytes into a reusable buffer, which is handed to an output stream
+ * whenever it fills up.</p>
+ * <p>The output is byte for byte what a Gson {@link com.google.gson.stream.JsonWriter} with default
+ * settings writes through a UTF-8 writer: the same escaping, nulls serialized and non-finite
+ * numbers rejected. Names that are known up front can be escaped once into a {@link Key}.</p>
+ * <p>Only the nesting needed to place commas is tracked; callers are expected to write a
+ * well-formed document. Not thread safe.</p>
+ * <p>{@link BinaryByteWriter} takes the same calls and writes the binary beacon format instead,
+ * so everything that can write itself here can be written in either format.</p>
+ */
+public class JsonByteWriter {
+    private static final byte[][] REPLACEMENT_BYTES = new byte[128][];
+    private static final byte[] LINE_SEPARATOR = ascii("\\u2028");
+    private static final byte[] PARAGRAPH_SEPARATOR = ascii("\\u2029");
+    private static final byte[] NULL = ascii("null");
+    private static final byte[] TRUE = ascii("true");
+    private static final byte[] FALSE = ascii("false");
+
+    static {
+        for (int i = 0; i <= 0x1f; i++) {
+            REPLACEMENT_BYTES[i] = ascii(String.format("\\u%04x", i));
+        }
+        REPLACEMENT_BYTES['"'] = ascii("\\\"");
+        REPLACEMENT_BYTES['\\'] = ascii("\\\\");
+        REPLACEMENT_BYTES['\t'] = ascii("\\t");
+        REPLACEMENT_BYTES['\b'] = ascii("\\b");
+        REPLACEMENT_BYTES['\n'] = ascii("\\n");
+        REPLACEMENT_BYTES['\r'] = ascii("\\r");
+        REPLACEMENT_BYTES['\f'] = ascii("\\f");
+    }
+
+    /**
+     * A pre-escaped object member name, including its quotes and the colon.
+     */
+    public static final class Key {
+        final String name;
+        private final byte[] bytes;
+
+        private Key(String name, byte[] bytes) {
+            this.name = name;
+            this.bytes = bytes;
+        }
+    }
+
+    OutputStream out;
+    byte[] buffer;
+    int count;
+    // One entry per open object or array: true once it holds an element and needs a comma
+    private boolean[] nonEmpty = new boolean[16];
+    private int depth;
+    private boolean afterName;
+
+    /**
+     * @param bufferSize number of bytes buffered before they are written to the output stream
+     */
+    public JsonByteWriter(int bufferSize) {
+        this.buffer = new byte[Math.max(bufferSize, 16)];
+    }
+
+    /**
+     * @param name member name
+     * @return the name escaped and encoded once, for use with {@link #name(Key)}
+     */
+    public static Key key(String name) {
+        JsonByteWriter writer = new JsonByteWriter(name.length() * 3 + 3);
+        try {
+            writer.string(name);
+            writer.writeByte(':');
+        } catch (IOException e) {
+            // Without an output stream the writer only grows its buffer
+            throw new AssertionError(e);
+        }
+        return new Key(name, Arrays.copyOf(writer.buffer, writer.count));
+    }
+
+    /**
+     * Discards any buffered output and starts a new document.
+     *
+     * @param out stream the document is written to, or null to only release the previous one
+     */
+    public void reset(OutputStream out) {
+        this.out = out;
+        this.count = 0;
+        this.depth = 0;
+        this.afterName = false;
+    }
+
+    /**
+     * Discards any buffered output like {@link #reset(OutputStream)} with no stream, and gives up
+     * the buffer if it has grown past the given size, e.g. to hold a whole document in memory.
+     *
+     * @param bufferSize size the buffer is shrunk to
+     */
+    public void release(int bufferSize) {
+        reset(null);
+        if (buffer.length > Math.max(bufferSize, 16)) {
+            buffer = new byte[Math.max(bufferSize, 16)];
+        }
+    }
+
+    /**
+     * Writes the buffered bytes to the output stream. Does not flush the stream itself.
+     *
+     * @throws IOException if the output stream fails
+     */
+    public void flush() throws IOException {
+        if (count > 0) {
+            out.write(buffer, 0, count);
+            count = 0;
+        }
+    }
+
+    /**
+     * @return number of bytes buffered and not yet written to the output stream
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Copies the buffered bytes to another stream, leaving the buffer as it is.
+     *
+     * @param target stream to copy to
+     * @throws IOException if the target stream fails
+     */
+    public void writeTo(OutputStream target) throws IOException {
+        target.write(buffer, 0, count);
+    }
+
+    public JsonByteWriter beginObject() throws IOException {
+        beforeValue();
+        writeByte('{');
+        push();
+        return this;
+    }
+
+    public JsonByteWriter endObject() throws IOException {
+        depth--;
+        writeByte('}');
+        return this;
+    }
+
+    public JsonByteWriter beginArray() throws IOException {
+        beforeValue();
+        writeByte('[');
+        push();
+        return this;
+    }
+
+    public JsonByteWriter endArray() throws IOException {
+        depth--;
+        writeByte(']');
+        return this;
+    }
+
+    public JsonByteWriter name(Key key) throws IOException {
+        separate();
+        writeBytes(key.bytes);
+        afterName = true;
+        return this;
+    }
+
+    public JsonByteWriter name(String name) throws IOException {
+        if (name == null) {
+            throw new NullPointerException("name == null");
+        }
+        separate();
+        string(name);
+        writeByte(':');
+        afterName = true;
+        return this;
+    }
+
+    public JsonByteWriter value(String value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        }
+        beforeValue();
+        string(value);
+        return this;
+    }
+
+    public JsonByteWriter value(long value) throws IOException {
+        beforeValue();
+        writeLong(value);
+        return this;
+    }
+
+    public JsonByteWriter value(boolean value) throws IOException {
+        beforeValue();
+        writeBytes(value ? TRUE : FALSE);
+        return this;
+    }
+
+    public JsonByteWriter value(Boolean value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        }
+        return value(value.booleanValue());
+    }
+
+    public JsonByteWriter value(double value) throws IOException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            throw new IllegalArgumentException("Numeric values must be finite, but was " + value);
+        }
+        beforeValue();
+        String string = Double.toString(value);
+        for (int i = 0; i < string.length(); i++) {
+            writeByte(string.charAt(i));
+        }
+        return this;
+    }
+
+    public JsonByteWriter value(Number value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        }
+        if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return value(value.longValue());
+        }
+        String string = value.toString();
+        if (string.equals("-Infinity") || string.equals("Infinity") || string.equals("NaN")) {
+            throw new IllegalArgumentException("Numeric values must be finite, but was " + value);
+        }
+        beforeValue();
+        for (int i = 0; i < string.length(); i++) {
+            writeByte(string.charAt(i));
+        }
+        return this;
+    }
+
+    /**
+     * @return true if JSON passed to {@link #rawValue(byte[], int, int)} and {@link #rawMembers(byte[])}
+     * is copied as it is. A writer of another format parses it, so JSON encoded ahead of time saves
+     * it nothing.
+     */
+    public boolean copiesRawJson() {
+        return true;
+    }
+
+    /**
+     * Writes JSON that has already been encoded, as the next value. Inside an array the bytes may
+     * also hold several comma separated values, which then become consecutive elements.
+     *
+     * @param bytes  encoded UTF-8 JSON
+     * @param offset start of the JSON in bytes
+     * @param length number of bytes to write
+     * @throws IOException if the output stream fails
+     */
+    public JsonByteWriter rawValue(byte[] bytes, int offset, int length) throws IOException {
+        beforeValue();
+        if (out != null && length > buffer.length - count) {
+            // Too big to buffer; pass it straight through rather than growing the buffer
+            flush();
+            out.write(bytes, offset, length);
+        } else {
+            require(length);
+            System.arraycopy(bytes, offset, buffer, count, length);
+            count += length;
+        }
+        return this;
+    }
+
+    /**
+     * Writes object members that have already been encoded, such as {@code "a":1,"b":2}, as the
+     * next members of the current object.
+     *
+     * @param bytes encoded UTF-8 JSON of at least one member
+     * @throws IOException if the output stream fails
+     */
+    public JsonByteWriter rawMembers(byte[] bytes) throws IOException {
+        separate();
+        writeBytes(bytes);
+        return this;
+    }
+
+    public JsonByteWriter nullValue() throws IOException {
+        beforeValue();
+        writeBytes(NULL);
+        return this;
+    }
+
+    private void push() {
+        if (depth == nonEmpty.length) {
+            nonEmpty = Arrays.copyOf(nonEmpty, depth * 2);
+        }
+        nonEmpty[depth++] = false;
+    }
+
+    private void beforeValue() throws IOException {
+        // A value directly after a name is already separated
+        if (afterName) {
+            afterName = false;
+        } else {
+            separate();
+        }
+    }
+
+    private void separate() throws IOException {
+        if (depth == 0) {
+            return;
+        }
+        if (nonEmpty[depth - 1]) {
+            writeByte(',');
+        } else {
+            nonEmpty[depth - 1] = true;
+        }
+    }
+
+    private void string(String value) throws IOException {
+        writeByte('"');
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                byte[] replacement = REPLACEMENT_BYTES[c];
+                if (replacement == null) {
+                    writeByte(c);
+                } else {
+                    writeBytes(replacement);
+                }
+            } else if (c < 0x800) {
+                require(2);
+                buffer[count++] = (byte) (0xc0 | (c >> 6));
+                buffer[count++] = (byte) (0x80 | (c & 0x3f));
+            } else if (c == '\u2028') {
+                writeBytes(LINE_SEPARATOR);
+            } else if (c == '\u2029') {
+                writeBytes(PARAGRAPH_SEPARATOR);
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                require(4);
+                buffer[count++] = (byte) (0xf0 | (codePoint >> 18));
+                buffer[count++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                buffer[count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                buffer[count++] = (byte) (0x80 | (codePoint & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired surrogate, replaced the way the JDK's UTF-8 encoder does
+                writeByte('?');
+            } else {
+                require(3);
+                buffer[count++] = (byte) (0xe0 | (c >> 12));
+                buffer[count++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                buffer[count++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+        writeByte('"');
+    }
+
+    private void writeLong(long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            writeBytes(ascii(Long.toString(value)));
+            return;
+        }
+        require(20);
+        if (value < 0) {
+            buffer[count++] = '-';
+            value = -value;
+        }
+        int start = count;
+        do {
+            buffer[count++] = (byte) ('0' + (value % 10));
+            value /= 10;
+        } while (value != 0);
+        for (int i = start, j = count - 1; i < j; i++, j--) {
+            byte tmp = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = tmp;
+        }
+    }
+
+    void writeByte(int b) throws IOException {
+        require(1);
+        buffer[count++] = (byte) b;
+    }
+
+    void writeBytes(byte[] bytes) throws IOException {
+        require(bytes.length);
+        System.arraycopy(bytes, 0, buffer, count, bytes.length);
+        count += bytes.length;
+    }
+
+    /**
+     * Makes room for n more bytes, by handing the buffer to the output stream if there is one,
+     * or else by growing it.
+     */
+    void require(int n) throws IOException {
+        if (count + n > buffer.length) {
+            if (out != null) {
+                flush();
+            }
+            if (count + n > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, count + n));
+            }
+        }
+    }
+
+    private static byte[] ascii(String s) {
+        byte[] bytes = new byte[s.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) s.charAt(i);
+        }
+        return bytes;
+    }
+}
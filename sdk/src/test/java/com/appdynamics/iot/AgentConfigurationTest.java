@@ -16,9 +16,14 @@
 
 package com.appdynamics.iot;
 
+import com.appdynamics.iot.utils.Constants;
 import org.junit.Test;
 
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 public class AgentConfigurationTest {
@@ -69,4 +74,94 @@ public class AgentConfigurationTest {
         assertTrue(agentConfiguration.getCollectorChannelFactory().getCollectorChannel() instanceof DefaultCollectorChannel);
     }
 
+    @Test
+    public void testRingBufferIngestion() throws Exception {
+        assertEquals(0, AgentConfiguration.builder().build().getRingBufferCapacity());
+        assertEquals(4096, AgentConfiguration.builder()
+                .withRingBufferIngestion(4096).build().getRingBufferCapacity());
+        assertEquals(0, AgentConfiguration.builder()
+                .withRingBufferIngestion(-1).build().getRingBufferCapacity());
+    }
+
+    @Test
+    public void testPersistentConnection() throws Exception {
+        AgentConfiguration agentConfiguration = AgentConfiguration.builder().build();
+        assertFalse(agentConfiguration.isPersistentConnection());
+        assertFalse(agentConfiguration.isPreconnect());
+
+        agentConfiguration = AgentConfiguration.builder()
+                .withPersistentConnection(true)
+                .withPreconnect(true)
+                .build();
+        assertTrue(agentConfiguration.isPersistentConnection());
+        assertTrue(agentConfiguration.isPreconnect());
+        assertTrue(agentConfiguration.getCollectorChannelFactory() instanceof PersistentCollectorChannelFactory);
+    }
+
+    @Test
+    public void testStreamingUpload() throws Exception {
+        assertEquals(0, AgentConfiguration.builder().build().getStreamingChunkLength());
+        assertEquals(8192, AgentConfiguration.builder()
+                .withStreamingUpload(8192).build().getStreamingChunkLength());
+        assertEquals(0, AgentConfiguration.builder()
+                .withStreamingUpload(0).build().getStreamingChunkLength());
+    }
+
+    @Test
+    public void testEncodeOnIngest() throws Exception {
+        assertFalse(AgentConfiguration.builder().build().isEncodeOnIngest());
+        assertTrue(AgentConfiguration.builder().withEncodeOnIngest(true).build().isEncodeOnIngest());
+    }
+
+    @Test
+    public void testBufferByteBudget() throws Exception {
+        AgentConfiguration config = AgentConfiguration.builder().build();
+        assertEquals(0, config.getBufferByteBudget());
+        assertEquals(0, config.getBeaconTargetSize());
+
+        config = AgentConfiguration.builder().withBufferByteBudget(1024 * 1024).build();
+        assertEquals(1024 * 1024, config.getBufferByteBudget());
+        assertEquals(Constants.BEACON_TARGET_SIZE_DEFAULT, config.getBeaconTargetSize());
+
+        config = AgentConfiguration.builder().withBufferByteBudget(1000).withBeaconTargetSize(4000).build();
+        assertEquals(1000, config.getBeaconTargetSize());
+
+        config = AgentConfiguration.builder().withBufferByteBudget(-1).withBeaconTargetSize(4000).build();
+        assertEquals(0, config.getBufferByteBudget());
+        assertEquals(0, config.getBeaconTargetSize());
+    }
+
+    @Test
+    public void testRetryBackoff() throws Exception {
+        AgentConfiguration config = AgentConfiguration.builder().build();
+        assertEquals(0, config.getRetryBaseDelayMillis());
+        assertEquals(Constants.RETRY_JITTER_DEFAULT, config.getRetryJitter(), 0);
+
+        config = AgentConfiguration.builder().withRetryBackoff(2, 60, TimeUnit.SECONDS).withRetryJitter(7).build();
+        assertEquals(2000, config.getRetryBaseDelayMillis());
+        assertEquals(60000, config.getRetryMaxDelayMillis());
+        assertEquals(1, config.getRetryJitter(), 0);
+
+        config = AgentConfiguration.builder().withRetryBackoff(5, 1, TimeUnit.SECONDS).withRetryJitter(-1).build();
+        assertEquals(5000, config.getRetryMaxDelayMillis());
+        assertEquals(0, config.getRetryJitter(), 0);
+
+        config = AgentConfiguration.builder().withRetryBackoff(0, 60, TimeUnit.SECONDS).build();
+        assertEquals(0, config.getRetryBaseDelayMillis());
+    }
+
+    @Test
+    public void testCompression() throws Exception {
+        AgentConfiguration config = AgentConfiguration.builder().build();
+        assertEquals(Compression.GZIP, config.getCompression());
+        assertEquals(Deflater.DEFAULT_COMPRESSION, config.getCompressionLevel());
+
+        config = AgentConfiguration.builder().withCompression(Compression.DEFLATE, Deflater.BEST_SPEED).build();
+        assertEquals(Compression.DEFLATE, config.getCompression());
+        assertEquals(Deflater.BEST_SPEED, config.getCompressionLevel());
+
+        config = AgentConfiguration.builder().withCompression(null, 42).build();
+        assertEquals(Compression.GZIP, config.getCompression());
+        assertEquals(Deflater.DEFAULT_COMPRESSION, config.getCompressionLevel());
+    }
 }
@@ -121,9 +121,9 @@ public class BeaconBufferTest {
         assertNotNull(BeaconManager.currentBeacon);
 
         // Create an array of mock events
-        NetworkRequestEvent[] mockNetworlRequestEventArray = new NetworkRequestEvent[Constants.CUSTOM_EVENTS_MAX];
+        NetworkRequestEvent[] mockNetworlRequestEventArray = new NetworkRequestEvent[Constants.NETWORK_REQUEST_EVENTS_MAX];
 
-        for (int i = 0; i < Constants.CUSTOM_EVENTS_MAX; i++) {
+        for (int i = 0; i < Constants.NETWORK_REQUEST_EVENTS_MAX; i++) {
             mockNetworlRequestEventArray[i] = control.createMock(NetworkRequestEvent.class);
             expect(mockNetworlRequestEventArray[i].getType()).andReturn(Event.Type.NETWORK_EVENT).anyTimes();
         }
@@ -143,6 +143,65 @@ public class BeaconBufferTest {
         control.verify();
     }
 
+    @Test
+    public void testEventTypesShareBeaconCapacity() throws Exception {
+        DeviceInfo mockDeviceInfo = control.createMock(DeviceInfo.class);
+        VersionInfo mockVersionInfo = control.createMock(VersionInfo.class);
+        BeaconManager manager = new BeaconManager(mockDeviceInfo, mockVersionInfo);
+
+        Event[] mockEventArray = new Event[Constants.BEACON_EVENTS_MAX];
+        for (int i = 0; i < Constants.BEACON_EVENTS_MAX; i++) {
+            if (i % 3 == 0) {
+                mockEventArray[i] = control.createMock(CustomEvent.class);
+                expect(mockEventArray[i].getType()).andReturn(Event.Type.CUSTOM_EVENT).anyTimes();
+            } else if (i % 3 == 1) {
+                mockEventArray[i] = control.createMock(NetworkRequestEvent.class);
+                expect(mockEventArray[i].getType()).andReturn(Event.Type.NETWORK_EVENT).anyTimes();
+            } else {
+                mockEventArray[i] = control.createMock(ErrorEvent.class);
+                expect(mockEventArray[i].getType()).andReturn(Event.Type.ERROR_EVENT).anyTimes();
+            }
+        }
+        ErrorEvent mockErrorEvent = control.createMock(ErrorEvent.class);
+        expect(mockErrorEvent.getType()).andReturn(Event.Type.ERROR_EVENT).anyTimes();
+
+        control.replay();
+
+        for (int i = 0; i < Constants.BEACON_EVENTS_MAX; i++) {
+            manager.addEvent(mockEventArray[i]);
+        }
+        assertEquals(1, BeaconManager.beaconBuffer.size());
+        assertEquals(Constants.BEACON_EVENTS_MAX, BeaconManager.currentBeacon.size());
+        manager.addEvent(mockErrorEvent);
+        assertEquals(2, BeaconManager.beaconBuffer.size());
+        assertEquals(1, BeaconManager.currentBeacon.size());
+        control.verify();
+    }
+
+    @Test
+    public void testFullTypeLeavesRoomForOtherTypes() throws Exception {
+        DeviceInfo mockDeviceInfo = control.createMock(DeviceInfo.class);
+        VersionInfo mockVersionInfo = control.createMock(VersionInfo.class);
+        BeaconManager manager = new BeaconManager(mockDeviceInfo, mockVersionInfo);
+
+        CustomEvent mockCustomEvent = control.createMock(CustomEvent.class);
+        expect(mockCustomEvent.getType()).andReturn(Event.Type.CUSTOM_EVENT).anyTimes();
+        NetworkRequestEvent mockNetworkRequestEvent = control.createMock(NetworkRequestEvent.class);
+        expect(mockNetworkRequestEvent.getType()).andReturn(Event.Type.NETWORK_EVENT).anyTimes();
+
+        control.replay();
+
+        for (int i = 0; i < Constants.CUSTOM_EVENTS_MAX; i++) {
+            manager.addEvent(mockCustomEvent);
+        }
+        manager.addEvent(mockNetworkRequestEvent);
+        assertEquals(1, BeaconManager.beaconBuffer.size());
+        assertEquals(Constants.CUSTOM_EVENTS_MAX + 1, BeaconManager.currentBeacon.size());
+        manager.addEvent(mockCustomEvent);
+        assertEquals(2, BeaconManager.beaconBuffer.size());
+        control.verify();
+    }
+
     @Test
     public void testAddMaxBeaconsPlusOne() throws Exception {
         DeviceInfo mockDeviceInfo = control.createMock(DeviceInfo.class);
@@ -186,6 +245,10 @@ public class BeaconBufferTest {
         expect(mockAgent.getCollectorUrl()).andReturn(collectorUrl);
         expect(mockAgent.getAppKey()).andReturn(appKey);
         expect(mockAgent.getCollectorChannelFactory()).andReturn(mockCollectorChannelFactory);
+        expect(mockAgent.getCompression()).andReturn(Compression.GZIP);
+        expect(mockAgent.isColumnarEncoding()).andReturn(false);
+        expect(mockAgent.isBinaryEncoding()).andReturn(false);
+        expect(mockAgent.getStreamingChunkLength()).andReturn(4096);
         control.replay();
 
         CollectorChannel channel = BeaconManager.initializeTransport(mockAgent);
@@ -193,6 +256,7 @@ public class BeaconBufferTest {
         assertEquals("POST", channel.getRequestMethod());
         assertEquals("application/json; charset=UTF-8", channel.getRequestProperties().get("Content-Type").get(0));
         assertEquals("gzip", channel.getRequestProperties().get("Content-Encoding").get(0));
+        assertEquals(4096, channel.getChunkLength());
         assertEquals(collectorUrl + AgentConfiguration.COLLECTOR_URL_PREFIX_APPKEY +
                         appKey + AgentConfiguration.COLLECTOR_URL_SUFFIX_BEACONS,
                 channel.getURL().toString());
@@ -210,6 +274,10 @@ public class BeaconBufferTest {
         expect(mockAgent.getCollectorUrl()).andReturn(collectorUrl);
         expect(mockAgent.getAppKey()).andReturn(appKey);
         expect(mockAgent.getCollectorChannelFactory()).andReturn(mockCollectorChannelFactory);
+        expect(mockAgent.getCompression()).andReturn(Compression.GZIP);
+        expect(mockAgent.isColumnarEncoding()).andReturn(false);
+        expect(mockAgent.isBinaryEncoding()).andReturn(false);
+        expect(mockAgent.getStreamingChunkLength()).andReturn(0);
         control.replay();
 
         BeaconManager.initializeTransport(mockAgent);
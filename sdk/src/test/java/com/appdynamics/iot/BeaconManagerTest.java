@@ -21,19 +21,36 @@ import com.appdynamics.iot.events.CustomEvent;
 import com.appdynamics.iot.events.ErrorEvent;
 import com.appdynamics.iot.events.Event;
 import com.appdynamics.iot.events.NetworkRequestEvent;
+import com.appdynamics.iot.utils.BinaryByteReader;
+import com.appdynamics.iot.utils.BinaryByteWriter;
+import com.appdynamics.iot.utils.ColumnarTranscoder;
+import com.appdynamics.iot.utils.Constants;
+import com.appdynamics.iot.utils.JsonByteWriter;
+import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.ref.WeakReference;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
+import java.util.Random;
 import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 public class BeaconManagerTest {
 
@@ -84,6 +101,650 @@ public class BeaconManagerTest {
 
     }
 
+    @Test
+    public void testByteEncodedPayloadMatchesJsonWriter() throws Exception {
+        List<Beacon> beacons = createBeacons();
+        Beacon beacon = beacons.get(0);
+        beacon.offer(CustomEvent.builder("Checkout \"quoted\"", "line\nbreak \u00e9\u4e2d")
+                .addStringProperty("name", "tab\there")
+                .addLongProperty("count", Long.MIN_VALUE)
+                .addDoubleProperty("ratio", 0.1)
+                .addBooleanProperty("flag", true)
+                .addDateProperty("when", new java.util.Date(1234567890123L))
+                .build());
+        beacon.offer(NetworkRequestEvent.builder(new URL("https://example.com/a?b=c&d=e"))
+                .withStatusCode(500)
+                .withNetworkError("timeout")
+                .withRequestContentLength(10)
+                .withResponseContentLength(20)
+                .build());
+        ArrayList<ErrorEvent.StackTrace> traces = new ArrayList<>();
+        traces.add(new ErrorEvent.StackTrace("main", new Exception().getStackTrace()));
+        beacon.offer(ErrorEvent.builder("Crash")
+                .withStackTraces(traces)
+                .withSeverity(Instrumentation.Severity.FATAL)
+                .build());
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        Writer writer = new OutputStreamWriter(expected, "UTF-8");
+        BeaconManager.createEncodedPayload(beacons, writer);
+        writer.flush();
+
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        JsonByteWriter byteWriter = new JsonByteWriter(64);
+        byteWriter.reset(actual);
+        BeaconManager.createEncodedPayload(beacons, byteWriter);
+        byteWriter.flush();
+
+        Assert.assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+    }
+
+    @Test
+    public void testEncodeOnIngestPayloadMatches() throws Exception {
+        List<Event> events = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            events.add(CustomEvent.builder(CUSTOM_EVENT_TYPE, CUSTOM_EVENT_SUMMARY + i)
+                    .addStringProperty("index", "#" + i)
+                    .addDoubleProperty("value", i / 3.0)
+                    .build());
+            events.add(createNetworkEvent());
+            events.add(createErrorEvent());
+        }
+        Beacon template = createBeacon();
+        byte[] asObjects = bufferAndEncode(template, events, false);
+        byte[] encodedOnIngest = bufferAndEncode(template, events, true);
+        Assert.assertTrue(asObjects.length > 0);
+        Assert.assertArrayEquals(asObjects, encodedOnIngest);
+    }
+
+    @Test
+    public void testEncodeOnIngestReleasesEvent() throws Exception {
+        Beacon template = createBeacon();
+        BeaconManager.beaconBuffer.clear();
+        new BeaconManager(template.deviceInfo, template.versionInfo);
+        BeaconManager.encodeOnIngest = true;
+        try {
+            Event event = createCustomEvent();
+            WeakReference<Event> ref = new WeakReference<>(event);
+            BeaconManager.addEvent(event);
+            event = null;
+            for (int i = 0; i < 10 && ref.get() != null; i++) {
+                System.gc();
+                Thread.sleep(10);
+            }
+            Assert.assertNull(ref.get());
+        } finally {
+            BeaconManager.encodeOnIngest = false;
+        }
+    }
+
+    @Test
+    public void testEncodeOnIngestSealsFullBeacon() throws Exception {
+        Beacon template = createBeacon();
+        BeaconManager.beaconBuffer.clear();
+        new BeaconManager(template.deviceInfo, template.versionInfo);
+        BeaconManager.encodeOnIngest = true;
+        try {
+            for (int i = 0; i <= Constants.CUSTOM_EVENTS_MAX; i++) {
+                BeaconManager.addEvent(createCustomEvent());
+            }
+            BeaconManager.addEvent(createErrorEvent());
+            Assert.assertEquals(2, BeaconManager.beaconBuffer.size());
+        } finally {
+            BeaconManager.encodeOnIngest = false;
+        }
+    }
+
+    @Test
+    public void testByteBudgetSealsBeaconsAtTargetSize() throws Exception {
+        Beacon template = createBeacon();
+        BeaconManager.beaconBuffer.clear();
+        new BeaconManager(template.deviceInfo, template.versionInfo);
+        int eventSize = createCustomEvent().estimateSize();
+        BeaconManager.configure(AgentConfiguration.builder()
+                .withBufferByteBudget(eventSize * 100)
+                .withBeaconTargetSize(eventSize * 10)
+                .build());
+        try {
+            for (int i = 0; i < 25; i++) {
+                BeaconManager.addEvent(createCustomEvent());
+            }
+            Assert.assertEquals(3, BeaconManager.beaconBuffer.size());
+            for (Beacon beacon : BeaconManager.beaconBuffer) {
+                Assert.assertTrue(beacon.bytes <= eventSize * 10);
+            }
+            Assert.assertEquals(eventSize * 5, BeaconManager.currentBeacon.bytes);
+            Assert.assertEquals(eventSize * 25, BeaconManager.bufferedBytes);
+            BeaconManager.drainBeacons();
+            Assert.assertEquals(0, BeaconManager.bufferedBytes);
+        } finally {
+            BeaconManager.configure(AgentConfiguration.builder().build());
+        }
+    }
+
+    @Test
+    public void testByteBudgetEvictsOldestBeacons() throws Exception {
+        Beacon template = createBeacon();
+        BeaconManager.beaconBuffer.clear();
+        new BeaconManager(template.deviceInfo, template.versionInfo);
+        // Error events are far bigger than custom events, so the budget holds fewer of them
+        int budget = 16 * 1024;
+        BeaconManager.configure(AgentConfiguration.builder()
+                .withEncodeOnIngest(true)
+                .withBufferByteBudget(budget)
+                .withBeaconTargetSize(2048)
+                .build());
+        try {
+            for (int i = 0; i < 500; i++) {
+                BeaconManager.addEvent(i % 2 == 0 ? createCustomEvent() : createErrorEvent());
+            }
+            long bytes = 0;
+            for (Beacon beacon : BeaconManager.beaconBuffer) {
+                bytes += beacon.bytes;
+            }
+            Assert.assertTrue(bytes <= budget);
+            Assert.assertTrue(bytes > budget - 2048 * 2);
+            Assert.assertEquals(bytes, BeaconManager.bufferedBytes);
+            // The beacon being filled is never the one evicted
+            Beacon newest = null;
+            for (Beacon beacon : BeaconManager.beaconBuffer) {
+                newest = beacon;
+            }
+            Assert.assertSame(BeaconManager.currentBeacon, newest);
+        } finally {
+            BeaconManager.encodeOnIngest = false;
+            BeaconManager.configure(AgentConfiguration.builder().build());
+        }
+    }
+
+    private byte[] bufferAndEncode(Beacon template, List<Event> events, boolean encodeOnIngest) throws IOException {
+        BeaconManager.beaconBuffer.clear();
+        new BeaconManager(template.deviceInfo, template.versionInfo);
+        BeaconManager.encodeOnIngest = encodeOnIngest;
+        try {
+            for (Event event : events) {
+                BeaconManager.addEvent(event);
+            }
+        } finally {
+            BeaconManager.encodeOnIngest = false;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonByteWriter writer = new JsonByteWriter(64);
+        writer.reset(out);
+        BeaconManager.createEncodedPayload(BeaconManager.drainBeacons(), writer);
+        writer.flush();
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testDrainDetachesBuffer() throws Exception {
+        Beacon template = createBeacon();
+        BeaconManager.beaconBuffer.clear();
+        new BeaconManager(template.deviceInfo, template.versionInfo);
+        BeaconManager.addEvent(createCustomEvent());
+        Beacon drainedBeacon = BeaconManager.currentBeacon;
+
+        Collection<Beacon> drained = BeaconManager.drainBeacons();
+        BeaconManager.addEvent(createCustomEvent());
+
+        Assert.assertEquals(1, drained.size());
+        Assert.assertSame(drainedBeacon, drained.iterator().next());
+        Assert.assertEquals(1, drainedBeacon.size());
+        Assert.assertEquals(1, BeaconManager.beaconBuffer.size());
+        Assert.assertNotSame(drainedBeacon, BeaconManager.currentBeacon);
+        Assert.assertEquals(1, BeaconManager.currentBeacon.size());
+    }
+
+    @Test
+    public void testFailedUploadPutsBeaconsBackFirst() throws Exception {
+        final AgentConfiguration agent = AgentConfiguration.builder()
+                .withAppKey("AAA-BBB-CCC")
+                .withCollectorUrl("http://localhost")
+                .withCollectorChannelFactory(new CollectorChannelFactory() {
+                    @Override
+                    public CollectorChannel getCollectorChannel() {
+                        return new TestCollectorChannel(200) {
+                            @Override
+                            public OutputStream getOutputStream() throws IOException {
+                                return new OutputStream() {
+                                    private int writes;
+
+                                    @Override
+                                    public void write(int b) throws IOException {
+                                        write(new byte[]{(byte) b}, 0, 1);
+                                    }
+
+                                    @Override
+                                    public void write(byte[] b, int off, int len) throws IOException {
+                                        // The first write is the gzip header, before the buffer is drained
+                                        if (++writes > 1) {
+                                            // An event arrives while the upload is in flight
+                                            BeaconManager.addEvent(createCustomEvent());
+                                            throw new IOException("Connection reset");
+                                        }
+                                    }
+                                };
+                            }
+                        };
+                    }
+                })
+                .build();
+
+        Beacon template = createBeacon();
+        BeaconManager.beaconBuffer.clear();
+        new BeaconManager(template.deviceInfo, template.versionInfo);
+        BeaconManager.addEvent(createCustomEvent());
+        Beacon uploaded = BeaconManager.currentBeacon;
+
+        BeaconManager.sendAllBeacons(agent);
+
+        // The body was cut short, so the beacons themselves are kept
+        Assert.assertEquals(0, BeaconManager.retryUploads.size());
+        Assert.assertEquals(2, BeaconManager.beaconBuffer.size());
+        Assert.assertSame(uploaded, BeaconManager.beaconBuffer.peekFirst());
+        Assert.assertSame(BeaconManager.currentBeacon, BeaconManager.beaconBuffer.peekLast());
+    }
+
+    @Test
+    public void testFailedUploadIsResentAsIs() throws Exception {
+        final int[] responseCode = {500};
+        final List<TestCollectorChannel> requests = new ArrayList<>();
+        final AgentConfiguration agent = AgentConfiguration.builder()
+                .withAppKey("AAA-BBB-CCC")
+                .withCollectorUrl("http://localhost")
+                .withCollectorChannelFactory(new CollectorChannelFactory() {
+                    @Override
+                    public CollectorChannel getCollectorChannel() {
+                        TestCollectorChannel channel = new TestCollectorChannel(responseCode[0]);
+                        requests.add(channel);
+                        return channel;
+                    }
+                })
+                .build();
+
+        Beacon template = createBeacon();
+        BeaconManager.beaconBuffer.clear();
+        BeaconManager.retryUploads.clear();
+        new BeaconManager(template.deviceInfo, template.versionInfo);
+        try {
+            BeaconManager.addEvent(createCustomEvent());
+            Assert.assertEquals(500, BeaconManager.sendAllBeacons(agent).getResponseCode());
+            Assert.assertEquals(1, BeaconManager.retryUploads.size());
+            Assert.assertEquals(1, BeaconManager.beaconBuffer.size());
+            Assert.assertEquals(0, BeaconManager.currentBeacon.size());
+
+            // Still failing: only the retry is attempted, new events wait in the buffer
+            BeaconManager.addEvent(CustomEvent.builder("Second", "Added after the failed upload").build());
+            Assert.assertEquals(500, BeaconManager.sendAllBeacons(agent).getResponseCode());
+            Assert.assertEquals(2, requests.size());
+            Assert.assertEquals(1, BeaconManager.retryUploads.size());
+            Assert.assertEquals(1, BeaconManager.currentBeacon.size());
+
+            responseCode[0] = 200;
+            UploadResult result = BeaconManager.sendAllBeacons(agent);
+            Assert.assertEquals(200, result.getResponseCode());
+            Assert.assertEquals(2, result.getBeaconsAccepted());
+            Assert.assertEquals(0, BeaconManager.retryUploads.size());
+
+            Assert.assertEquals(4, requests.size());
+            byte[] firstBody = requests.get(0).body.toByteArray();
+            Assert.assertArrayEquals(firstBody, requests.get(1).body.toByteArray());
+            Assert.assertArrayEquals(firstBody, requests.get(2).body.toByteArray());
+            Assert.assertFalse(Arrays.equals(firstBody, requests.get(3).body.toByteArray()));
+        } finally {
+            BeaconManager.retryUploads.clear();
+        }
+    }
+
+    @Test
+    public void testPayloadTooBigToKeepIsNotCopied() throws Exception {
+        final List<TestCollectorChannel> requests = new ArrayList<>();
+        final AgentConfiguration agent = AgentConfiguration.builder()
+                .withAppKey("AAA-BBB-CCC")
+                .withCollectorUrl("http://localhost")
+                .withCollectorChannelFactory(new CollectorChannelFactory() {
+                    @Override
+                    public CollectorChannel getCollectorChannel() {
+                        TestCollectorChannel channel = new TestCollectorChannel(500);
+                        requests.add(channel);
+                        return channel;
+                    }
+                })
+                .build();
+
+        // Random text does not compress, so with the device information the body is bigger than the event
+        Random random = new Random(42);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            text.append((char) (0x100 + random.nextInt(0x700)));
+        }
+        Event event = CustomEvent.builder(CUSTOM_EVENT_TYPE, CUSTOM_EVENT_SUMMARY)
+                .addStringProperty("text", text.toString())
+                .build();
+        Beacon template = createBeacon();
+        BeaconManager.beaconBuffer.clear();
+        BeaconManager.retryUploads.clear();
+        new BeaconManager(template.deviceInfo, template.versionInfo);
+        BeaconManager.configure(AgentConfiguration.builder()
+                .withBufferByteBudget(event.estimateSize() + 16)
+                .build());
+        try {
+            BeaconManager.addEvent(event);
+            Beacon uploaded = BeaconManager.currentBeacon;
+            Assert.assertEquals(500, BeaconManager.sendAllBeacons(agent).getResponseCode());
+            Assert.assertTrue(requests.get(0).body.size() > event.estimateSize() + 16);
+
+            // Not kept for a retry, so the beacon itself goes back into the buffer
+            Assert.assertEquals(0, BeaconManager.retryUploads.size());
+            Assert.assertSame(uploaded, BeaconManager.beaconBuffer.peekFirst());
+            Assert.assertEquals(1, uploaded.size());
+        } finally {
+            BeaconManager.configure(AgentConfiguration.builder().build());
+        }
+    }
+
+    @Test
+    public void testConfigureDropsFailedUploads() throws Exception {
+        final AgentConfiguration agent = AgentConfiguration.builder()
+                .withAppKey("AAA-BBB-CCC")
+                .withCollectorUrl("http://localhost")
+                .withCollectorChannelFactory(new CollectorChannelFactory() {
+                    @Override
+                    public CollectorChannel getCollectorChannel() {
+                        return new TestCollectorChannel(500);
+                    }
+                })
+                .build();
+
+        Beacon template = createBeacon();
+        BeaconManager.beaconBuffer.clear();
+        BeaconManager.retryUploads.clear();
+        new BeaconManager(template.deviceInfo, template.versionInfo);
+        BeaconManager.addEvent(createCustomEvent());
+        BeaconManager.sendAllBeacons(agent);
+        Assert.assertEquals(1, BeaconManager.retryUploads.size());
+
+        // The payload was compressed for the previous configuration
+        BeaconManager.configure(AgentConfiguration.builder().withCompression(Compression.DEFLATE, 6).build());
+        try {
+            Assert.assertEquals(0, BeaconManager.retryUploads.size());
+        } finally {
+            BeaconManager.configure(AgentConfiguration.builder().build());
+        }
+    }
+
+    @Test
+    public void testTooManyRequestsPausesUploadsWithBackoff() throws Exception {
+        final int[] responseCode = {429};
+        final List<TestCollectorChannel> requests = new ArrayList<>();
+        final AgentConfiguration agent = AgentConfiguration.builder()
+                .withAppKey("AAA-BBB-CCC")
+                .withCollectorUrl("http://localhost")
+                .withCollectorChannelFactory(new CollectorChannelFactory() {
+                    @Override
+                    public CollectorChannel getCollectorChannel() {
+                        TestCollectorChannel channel = new TestCollectorChannel(responseCode[0]);
+                        channel.responseHeaders.put("retry-after", Arrays.asList("3600"));
+                        requests.add(channel);
+                        return channel;
+                    }
+                })
+                .withRetryBackoff(1, 60, TimeUnit.SECONDS)
+                .build();
+
+        Beacon template = createBeacon();
+        BeaconManager.beaconBuffer.clear();
+        BeaconManager.retryUploads.clear();
+        new BeaconManager(template.deviceInfo, template.versionInfo);
+        BeaconManager.configure(agent);
+        try {
+            BeaconManager.addEvent(createCustomEvent());
+            UploadResult result = BeaconManager.sendAllBeacons(agent);
+            Assert.assertEquals(429, result.getResponseCode());
+            Assert.assertEquals(3600 * 1000L, result.retryAfterMillis);
+            // The payload is kept for later
+            Assert.assertEquals(1, BeaconManager.retryUploads.size());
+
+            // Paused for as long as the collector asked, without contacting it
+            Assert.assertTrue(BeaconManager.backoff.pauseMillis() > 3500 * 1000L);
+            responseCode[0] = 200;
+            result = BeaconManager.sendAllBeacons(agent);
+            Assert.assertEquals(UploadResult.NO_RESPONSE, result.getResponseCode());
+            Assert.assertEquals(1, requests.size());
+            Assert.assertEquals(1, BeaconManager.retryUploads.size());
+        } finally {
+            BeaconManager.retryUploads.clear();
+            BeaconManager.configure(AgentConfiguration.builder().build());
+        }
+        Assert.assertNull(BeaconManager.backoff);
+    }
+
+    @Test
+    public void testAddEventNotBlockedByUpload() throws Exception {
+        final CountDownLatch uploadStarted = new CountDownLatch(1);
+        final CountDownLatch releaseUpload = new CountDownLatch(1);
+        final AgentConfiguration agent = AgentConfiguration.builder()
+                .withAppKey("AAA-BBB-CCC")
+                .withCollectorUrl("http://localhost")
+                .withCollectorChannelFactory(new CollectorChannelFactory() {
+                    @Override
+                    public CollectorChannel getCollectorChannel() {
+                        return new TestCollectorChannel(200) {
+                            @Override
+                            public int getResponseCode() throws IOException {
+                                uploadStarted.countDown();
+                                try {
+                                    releaseUpload.await();
+                                } catch (InterruptedException e) {
+                                    throw new IOException(e);
+                                }
+                                return super.getResponseCode();
+                            }
+                        };
+                    }
+                })
+                .build();
+
+        BeaconManager.beaconBuffer.clear();
+        Beacon template = createBeacon();
+        new BeaconManager(template.deviceInfo, template.versionInfo);
+        BeaconManager.addEvent(createCustomEvent());
+
+        Thread uploader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                BeaconManager.sendAllBeacons(agent);
+            }
+        });
+        uploader.start();
+        Assert.assertTrue(uploadStarted.await(5, TimeUnit.SECONDS));
+
+        final CountDownLatch added = new CountDownLatch(1);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                BeaconManager.addEvent(createCustomEvent());
+                added.countDown();
+            }
+        });
+        producer.start();
+        // The upload is still parked inside getResponseCode()
+        Assert.assertTrue(added.await(5, TimeUnit.SECONDS));
+
+        releaseUpload.countDown();
+        uploader.join(5000);
+        Assert.assertEquals(1, BeaconManager.beaconBuffer.size());
+    }
+
+    @Test
+    public void testColumnarUploadTranscodesToRows() throws Exception {
+        final List<TestCollectorChannel> requests = new ArrayList<>();
+        AgentConfiguration agent = AgentConfiguration.builder()
+                .withAppKey("AAA-BBB-CCC")
+                .withCollectorChannelFactory(new CollectorChannelFactory() {
+                    @Override
+                    public CollectorChannel getCollectorChannel() {
+                        TestCollectorChannel channel = new TestCollectorChannel(200);
+                        requests.add(channel);
+                        return channel;
+                    }
+                })
+                .withCompression(Compression.IDENTITY, 0)
+                .withBinaryEncoding(true)
+                .withColumnarEncoding(true)
+                .build();
+        Beacon template = createBeacon();
+        BeaconManager.beaconBuffer.clear();
+        new BeaconManager(template.deviceInfo, template.versionInfo);
+        for (int i = 0; i < 20; i++) {
+            BeaconManager.addEvent(CustomEvent.builder("Reading", "Shelf reading " + i)
+                    .addStringProperty("shelf", "aisle-" + i % 3)
+                    .addLongProperty("weight", 5000 - i)
+                    .build());
+        }
+        BeaconManager.addEvent(createNetworkEvent());
+        BeaconManager.addEvent(createErrorEvent());
+        JsonByteWriter expected = new JsonByteWriter(256);
+        ByteArrayOutputStream expectedJson = new ByteArrayOutputStream();
+        expected.reset(expectedJson);
+        BeaconManager.createEncodedPayload(BeaconManager.beaconBuffer, expected);
+        expected.flush();
+
+        Assert.assertTrue(BeaconManager.sendAllBeacons(agent).isSuccess());
+
+        Assert.assertEquals(1, requests.size());
+        // Neither a row payload nor a binary row payload, so a collector cannot misread it
+        Assert.assertEquals(Constants.BINARY_COLUMNAR_CONTENT_TYPE,
+                requests.get(0).getRequestProperties().get("Content-Type").get(0));
+        ByteArrayOutputStream columns = new ByteArrayOutputStream();
+        JsonByteWriter columnWriter = new JsonByteWriter(256);
+        columnWriter.reset(columns);
+        BinaryByteReader.transcode(new ByteArrayInputStream(requests.get(0).body.toByteArray()), columnWriter);
+        columnWriter.flush();
+        Assert.assertTrue(columns.toString("UTF-8").contains("\"columns\""));
+        ByteArrayOutputStream rows = new ByteArrayOutputStream();
+        JsonByteWriter rowWriter = new JsonByteWriter(256);
+        rowWriter.reset(rows);
+        ColumnarTranscoder.toRows(new ByteArrayInputStream(columns.toByteArray()), rowWriter);
+        rowWriter.flush();
+        Assert.assertEquals(new JsonParser().parse(expectedJson.toString("UTF-8")),
+                new JsonParser().parse(rows.toString("UTF-8")));
+    }
+
+    @Test
+    public void testBinaryEncodingWritesTheFieldsInsteadOfCachedJson() throws Exception {
+        Beacon template = createBeacon();
+        BeaconManager.beaconBuffer.clear();
+        new BeaconManager(template.deviceInfo, template.versionInfo);
+        BeaconManager.configure(AgentConfiguration.builder()
+                .withEncodeOnIngest(true)
+                .withBinaryEncoding(true)
+                .build());
+        try {
+            // Buffered as objects, since the binary writer would parse their JSON again
+            Assert.assertFalse(BeaconManager.encodeOnIngest);
+
+            List<Beacon> beacons = Arrays.asList(template, new Beacon(template.header));
+            BinaryByteWriter binary = new BinaryByteWriter(256);
+            ByteArrayOutputStream binaryBytes = new ByteArrayOutputStream();
+            binary.reset(binaryBytes);
+            Beacon.toJson(beacons, binary);
+            binary.flush();
+            ByteArrayOutputStream transcoded = new ByteArrayOutputStream();
+            JsonByteWriter json = new JsonByteWriter(256);
+            json.reset(transcoded);
+            BinaryByteReader.transcode(new ByteArrayInputStream(binaryBytes.toByteArray()), json);
+            json.flush();
+
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            json.reset(expected);
+            Beacon.toJson(beacons, json);
+            json.flush();
+            Assert.assertEquals(expected.toString("UTF-8"), transcoded.toString("UTF-8"));
+        } finally {
+            BeaconManager.configure(AgentConfiguration.builder().build());
+        }
+    }
+
+    @Test
+    public void testMergesBeaconsOfTheSameDevice() throws Exception {
+        Beacon first = createBeacon();
+        Beacon second = new Beacon(first.header);
+        second.offer(createCustomEvent());
+        Beacon third = new Beacon(first.deviceInfo, first.versionInfo);
+        third.offer(createErrorEvent());
+        Beacon other = createBeacon();
+        List<Beacon> beacons = Arrays.asList(first, second, third, other);
+
+        ByteArrayOutputStream separate = new ByteArrayOutputStream();
+        JsonByteWriter writer = new JsonByteWriter(256);
+        writer.reset(separate);
+        BeaconManager.createEncodedPayload(beacons, writer);
+        writer.flush();
+        Assert.assertEquals(4, new JsonParser().parse(separate.toString("UTF-8")).getAsJsonArray().size());
+
+        BeaconManager.mergeBeacons = true;
+        try {
+            ByteArrayOutputStream merged = new ByteArrayOutputStream();
+            writer.reset(merged);
+            BeaconManager.createEncodedPayload(beacons, writer);
+            writer.flush();
+            JsonArray payload = new JsonParser().parse(merged.toString("UTF-8")).getAsJsonArray();
+            Assert.assertEquals(2, payload.size());
+            JsonObject beacon = payload.get(0).getAsJsonObject();
+            Assert.assertEquals(first.deviceInfo.deviceId,
+                    beacon.getAsJsonObject("deviceInfo").get("deviceId").getAsString());
+            Assert.assertEquals(2, beacon.getAsJsonArray(CustomEvent.CUSTOM_EVENT_LABEL).size());
+            Assert.assertEquals(1, beacon.getAsJsonArray(NetworkRequestEvent.NETWORK_EVENT_TYPE_LABEL).size());
+            Assert.assertEquals(2, beacon.getAsJsonArray(ErrorEvent.ERROR_EVENT_LABEL).size());
+            Assert.assertEquals(other.deviceInfo.deviceId,
+                    payload.get(1).getAsJsonObject().getAsJsonObject("deviceInfo").get("deviceId").getAsString());
+            Assert.assertTrue(merged.size() < separate.size());
+        } finally {
+            BeaconManager.mergeBeacons = false;
+        }
+    }
+
+    @Test
+    public void testMergedBeaconsStayWithinCollectorLimits() throws Exception {
+        Beacon first = createBeacon();
+        Beacon second = new Beacon(first.header);
+        Beacon third = new Beacon(first.header);
+        Beacon fourth = new Beacon(first.header);
+        for (int i = 0; i < Constants.CUSTOM_EVENTS_MAX; i++) {
+            Assert.assertTrue(second.offer(createCustomEvent()));
+        }
+        for (int i = 0; i < Constants.CUSTOM_EVENTS_MAX / 2; i++) {
+            Assert.assertTrue(third.offer(createCustomEvent()));
+        }
+        for (int i = 0; i < Constants.NETWORK_REQUEST_EVENTS_MAX / 2; i++) {
+            Assert.assertTrue(third.offer(createNetworkEvent()));
+            Assert.assertTrue(fourth.offer(createNetworkEvent()));
+        }
+        List<Beacon> beacons = Arrays.asList(first, second, third, fourth);
+
+        BeaconManager.mergeBeacons = true;
+        try {
+            ByteArrayOutputStream merged = new ByteArrayOutputStream();
+            JsonByteWriter writer = new JsonByteWriter(256);
+            writer.reset(merged);
+            BeaconManager.createEncodedPayload(beacons, writer);
+            writer.flush();
+            JsonArray payload = new JsonParser().parse(merged.toString("UTF-8")).getAsJsonArray();
+            // Each of the first three beacons would take the custom events of the next past the limit
+            Assert.assertEquals(3, payload.size());
+            Assert.assertEquals(1, payload.get(0).getAsJsonObject().getAsJsonArray(CustomEvent.CUSTOM_EVENT_LABEL).size());
+            Assert.assertEquals(Constants.CUSTOM_EVENTS_MAX,
+                    payload.get(1).getAsJsonObject().getAsJsonArray(CustomEvent.CUSTOM_EVENT_LABEL).size());
+            JsonObject beacon = payload.get(2).getAsJsonObject();
+            Assert.assertEquals(Constants.CUSTOM_EVENTS_MAX / 2, beacon.getAsJsonArray(CustomEvent.CUSTOM_EVENT_LABEL).size());
+            Assert.assertEquals(Constants.NETWORK_REQUEST_EVENTS_MAX,
+                    beacon.getAsJsonArray(NetworkRequestEvent.NETWORK_EVENT_TYPE_LABEL).size());
+        } finally {
+            BeaconManager.mergeBeacons = false;
+        }
+    }
+
     private List<Beacon> createBeacons() throws MalformedURLException {
         Beacon beacon = createBeacon();
         List<Beacon> beacons = new ArrayList<>();
@@ -125,4 +786,88 @@ public class BeaconManagerTest {
                 .withMessage(ERROR_MESSAGE)
                 .build();
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testPooledEventsAreRecycledAfterUpload() throws Exception {
+        final List<TestCollectorChannel> requests = new ArrayList<>();
+        AgentConfiguration agent = AgentConfiguration.builder()
+                .withAppKey("AAA-BBB-CCC")
+                .withCollectorChannelFactory(new CollectorChannelFactory() {
+                    @Override
+                    public CollectorChannel getCollectorChannel() {
+                        TestCollectorChannel channel = new TestCollectorChannel(200);
+                        requests.add(channel);
+                        return channel;
+                    }
+                })
+                .withCompression(Compression.IDENTITY, 0)
+                .withEventPooling(4, false)
+                .build();
+        Beacon template = createBeacon();
+        BeaconManager.beaconBuffer.clear();
+        new BeaconManager(template.deviceInfo, template.versionInfo);
+        BeaconManager.configure(agent);
+        try {
+            CustomEvent.Builder builder = CustomEvent.builder("Reading", "Shelf reading");
+            CustomEvent first = builder.addLongProperty("weight", 5000).build();
+            BeaconManager.addEvent(first);
+            CustomEvent second = builder.reset("Reading", "Shelf reading").addLongProperty("weight", 4999).build();
+            // Still buffered, so not handed out again
+            Assert.assertNotSame(first, second);
+            BeaconManager.addEvent(second);
+
+            Assert.assertTrue(BeaconManager.sendAllBeacons(agent).isSuccess());
+            String body = requests.get(0).body.toString("UTF-8");
+            Assert.assertTrue(body.contains("{\"weight\":5000}"));
+            Assert.assertTrue(body.contains("{\"weight\":4999}"));
+
+            CustomEvent third = builder.reset("Reading", "Shelf reading").build();
+            Assert.assertTrue(third == first || third == second);
+        } finally {
+            BeaconManager.configure(AgentConfiguration.builder().build());
+        }
+    }
+
+    @Test
+    public void testPooledEventsAreRecycledAfterUploadTooBigToKeep() throws Exception {
+        final List<TestCollectorChannel> requests = new ArrayList<>();
+        Random random = new Random(42);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            text.append((char) (0x100 + random.nextInt(0x700)));
+        }
+        CustomEvent.Builder builder = CustomEvent.builder("Reading", "Shelf reading")
+                .addStringProperty("text", text.toString());
+        AgentConfiguration agent = AgentConfiguration.builder()
+                .withAppKey("AAA-BBB-CCC")
+                .withCollectorChannelFactory(new CollectorChannelFactory() {
+                    @Override
+                    public CollectorChannel getCollectorChannel() {
+                        TestCollectorChannel channel = new TestCollectorChannel(200);
+                        requests.add(channel);
+                        return channel;
+                    }
+                })
+                .withCompression(Compression.IDENTITY, 0)
+                .withEventPooling(4, false)
+                .withBufferByteBudget(builder.build().estimateSize() + 16)
+                .build();
+        Beacon template = createBeacon();
+        BeaconManager.beaconBuffer.clear();
+        BeaconManager.retryUploads.clear();
+        new BeaconManager(template.deviceInfo, template.versionInfo);
+        BeaconManager.configure(agent);
+        try {
+            CustomEvent event = builder.build();
+            BeaconManager.addEvent(event);
+
+            Assert.assertTrue(BeaconManager.sendAllBeacons(agent).isSuccess());
+            Assert.assertTrue(requests.get(0).body.size() > agent.getBufferByteBudget());
+
+            // Not copied for a retry, but recycled once the collector accepted it
+            Assert.assertSame(event, builder.reset("Reading", "Shelf reading").build());
+        } finally {
+            BeaconManager.configure(AgentConfiguration.builder().build());
+        }
+    }
+}
@@ -0,0 +1,288 @@
+/**
+ * Copyright (c) 2018 AppDynamics LLC and its affiliates
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appdynamics.iot;
+
+import com.appdynamics.iot.BeaconManager.Beacon;
+import com.appdynamics.iot.events.CustomEvent;
+import com.appdynamics.iot.utils.BinaryByteReader;
+import com.appdynamics.iot.utils.JsonByteWriter;
+import com.google.common.io.ByteStreams;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonParser;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BeaconSpoolTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testAppendAndWriteRecords() throws Exception {
+        File directory = folder.newFolder();
+        BeaconSpool spool = BeaconSpool.open(directory, 1024 * 1024);
+        List<Beacon> beacons = new ArrayList<Beacon>();
+        for (int i = 0; i < 3; i++) {
+            Beacon beacon = createBeacon(i);
+            beacons.add(beacon);
+            spool.append(beacon);
+        }
+        List<BeaconSpool.Segment> segments = spool.segments();
+        assertEquals(1, segments.size());
+        assertEquals(3, spool.size());
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        JsonByteWriter writer = new JsonByteWriter(64);
+        writer.reset(expected);
+        BeaconManager.createEncodedPayload(beacons, writer);
+        writer.flush();
+
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        writer.reset(actual);
+        writer.beginArray();
+        assertEquals(3, spool.writeRecords(segments.get(0), writer));
+        writer.endArray();
+        writer.flush();
+        assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+
+        spool.delete(segments.get(0));
+        assertEquals(0, spool.size());
+        assertEquals(0, spool.diskBytes());
+        assertEquals(0, directory.list().length);
+    }
+
+    @Test
+    public void testRecoversAfterCrash() throws Exception {
+        File directory = folder.newFolder();
+        BeaconSpool spool = BeaconSpool.open(directory, 4 * 1024 * 1024);
+        spool.append(createBeacon(0));
+        spool.append(createBeacon(1));
+        spool.force();
+        // Not closed, as if the process died
+
+        BeaconSpool recovered = BeaconSpool.open(directory, 4 * 1024 * 1024);
+        assertEquals(2, recovered.size());
+        recovered.append(createBeacon(2));
+        assertEquals(2, recovered.segments().size());
+        assertEquals(3, recovered.size());
+    }
+
+    @Test
+    public void testCorruptRecordIsDropped() throws Exception {
+        File directory = folder.newFolder();
+        BeaconSpool spool = BeaconSpool.open(directory, 1024 * 1024);
+        for (int i = 0; i < 3; i++) {
+            spool.append(createBeacon(i));
+        }
+        File file = spool.segments().get(0).file;
+        spool.close();
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            int firstLength = raf.readInt();
+            long secondRecord = 8 + firstLength;
+            raf.seek(secondRecord + 8 + 10);
+            int b = raf.read();
+            raf.seek(secondRecord + 8 + 10);
+            raf.write(b ^ 0xff);
+        } finally {
+            raf.close();
+        }
+
+        // Only the records before the corrupt one are recovered
+        assertEquals(1, BeaconSpool.open(directory, 1024 * 1024).size());
+    }
+
+    @Test
+    public void testDiskUsageIsBounded() throws Exception {
+        File directory = folder.newFolder();
+        long maxBytes = 16 * 1024;
+        BeaconSpool spool = BeaconSpool.open(directory, maxBytes);
+        for (int i = 0; i < 200; i++) {
+            spool.append(createBeacon(i));
+        }
+        spool.close();
+        assertTrue(spool.diskBytes() <= maxBytes);
+        assertTrue(spool.size() > 0);
+        assertTrue(spool.size() < 200);
+        long onDisk = 0;
+        for (File file : directory.listFiles()) {
+            onDisk += file.length();
+        }
+        assertEquals(spool.diskBytes(), onDisk);
+    }
+
+    @Test
+    public void testFlushesAppendToTheActiveSegment() throws Exception {
+        File directory = folder.newFolder();
+        BeaconSpool spool = BeaconSpool.open(directory, 16 * 1024 * 1024);
+        for (int i = 0; i < 40; i++) {
+            spool.append(createBeacon(i));
+            spool.force();
+            // An offline flush looks at the segments without closing the active one
+            assertEquals(1, spool.segments().size());
+        }
+        assertEquals(40, spool.size());
+        assertTrue(spool.diskBytes() < 64 * 1024);
+
+        spool.close();
+        assertEquals(spool.diskBytes(), spool.segments().get(0).file.length());
+        assertEquals(40, BeaconSpool.open(directory, 16 * 1024 * 1024).size());
+    }
+
+    @Test
+    public void testUploadsSpooledBeaconsWhenCollectorIsBack() throws Exception {
+        File directory = folder.newFolder();
+        AgentConfiguration offline = AgentConfiguration.builder()
+                .withAppKey("AAA-BBB-CCC")
+                .withCollectorChannelFactory(TestCollectorChannel.factory(503))
+                .withSpoolDirectory(directory)
+                .build();
+        Beacon template = createBeacon(0);
+        BeaconManager.beaconBuffer.clear();
+        new BeaconManager(template.deviceInfo, template.versionInfo);
+        BeaconManager.configure(offline);
+        try {
+            BeaconManager.addEvent(CustomEvent.builder("offline", "first").build());
+            UploadResult result = BeaconManager.sendAllBeacons(offline);
+            assertEquals(503, result.getResponseCode());
+            assertEquals(0, result.getBeaconsAccepted());
+            assertEquals(1, BeaconManager.spool.size());
+
+            // Restart, then upload once the collector accepts beacons again
+            final List<TestCollectorChannel> requests = new ArrayList<TestCollectorChannel>();
+            AgentConfiguration online = AgentConfiguration.builder()
+                    .withAppKey("AAA-BBB-CCC")
+                    .withCollectorChannelFactory(new CollectorChannelFactory() {
+                        @Override
+                        public CollectorChannel getCollectorChannel() {
+                            TestCollectorChannel channel = new TestCollectorChannel(200);
+                            requests.add(channel);
+                            return channel;
+                        }
+                    })
+                    .withSpoolDirectory(directory)
+                    .build();
+            BeaconManager.configure(online);
+            assertEquals(1, BeaconManager.spool.size());
+            BeaconManager.addEvent(CustomEvent.builder("online", "second").build());
+            result = BeaconManager.sendAllBeacons(online);
+
+            assertTrue(result.isSuccess());
+            assertEquals(2, result.getBeaconsAccepted());
+            assertEquals(0, BeaconManager.spool.size());
+            assertEquals(0, directory.list().length);
+
+            // One request per segment, oldest first
+            assertEquals(2, requests.size());
+            assertEquals("offline", firstEventType(requests.get(0)));
+            assertEquals("online", firstEventType(requests.get(1)));
+        } finally {
+            BeaconManager.configure(AgentConfiguration.builder().build());
+        }
+        assertNull(BeaconManager.spool);
+    }
+
+    @Test
+    public void testBinaryUploadTranscodesToJsonUpload() throws Exception {
+        File directory = folder.newFolder();
+        final List<TestCollectorChannel> requests = new ArrayList<TestCollectorChannel>();
+        CollectorChannelFactory factory = new CollectorChannelFactory() {
+            @Override
+            public CollectorChannel getCollectorChannel() {
+                TestCollectorChannel channel = new TestCollectorChannel(requests.isEmpty() ? 503 : 200);
+                requests.add(channel);
+                return channel;
+            }
+        };
+        AgentConfiguration binary = AgentConfiguration.builder()
+                .withAppKey("AAA-BBB-CCC")
+                .withCollectorChannelFactory(factory)
+                .withSpoolDirectory(directory)
+                .withBinaryEncoding(true)
+                .build();
+        Beacon template = createBeacon(0);
+        BeaconManager.beaconBuffer.clear();
+        new BeaconManager(template.deviceInfo, template.versionInfo);
+        BeaconManager.configure(binary);
+        try {
+            BeaconManager.addEvent(CustomEvent.builder("Checkout", "Items purchased")
+                    .addLongProperty("items", 3)
+                    .addDoubleProperty("total", 12.5)
+                    .build());
+            assertEquals(503, BeaconManager.sendAllBeacons(binary).getResponseCode());
+
+            // The same spooled beacon, uploaded as JSON after a restart
+            AgentConfiguration json = AgentConfiguration.builder()
+                    .withAppKey("AAA-BBB-CCC")
+                    .withCollectorChannelFactory(factory)
+                    .withSpoolDirectory(directory)
+                    .build();
+            BeaconManager.configure(json);
+            assertTrue(BeaconManager.sendAllBeacons(json).isSuccess());
+
+            // Then the beacon that was started when the spooled one was drained
+            assertEquals(3, requests.size());
+            ByteArrayOutputStream transcoded = new ByteArrayOutputStream();
+            JsonByteWriter writer = new JsonByteWriter(64);
+            writer.reset(transcoded);
+            byte[] binaryPayload = ByteStreams.toByteArray(new GZIPInputStream(new ByteArrayInputStream(requests.get(0).body.toByteArray())));
+            BinaryByteReader.transcode(new ByteArrayInputStream(binaryPayload), writer);
+            writer.flush();
+            byte[] expected = ByteStreams.toByteArray(new GZIPInputStream(new ByteArrayInputStream(requests.get(1).body.toByteArray())));
+            assertArrayEquals(expected, transcoded.toByteArray());
+            assertTrue(binaryPayload.length < expected.length);
+        } finally {
+            BeaconManager.configure(AgentConfiguration.builder().build());
+        }
+    }
+
+    private static String firstEventType(TestCollectorChannel request) throws IOException {
+        byte[] json = ByteStreams.toByteArray(new GZIPInputStream(new ByteArrayInputStream(request.body.toByteArray())));
+        JsonArray payload = new JsonParser().parse(new String(json, "UTF-8")).getAsJsonArray();
+        assertEquals(1, payload.size());
+        return payload.get(0).getAsJsonObject().get("customEvents").getAsJsonArray()
+                .get(0).getAsJsonObject().get("eventType").getAsString();
+    }
+
+    private static Beacon createBeacon(int i) throws IOException {
+        DeviceInfo deviceInfo = DeviceInfo.builder("Smart Shelf", "device-" + i).build();
+        VersionInfo versionInfo = VersionInfo.builder().withSoftwareVersion("1.0").build();
+        Beacon beacon = new Beacon(deviceInfo, versionInfo);
+        for (int j = 0; j < 5; j++) {
+            beacon.offer(CustomEvent.builder("Checkout", "Items purchased at register " + j)
+                    .addLongProperty("items", j)
+                    .build());
+        }
+        return beacon;
+    }
+}
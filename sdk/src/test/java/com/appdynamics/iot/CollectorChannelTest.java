@@ -116,4 +116,13 @@ public class CollectorChannelTest {
         collectorChannel.setRequestMethod("request method");
         assertEquals("request method", collectorChannel.getRequestMethod());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testChunkedStreamingMode() throws Exception {
+        assertEquals(0, collectorChannel.getChunkLength());
+        collectorChannel.setChunkedStreamingMode(4096);
+        assertEquals(4096, collectorChannel.getChunkLength());
+        collectorChannel.setChunkedStreamingMode(-1);
+        assertEquals(0, collectorChannel.getChunkLength());
+    }
+}
@@ -0,0 +1,104 @@
+/**
+ * Copyright (c) 2018 AppDynamics LLC and its affiliates
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appdynamics.iot;
+
+import com.appdynamics.iot.events.CustomEvent;
+import com.appdynamics.iot.events.Event;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class EventRingBufferTest {
+
+    @Test
+    public void testCapacityRoundedToPowerOfTwo() throws Exception {
+        assertEquals(8, new EventRingBuffer(5).capacity());
+        assertEquals(8, new EventRingBuffer(8).capacity());
+        assertEquals(2, new EventRingBuffer(1).capacity());
+    }
+
+    @Test
+    public void testOfferPollInOrder() throws Exception {
+        EventRingBuffer ring = new EventRingBuffer(4);
+        Event[] events = new Event[10];
+        for (int i = 0; i < events.length; i++) {
+            events[i] = CustomEvent.builder("type", "summary " + i).build();
+        }
+        // wrap around the ring a few times
+        for (int i = 0; i < events.length; i += 2) {
+            assertTrue(ring.offer(events[i]));
+            assertTrue(ring.offer(events[i + 1]));
+            assertSame(events[i], ring.poll());
+            assertSame(events[i + 1], ring.poll());
+        }
+        assertNull(ring.poll());
+    }
+
+    @Test
+    public void testOfferWhenFull() throws Exception {
+        EventRingBuffer ring = new EventRingBuffer(2);
+        Event event = CustomEvent.builder("type", "summary").build();
+        assertTrue(ring.offer(event));
+        assertTrue(ring.offer(event));
+        assertFalse(ring.offer(event));
+        assertEquals(1, ring.getDroppedCount());
+        assertNotNull(ring.poll());
+        assertTrue(ring.offer(event));
+    }
+
+    @Test
+    public void testMultipleProducersSingleConsumer() throws Exception {
+        final int producers = 4;
+        final int eventsPerProducer = 20000;
+        final AtomicInteger delivered = new AtomicInteger();
+        final CountDownLatch allDelivered = new CountDownLatch(1);
+        final EventRingBuffer ring = new EventRingBuffer(1024) {
+            @Override
+            void deliver(Event event) {
+                if (delivered.incrementAndGet() == producers * eventsPerProducer) {
+                    allDelivered.countDown();
+                }
+            }
+        };
+        ring.start();
+        final Event event = CustomEvent.builder("type", "summary").build();
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            threads[p] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < eventsPerProducer; i++) {
+                        while (!ring.offer(event)) {
+                            Thread.yield();
+                        }
+                    }
+                }
+            });
+            threads[p].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertTrue(allDelivered.await(10, TimeUnit.SECONDS));
+        ring.stop();
+        assertEquals(producers * eventsPerProducer, delivered.get());
+    }
+}
@@ -0,0 +1,166 @@
+/**
+ * Copyright (c) 2018 AppDynamics LLC and its affiliates
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appdynamics.iot;
+
+import com.appdynamics.iot.events.CustomEvent;
+import com.appdynamics.iot.events.ErrorEvent;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class FlushSchedulerTest {
+    private static final String APP_KEY = "AAA-BBB-CCC";
+
+    private final AtomicInteger uploads = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private final Semaphore uploadDone = new Semaphore(0);
+    private volatile CountDownLatch uploadGate;
+
+    private final CollectorChannelFactory countingFactory = new CollectorChannelFactory() {
+        @Override
+        public CollectorChannel getCollectorChannel() {
+            return new TestCollectorChannel(200) {
+                @Override
+                public int getResponseCode() throws IOException {
+                    int now = inFlight.incrementAndGet();
+                    if (now > maxInFlight.get()) {
+                        maxInFlight.set(now);
+                    }
+                    try {
+                        CountDownLatch gate = uploadGate;
+                        if (gate != null) {
+                            gate.await(5, TimeUnit.SECONDS);
+                        }
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                    inFlight.decrementAndGet();
+                    uploads.incrementAndGet();
+                    uploadDone.release();
+                    return super.getResponseCode();
+                }
+            };
+        }
+    };
+
+    @Before
+    public void setUp() {
+        Instrumentation.isDisabled = false;
+        BeaconManager.beaconBuffer.clear();
+        BeaconManager.retryUploads.clear();
+        new BeaconManager(DeviceInfo.builder("TEST", "1").build(), VersionInfo.builder().build());
+    }
+
+    @After
+    public void tearDown() {
+        if (Instrumentation.flushScheduler != null) {
+            Instrumentation.flushScheduler.shutdown();
+            Instrumentation.flushScheduler = null;
+        }
+    }
+
+    private void startScheduler(AgentConfiguration.Builder builder) {
+        AgentConfiguration config = builder
+                .withAppKey(APP_KEY)
+                .withCollectorUrl("http://localhost")
+                .withCollectorChannelFactory(countingFactory)
+                .build();
+        FlushScheduler scheduler = new FlushScheduler(config);
+        scheduler.start();
+        Instrumentation.flushScheduler = scheduler;
+    }
+
+    @Test
+    public void testEventCountThreshold() throws Exception {
+        startScheduler(AgentConfiguration.builder().withFlushEventCountThreshold(3));
+        BeaconManager.addEvent(CustomEvent.builder("type", "summary").build());
+        BeaconManager.addEvent(CustomEvent.builder("type", "summary").build());
+        assertFalse(uploadDone.tryAcquire(200, TimeUnit.MILLISECONDS));
+        BeaconManager.addEvent(CustomEvent.builder("type", "summary").build());
+        assertTrue(uploadDone.tryAcquire(5, TimeUnit.SECONDS));
+        assertEquals(1, uploads.get());
+    }
+
+    @Test
+    public void testByteSizeThreshold() throws Exception {
+        CustomEvent event = CustomEvent.builder("type", "summary").build();
+        startScheduler(AgentConfiguration.builder().withFlushByteSizeThreshold(event.estimateSize() * 2));
+        BeaconManager.addEvent(event);
+        assertFalse(uploadDone.tryAcquire(200, TimeUnit.MILLISECONDS));
+        BeaconManager.addEvent(event);
+        assertTrue(uploadDone.tryAcquire(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testFatalErrorTriggersFlush() throws Exception {
+        startScheduler(AgentConfiguration.builder().withFlushOnFatalError(true));
+        BeaconManager.addEvent(ErrorEvent.builder("error").withSeverity(Instrumentation.Severity.CRITICAL).build());
+        assertFalse(uploadDone.tryAcquire(200, TimeUnit.MILLISECONDS));
+        BeaconManager.addEvent(ErrorEvent.builder("error").withSeverity(Instrumentation.Severity.FATAL).build());
+        assertTrue(uploadDone.tryAcquire(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testIntervalFlush() throws Exception {
+        startScheduler(AgentConfiguration.builder().withFlushInterval(50, TimeUnit.MILLISECONDS));
+        BeaconManager.addEvent(CustomEvent.builder("type", "summary").build());
+        assertTrue(uploadDone.tryAcquire(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testOverlappingTriggersAreCoalesced() throws Exception {
+        uploadGate = new CountDownLatch(1);
+        startScheduler(AgentConfiguration.builder().withFlushEventCountThreshold(1));
+        for (int i = 0; i < 50; i++) {
+            BeaconManager.addEvent(CustomEvent.builder("type", "summary").build());
+        }
+        uploadGate.countDown();
+        assertTrue(uploadDone.tryAcquire(5, TimeUnit.SECONDS));
+        // At most one more upload was queued behind the one in flight
+        uploadDone.tryAcquire(500, TimeUnit.MILLISECONDS);
+        assertTrue(uploads.get() <= 2);
+        assertEquals(1, maxInFlight.get());
+    }
+
+    @Test
+    public void testRequestFlushSharesPendingFuture() throws Exception {
+        uploadGate = new CountDownLatch(1);
+        startScheduler(AgentConfiguration.builder());
+        BeaconManager.addEvent(CustomEvent.builder("type", "summary").build());
+        ListenableFuture<UploadResult> inFlightFlush = Instrumentation.flushScheduler.requestFlush();
+        // wait until the first flush is running, so the next request is queued behind it
+        while (inFlight.get() == 0) {
+            Thread.sleep(10);
+        }
+        ListenableFuture<UploadResult> queued = Instrumentation.flushScheduler.requestFlush();
+        assertSame(queued, Instrumentation.flushScheduler.requestFlush());
+        assertNotSame(inFlightFlush, queued);
+        uploadGate.countDown();
+        assertEquals(200, inFlightFlush.get(5, TimeUnit.SECONDS).getResponseCode());
+        assertEquals(200, queued.get(5, TimeUnit.SECONDS).getResponseCode());
+    }
+}
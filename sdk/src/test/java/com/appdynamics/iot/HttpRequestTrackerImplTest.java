@@ -16,6 +16,7 @@
 
 package com.appdynamics.iot;
 
+import com.appdynamics.iot.events.EventPool;
 import com.appdynamics.iot.events.NetworkRequestEvent;
 import com.google.common.eventbus.EventBus;
 import org.easymock.Capture;
@@ -195,6 +196,25 @@ public class HttpRequestTrackerImplTest {
         verify(eventBus);
     }
 
+    @Test
+    public void testPooledEventDroppedByFullRingIsRecycled() {
+        EventRingBuffer ring = new EventRingBuffer(2);
+        assertTrue(ring.offer(NetworkRequestEvent.builder(testUrl).build()));
+        assertTrue(ring.offer(NetworkRequestEvent.builder(testUrl).build()));
+        EventPool.configure(1, false);
+        try {
+            NetworkRequestEvent pooled = NetworkRequestEvent.builder(testUrl).build();
+            EventPool.recycle(pooled);
+
+            // Borrows the pooled event, which the full ring drops
+            new HttpRequestTrackerImpl(ring, testUrl).withResponseCode(200).reportDone();
+
+            assertSame(pooled, NetworkRequestEvent.builder(testUrl).build());
+        } finally {
+            EventPool.configure(0, false);
+        }
+    }
+
     @Test
     public void testLoggerReportRequestTwice() {
         TestLoggerFactory.clear();
@@ -19,6 +19,7 @@ package com.appdynamics.iot;
 import com.appdynamics.iot.events.CustomEvent;
 import com.appdynamics.iot.events.ErrorEvent;
 import com.appdynamics.iot.events.Event;
+import com.appdynamics.iot.events.EventPool;
 import com.appdynamics.iot.events.NetworkRequestEvent;
 import com.google.common.eventbus.EventBus;
 import junit.framework.AssertionFailedError;
@@ -29,6 +30,9 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.net.URL;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static org.easymock.EasyMock.*;
 import static org.junit.Assert.*;
@@ -46,6 +50,10 @@ public class InstrumentationTest {
         Instrumentation.isInitialized = false;
         Instrumentation.isDisabled = false;
         Instrumentation.beaconManager = null;
+        if (Instrumentation.ringBuffer != null) {
+            Instrumentation.ringBuffer.stop();
+            Instrumentation.ringBuffer = null;
+        }
         control = EasyMock.createControl();
     }
 
@@ -61,6 +69,19 @@ public class InstrumentationTest {
         assertNotNull(Instrumentation.eventBus);
     }
 
+    @Test
+    public void testPooledEventIsRecycledWhenNotStarted() throws Exception {
+        EventPool.configure(1, false);
+        try {
+            CustomEvent event = CustomEvent.builder("Checkout", "Items purchased").build();
+            Instrumentation.addEvent(event);
+            assertFalse(Instrumentation.isInitialized);
+            assertSame(event, CustomEvent.builder("Checkout", "Items purchased").build());
+        } finally {
+            EventPool.configure(0, false);
+        }
+    }
+
     @Test
     public void testStartNotCalled() throws Exception {
         CustomEvent mockCustomEvent = EasyMock.createNiceMock(CustomEvent.class);
@@ -252,6 +273,88 @@ public class InstrumentationTest {
         assertEquals(appKey, capturedEvent.getAppKey());
     }
 
+    @Test
+    public void testAddEventWithRingBuffer() throws Exception {
+        EventBus mockEventBus = control.createMock(EventBus.class);
+        Instrumentation.eventBus = mockEventBus;
+        mockEventBus.post(anyObject());
+        // The ring buffer replaces the EventBus for events
+        expectLastCall().andThrow(new AssertionFailedError()).anyTimes();
+        control.replay();
+
+        AgentConfiguration agentConfiguration = AgentConfiguration.builder()
+                .withAppKey(appKey)
+                .withRingBufferIngestion(16)
+                .build();
+        DeviceInfo deviceInfo = DeviceInfo.builder(DEVICE_TYPE, DEVICE_ID).build();
+        Instrumentation.start(agentConfiguration, deviceInfo, null);
+        assertNotNull(Instrumentation.ringBuffer);
+
+        Instrumentation.addEvent(CustomEvent.builder("My Type", "My Event Summary").build());
+        HttpRequestTracker tracker = Instrumentation.beginHttpRequest(new URL("http://www.test.com"));
+        assertTrue(tracker instanceof HttpRequestTrackerImpl);
+        tracker.withResponseCode(200).reportDone();
+
+        control.verify();
+
+        Instrumentation.start(AgentConfiguration.builder().withAppKey(appKey).build(), deviceInfo, null);
+        assertNull(Instrumentation.ringBuffer);
+    }
+
+    @Test
+    public void testSendAllEventsAsync() throws Exception {
+        Instrumentation.eventBus = new EventBus();
+        Instrumentation.eventBus.register(new EventListener());
+        AgentConfiguration agentConfiguration = AgentConfiguration.builder()
+                .withAppKey(appKey)
+                .withCollectorUrl("http://localhost")
+                .withCollectorChannelFactory(TestCollectorChannel.factory(200))
+                .build();
+        DeviceInfo deviceInfo = DeviceInfo.builder(DEVICE_TYPE, DEVICE_ID).build();
+        Instrumentation.start(agentConfiguration, deviceInfo, VersionInfo.builder().build());
+
+        Instrumentation.addEvent(CustomEvent.builder("My Type", "My Event Summary").build());
+        UploadResult result = Instrumentation.sendAllEventsAsync().get(5, TimeUnit.SECONDS);
+
+        assertTrue(result.isSuccess());
+        assertEquals(200, result.getResponseCode());
+        assertTrue(result.getBytesSent() > 0);
+        assertTrue(result.getBeaconsAccepted() >= 1);
+    }
+
+    @Test
+    public void testSendAllEventsAsyncServerError() throws Exception {
+        Instrumentation.eventBus = new EventBus();
+        Instrumentation.eventBus.register(new EventListener());
+        AgentConfiguration agentConfiguration = AgentConfiguration.builder()
+                .withAppKey(appKey)
+                .withCollectorUrl("http://localhost")
+                .withCollectorChannelFactory(TestCollectorChannel.factory(500))
+                .build();
+        DeviceInfo deviceInfo = DeviceInfo.builder(DEVICE_TYPE, DEVICE_ID).build();
+        Instrumentation.start(agentConfiguration, deviceInfo, VersionInfo.builder().build());
+
+        Instrumentation.addEvent(CustomEvent.builder("My Type", "My Event Summary").build());
+        UploadResult result = Instrumentation.sendAllEventsAsync().get(5, TimeUnit.SECONDS);
+
+        assertFalse(result.isSuccess());
+        assertEquals(500, result.getResponseCode());
+        assertEquals(0, result.getBeaconsAccepted());
+        assertEquals(1, BeaconManager.retryUploads.size());
+        BeaconManager.retryUploads.clear();
+    }
+
+    @Test
+    public void testSendAllEventsAsyncNotStarted() throws Exception {
+        Future<UploadResult> future = Instrumentation.sendAllEventsAsync();
+        try {
+            future.get();
+            fail("Expected the future to fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
     @Test
     public void testDisabledStatus() throws Exception {
         AgentConfiguration agentConfiguration = AgentConfiguration.builder()
@@ -0,0 +1,209 @@
+/**
+ * Copyright (c) 2018 AppDynamics LLC and its affiliates
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appdynamics.iot;
+
+import com.appdynamics.iot.BeaconManager.Beacon;
+import com.appdynamics.iot.events.CustomEvent;
+import com.appdynamics.iot.events.ErrorEvent;
+import com.appdynamics.iot.events.NetworkRequestEvent;
+import com.appdynamics.iot.utils.JsonByteWriter;
+import com.google.common.io.ByteStreams;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PayloadCompressorTest {
+
+    @Test
+    public void testGzipIsReusedAcrossBodies() throws IOException {
+        PayloadCompressor compressor = new PayloadCompressor(Compression.GZIP, Deflater.DEFAULT_COMPRESSION);
+        try {
+            for (int i = 0; i < 3; i++) {
+                byte[] body = body(100000 + i);
+                byte[] compressed = compress(compressor, body);
+                assertTrue(compressed.length < body.length);
+                assertArrayEquals(body, ByteStreams.toByteArray(new GZIPInputStream(new ByteArrayInputStream(compressed))));
+            }
+        } finally {
+            compressor.end();
+        }
+    }
+
+    @Test
+    public void testDeflate() throws IOException {
+        PayloadCompressor compressor = new PayloadCompressor(Compression.DEFLATE, Deflater.BEST_SPEED);
+        try {
+            byte[] body = body(50000);
+            byte[] compressed = compress(compressor, body);
+            assertArrayEquals(body, ByteStreams.toByteArray(new InflaterInputStream(new ByteArrayInputStream(compressed))));
+        } finally {
+            compressor.end();
+        }
+    }
+
+    @Test
+    public void testIdentity() throws IOException {
+        PayloadCompressor compressor = new PayloadCompressor(Compression.IDENTITY, Deflater.BEST_SPEED);
+        byte[] body = body(1000);
+        assertArrayEquals(body, compress(compressor, body));
+        assertTrue(compressor.matches(Compression.IDENTITY, Deflater.DEFAULT_COMPRESSION));
+        assertFalse(compressor.matches(Compression.GZIP, Deflater.BEST_SPEED));
+    }
+
+    @Test
+    public void testDictionaryShrinksSmallPayloads() throws IOException {
+        byte[] json = smallPayload();
+        PayloadCompressor gzip = new PayloadCompressor(Compression.GZIP, Deflater.DEFAULT_COMPRESSION);
+        PayloadCompressor dictionary = new PayloadCompressor(Compression.DEFLATE_DICTIONARY, Deflater.DEFAULT_COMPRESSION);
+        try {
+            byte[] gzipped = compress(gzip, json);
+            byte[] compressed = compress(dictionary, json);
+            assertTrue(compressed.length + " vs " + gzipped.length, compressed.length < gzipped.length * 0.8);
+            assertArrayEquals(json, PayloadCompressor.decompress(Compression.DEFLATE_DICTIONARY, compressed));
+            // Reused for the next body
+            assertArrayEquals(json, PayloadCompressor.decompress(Compression.DEFLATE_DICTIONARY, compress(dictionary, json)));
+        } finally {
+            gzip.end();
+            dictionary.end();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testDictionaryIsRequired() throws IOException {
+        PayloadCompressor dictionary = new PayloadCompressor(Compression.DEFLATE_DICTIONARY, Deflater.DEFAULT_COMPRESSION);
+        try {
+            PayloadCompressor.decompress(Compression.DEFLATE, compress(dictionary, smallPayload()));
+        } finally {
+            dictionary.end();
+        }
+    }
+
+    @Test
+    public void testDictionaryCoversSchema() throws IOException {
+        String dictionary = new String(PayloadDictionary.BYTES, "UTF-8");
+        JsonElement payload = new JsonParser().parse(new String(smallPayload(), "UTF-8"));
+        List<String> names = new ArrayList<>();
+        collectNames(payload, names);
+        assertTrue(names.size() > 30);
+        for (String name : names) {
+            assertTrue(name, dictionary.contains("\"" + name + "\":"));
+        }
+    }
+
+    /**
+     * Collects the member names of the beacon schema, leaving out the application's property names.
+     */
+    private static void collectNames(JsonElement element, List<String> names) {
+        if (element.isJsonArray()) {
+            for (JsonElement e : element.getAsJsonArray()) {
+                collectNames(e, names);
+            }
+        } else if (element.isJsonObject()) {
+            for (Map.Entry<String, JsonElement> member : element.getAsJsonObject().entrySet()) {
+                names.add(member.getKey());
+                if (!member.getKey().endsWith("Properties") && !member.getKey().equals("responseHeaders")) {
+                    collectNames(member.getValue(), names);
+                }
+            }
+        }
+    }
+
+    /**
+     * A beacon of a few events of each type, as flushed by a device that uploads often.
+     */
+    private static byte[] smallPayload() throws IOException {
+        DeviceInfo deviceInfo = DeviceInfo.builder("Smart Shelf", "3f2a9c1e-5b7d-4e2a-9f1c-8d6b4a2e7c90")
+                .withDeviceName("Aisle 7")
+                .build();
+        VersionInfo versionInfo = VersionInfo.builder()
+                .withHardwareVersion("1.0")
+                .withFirmwareVersion("2.0")
+                .withSoftwareVersion("3.0")
+                .withOsVersion("4.0")
+                .build();
+        Beacon beacon = new Beacon(deviceInfo, versionInfo);
+        for (int i = 0; i < 3; i++) {
+            beacon.offer(CustomEvent.builder("Checkout", "Items purchased")
+                    .addLongProperty("items", i)
+                    .build());
+        }
+        Map<String, List<String>> headers = new HashMap<>();
+        headers.put("Content-Type", Arrays.asList("application/json"));
+        beacon.offer(NetworkRequestEvent.builder(new URL("https://api.example.com/items"))
+                .withStatusCode(200)
+                .withNetworkError("none")
+                .withRequestContentLength(128)
+                .withResponseContentLength(4096)
+                .withServerResponseHeaders(headers)
+                .build());
+        ArrayList<ErrorEvent.StackTrace> traces = new ArrayList<>();
+        traces.add(new ErrorEvent.StackTrace("main", new StackTraceElement[]{
+                new StackTraceElement("com.example.Scanner", "read", "Scanner.java", 42)}));
+        beacon.offer(ErrorEvent.builder("Scanner failure")
+                .withMessage("Barcode could not be read")
+                .withStackTraces(traces)
+                .withErrorStackTraceIndex(0)
+                .build());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonByteWriter writer = new JsonByteWriter(256);
+        writer.reset(out);
+        BeaconManager.createEncodedPayload(Collections.singletonList(beacon), writer);
+        writer.flush();
+        return out.toByteArray();
+    }
+
+    private static byte[] compress(PayloadCompressor compressor, byte[] body) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        OutputStream stream = compressor.open(out);
+        // Written in pieces, like the payload writer flushing its buffer
+        for (int offset = 0; offset < body.length; offset += 4096) {
+            stream.write(body, offset, Math.min(4096, body.length - offset));
+        }
+        stream.close();
+        return out.toByteArray();
+    }
+
+    private static byte[] body(int length) {
+        Random random = new Random(length);
+        byte[] body = new byte[length];
+        for (int i = 0; i < length; i++) {
+            // Compressible, but not trivially so
+            body[i] = (byte) ('a' + random.nextInt(8));
+        }
+        return body;
+    }
+}
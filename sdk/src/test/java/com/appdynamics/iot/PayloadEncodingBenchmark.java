@@ -0,0 +1,244 @@
+/**
+ * Copyright (c) 2018 AppDynamics LLC and its affiliates
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appdynamics.iot;
+
+import com.appdynamics.iot.BeaconManager.Beacon;
+import com.appdynamics.iot.events.CustomEvent;
+import com.appdynamics.iot.events.ErrorEvent;
+import com.appdynamics.iot.events.NetworkRequestEvent;
+import com.appdynamics.iot.utils.BinaryByteWriter;
+import com.appdynamics.iot.utils.ColumnarTranscoder;
+import com.appdynamics.iot.utils.Constants;
+import com.appdynamics.iot.utils.JsonByteWriter;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compares the Gson based payload encoder with {@link JsonByteWriter}, {@link BinaryByteWriter} and
+ * the columnar layout of {@link ColumnarTranscoder}, with and without gzip, and the CPU time of each {@link Compression} against the size of the body it produces.
+ *
+ * <p>Run with {@code ./gradlew :sdk:benchmark}. This is a rough single-threaded measurement,
+ * not a substitute for profiling on the target device.</p>
+ */
+public class PayloadEncodingBenchmark {
+    private static final int BEACONS = Constants.BEACONS_IN_MEMORY_MAX;
+    private static final int WARMUP_ROUNDS = 200;
+    private static final int MEASURED_ROUNDS = 500;
+
+    interface Encoder {
+        void encode(List<Beacon> beacons, OutputStream out) throws IOException;
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<Beacon> beacons = createBeacons(BEACONS, Constants.CUSTOM_EVENTS_MAX, Constants.NETWORK_REQUEST_EVENTS_MAX / 4);
+
+        Encoder gson = new Encoder() {
+            @Override
+            public void encode(List<Beacon> beacons, OutputStream out) throws IOException {
+                Writer writer = new OutputStreamWriter(out, "UTF-8");
+                BeaconManager.createEncodedPayload(beacons, writer);
+                writer.flush();
+            }
+        };
+        final JsonByteWriter byteWriter = new JsonByteWriter(Constants.PAYLOAD_BUFFER_SIZE);
+        Encoder bytes = new Encoder() {
+            @Override
+            public void encode(List<Beacon> beacons, OutputStream out) throws IOException {
+                byteWriter.reset(out);
+                BeaconManager.createEncodedPayload(beacons, byteWriter);
+                byteWriter.flush();
+            }
+        };
+
+        System.out.println("Payload of " + BEACONS + " beacons, " + MEASURED_ROUNDS + " rounds");
+        double gsonRate = run("JsonWriter", gson, beacons, false);
+        double bytesRate = run("JsonByteWriter", bytes, beacons, false);
+        System.out.printf("JsonByteWriter speedup: %.2fx%n", bytesRate / gsonRate);
+        double gsonGzipRate = run("JsonWriter + gzip", gson, beacons, true);
+        double bytesGzipRate = run("JsonByteWriter + gzip", bytes, beacons, true);
+        System.out.printf("JsonByteWriter + gzip speedup: %.2fx%n", bytesGzipRate / gsonGzipRate);
+
+        final BinaryByteWriter binaryWriter = new BinaryByteWriter(Constants.PAYLOAD_BUFFER_SIZE);
+        Encoder binary = new Encoder() {
+            @Override
+            public void encode(List<Beacon> beacons, OutputStream out) throws IOException {
+                binaryWriter.reset(out);
+                BeaconManager.createEncodedPayload(beacons, binaryWriter);
+                binaryWriter.flush();
+            }
+        };
+        run("BinaryByteWriter", binary, beacons, false);
+        run("BinaryByteWriter + gzip", binary, beacons, true);
+
+        final JsonByteWriter rowWriter = new JsonByteWriter(Constants.PAYLOAD_BUFFER_SIZE);
+        Encoder columnar = new Encoder() {
+            @Override
+            public void encode(List<Beacon> beacons, OutputStream out) throws IOException {
+                rowWriter.reset(null);
+                BeaconManager.createEncodedPayload(beacons, rowWriter);
+                byteWriter.reset(out);
+                ColumnarTranscoder.toColumns(rowWriter, byteWriter);
+                byteWriter.flush();
+            }
+        };
+        run("Columnar", columnar, beacons, false);
+        run("Columnar + gzip", columnar, beacons, true);
+
+        compressAll("JSON", bytes, beacons);
+        compressAll("binary", binary, beacons);
+        compressAll("columnar", columnar, beacons);
+        // A device flushing every few events
+        List<Beacon> small = createBeacons(1, 4, 1);
+        compressAll("JSON", bytes, small);
+        compressAll("binary", binary, small);
+        compressAll("columnar", columnar, small);
+    }
+
+    private static void compressAll(String format, Encoder encoder, List<Beacon> beacons) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        encoder.encode(beacons, payload);
+        byte[] json = payload.toByteArray();
+        System.out.println();
+        System.out.println("Compression of a " + format + " payload of " + json.length + " bytes");
+        compress("identity", Compression.IDENTITY, Deflater.DEFAULT_COMPRESSION, json);
+        compress("deflate, level 1", Compression.DEFLATE, Deflater.BEST_SPEED, json);
+        compress("gzip, level 1", Compression.GZIP, Deflater.BEST_SPEED, json);
+        compress("gzip, default level", Compression.GZIP, Deflater.DEFAULT_COMPRESSION, json);
+        compress("gzip, level 9", Compression.GZIP, Deflater.BEST_COMPRESSION, json);
+        compress("dictionary, default", Compression.DEFLATE_DICTIONARY, Deflater.DEFAULT_COMPRESSION, json);
+    }
+
+    /**
+     * Prints the CPU time taken by the codec per payload, and the ratio of the payload size to the
+     * compressed size.
+     */
+    private static void compress(String name, Compression compression, int level, byte[] json) throws IOException {
+        PayloadCompressor compressor = new PayloadCompressor(compression, level);
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        try {
+            long size = 0;
+            for (int i = 0; i < WARMUP_ROUNDS; i++) {
+                size = compressOnce(compressor, json);
+            }
+            long start = threads.getCurrentThreadCpuTime();
+            for (int i = 0; i < MEASURED_ROUNDS; i++) {
+                compressOnce(compressor, json);
+            }
+            double millis = (threads.getCurrentThreadCpuTime() - start) / 1e6 / MEASURED_ROUNDS;
+            System.out.printf("%-24s %8.3f ms CPU per payload, %8d bytes, ratio %5.2f%n",
+                    name, millis, size, json.length / (double) size);
+        } finally {
+            compressor.end();
+        }
+    }
+
+    private static long compressOnce(PayloadCompressor compressor, byte[] json) throws IOException {
+        CountingOutputStream counter = new CountingOutputStream(ByteStreams.nullOutputStream());
+        OutputStream out = compressor.open(counter);
+        // In pieces the size of the payload writer's buffer, as in an upload
+        for (int offset = 0; offset < json.length; offset += Constants.PAYLOAD_BUFFER_SIZE) {
+            out.write(json, offset, Math.min(Constants.PAYLOAD_BUFFER_SIZE, json.length - offset));
+        }
+        out.close();
+        return counter.getCount();
+    }
+
+    /**
+     * @return payloads encoded per second
+     */
+    private static double run(String name, Encoder encoder, List<Beacon> beacons, boolean gzip) throws IOException {
+        long size = 0;
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            size = encodeOnce(encoder, beacons, gzip);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            encodeOnce(encoder, beacons, gzip);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        double rate = MEASURED_ROUNDS / seconds;
+        System.out.printf("%-24s %8.1f payloads/s (%d bytes out per payload)%n", name, rate, size);
+        return rate;
+    }
+
+    private static long encodeOnce(Encoder encoder, List<Beacon> beacons, boolean gzip) throws IOException {
+        CountingOutputStream counter = new CountingOutputStream(ByteStreams.nullOutputStream());
+        if (gzip) {
+            GZIPOutputStream out = new GZIPOutputStream(counter);
+            encoder.encode(beacons, out);
+            out.close();
+        } else {
+            encoder.encode(beacons, counter);
+        }
+        return counter.getCount();
+    }
+
+    private static List<Beacon> createBeacons(int count, int customEvents, int networkEvents) throws IOException {
+        DeviceInfo deviceInfo = DeviceInfo.builder("Smart Shelf", UUID.randomUUID().toString())
+                .withDeviceName("Benchmark")
+                .build();
+        VersionInfo versionInfo = VersionInfo.builder()
+                .withHardwareVersion("1.0")
+                .withFirmwareVersion("2.0")
+                .withSoftwareVersion("3.0")
+                .withOsVersion("4.0")
+                .build();
+        List<Beacon> beacons = new ArrayList<Beacon>();
+        for (int b = 0; b < count; b++) {
+            Beacon beacon = new Beacon(deviceInfo, versionInfo);
+            for (int i = 0; i < customEvents; i++) {
+                beacon.offer(CustomEvent.builder("Checkout", "Items purchased at register " + i)
+                        .addStringProperty("store", "Store " + (i % 7))
+                        .addStringProperty("cashier", "Cashier \"" + i + "\"")
+                        .addLongProperty("items", i)
+                        .addDoubleProperty("total", i * 3.25)
+                        .addBooleanProperty("member", i % 2 == 0)
+                        .build());
+            }
+            for (int i = 0; i < networkEvents; i++) {
+                beacon.offer(NetworkRequestEvent.builder(new URL("https://api.example.com/items/" + i))
+                        .withStatusCode(200)
+                        .withRequestContentLength(128)
+                        .withResponseContentLength(4096)
+                        .withDuration(120)
+                        .build());
+            }
+            ArrayList<ErrorEvent.StackTrace> traces = new ArrayList<ErrorEvent.StackTrace>();
+            traces.add(new ErrorEvent.StackTrace("main", new Exception().getStackTrace()));
+            beacon.offer(ErrorEvent.builder("Scanner failure")
+                    .withMessage("Barcode could not be read")
+                    .withStackTraces(traces)
+                    .build());
+            beacons.add(beacon);
+        }
+        return beacons;
+    }
+}
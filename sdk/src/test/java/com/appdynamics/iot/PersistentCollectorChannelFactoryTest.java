@@ -0,0 +1,179 @@
+/**
+ * Copyright (c) 2018 AppDynamics LLC and its affiliates
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appdynamics.iot;
+
+import com.appdynamics.iot.events.CustomEvent;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PersistentCollectorChannelFactoryTest {
+
+    private HttpServer server;
+    private volatile int statusCode = 200;
+    private final List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+    private final List<Integer> clientPorts = Collections.synchronizedList(new ArrayList<Integer>());
+    private final List<String> transferEncodings = Collections.synchronizedList(new ArrayList<String>());
+    private final List<String> payloads = Collections.synchronizedList(new ArrayList<String>());
+    private AgentConfiguration agent;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                InputStream in = exchange.getRequestBody();
+                if ("gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+                    in = new GZIPInputStream(in);
+                }
+                ByteArrayOutputStream payload = new ByteArrayOutputStream();
+                byte[] buffer = new byte[1024];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    payload.write(buffer, 0, read);
+                }
+                payloads.add(payload.toString("UTF-8"));
+                transferEncodings.add(exchange.getRequestHeaders().getFirst("Transfer-Encoding"));
+                requests.add(exchange.getRequestMethod() + " " + exchange.getRequestURI().getPath());
+                clientPorts.add(exchange.getRemoteAddress().getPort());
+                byte[] body = "{\"status\":\"ok\"}".getBytes("UTF-8");
+                exchange.sendResponseHeaders(statusCode, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        server.start();
+
+        agent = AgentConfiguration.builder()
+                .withAppKey("AAA-BBB-CCC")
+                .withCollectorUrl("http://127.0.0.1:" + server.getAddress().getPort())
+                .withPersistentConnection(true)
+                .build();
+
+        BeaconManager.beaconBuffer.clear();
+        BeaconManager.retryUploads.clear();
+        new BeaconManager(DeviceInfo.builder("TEST_A", UUID.randomUUID().toString()).build(),
+                VersionInfo.builder().build());
+        Instrumentation.isDisabled = false;
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        BeaconManager.beaconBuffer.clear();
+    }
+
+    @Test
+    public void testDefaultFactoryIsPersistent() {
+        assertTrue(agent.isPersistentConnection());
+        assertTrue(agent.getCollectorChannelFactory() instanceof PersistentCollectorChannelFactory);
+        assertTrue(agent.getCollectorChannelFactory().getCollectorChannel() instanceof DefaultCollectorChannel);
+    }
+
+    @Test
+    public void testSocketFactoryIsShared() {
+        PersistentCollectorChannelFactory factory = new PersistentCollectorChannelFactory();
+        assertSame(factory.getSSLSocketFactory(), factory.getSSLSocketFactory());
+    }
+
+    @Test
+    public void testConnectionReusedAcrossUploads() {
+        BeaconManager.addEvent(CustomEvent.builder("type", "first").build());
+        assertEquals(200, BeaconManager.sendAllBeacons(agent).getResponseCode());
+        BeaconManager.addEvent(CustomEvent.builder("type", "second").build());
+        assertEquals(200, BeaconManager.sendAllBeacons(agent).getResponseCode());
+
+        assertEquals(2, clientPorts.size());
+        assertEquals(clientPorts.get(0), clientPorts.get(1));
+    }
+
+    @Test
+    public void testConnectionReusedAfterErrorResponse() {
+        statusCode = 500;
+        BeaconManager.addEvent(CustomEvent.builder("type", "first").build());
+        assertEquals(500, BeaconManager.sendAllBeacons(agent).getResponseCode());
+        statusCode = 200;
+        UploadResult result = BeaconManager.sendAllBeacons(agent);
+        assertEquals(200, result.getResponseCode());
+
+        // The failed payload is resent as it is, then the beacons buffered since
+        assertEquals(3, clientPorts.size());
+        assertEquals(payloads.get(0), payloads.get(1));
+        assertEquals(clientPorts.get(0), clientPorts.get(1));
+        assertEquals(clientPorts.get(0), clientPorts.get(2));
+    }
+
+    @Test
+    public void testPreconnectWarmsUpConnection() {
+        BeaconManager.preconnect(agent);
+        BeaconManager.addEvent(CustomEvent.builder("type", "first").build());
+        assertEquals(200, BeaconManager.sendAllBeacons(agent).getResponseCode());
+
+        assertEquals("GET /eumcollector/iot/v1/application/AAA-BBB-CCC/enabled", requests.get(0));
+        assertEquals("POST /eumcollector/iot/v1/application/AAA-BBB-CCC/beacons", requests.get(1));
+        assertEquals(clientPorts.get(0), clientPorts.get(1));
+    }
+
+    @Test
+    public void testStreamingUpload() {
+        AgentConfiguration streaming = AgentConfiguration.builder()
+                .withAppKey("AAA-BBB-CCC")
+                .withCollectorUrl(agent.getCollectorUrl())
+                .withPersistentConnection(true)
+                .withStreamingUpload(256)
+                .build();
+        for (int i = 0; i < 100; i++) {
+            BeaconManager.addEvent(CustomEvent.builder("type", "streamed event " + i).build());
+        }
+        UploadResult result = BeaconManager.sendAllBeacons(streaming);
+        assertEquals(200, result.getResponseCode());
+        assertEquals(1, result.getBeaconsAccepted());
+
+        assertEquals("chunked", transferEncodings.get(0));
+        assertTrue(payloads.get(0).contains("streamed event 99"));
+    }
+
+    @Test
+    public void testBufferedUploadIsNotChunked() {
+        BeaconManager.addEvent(CustomEvent.builder("type", "buffered").build());
+        assertEquals(200, BeaconManager.sendAllBeacons(agent).getResponseCode());
+
+        assertNull(transferEncodings.get(0));
+        assertTrue(payloads.get(0).contains("buffered"));
+    }
+}
@@ -0,0 +1,78 @@
+/**
+ * Copyright (c) 2018 AppDynamics LLC and its affiliates
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appdynamics.iot;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory collector channel. Captures the request body and replies with a fixed response code.
+ */
+class TestCollectorChannel extends CollectorChannel {
+    final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    final Map<String, List<String>> responseHeaders = new HashMap<String, List<String>>();
+    private final int responseCode;
+
+    TestCollectorChannel(int responseCode) {
+        this.responseCode = responseCode;
+    }
+
+    static CollectorChannelFactory factory(final int responseCode) {
+        return new CollectorChannelFactory() {
+            @Override
+            public CollectorChannel getCollectorChannel() {
+                return new TestCollectorChannel(responseCode);
+            }
+        };
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        return body;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return new ByteArrayInputStream("OK".getBytes("UTF-8"));
+    }
+
+    @Override
+    public InputStream getErrorStream() throws IOException {
+        return new ByteArrayInputStream(new byte[0]);
+    }
+
+    @Override
+    public int getResponseCode() throws IOException {
+        return responseCode;
+    }
+
+    @Override
+    public Map<String, List<String>> getHeaderFields() throws IOException {
+        return responseHeaders;
+    }
+
+    @Override
+    public String getResponseMessage() throws IOException {
+        return "response message";
+    }
+}
@@ -0,0 +1,143 @@
+/**
+ * Copyright (c) 2018 AppDynamics LLC and its affiliates
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appdynamics.iot;
+
+import com.appdynamics.iot.utils.Constants;
+import com.google.common.base.Ticker;
+import org.junit.Test;
+
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class UploadBackoffTest {
+
+    private static class FakeTicker extends Ticker {
+        long nanos;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+
+        void advance(long millis) {
+            nanos += TimeUnit.MILLISECONDS.toNanos(millis);
+        }
+    }
+
+    @Test
+    public void testDelayDoublesUpToCap() {
+        UploadBackoff backoff = new UploadBackoff(100, 1000, 0, new Random(0), new FakeTicker());
+        assertEquals(100, backoff.onFailure(-1));
+        assertEquals(200, backoff.onFailure(-1));
+        assertEquals(400, backoff.onFailure(-1));
+        assertEquals(800, backoff.onFailure(-1));
+        assertEquals(1000, backoff.onFailure(-1));
+        assertEquals(1000, backoff.onFailure(-1));
+
+        backoff.onSuccess();
+        assertEquals(0, backoff.getFailures());
+        assertEquals(100, backoff.onFailure(-1));
+    }
+
+    @Test
+    public void testJitterShortensDelay() {
+        UploadBackoff backoff = new UploadBackoff(1000, 1000, 0.5, new Random(42), new FakeTicker());
+        for (int i = 0; i < 100; i++) {
+            long delay = backoff.onFailure(-1);
+            assertTrue(delay >= 500 && delay <= 1000);
+        }
+    }
+
+    @Test
+    public void testCircuitOpensAfterConsecutiveFailures() {
+        FakeTicker ticker = new FakeTicker();
+        UploadBackoff backoff = new UploadBackoff(100, 10000, 0, new Random(0), ticker);
+        for (int i = 1; i < Constants.CIRCUIT_BREAKER_FAILURE_THRESHOLD; i++) {
+            backoff.onFailure(-1);
+            assertEquals(0, backoff.pauseMillis());
+        }
+        long delay = backoff.onFailure(-1);
+        assertEquals(delay, backoff.pauseMillis());
+
+        ticker.advance(delay - 1);
+        assertTrue(backoff.pauseMillis() > 0);
+        ticker.advance(1);
+        // Half open: the next upload is a trial
+        assertEquals(0, backoff.pauseMillis());
+
+        // A failed trial opens the circuit again, for longer
+        long next = backoff.onFailure(-1);
+        assertTrue(next > delay);
+        assertEquals(next, backoff.pauseMillis());
+
+        backoff.onSuccess();
+        assertEquals(0, backoff.pauseMillis());
+    }
+
+    @Test
+    public void testRetryAfterIsHonored() {
+        FakeTicker ticker = new FakeTicker();
+        UploadBackoff backoff = new UploadBackoff(100, 1000, 0, new Random(0), ticker);
+        assertEquals(5000, backoff.onFailure(5000));
+        assertEquals(5000, backoff.pauseMillis());
+        ticker.advance(5000);
+        assertEquals(0, backoff.pauseMillis());
+        // The backoff wins when it is longer
+        assertEquals(200, backoff.onFailure(50));
+    }
+
+    @Test
+    public void testParseRetryAfter() {
+        assertEquals(120000, UploadBackoff.parseRetryAfter("120"));
+        assertEquals(0, UploadBackoff.parseRetryAfter(" 0 "));
+        assertEquals(-1, UploadBackoff.parseRetryAfter("-5"));
+        assertEquals(-1, UploadBackoff.parseRetryAfter("soon"));
+        assertEquals(-1, UploadBackoff.parseRetryAfter((String) null));
+        assertEquals(0, UploadBackoff.parseRetryAfter("Wed, 21 Oct 2015 07:28:00 GMT"));
+
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        long delay = UploadBackoff.parseRetryAfter(format.format(new Date(System.currentTimeMillis() + 60000)));
+        assertTrue(delay > 50000 && delay <= 60000);
+
+        Map<String, List<String>> headers = Collections.singletonMap("RETRY-AFTER", Arrays.asList("7"));
+        assertEquals(7000, UploadBackoff.parseRetryAfter(headers));
+        assertEquals(-1, UploadBackoff.parseRetryAfter(Collections.<String, List<String>>emptyMap()));
+    }
+
+    @Test
+    public void testRetryableResponses() {
+        assertTrue(UploadBackoff.isRetryable(UploadResult.NO_RESPONSE));
+        assertTrue(UploadBackoff.isRetryable(408));
+        assertTrue(UploadBackoff.isRetryable(429));
+        assertTrue(UploadBackoff.isRetryable(503));
+        assertFalse(UploadBackoff.isRetryable(400));
+        assertFalse(UploadBackoff.isRetryable(403));
+    }
+}
@@ -0,0 +1,167 @@
+/**
+ * Copyright (c) 2018 AppDynamics LLC and its affiliates
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appdynamics.iot;
+
+import com.appdynamics.iot.events.CustomEvent;
+import com.appdynamics.iot.utils.Constants;
+import com.google.common.base.Ticker;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class UploadPacerTest {
+
+    private static class FakeTicker extends Ticker {
+        long nanos;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+
+        void advance(long millis) {
+            nanos += TimeUnit.MILLISECONDS.toNanos(millis);
+        }
+    }
+
+    @Test
+    public void testRequestRate() {
+        FakeTicker ticker = new FakeTicker();
+        UploadPacer pacer = new UploadPacer(0.5, 0, ticker);
+        assertEquals(0, pacer.delayMillis());
+        pacer.onRequest(1000);
+        assertEquals(2000, pacer.delayMillis());
+        ticker.advance(1500);
+        assertEquals(500, pacer.delayMillis());
+        ticker.advance(500);
+        assertEquals(0, pacer.delayMillis());
+    }
+
+    @Test
+    public void testByteRate() {
+        FakeTicker ticker = new FakeTicker();
+        UploadPacer pacer = new UploadPacer(100, 1000, ticker);
+        pacer.onRequest(500);
+        assertEquals(0, pacer.delayMillis());
+        // Overdraws the bucket; the debt has to be paid before the next request
+        pacer.onRequest(2500);
+        assertEquals(2000, pacer.delayMillis());
+        ticker.advance(2000);
+        assertEquals(0, pacer.delayMillis());
+    }
+
+    @Test
+    public void testRateShrinksAndRecovers() {
+        FakeTicker ticker = new FakeTicker();
+        UploadPacer pacer = new UploadPacer(1, 0, ticker);
+        pacer.onThrottled();
+        pacer.onThrottled();
+        assertEquals(0.25, pacer.getFactor(), 1e-9);
+        pacer.onRequest(0);
+        assertEquals(4000, pacer.delayMillis());
+
+        for (int i = 0; i < 100; i++) {
+            pacer.onThrottled();
+        }
+        assertEquals(Constants.UPLOAD_RATE_MIN_FACTOR, pacer.getFactor(), 1e-9);
+
+        for (int i = 0; i < 100; i++) {
+            pacer.onAccepted();
+        }
+        assertEquals(1, pacer.getFactor(), 1e-9);
+    }
+
+    @Test
+    public void testFlushIsPutOffUntilRateAllows() throws Exception {
+        AgentConfiguration agent = AgentConfiguration.builder()
+                .withAppKey("AAA-BBB-CCC")
+                .withCollectorChannelFactory(TestCollectorChannel.factory(429))
+                .withUploadRateLimit(1.0 / 3600, 0)
+                .build();
+        BeaconManager.beaconBuffer.clear();
+        BeaconManager.retryUploads.clear();
+        new BeaconManager(DeviceInfo.builder("Smart Shelf", "device-1").build(),
+                VersionInfo.builder().withSoftwareVersion("1.0").build());
+        BeaconManager.configure(agent);
+        try {
+            BeaconManager.addEvent(CustomEvent.builder("Checkout", "Items purchased").build());
+            assertEquals(429, BeaconManager.sendAllBeacons(agent).getResponseCode());
+            // Throttled rather than disabled, with the payload kept for later
+            assertEquals(1, BeaconManager.retryUploads.size());
+            assertEquals(0.5, BeaconManager.pacer.getFactor(), 1e-9);
+
+            UploadResult result = BeaconManager.sendAllBeacons(agent);
+            assertEquals(UploadResult.NO_RESPONSE, result.getResponseCode());
+            assertEquals(0, result.getBytesSent());
+            assertTrue(BeaconManager.pacer.delayMillis() > 3600 * 1000L);
+        } finally {
+            BeaconManager.retryUploads.clear();
+            BeaconManager.configure(AgentConfiguration.builder().build());
+        }
+    }
+
+    @Test
+    public void testEveryRequestOfAFlushIsPaced() throws Exception {
+        final int[] responseCode = {500};
+        final List<TestCollectorChannel> requests = new ArrayList<TestCollectorChannel>();
+        AgentConfiguration agent = AgentConfiguration.builder()
+                .withAppKey("AAA-BBB-CCC")
+                .withCollectorChannelFactory(new CollectorChannelFactory() {
+                    @Override
+                    public CollectorChannel getCollectorChannel() {
+                        TestCollectorChannel channel = new TestCollectorChannel(responseCode[0]);
+                        requests.add(channel);
+                        return channel;
+                    }
+                })
+                .build();
+        BeaconManager.beaconBuffer.clear();
+        BeaconManager.retryUploads.clear();
+        new BeaconManager(DeviceInfo.builder("Smart Shelf", "device-1").build(),
+                VersionInfo.builder().withSoftwareVersion("1.0").build());
+        try {
+            BeaconManager.addEvent(CustomEvent.builder("Checkout", "Items purchased").build());
+            assertEquals(500, BeaconManager.sendAllBeacons(agent).getResponseCode());
+            assertEquals(1, BeaconManager.retryUploads.size());
+
+            FakeTicker ticker = new FakeTicker();
+            BeaconManager.pacer = new UploadPacer(1, 0, ticker);
+            responseCode[0] = 200;
+            BeaconManager.addEvent(CustomEvent.builder("Checkout", "Items purchased").build());
+
+            // The retry takes the only token, so the buffer waits for the next one
+            UploadResult result = BeaconManager.sendAllBeacons(agent);
+            assertEquals(200, result.getResponseCode());
+            assertEquals(2, requests.size());
+            assertEquals(0, BeaconManager.retryUploads.size());
+            assertEquals(1, BeaconManager.currentBeacon.size());
+
+            ticker.advance(1000);
+            assertEquals(200, BeaconManager.sendAllBeacons(agent).getResponseCode());
+            assertEquals(3, requests.size());
+            assertEquals(0, BeaconManager.currentBeacon.size());
+        } finally {
+            BeaconManager.retryUploads.clear();
+            BeaconManager.configure(AgentConfiguration.builder().build());
+        }
+    }
+}
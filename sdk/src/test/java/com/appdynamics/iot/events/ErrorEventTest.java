@@ -17,10 +17,14 @@
 package com.appdynamics.iot.events;
 
 import com.appdynamics.iot.utils.Constants;
+import com.appdynamics.iot.utils.JsonByteWriter;
 import com.appdynamics.iot.utils.StringUtilsTest;
+import com.google.gson.stream.JsonWriter;
 import org.easymock.EasyMock;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
 import java.util.ArrayList;
 
 import static com.appdynamics.iot.Instrumentation.Severity;
@@ -186,4 +190,105 @@ public class ErrorEventTest {
         assertSame(elements, s.stackTraceElements);
         assertNotNull(THREAD_NAME, s.thread);
     }
+
+    @Test
+    public void testWithThrowableKeepsOnlyUploadedFrames() throws Exception {
+        Exception deep = deepException(200);
+        ErrorEvent e = ErrorEvent.builder(ERROR_NAME).withThrowable(new RuntimeException("outer", deep)).build();
+
+        assertEquals(2, e.getStackTraces().size());
+        for (StackTrace s : e.getStackTraces()) {
+            assertNull(s.stackTraceElements);
+            assertEquals(Constants.ERROR_EVENT_STACK_FRAMES_MAX, s.frames().length);
+        }
+        assertEquals(deep.getStackTrace()[0].getLineNumber(), e.getStackTraces().get(1).frames()[0].lineNumber);
+    }
+
+    @Test
+    public void testWithThrowableStopsAtCauseCycle() throws Exception {
+        Exception first = new Exception("first");
+        Exception second = new Exception("second", first);
+        first.initCause(second);
+
+        ErrorEvent e = ErrorEvent.builder(ERROR_NAME).withThrowable(first).build();
+        assertEquals(2, e.getStackTraces().size());
+
+        Exception chain = new Exception(new Exception(new Exception(new Exception(new Exception()))));
+        e = ErrorEvent.builder(ERROR_NAME).withThrowable(chain).build();
+        assertEquals(Constants.ERROR_EVENT_STACK_TRACE_ELEMENTS_MAX, e.getStackTraces().size());
+    }
+
+    @Test
+    public void testCapturedStackTracesSerializeLikeElements() throws Exception {
+        Exception error = new IllegalStateException("outer", deepException(10));
+        ArrayList<StackTrace> traces = new ArrayList<StackTrace>();
+        traces.add(new StackTrace(error.getStackTrace()));
+        traces.add(new StackTrace(error.getCause().getStackTrace()));
+
+        ErrorEvent fromElements = ErrorEvent.builder(ERROR_NAME).withTimestamp(1L).withStackTraces(traces).build();
+        ErrorEvent captured = ErrorEvent.builder(ERROR_NAME).withTimestamp(1L).withThrowable(error).build();
+        assertEquals(toJson(fromElements), toJson(captured));
+        assertEquals(fromElements.estimateSize(), captured.estimateSize());
+    }
+
+    @Test
+    public void testGsonAndByteWritersEncodeTheSameJson() throws Exception {
+        ErrorEvent event = ErrorEvent.builder(ERROR_NAME)
+                .withTimestamp(1L)
+                .withMessage("line\u2028break \"quoted\"")
+                .withThrowable(new IllegalStateException("outer", deepException(2)))
+                .build();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        JsonByteWriter writer = new JsonByteWriter(16);
+        writer.reset(bytes);
+        event.toJson(writer);
+        writer.flush();
+
+        String json = toJson(event);
+        assertEquals(json, bytes.toString("UTF-8"));
+        assertTrue(json.contains("\"stackTraces\":[{\"runtime\":\"java\",\"stackFrames\":[{"));
+        assertTrue(json.contains("\"symbolName\":\"ErrorEventTest.deepException\""));
+    }
+
+    private static Exception deepException(int depth) {
+        if (depth == 0) {
+            return new Exception("deep");
+        }
+        return deepException(depth - 1);
+    }
+
+    private static String toJson(Event event) throws Exception {
+        StringWriter out = new StringWriter();
+        JsonWriter writer = new JsonWriter(out);
+        event.toJson(writer);
+        writer.flush();
+        return out.toString();
+    }
+
+    @Test
+    public void testFrameIsDerivedFromTheClassName() throws Exception {
+        ErrorEvent.Frame frame = ErrorEvent.Frame.of(
+                new StackTraceElement("com.example.Outer$Inner", "run", "Outer.java", 42));
+        assertEquals("Outer$Inner.run", frame.symbolName);
+        assertEquals("com.example", frame.packageName);
+        assertEquals("Outer.java", frame.filePath);
+        assertEquals(42, frame.lineNumber);
+
+        frame = ErrorEvent.Frame.of(new StackTraceElement("Main", "main", null, -1));
+        assertEquals("Main.main", frame.symbolName);
+        assertNull(frame.packageName);
+        assertNull(frame.filePath);
+    }
+
+    @Test
+    public void testFramesAreCachedForRepeatedElements() throws Exception {
+        ErrorEvent.Frame frame = ErrorEvent.Frame.of(new StackTraceElement("a.B", "c", "B.java", 1));
+        assertSame(frame, ErrorEvent.Frame.of(new StackTraceElement("a.B", "c", "B.java", 1)));
+
+        for (int i = 0; i < 2 * Constants.ERROR_EVENT_STACK_FRAME_CACHE_SIZE; i++) {
+            ErrorEvent.Frame.of(new StackTraceElement("a.B", "c", "B.java", i + 2));
+        }
+        assertEquals(Constants.ERROR_EVENT_STACK_FRAME_CACHE_SIZE, ErrorEvent.Frame.cached());
+    }
 }
\ No newline at end of file
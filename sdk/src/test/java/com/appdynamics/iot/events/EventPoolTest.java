@@ -0,0 +1,107 @@
+/**
+ * Copyright (c) 2018 AppDynamics LLC and its affiliates
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.appdynamics.iot.events;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class EventPoolTest {
+
+    @After
+    public void disablePooling() {
+        EventPool.configure(0, false);
+    }
+
+    @Test
+    public void testReturnedEventIsReused() {
+        EventPool.configure(2, false);
+        CustomEvent first = CustomEvent.builder("type", "first")
+                .addStringProperty("color", "red")
+                .addDoubleProperty("ratio", 0.5)
+                .build();
+        EventPool.recycle(first);
+
+        CustomEvent second = CustomEvent.builder("type", "second").withTimestamp(7L)
+                .addLongProperty("count", 3)
+                .build();
+        assertSame(first, second);
+        assertEquals("second", second.getEventSummary());
+        assertEquals(7L, second.timestamp);
+        assertEquals(1, second.properties.size());
+        assertFalse(second.properties.contains(EventProperties.STRING, "color"));
+        assertEquals(Long.valueOf(3), second.properties.getLong("count"));
+    }
+
+    @Test
+    public void testPoolIsBounded() {
+        EventPool.configure(2, false);
+        NetworkRequestEvent[] events = new NetworkRequestEvent[3];
+        for (int i = 0; i < events.length; i++) {
+            events[i] = NetworkRequestEvent.builder(null).withStatusCode(200 + i).build();
+        }
+        for (NetworkRequestEvent event : events) {
+            EventPool.recycle(event);
+        }
+        assertEquals(2, EventPool.networkEvents().size());
+
+        NetworkRequestEvent reused = NetworkRequestEvent.builder(null).build();
+        assertSame(events[1], reused);
+        assertNull(reused.statusCode);
+    }
+
+    @Test
+    public void testRecycleTwiceIsIgnored() {
+        EventPool.configure(2, false);
+        CustomEvent event = CustomEvent.builder("type", "summary").build();
+        EventPool.recycle(event);
+        EventPool.recycle(event);
+        assertEquals(1, EventPool.customEvents().size());
+        assertNotSame(CustomEvent.builder("type", "summary").build(), CustomEvent.builder("type", "summary").build());
+    }
+
+    @Test
+    public void testEventsOutsideOfPoolsAreIgnored() {
+        CustomEvent event = CustomEvent.builder("type", "summary").build();
+        EventPool.configure(2, false);
+        EventPool.recycle(event);
+        assertEquals(0, EventPool.customEvents().size());
+        assertNotSame(event, CustomEvent.builder("type", "summary").build());
+    }
+
+    @Test
+    public void testLeakIsDetected() throws Exception {
+        EventPool.configure(2, true);
+        EventPool<CustomEvent> pool = EventPool.customEvents();
+        EventPool.recycle(CustomEvent.builder("type", "returned").build());
+        CustomEvent.builder("type", "leaked").build();
+
+        for (int i = 0; i < 100 && pool.detectLeaks() == 0; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertEquals(1, pool.detectLeaks());
+        assertTrue(pool.size() <= 1);
+    }
+}
@@ -0,0 +1,135 @@
+/**
+ * Copyright (c) 2018 AppDynamics LLC and its affiliates
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.appdynamics.iot.events;
+
+import com.appdynamics.iot.utils.JsonByteWriter;
+import com.google.gson.stream.JsonWriter;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class EventPropertiesTest {
+
+    @Test
+    public void testKeysAreUniquePerKind() {
+        EventProperties properties = new EventProperties(1);
+        properties.putString("id", "a");
+        properties.putLong(EventProperties.LONG, "id", 1);
+        properties.putString("id", "b");
+        properties.putDouble("ratio", 0.5);
+        properties.putLong(EventProperties.BOOLEAN, "on", 1);
+        properties.putLong(EventProperties.DATE, "at", 1000);
+
+        assertEquals(5, properties.size());
+        assertEquals("b", properties.getString("id"));
+        assertEquals(Long.valueOf(1), properties.getLong("id"));
+        assertEquals(Double.valueOf(0.5), properties.getDouble("ratio"));
+        assertEquals(Boolean.TRUE, properties.getBoolean("on"));
+        assertEquals(new Date(1000), properties.getDate("at"));
+        assertNull(properties.getLong("ratio"));
+    }
+
+    @Test
+    public void testRemoveAndClearKeepOrder() throws Exception {
+        EventProperties properties = new EventProperties(2);
+        properties.putString("a", "1");
+        properties.putLong(EventProperties.LONG, "b", 2);
+        properties.putString("c", "3");
+        properties.putString("d", "4");
+        properties.remove(EventProperties.STRING, "a");
+        properties.remove(EventProperties.STRING, "missing");
+
+        assertFalse(properties.contains(EventProperties.STRING, "a"));
+        assertEquals("{\"c\":\"3\",\"d\":\"4\"}", strings(properties));
+
+        properties.clear(EventProperties.STRING);
+        assertEquals(1, properties.size());
+        assertTrue(properties.contains(EventProperties.LONG, "b"));
+        assertEquals("{}", strings(properties));
+    }
+
+    @Test
+    public void testEmptyIsShared() {
+        assertSame(EventProperties.EMPTY, new EventProperties(4).copy());
+        assertSame(EventProperties.EMPTY, CustomEvent.builder("type", "summary").build().properties);
+
+        CustomEvent.Builder builder = CustomEvent.builder("type", "summary").addLongProperty("count", 1);
+        CustomEvent first = builder.build();
+        builder.addLongProperty("count", 2);
+        // Later changes to the builder do not leak into events already built
+        assertEquals(Long.valueOf(1), first.properties.getLong("count"));
+        assertEquals(Long.valueOf(2), builder.build().properties.getLong("count"));
+        assertEquals(0, EventProperties.EMPTY.size());
+    }
+
+    @Test
+    public void testByteWriterMatchesJsonWriter() throws Exception {
+        Map<String, String> strings = new LinkedHashMap<>();
+        strings.put("color", "r\u00e9d \"x\"");
+        Map<String, Long> longs = new LinkedHashMap<>();
+        longs.put("count", -42L);
+        Map<String, Double> doubles = new LinkedHashMap<>();
+        doubles.put("ratio", 1.0E-7);
+        doubles.put("temperature", 98.2);
+        Map<String, Boolean> booleans = new LinkedHashMap<>();
+        booleans.put("on", false);
+        Map<String, Date> dates = new LinkedHashMap<>();
+        dates.put("bootTime", new Date(1487119625012L));
+        EventProperties properties = EventProperties.of(strings, longs, doubles, booleans, dates);
+
+        StringWriter expected = new StringWriter();
+        JsonWriter jsonWriter = new JsonWriter(expected);
+        jsonWriter.beginObject();
+        properties.toJson(jsonWriter);
+        jsonWriter.endObject();
+        jsonWriter.flush();
+
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        JsonByteWriter byteWriter = new JsonByteWriter(16);
+        byteWriter.reset(actual);
+        byteWriter.beginObject();
+        properties.toJson(byteWriter);
+        byteWriter.endObject();
+        byteWriter.flush();
+
+        assertEquals(expected.toString(), actual.toString("UTF-8"));
+        assertTrue(expected.toString().contains("\"doubleProperties\":{\"ratio\":1.0E-7,\"temperature\":98.2}"));
+    }
+
+    private static String strings(EventProperties properties) throws Exception {
+        StringWriter out = new StringWriter();
+        JsonWriter writer = new JsonWriter(out);
+        writer.beginObject();
+        properties.toJson(writer);
+        writer.endObject();
+        writer.flush();
+        String json = out.toString();
+        int start = json.indexOf('{', json.indexOf("stringProperties"));
+        return json.substring(start, json.indexOf('}', start) + 1);
+    }
+}
@@ -17,11 +17,19 @@
 package com.appdynamics.iot.events;
 
 import com.appdynamics.iot.utils.Constants;
+import com.appdynamics.iot.utils.JsonByteWriter;
 import com.appdynamics.iot.utils.StringUtils;
 import com.appdynamics.iot.utils.StringUtilsTest;
+import com.google.gson.stream.JsonWriter;
+import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
 import java.util.Date;
 
 import static org.junit.Assert.*;
@@ -63,22 +71,22 @@ public class EventTest {
     @Test
     public void testAddRemoveAddStringProperty() throws Exception {
         builder.addStringProperty(KEY, VALUE);
-        assertTrue(builder.stringProperties.containsKey(KEY));
-        assertEquals(VALUE, builder.stringProperties.get(KEY));
+        assertTrue(builder.properties.contains(EventProperties.STRING, KEY));
+        assertEquals(VALUE, builder.properties.getString(KEY));
 
         builder.removeStringProperty((KEY));
-        assertFalse(builder.stringProperties.containsKey(KEY));
+        assertFalse(builder.properties.contains(EventProperties.STRING, KEY));
 
         CustomEvent c = builder.addStringProperty(KEY, VALUE).build();
-        assertTrue(c.stringProperties.containsKey(KEY));
-        assertEquals(VALUE, c.stringProperties.get(KEY));
+        assertTrue(c.properties.contains(EventProperties.STRING, KEY));
+        assertEquals(VALUE, c.properties.getString(KEY));
     }
 
     @Test
     public void testRemoveStringProperty() throws Exception {
         builder.addStringProperty((KEY), VALUE);
         CustomEvent c = builder.removeStringProperty(KEY).build();
-        assertFalse(c.stringProperties.containsKey(KEY));
+        assertFalse(c.properties.contains(EventProperties.STRING, KEY));
     }
 
     @Test
@@ -90,20 +98,20 @@ public class EventTest {
 
         builder.addStringProperty(key1, value1);
         builder.addStringProperty(key2, value2);
-        assertEquals(value1, builder.stringProperties.get(key1));
-        assertEquals(value2, builder.stringProperties.get(key2));
+        assertEquals(value1, builder.properties.getString(key1));
+        assertEquals(value2, builder.properties.getString(key2));
 
         builder.clearStringProperties();
         CustomEvent c = builder.build();
-        assertFalse(c.stringProperties.containsKey(key1));
-        assertFalse(c.stringProperties.containsKey(key2));
+        assertFalse(c.properties.contains(EventProperties.STRING, key1));
+        assertFalse(c.properties.contains(EventProperties.STRING, key2));
     }
 
     @Test
     public void testStringPropertyWithLongValues() throws Exception {
         final String longStringValue = StringUtilsTest.repeat('z', Constants.EVENT_STRING_PROPERTIES_VALUE_MAX + 1);
         CustomEvent c = builder.addStringProperty(KEY, longStringValue).build();
-        assertEquals(Constants.EVENT_STRING_PROPERTIES_VALUE_MAX, c.stringProperties.get(KEY).length());
+        assertEquals(Constants.EVENT_STRING_PROPERTIES_VALUE_MAX, c.properties.getString(KEY).length());
 
     }
 
@@ -112,15 +120,15 @@ public class EventTest {
         final long longValue = Long.MAX_VALUE;
 
         builder.addLongProperty(KEY, longValue);
-        assertTrue(builder.longProperties.containsKey(KEY));
-        assertEquals(longValue, (long) builder.longProperties.get(KEY));
+        assertTrue(builder.properties.contains(EventProperties.LONG, KEY));
+        assertEquals(longValue, (long) builder.properties.getLong(KEY));
 
         builder.removeLongProperty((KEY));
-        assertFalse(builder.longProperties.containsKey(KEY));
+        assertFalse(builder.properties.contains(EventProperties.LONG, KEY));
 
         CustomEvent c = builder.addLongProperty(KEY, longValue).build();
-        assertTrue(c.longProperties.containsKey(KEY));
-        assertEquals(longValue, (long) c.longProperties.get(KEY));
+        assertTrue(c.properties.contains(EventProperties.LONG, KEY));
+        assertEquals(longValue, (long) c.properties.getLong(KEY));
     }
 
     @Test
@@ -128,7 +136,7 @@ public class EventTest {
         final long longValue = Long.MAX_VALUE;
         builder.addLongProperty((KEY), longValue);
         CustomEvent c = builder.removeLongProperty(KEY).build();
-        assertFalse(c.stringProperties.containsKey(KEY));
+        assertFalse(c.properties.contains(EventProperties.STRING, KEY));
     }
 
     @Test
@@ -140,13 +148,13 @@ public class EventTest {
 
         builder.addLongProperty(key1, value1);
         builder.addLongProperty(key2, value2);
-        assertEquals(value1, (long) builder.longProperties.get(key1));
-        assertEquals(value2, (long) builder.longProperties.get(key2));
+        assertEquals(value1, (long) builder.properties.getLong(key1));
+        assertEquals(value2, (long) builder.properties.getLong(key2));
 
         builder.clearLongProperties();
         CustomEvent c = builder.build();
-        assertFalse(c.longProperties.containsKey(key1));
-        assertFalse(c.longProperties.containsKey(key2));
+        assertFalse(c.properties.contains(EventProperties.LONG, key1));
+        assertFalse(c.properties.contains(EventProperties.LONG, key2));
     }
 
     @Test
@@ -154,15 +162,15 @@ public class EventTest {
         final double doubleValue = Double.MAX_VALUE;
 
         builder.addDoubleProperty(KEY, doubleValue);
-        assertTrue(builder.doubleProperties.containsKey(KEY));
-        assertEquals(Double.doubleToLongBits(doubleValue), Double.doubleToLongBits(builder.doubleProperties.get(KEY)));
+        assertTrue(builder.properties.contains(EventProperties.DOUBLE, KEY));
+        assertEquals(Double.doubleToLongBits(doubleValue), Double.doubleToLongBits(builder.properties.getDouble(KEY)));
 
         builder.removeDoubleProperty((KEY));
-        assertFalse(builder.doubleProperties.containsKey(KEY));
+        assertFalse(builder.properties.contains(EventProperties.DOUBLE, KEY));
 
         CustomEvent c = builder.addDoubleProperty(KEY, doubleValue).build();
-        assertTrue(c.doubleProperties.containsKey(KEY));
-        assertEquals(Double.doubleToLongBits(doubleValue), Double.doubleToLongBits(builder.doubleProperties.get(KEY)));
+        assertTrue(c.properties.contains(EventProperties.DOUBLE, KEY));
+        assertEquals(Double.doubleToLongBits(doubleValue), Double.doubleToLongBits(builder.properties.getDouble(KEY)));
     }
 
     @Test
@@ -170,7 +178,7 @@ public class EventTest {
         final double doubleValue = Double.MAX_VALUE;
         builder.addDoubleProperty((KEY), doubleValue);
         CustomEvent c = builder.removeDoubleProperty(KEY).build();
-        assertFalse(c.doubleProperties.containsKey(KEY));
+        assertFalse(c.properties.contains(EventProperties.DOUBLE, KEY));
     }
 
     @Test
@@ -182,13 +190,13 @@ public class EventTest {
 
         builder.addDoubleProperty(key1, value1);
         builder.addDoubleProperty(key2, value2);
-        assertEquals(value1, builder.doubleProperties.get(key1));
-        assertEquals(value2, builder.doubleProperties.get(key2));
+        assertEquals(value1, builder.properties.getDouble(key1));
+        assertEquals(value2, builder.properties.getDouble(key2));
 
         builder.clearDoubleProperties();
         CustomEvent c = builder.build();
-        assertFalse(c.doubleProperties.containsKey(key1));
-        assertFalse(c.doubleProperties.containsKey(key2));
+        assertFalse(c.properties.contains(EventProperties.DOUBLE, key1));
+        assertFalse(c.properties.contains(EventProperties.DOUBLE, key2));
     }
 
     @Test
@@ -196,15 +204,15 @@ public class EventTest {
         final Date dateValue = new Date();
 
         builder.addDateProperty(KEY, dateValue);
-        assertTrue(builder.dateProperties.containsKey(KEY));
-        assertEquals(dateValue, builder.dateProperties.get(KEY));
+        assertTrue(builder.properties.contains(EventProperties.DATE, KEY));
+        assertEquals(dateValue, builder.properties.getDate(KEY));
 
         builder.removeDateProperty(KEY);
-        assertFalse(builder.dateProperties.containsKey(KEY));
+        assertFalse(builder.properties.contains(EventProperties.DATE, KEY));
 
         CustomEvent c = builder.addDateProperty(KEY, dateValue).build();
-        assertTrue(c.dateProperties.containsKey(KEY));
-        assertEquals(dateValue, c.dateProperties.get(KEY));
+        assertTrue(c.properties.contains(EventProperties.DATE, KEY));
+        assertEquals(dateValue, c.properties.getDate(KEY));
     }
 
     @Test
@@ -212,7 +220,7 @@ public class EventTest {
         final Date dateValue = new Date();
         builder.addDateProperty((KEY), dateValue);
         CustomEvent c = builder.removeDateProperty(KEY).build();
-        assertFalse(c.dateProperties.containsKey(KEY));
+        assertFalse(c.properties.contains(EventProperties.DATE, KEY));
     }
 
     @Test
@@ -224,28 +232,28 @@ public class EventTest {
 
         builder.addDateProperty(key1, value1);
         builder.addDateProperty(key2, value2);
-        assertEquals(value1, builder.dateProperties.get(key1));
-        assertEquals(value2, builder.dateProperties.get(key2));
+        assertEquals(value1, builder.properties.getDate(key1));
+        assertEquals(value2, builder.properties.getDate(key2));
 
         builder.clearDateProperties();
         CustomEvent c = builder.build();
-        assertFalse(c.dateProperties.containsKey(key1));
-        assertFalse(c.dateProperties.containsKey(key2));
+        assertFalse(c.properties.contains(EventProperties.DATE, key1));
+        assertFalse(c.properties.contains(EventProperties.DATE, key2));
     }
 
     @Test
     public void testAddBooleanProperty() throws Exception {
         final boolean value = false;
         builder.addBooleanProperty(KEY, value);
-        assertTrue(builder.booleanProperties.containsKey(KEY));
-        assertEquals(builder.booleanProperties.get(KEY), value);
+        assertTrue(builder.properties.contains(EventProperties.BOOLEAN, KEY));
+        assertEquals(builder.properties.getBoolean(KEY), value);
 
         builder.removeBooleanProperty(KEY);
-        assertFalse(builder.booleanProperties.containsKey(KEY));
+        assertFalse(builder.properties.contains(EventProperties.BOOLEAN, KEY));
 
         CustomEvent c = builder.addBooleanProperty(KEY, value).build();
-        assertTrue(c.booleanProperties.containsKey(KEY));
-        assertEquals(c.booleanProperties.get(KEY), value);
+        assertTrue(c.properties.contains(EventProperties.BOOLEAN, KEY));
+        assertEquals(c.properties.getBoolean(KEY), value);
     }
 
     @Test
@@ -253,7 +261,7 @@ public class EventTest {
         final boolean value = false;
         builder.addBooleanProperty((KEY), value);
         CustomEvent c = builder.removeBooleanProperty(KEY).build();
-        assertFalse(c.booleanProperties.containsKey(KEY));
+        assertFalse(c.properties.contains(EventProperties.BOOLEAN, KEY));
     }
 
     @Test
@@ -265,13 +273,13 @@ public class EventTest {
 
         builder.addBooleanProperty(key1, value1);
         builder.addBooleanProperty(key2, value2);
-        assertEquals(builder.booleanProperties.get(key1), value1);
-        assertEquals(builder.booleanProperties.get(key2), value2);
+        assertEquals(builder.properties.getBoolean(key1), value1);
+        assertEquals(builder.properties.getBoolean(key2), value2);
 
         builder.clearBooleanProperties();
         CustomEvent c = builder.build();
-        assertFalse(c.booleanProperties.containsKey(key1));
-        assertFalse(c.booleanProperties.containsKey(key2));
+        assertFalse(c.properties.contains(EventProperties.BOOLEAN, key1));
+        assertFalse(c.properties.contains(EventProperties.BOOLEAN, key2));
     }
 
     @Test
@@ -287,16 +295,16 @@ public class EventTest {
                 .addDateProperty(pipedKey, dateValue)
                 .addDoubleProperty(pipedKey, doubleValue)
                 .addLongProperty(pipedKey, longValue).build();
-        assertFalse(c.stringProperties.containsKey(pipedKey));
-        assertTrue(c.stringProperties.containsKey(KEY));
-        assertFalse(c.booleanProperties.containsKey(pipedKey));
-        assertTrue(c.booleanProperties.containsKey(KEY));
-        assertFalse(c.doubleProperties.containsKey(pipedKey));
-        assertTrue(c.doubleProperties.containsKey(KEY));
-        assertFalse(c.dateProperties.containsKey(pipedKey));
-        assertTrue(c.dateProperties.containsKey(KEY));
-        assertFalse(c.longProperties.containsKey(pipedKey));
-        assertTrue(c.longProperties.containsKey(KEY));
+        assertFalse(c.properties.contains(EventProperties.STRING, pipedKey));
+        assertTrue(c.properties.contains(EventProperties.STRING, KEY));
+        assertFalse(c.properties.contains(EventProperties.BOOLEAN, pipedKey));
+        assertTrue(c.properties.contains(EventProperties.BOOLEAN, KEY));
+        assertFalse(c.properties.contains(EventProperties.DOUBLE, pipedKey));
+        assertTrue(c.properties.contains(EventProperties.DOUBLE, KEY));
+        assertFalse(c.properties.contains(EventProperties.DATE, pipedKey));
+        assertTrue(c.properties.contains(EventProperties.DATE, KEY));
+        assertFalse(c.properties.contains(EventProperties.LONG, pipedKey));
+        assertTrue(c.properties.contains(EventProperties.LONG, KEY));
     }
 
     @Test
@@ -317,16 +325,16 @@ public class EventTest {
                 .removeDateProperty(pipedKey)
                 .removeDoubleProperty(pipedKey)
                 .removeLongProperty(pipedKey).build();
-        assertFalse(c.stringProperties.containsKey(pipedKey));
-        assertFalse(c.stringProperties.containsKey(KEY));
-        assertFalse(c.booleanProperties.containsKey(pipedKey));
-        assertFalse(c.booleanProperties.containsKey(KEY));
-        assertFalse(c.doubleProperties.containsKey(pipedKey));
-        assertFalse(c.doubleProperties.containsKey(KEY));
-        assertFalse(c.dateProperties.containsKey(pipedKey));
-        assertFalse(c.dateProperties.containsKey(KEY));
-        assertFalse(c.longProperties.containsKey(pipedKey));
-        assertFalse(c.longProperties.containsKey(KEY));
+        assertFalse(c.properties.contains(EventProperties.STRING, pipedKey));
+        assertFalse(c.properties.contains(EventProperties.STRING, KEY));
+        assertFalse(c.properties.contains(EventProperties.BOOLEAN, pipedKey));
+        assertFalse(c.properties.contains(EventProperties.BOOLEAN, KEY));
+        assertFalse(c.properties.contains(EventProperties.DOUBLE, pipedKey));
+        assertFalse(c.properties.contains(EventProperties.DOUBLE, KEY));
+        assertFalse(c.properties.contains(EventProperties.DATE, pipedKey));
+        assertFalse(c.properties.contains(EventProperties.DATE, KEY));
+        assertFalse(c.properties.contains(EventProperties.LONG, pipedKey));
+        assertFalse(c.properties.contains(EventProperties.LONG, KEY));
     }
 
     @Test
@@ -343,16 +351,16 @@ public class EventTest {
                 .addDateProperty(longKey, dateValue)
                 .addDoubleProperty(longKey, doubleValue)
                 .addLongProperty(longKey, longValue).build();
-        assertFalse(c.stringProperties.containsKey(longKey));
-        assertTrue(c.stringProperties.containsKey(abbreviatedKey));
-        assertFalse(c.booleanProperties.containsKey(longKey));
-        assertTrue(c.booleanProperties.containsKey(abbreviatedKey));
-        assertFalse(c.doubleProperties.containsKey(longKey));
-        assertTrue(c.doubleProperties.containsKey(abbreviatedKey));
-        assertFalse(c.dateProperties.containsKey(longKey));
-        assertTrue(c.dateProperties.containsKey(abbreviatedKey));
-        assertFalse(c.longProperties.containsKey(longKey));
-        assertTrue(c.longProperties.containsKey(abbreviatedKey));
+        assertFalse(c.properties.contains(EventProperties.STRING, longKey));
+        assertTrue(c.properties.contains(EventProperties.STRING, abbreviatedKey));
+        assertFalse(c.properties.contains(EventProperties.BOOLEAN, longKey));
+        assertTrue(c.properties.contains(EventProperties.BOOLEAN, abbreviatedKey));
+        assertFalse(c.properties.contains(EventProperties.DOUBLE, longKey));
+        assertTrue(c.properties.contains(EventProperties.DOUBLE, abbreviatedKey));
+        assertFalse(c.properties.contains(EventProperties.DATE, longKey));
+        assertTrue(c.properties.contains(EventProperties.DATE, abbreviatedKey));
+        assertFalse(c.properties.contains(EventProperties.LONG, longKey));
+        assertTrue(c.properties.contains(EventProperties.LONG, abbreviatedKey));
     }
 
     @Test
@@ -374,16 +382,223 @@ public class EventTest {
                 .removeDateProperty(longKey)
                 .removeDoubleProperty(longKey)
                 .removeLongProperty(longKey).build();
-        assertFalse(c.stringProperties.containsKey(longKey));
-        assertFalse(c.stringProperties.containsKey(abbreviatedKey));
-        assertFalse(c.booleanProperties.containsKey(longKey));
-        assertFalse(c.booleanProperties.containsKey(abbreviatedKey));
-        assertFalse(c.doubleProperties.containsKey(longKey));
-        assertFalse(c.doubleProperties.containsKey(abbreviatedKey));
-        assertFalse(c.dateProperties.containsKey(longKey));
-        assertFalse(c.dateProperties.containsKey(abbreviatedKey));
-        assertFalse(c.longProperties.containsKey(longKey));
-        assertFalse(c.longProperties.containsKey(abbreviatedKey));
+        assertFalse(c.properties.contains(EventProperties.STRING, longKey));
+        assertFalse(c.properties.contains(EventProperties.STRING, abbreviatedKey));
+        assertFalse(c.properties.contains(EventProperties.BOOLEAN, longKey));
+        assertFalse(c.properties.contains(EventProperties.BOOLEAN, abbreviatedKey));
+        assertFalse(c.properties.contains(EventProperties.DOUBLE, longKey));
+        assertFalse(c.properties.contains(EventProperties.DOUBLE, abbreviatedKey));
+        assertFalse(c.properties.contains(EventProperties.DATE, longKey));
+        assertFalse(c.properties.contains(EventProperties.DATE, abbreviatedKey));
+        assertFalse(c.properties.contains(EventProperties.LONG, longKey));
+        assertFalse(c.properties.contains(EventProperties.LONG, abbreviatedKey));
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testEstimateSize() throws Exception {
+        CustomEvent empty = builder.build();
+        CustomEvent full = builder.addStringProperty("location", "Building 7, Floor 3")
+                .addLongProperty("count", 42L)
+                .addDoubleProperty("temperature", 98.2)
+                .addBooleanProperty("boilerOn", true)
+                .addDateProperty("bootTime", new Date())
+                .build();
+        assertTrue(full.estimateSize() > empty.estimateSize());
+
+        for (CustomEvent c : new CustomEvent[]{empty, full}) {
+            StringWriter out = new StringWriter();
+            c.toJson(new JsonWriter(out));
+            int actual = out.toString().length();
+            assertTrue(c.estimateSize() >= actual / 2);
+            assertTrue(c.estimateSize() <= actual * 2);
+        }
+    }
+
+    @Test
+    public void testSubclassWithoutByteFieldsEncodesTheSameJson() throws Exception {
+        Event event = new Event(Event.Type.CUSTOM_EVENT, 1234L, 5L, EventProperties.EMPTY) {
+            @Override
+            public void eventSpecificFields(JsonWriter writer) throws IOException {
+                writer.name("eventType").value("Caf\u00e9 \"open\"");
+                writer.name("count").value(3);
+            }
+
+            @Override
+            public Type getType() {
+                return Type.CUSTOM_EVENT;
+            }
+        };
+        StringWriter expected = new StringWriter();
+        event.toJson(new JsonWriter(expected));
+
+        JsonByteWriter writer = new JsonByteWriter(64);
+        writer.reset(null);
+        event.toJson(writer);
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        writer.writeTo(actual);
+        assertEquals(expected.toString(), actual.toString("UTF-8"));
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void testDeprecatedPropertyMapsAreCopies() throws Exception {
+        Date date = new Date(1487119625012L);
+        builder.addStringProperty(KEY, VALUE)
+                .addLongProperty(KEY, 200L)
+                .addDoubleProperty(KEY, 98.2)
+                .addBooleanProperty(KEY, true)
+                .addDateProperty(KEY, date);
+
+        assertEquals(Collections.singletonMap(KEY, VALUE), builder.getStringProperties());
+        assertEquals(Collections.singletonMap(KEY, 200L), builder.getLongProperties());
+        assertEquals(Collections.singletonMap(KEY, 98.2), builder.getDoubleProperties());
+        assertEquals(Collections.singletonMap(KEY, true), builder.getBooleanProperties());
+        assertEquals(Collections.singletonMap(KEY, date), builder.getDateProperties());
+
+        builder.getStringProperties().clear();
+        assertEquals(VALUE, builder.build().properties.getString(KEY));
+    }
+
+    @Test
+    public void testResetStartsANewEvent() throws Exception {
+        CustomEvent first = builder.withTimestamp(1L).withDuration(5L)
+                .addStringProperty(KEY, VALUE)
+                .addDoubleProperty(KEY, 1.5)
+                .build();
+        CustomEvent second = builder.reset("Other Type", "Other Summary")
+                .addLongProperty(KEY, 7L)
+                .build();
+
+        assertEquals(1L, first.timestamp);
+        assertEquals(5L, first.duration);
+        assertEquals(VALUE, first.properties.getString(KEY));
+        assertEquals(Double.valueOf(1.5), first.properties.getDouble(KEY));
+        assertFalse(first.properties.contains(EventProperties.LONG, KEY));
+
+        assertEquals("Other Type", second.getEventType());
+        assertEquals("Other Summary", second.getEventSummary());
+        assertTrue(second.timestamp > 1L);
+        assertEquals(0L, second.duration);
+        assertEquals(1, second.properties.size());
+        assertEquals(Long.valueOf(7L), second.properties.getLong(KEY));
+    }
+
+    @Test
+    public void testBuildHandsPropertiesToTheEvent() throws Exception {
+        builder.addStringProperty(KEY, VALUE).addLongProperty(KEY, 1L);
+        EventProperties properties = builder.properties;
+        CustomEvent first = builder.build();
+        // Taken rather than copied
+        assertSame(properties, first.properties);
+
+        // The builder copies them before changing them
+        CustomEvent second = builder.addDoubleProperty(KEY, 2.5).removeStringProperty(KEY).build();
+        assertNotSame(properties, second.properties);
+        assertEquals(2, first.properties.size());
+        assertEquals(VALUE, first.properties.getString(KEY));
+        assertFalse(first.properties.contains(EventProperties.DOUBLE, KEY));
+        assertEquals(2, second.properties.size());
+        assertEquals(Long.valueOf(1L), second.properties.getLong(KEY));
+
+        CustomEvent third = builder.clearLongProperties().build();
+        assertEquals(2, second.properties.size());
+        assertEquals(1, third.properties.size());
+
+        // Reset leaves the built event as it is, and new properties go to new storage
+        CustomEvent fourth = builder.reset(CUSTOM_EVENT_TYPE, CUSTOM_EVENT_SUMMARY).addLongProperty(KEY, 4L).build();
+        assertEquals(1, third.properties.size());
+        assertEquals(Double.valueOf(2.5), third.properties.getDouble(KEY));
+        assertNotSame(third.properties, fourth.properties);
+        assertEquals(Long.valueOf(4L), fourth.properties.getLong(KEY));
+    }
+
+    @Test
+    public void testPooledBuildKeepsTheBuilderProperties() throws Exception {
+        EventPool.configure(4, false);
+        try {
+            EventProperties properties = builder.addLongProperty(KEY, 1L).properties;
+            CustomEvent first = builder.build();
+            assertNotSame(properties, first.properties);
+            CustomEvent second = builder.reset(CUSTOM_EVENT_TYPE, CUSTOM_EVENT_SUMMARY).addLongProperty(KEY, 2L).build();
+            assertSame(properties, builder.properties);
+            assertEquals(Long.valueOf(1L), first.properties.getLong(KEY));
+            assertEquals(Long.valueOf(2L), second.properties.getLong(KEY));
+        } finally {
+            EventPool.configure(0, false);
+        }
+    }
+
+    @Test
+    public void testResetBuilderAllocatesOnlyTheEvent() throws Exception {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+        final long thread = Thread.currentThread().getId();
+        final int iterations = 20000;
+        final Event[] sink = new Event[64];
+
+        // The same event, built straight from its own properties
+        EventProperties properties = builder.addLongProperty("sequence", 1L)
+                .addDoubleProperty("temperature", 98.2)
+                .addBooleanProperty("boilerOn", true)
+                .properties;
+        long eventOnly = Long.MAX_VALUE;
+        long reused = Long.MAX_VALUE;
+        long fresh = Long.MAX_VALUE;
+        long pooled = Long.MAX_VALUE;
+        // The best of a few rounds, so that warm up and compilation are not measured
+        for (int round = 0; round < 5; round++) {
+            long start = threads.getThreadAllocatedBytes(thread);
+            for (int i = 0; i < iterations; i++) {
+                sink[i & 63] = new CustomEvent(CUSTOM_EVENT_TYPE, CUSTOM_EVENT_SUMMARY, i, 0L, properties.copy());
+            }
+            eventOnly = Math.min(eventOnly, threads.getThreadAllocatedBytes(thread) - start);
+
+            start = threads.getThreadAllocatedBytes(thread);
+            for (int i = 0; i < iterations; i++) {
+                sink[i & 63] = builder.reset(CUSTOM_EVENT_TYPE, CUSTOM_EVENT_SUMMARY)
+                        .addLongProperty("sequence", i)
+                        .addDoubleProperty("temperature", 98.2)
+                        .addBooleanProperty("boilerOn", true)
+                        .build();
+            }
+            reused = Math.min(reused, threads.getThreadAllocatedBytes(thread) - start);
+
+            start = threads.getThreadAllocatedBytes(thread);
+            for (int i = 0; i < iterations; i++) {
+                sink[i & 63] = CustomEvent.builder(CUSTOM_EVENT_TYPE, CUSTOM_EVENT_SUMMARY)
+                        .addLongProperty("sequence", i)
+                        .addDoubleProperty("temperature", 98.2)
+                        .addBooleanProperty("boilerOn", true)
+                        .build();
+            }
+            fresh = Math.min(fresh, threads.getThreadAllocatedBytes(thread) - start);
+
+            // With pooling, each event is returned once it has been uploaded
+            EventPool.configure(4, false);
+            try {
+                start = threads.getThreadAllocatedBytes(thread);
+                for (int i = 0; i < iterations; i++) {
+                    Event event = builder.reset(CUSTOM_EVENT_TYPE, CUSTOM_EVENT_SUMMARY)
+                            .addLongProperty("sequence", i)
+                            .addDoubleProperty("temperature", 98.2)
+                            .addBooleanProperty("boilerOn", true)
+                            .build();
+                    EventPool.recycle(event);
+                }
+                pooled = Math.min(pooled, threads.getThreadAllocatedBytes(thread) - start);
+            } finally {
+                EventPool.configure(0, false);
+            }
+        }
+
+        // A reused builder adds nothing to the event and the properties it owns
+        assertTrue("reused " + reused + " bytes, event only " + eventOnly,
+                reused <= eventOnly + iterations);
+        assertTrue("reused " + reused + " bytes, fresh " + fresh, reused < fresh);
+        // and with pooling, not even the event is allocated
+        assertTrue("pooled " + pooled + " bytes, event only " + eventOnly, pooled < eventOnly / 10);
+        assertNotNull(sink[0]);
+    }
+}
@@ -0,0 +1,193 @@
+/**
+ * Copyright (c) 2018 AppDynamics LLC and its affiliates
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.appdynamics.iot.utils;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BinaryByteWriterTest {
+
+    private interface Document {
+        void write(JsonByteWriter writer) throws IOException;
+    }
+
+    private static final Document BEACON = new Document() {
+        @Override
+        public void write(JsonByteWriter writer) throws IOException {
+            writer.beginArray();
+            for (int i = 0; i < 3; i++) {
+                writer.beginObject()
+                        .name("type").value("custom-event")
+                        .name("timestamp").value(1514764800000L + i)
+                        .name("negative").value(-i - 1L)
+                        .name("duration").value(Double.valueOf(12.5))
+                        .name("ratio").value(Float.valueOf(0.1f))
+                        .name("big").value(new BigDecimal("1.50"))
+                        .name("flag").value(i % 2 == 0)
+                        .name("nothing").nullValue()
+                        .name("text").value("latin \u00E9 cjk \u4E2D\u6587 emoji \uD83D\uDE00 quote \" " + i)
+                        .name("values").beginArray().value(Long.MIN_VALUE).value(Long.MAX_VALUE).value(0).endArray()
+                        .endObject();
+            }
+            writer.endArray();
+        }
+    };
+
+    @Test
+    public void testTranscodesToSameJson() throws IOException {
+        assertEquals(json(BEACON), transcode(binary(BEACON)));
+    }
+
+    @Test
+    public void testRawValueIsTranscoded() throws IOException {
+        final byte[] raw = json(BEACON).getBytes("UTF-8");
+        Document document = new Document() {
+            @Override
+            public void write(JsonByteWriter writer) throws IOException {
+                writer.beginObject().name("beacons").beginArray();
+                // Two comma separated values, as the spool writes them
+                writer.rawValue(raw, 0, raw.length);
+                writer.rawValue(raw, 0, raw.length);
+                writer.endArray().endObject();
+            }
+        };
+        assertEquals(json(document), transcode(binary(document)));
+    }
+
+    @Test
+    public void testRawMembersAreTranscoded() throws IOException {
+        final byte[] members = "\"deviceInfo\":{\"deviceId\":\"1\"},\"agentVersion\":\"4.4.3.0\"".getBytes("UTF-8");
+        Document document = new Document() {
+            @Override
+            public void write(JsonByteWriter writer) throws IOException {
+                writer.beginArray();
+                writer.beginObject().rawMembers(members).name("events").beginArray().endArray().endObject();
+                writer.beginObject().rawMembers(members).endObject();
+                writer.endArray();
+            }
+        };
+        assertEquals(json(document), transcode(binary(document)));
+    }
+
+    @Test
+    public void testStringsAreInterned() throws IOException {
+        final String repeated = "a string that is written many times";
+        Document document = new Document() {
+            @Override
+            public void write(JsonByteWriter writer) throws IOException {
+                writer.beginArray();
+                for (int i = 0; i < 100; i++) {
+                    writer.value(repeated);
+                }
+                writer.endArray();
+            }
+        };
+        byte[] binary = binary(document);
+        // Written once, then referenced with two bytes each
+        assertTrue(binary.length < repeated.length() + 100 * 2 + 8);
+        assertEquals(json(document), transcode(binary));
+    }
+
+    @Test
+    public void testLongStringsAndFullTable() throws IOException {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i <= Constants.BINARY_INTERN_LENGTH_MAX; i++) {
+            builder.append('x');
+        }
+        final String longString = builder.toString();
+        Document document = new Document() {
+            @Override
+            public void write(JsonByteWriter writer) throws IOException {
+                writer.beginArray().value(longString).value(longString);
+                for (int i = 0; i < Constants.BINARY_STRING_TABLE_MAX + 10; i++) {
+                    writer.value("s" + i).value("s" + i);
+                }
+                writer.endArray();
+            }
+        };
+        assertEquals(json(document), transcode(binary(document)));
+    }
+
+    @Test
+    public void testTableIsResetWithDocument() throws IOException {
+        BinaryByteWriter writer = new BinaryByteWriter(64);
+        writer.reset(null);
+        writer.beginArray().value("shared").endArray();
+        writer.reset(null);
+        writer.beginArray().value("shared").endArray();
+        ByteArrayOutputStream second = new ByteArrayOutputStream();
+        writer.writeTo(second);
+        assertEquals("[\"shared\"]", transcode(second.toByteArray()));
+    }
+
+    @Test
+    public void testRejectsOtherVersion() {
+        try {
+            transcode(new byte[]{BinaryByteWriter.FORMAT_VERSION + 1, BinaryByteWriter.NULL});
+            fail("Expected an IOException");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testRejectsUnknownReference() {
+        try {
+            transcode(new byte[]{BinaryByteWriter.FORMAT_VERSION, BinaryByteWriter.STRING_REF, 3});
+            fail("Expected an IOException");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    private static String json(Document document) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonByteWriter writer = new JsonByteWriter(16);
+        writer.reset(out);
+        document.write(writer);
+        writer.flush();
+        return out.toString("UTF-8");
+    }
+
+    private static byte[] binary(Document document) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        // Small buffer, so tokens are split across flushes
+        BinaryByteWriter writer = new BinaryByteWriter(16);
+        writer.reset(out);
+        document.write(writer);
+        writer.flush();
+        return out.toByteArray();
+    }
+
+    private static String transcode(byte[] binary) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonByteWriter writer = new JsonByteWriter(16);
+        writer.reset(out);
+        BinaryByteReader.transcode(new ByteArrayInputStream(binary), writer);
+        writer.flush();
+        return out.toString("UTF-8");
+    }
+}
@@ -0,0 +1,194 @@
+/**
+ * Copyright (c) 2018 AppDynamics LLC and its affiliates
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.appdynamics.iot.utils;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ColumnarTranscoderTest {
+
+    private static String sensorPayload(int events) {
+        StringBuilder json = new StringBuilder("[{\"deviceInfo\":{\"deviceType\":\"Smart Shelf\",\"deviceId\":\"1\"},"
+                + "\"agentVersion\":\"4.4.3.0\",\"customEvents\":[");
+        for (int i = 0; i < events; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"timestamp\":").append(1514764800000L + i * 1000L)
+                    .append(",\"duration\":0,\"stringProperties\":{\"shelf\":\"aisle-").append(i % 3)
+                    .append("\"},\"longProperties\":{\"weight\":").append(5000 - i)
+                    .append("},\"datetimeProperties\":{},\"doubleProperties\":{\"temperature\":")
+                    .append(i % 2 == 0 ? "4.5" : "4.25")
+                    .append("},\"booleanProperties\":{\"door\":").append(i % 5 == 0)
+                    .append("},\"eventType\":\"Reading\",\"eventSummary\":\"Shelf reading ").append(i).append("\"}");
+        }
+        return json.append("]}]").toString();
+    }
+
+    @Test
+    public void testRoundTripIsExact() throws IOException {
+        String rows = sensorPayload(50);
+        assertEquals(rows, toRows(toColumns(rows)));
+    }
+
+    @Test
+    public void testColumnEncodings() throws IOException {
+        JsonObject columnar = new JsonParser().parse(toColumns(sensorPayload(50))).getAsJsonArray()
+                .get(0).getAsJsonObject().get("customEvents").getAsJsonObject();
+        assertEquals(50, columnar.get(ColumnarTranscoder.COUNT).getAsInt());
+        JsonArray columns = columnar.get(ColumnarTranscoder.COLUMNS).getAsJsonArray();
+
+        JsonObject timestamp = column(columns, "timestamp");
+        JsonArray deltas = timestamp.get(ColumnarTranscoder.DELTA).getAsJsonArray();
+        assertEquals(1514764800000L, deltas.get(0).getAsLong());
+        assertEquals(1000, deltas.get(1).getAsLong());
+        assertEquals(0, column(columns, "duration").get(ColumnarTranscoder.CONST).getAsLong());
+        assertEquals("Reading", column(columns, "eventType").get(ColumnarTranscoder.CONST).getAsString());
+        JsonObject shelf = column(columns, "stringProperties", "shelf");
+        assertEquals(3, shelf.get(ColumnarTranscoder.DICT).getAsJsonArray().size());
+        assertEquals(50, shelf.get(ColumnarTranscoder.REFS).getAsJsonArray().size());
+        assertEquals(50, column(columns, "eventSummary").get(ColumnarTranscoder.VALUES).getAsJsonArray().size());
+        assertTrue(column(columns, "datetimeProperties").get(ColumnarTranscoder.CONST).getAsJsonObject().entrySet().isEmpty());
+    }
+
+    @Test
+    public void testColumnarPayloadIsSmaller() throws IOException {
+        String rows = sensorPayload(200);
+        String columns = toColumns(rows);
+        assertTrue(columns.length() * 2 < rows.length());
+    }
+
+    @Test
+    public void testSparseAndMixedColumns() throws IOException {
+        String rows = "[{\"agentVersion\":\"4.4.3.0\",\"networkRequestEvents\":["
+                + "{\"timestamp\":3,\"url\":\"http://a\",\"statusCode\":200,\"headers\":{\"Via\":[\"x\",\"y\"]}},"
+                + "{\"timestamp\":1,\"url\":\"http://a\",\"networkError\":\"timeout\",\"size\":1.50},"
+                + "{\"timestamp\":-9223372036854775808,\"url\":null,\"statusCode\":\"n/a\",\"size\":1.5},"
+                + "{\"timestamp\":9223372036854775807,\"url\":\"http://a\",\"size\":1e3}],"
+                + "\"errorEvents\":[]}]";
+        String columns = toColumns(rows);
+        assertEquals(parse(rows), parse(toRows(columns)));
+        // Numbers keep their text
+        assertTrue(toRows(columns).contains("1.50"));
+        assertTrue(toRows(columns).contains("1e3"));
+    }
+
+    @Test
+    public void testWriterConvertsEachBeaconOnItsOwn() throws IOException {
+        String rows = sensorPayload(20);
+        byte[] first = rows.substring(1, rows.length() - 1).getBytes("UTF-8");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonByteWriter writer = new JsonByteWriter(16);
+        writer.reset(out);
+        ColumnarByteWriter columnar = new ColumnarByteWriter(16);
+        columnar.start(writer);
+
+        columnar.beginArray();
+        columnar.rawValue(first, 0, first.length);
+        writer.flush();
+        // Written before the next beacon starts
+        assertTrue(out.size() > 0);
+        columnar.beginObject()
+                .name("agentVersion").value("4.4.3.0")
+                .name("customEvents").beginArray()
+                .beginObject().name("timestamp").value(1L).endObject()
+                .beginObject().name("timestamp").value(2L).endObject()
+                .endArray()
+                .endObject();
+        columnar.endArray();
+        writer.flush();
+
+        String second = "{\"agentVersion\":\"4.4.3.0\",\"customEvents\":[{\"timestamp\":1},{\"timestamp\":2}]}";
+        String expected = toColumns(rows.substring(0, rows.length() - 1) + "," + second + "]");
+        assertEquals(expected, out.toString("UTF-8"));
+        assertEquals(rows.substring(0, rows.length() - 1) + "," + second + "]", toRows(expected));
+    }
+
+    @Test
+    public void testRejectsMalformedColumns() {
+        String[] malformed = {
+                "{}",
+                "[{\"customEvents\":{\"count\":2,\"columns\":[{\"path\":[\"a\"],\"values\":[1]}]}}]",
+                "[{\"customEvents\":{\"count\":1,\"columns\":[{\"path\":[\"a\"],\"rows\":[4],\"const\":1}]}}]",
+                "[{\"customEvents\":{\"count\":1,\"columns\":[{\"path\":[\"a\"]}]}}]",
+        };
+        for (String json : malformed) {
+            try {
+                toRows(json);
+                fail("Expected an IOException for " + json);
+            } catch (IOException e) {
+                // Expected
+            }
+        }
+    }
+
+    private static JsonObject column(JsonArray columns, String... path) {
+        for (JsonElement column : columns) {
+            JsonArray columnPath = column.getAsJsonObject().get(ColumnarTranscoder.PATH).getAsJsonArray();
+            if (columnPath.size() != path.length) {
+                continue;
+            }
+            boolean matches = true;
+            for (int i = 0; i < path.length; i++) {
+                matches &= path[i].equals(columnPath.get(i).getAsString());
+            }
+            if (matches) {
+                return column.getAsJsonObject();
+            }
+        }
+        throw new AssertionError("No column " + Arrays.toString(path));
+    }
+
+    private static JsonElement parse(String json) {
+        return new JsonParser().parse(json);
+    }
+
+    private static String toColumns(String rows) throws IOException {
+        JsonByteWriter rowWriter = new JsonByteWriter(16);
+        rowWriter.reset(null);
+        byte[] bytes = rows.getBytes("UTF-8");
+        rowWriter.rawValue(bytes, 0, bytes.length);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonByteWriter writer = new JsonByteWriter(16);
+        writer.reset(out);
+        ColumnarTranscoder.toColumns(rowWriter, writer);
+        writer.flush();
+        return out.toString("UTF-8");
+    }
+
+    private static String toRows(String columns) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonByteWriter writer = new JsonByteWriter(16);
+        writer.reset(out);
+        ColumnarTranscoder.toRows(new ByteArrayInputStream(columns.getBytes("UTF-8")), writer);
+        writer.flush();
+        return out.toString("UTF-8");
+    }
+}
@@ -0,0 +1,194 @@
+/**
+ * Copyright (c) 2018 AppDynamics LLC and its affiliates
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.appdynamics.iot.utils;
+
+import com.google.gson.stream.JsonWriter;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JsonByteWriterTest {
+
+    private static final String[] STRINGS = {
+            "",
+            "plain ascii",
+            "quote \" backslash \\ slash /",
+            "tab\t newline\n return\r backspace\b formfeed\f",
+            "control \u0000 \u0001 \u001f \u007f",
+            "html <script>&'=</script>",
+            "latin \u00E9 \u00DF \u00F1",
+            "cjk \u4E2D\u6587 \u65E5\u672C\u8A9E",
+            "separators \u2028 \u2029",
+            "emoji \uD83D\uDE00 pair",
+            "lone high \uD83D end",
+            "lone low \uDE00 end",
+    };
+
+    @Test
+    public void testStringsMatchGson() throws IOException {
+        for (String s : STRINGS) {
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            JsonWriter gson = gsonWriter(expected);
+            gson.beginObject().name(s).value(s).endObject();
+            gson.flush();
+
+            ByteArrayOutputStream actual = new ByteArrayOutputStream();
+            JsonByteWriter writer = new JsonByteWriter(16);
+            writer.reset(actual);
+            writer.beginObject().name(s).value(s).endObject();
+            writer.flush();
+
+            assertArrayEquals(s, expected.toByteArray(), actual.toByteArray());
+        }
+    }
+
+    @Test
+    public void testPreEscapedKey() throws IOException {
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        JsonWriter gson = gsonWriter(expected);
+        gson.beginObject().name("a\"b").value(1).name("c").nullValue().endObject();
+        gson.flush();
+
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        JsonByteWriter writer = new JsonByteWriter(64);
+        writer.reset(actual);
+        writer.beginObject()
+                .name(JsonByteWriter.key("a\"b")).value(1)
+                .name(JsonByteWriter.key("c")).nullValue()
+                .endObject();
+        writer.flush();
+
+        assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+    }
+
+    @Test
+    public void testValuesMatchGson() throws IOException {
+        Number[] numbers = {0, -1, Integer.MAX_VALUE, Long.MIN_VALUE, Long.MAX_VALUE,
+                0.1d, -0.0d, 1e20d, Double.MIN_VALUE, 12.5f, null};
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        JsonWriter gson = gsonWriter(expected);
+        gson.beginArray();
+        for (Number n : numbers) {
+            gson.value(n);
+        }
+        gson.value(42L).value(true).value(Boolean.FALSE).value((Boolean) null).value((String) null);
+        gson.beginObject().endObject().beginArray().beginArray().endArray().endArray();
+        gson.endArray();
+        gson.flush();
+
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        JsonByteWriter writer = new JsonByteWriter(16);
+        writer.reset(actual);
+        writer.beginArray();
+        for (Number n : numbers) {
+            writer.value(n);
+        }
+        writer.value(42L).value(true).value(Boolean.FALSE).value((Boolean) null).value((String) null);
+        writer.beginObject().endObject().beginArray().beginArray().endArray().endArray();
+        writer.endArray();
+        writer.flush();
+
+        assertEquals(expected.toString("UTF-8"), actual.toString("UTF-8"));
+    }
+
+    @Test
+    public void testNonFiniteNumbersRejected() throws IOException {
+        JsonByteWriter writer = new JsonByteWriter(16);
+        writer.reset(new ByteArrayOutputStream());
+        writer.beginArray();
+        try {
+            writer.value(Double.NaN);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+            // same as Gson
+        }
+    }
+
+    @Test
+    public void testResetReusesBuffer() throws IOException {
+        JsonByteWriter writer = new JsonByteWriter(16);
+        ByteArrayOutputStream first = new ByteArrayOutputStream();
+        writer.reset(first);
+        writer.beginArray().value("first").endArray();
+        writer.flush();
+
+        ByteArrayOutputStream second = new ByteArrayOutputStream();
+        writer.reset(second);
+        writer.beginArray().value("second");
+        // Abandoned document; reset discards it
+        writer.reset(second);
+        writer.beginArray().value("third").endArray();
+        writer.flush();
+
+        assertEquals("[\"first\"]", first.toString("UTF-8"));
+        assertEquals("[\"third\"]", second.toString("UTF-8"));
+    }
+
+    @Test
+    public void testRawValue() throws IOException {
+        JsonByteWriter fragment = new JsonByteWriter(16);
+        fragment.reset(null);
+        fragment.beginObject().name("long value").value("abcdefghijklmnopqrstuvwxyz").endObject();
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        fragment.writeTo(encoded);
+        encoded.write(',');
+        fragment.writeTo(encoded);
+        byte[] elements = encoded.toByteArray();
+
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        JsonByteWriter writer = new JsonByteWriter(16);
+        writer.reset(actual);
+        writer.beginObject().name("a").beginArray().value(1).rawValue(elements, 0, elements.length).endArray().endObject();
+        writer.flush();
+
+        String element = "{\"long value\":\"abcdefghijklmnopqrstuvwxyz\"}";
+        assertEquals("{\"a\":[1," + element + "," + element + "]}", actual.toString("UTF-8"));
+    }
+
+    private static JsonWriter gsonWriter(ByteArrayOutputStream out) throws IOException {
+        return new JsonWriter(new OutputStreamWriter(out, "UTF-8"));
+    }
+
+    @Test
+    public void testReleaseShrinksGrownBuffer() throws IOException {
+        JsonByteWriter writer = new JsonByteWriter(64);
+        writer.reset(null);
+        writer.beginArray();
+        for (int i = 0; i < 1000; i++) {
+            writer.value("element " + i);
+        }
+        writer.endArray();
+        assertTrue(writer.buffer.length > 10000);
+
+        writer.release(64);
+        assertEquals(0, writer.size());
+        assertEquals(64, writer.buffer.length);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.reset(out);
+        writer.beginArray().value(1).endArray();
+        writer.flush();
+        assertEquals("[1]", out.toString("UTF-8"));
+    }
+}